@@ -29,12 +29,22 @@ public class GSetSeperatorWrapper implements GSet<INode, INodeWithAdditionalFiel
   private final GSet<INode, INodeWithAdditionalFields> gSet;
   private final Map<INode, INode> fileSet;
   private final Map<INode, INode> dirSet;
+  private final GSetChangeListener<INodeWithAdditionalFields> listener;
 
   public GSetSeperatorWrapper(
       GSet<INode, INodeWithAdditionalFields> g, Map<INode, INode> files, Map<INode, INode> dirs) {
+    this(g, files, dirs, null);
+  }
+
+  public GSetSeperatorWrapper(
+      GSet<INode, INodeWithAdditionalFields> g,
+      Map<INode, INode> files,
+      Map<INode, INode> dirs,
+      GSetChangeListener<INodeWithAdditionalFields> listener) {
     this.gSet = g;
     this.fileSet = files;
     this.dirSet = dirs;
+    this.listener = listener;
   }
 
   @Override
@@ -59,7 +69,14 @@ public class GSetSeperatorWrapper implements GSet<INode, INodeWithAdditionalFiel
     } else if (element.isDirectory()) {
       dirSet.put(element, element);
     }
-    return gSet.put(element);
+    INodeWithAdditionalFields previous = gSet.put(element);
+    if (listener != null) {
+      if (previous != null) {
+        listener.onRemove(previous);
+      }
+      listener.onPut(element);
+    }
+    return previous;
   }
 
   @Override
@@ -69,7 +86,11 @@ public class GSetSeperatorWrapper implements GSet<INode, INodeWithAdditionalFiel
     } else if (key.isDirectory()) {
       dirSet.remove(key);
     }
-    return gSet.remove(key);
+    INodeWithAdditionalFields removed = gSet.remove(key);
+    if (listener != null && removed != null) {
+      listener.onRemove(removed);
+    }
+    return removed;
   }
 
   @Override
@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.namenode;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.servlet.http.HttpServletResponse;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.HISTOGRAM;
+import org.apache.hadoop.hdfs.server.namenode.NNLoader;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Executes a batch of queries sent in a single request. Queries over the same set and filters share
+ * one filtered INode collection that is computed once and released after its last use. Results are
+ * streamed back in the order of the queries and a failing query only reports its own error.
+ */
+class BatchQuery {
+
+  public static final Logger LOG = LoggerFactory.getLogger(BatchQuery.class.getName());
+
+  /** A single query of a batch; fields mirror the parameters of the matching endpoint. */
+  static class Spec {
+    String id;
+    String query;
+    String set;
+    String filters;
+    String sum;
+    String find;
+    String type;
+    String timeRange;
+    Integer parentDirDepth;
+    String set2;
+    String filters2;
+    String sum2;
+  }
+
+  private final NNLoader nnLoader;
+  private final Map<String, Collection<INode>> filtered = new HashMap<>();
+  private final Map<String, Integer> remainingUses = new HashMap<>();
+
+  BatchQuery(NNLoader nnLoader) {
+    this.nnLoader = nnLoader;
+  }
+
+  /**
+   * Parses the body of a batch request.
+   *
+   * @param body JSON array of queries
+   * @return the parsed queries
+   */
+  static Spec[] parse(String body) {
+    Spec[] specs;
+    try {
+      specs = new Gson().fromJson(body, Spec[].class);
+    } catch (JsonParseException e) {
+      throw new IllegalArgumentException("Could not parse batch queries: " + e.getMessage());
+    }
+    if (specs == null) {
+      throw new IllegalArgumentException("Batch body must be a JSON array of queries.");
+    }
+    return specs;
+  }
+
+  /**
+   * Executes all queries and streams their results as a single JSON document.
+   *
+   * @param specs the queries to execute
+   * @param resp the response to write to
+   * @throws IOException if writing to the response fails
+   */
+  void execute(Spec[] specs, HttpServletResponse resp) throws IOException {
+    long start = System.currentTimeMillis();
+    for (Spec spec : specs) {
+      switch (String.valueOf(spec.query)) {
+        case "divide":
+          remainingUses.merge(toKey(spec.set2, spec.filters2), 1, Integer::sum);
+          remainingUses.merge(toKey(spec.set, spec.filters), 1, Integer::sum);
+          break;
+        case "filter":
+        case "sum":
+        case "histogram":
+          remainingUses.merge(toKey(spec.set, spec.filters), 1, Integer::sum);
+          break;
+        default:
+          break;
+      }
+    }
+    LOG.info(
+        "Planned batch of {} queries over {} filtered sets.", specs.length, remainingUses.size());
+
+    JsonGenerator json =
+        new JsonFactory().createJsonGenerator(resp.getWriter()).useDefaultPrettyPrinter();
+    try {
+      json.writeStartObject();
+      json.writeArrayFieldStart("results");
+      for (int i = 0; i < specs.length; i++) {
+        Spec spec = specs[i];
+        json.writeStartObject();
+        json.writeStringField("id", (spec.id != null) ? spec.id : String.valueOf(i));
+        json.writeStringField("query", spec.query);
+        try {
+          writeResult(json, spec);
+        } catch (Exception e) {
+          LOG.info("Batch query: {} failed with exception: {}", i, e);
+          json.writeStringField("error", String.valueOf(e.getMessage()));
+        }
+        json.writeEndObject();
+        json.flush();
+      }
+      json.writeEndArray();
+      json.writeEndObject();
+    } finally {
+      json.close();
+      filtered.clear();
+      long end = System.currentTimeMillis();
+      LOG.info("Performing batch of {} queries took: {} ms.", specs.length, (end - start));
+    }
+  }
+
+  private void writeResult(JsonGenerator json, Spec spec) throws IOException {
+    if (spec.query == null) {
+      throw new IllegalArgumentException("No query type specified.");
+    }
+    QueryEngine queryEngine = nnLoader.getQueryEngine();
+    String sum = (spec.sum != null) ? spec.sum : "count";
+    switch (spec.query) {
+      case "filter":
+      case "sum":
+        {
+          String[] sums = sum.split(",");
+          Map<String, Long> sumValues = new LinkedHashMap<>();
+          try {
+            for (String s : sums) {
+              QueryChecker.isValidQuery(
+                  spec.set,
+                  NNAHelper.parseFilters(spec.filters),
+                  null,
+                  s,
+                  NNAHelper.parseFilterOps(spec.filters),
+                  spec.find);
+            }
+            Collection<INode> inodes =
+                queryEngine.findFilter(getFiltered(spec.set, spec.filters), spec.find);
+            for (String s : sums) {
+              sumValues.put(s, queryEngine.sum(inodes, s));
+            }
+          } finally {
+            release(spec.set, spec.filters);
+          }
+          writeMap(json, sumValues);
+          break;
+        }
+      case "histogram":
+        {
+          Map<String, Long> histogram;
+          try {
+            if (spec.type == null) {
+              throw new IllegalArgumentException("No histogram type specified.");
+            }
+            QueryChecker.isValidQuery(
+                spec.set,
+                NNAHelper.parseFilters(spec.filters),
+                spec.type,
+                sum,
+                NNAHelper.parseFilterOps(spec.filters),
+                spec.find);
+            histogram =
+                NNAHelper.histogram(
+                    nnLoader,
+                    HISTOGRAM.valueOf(spec.type),
+                    getFiltered(spec.set, spec.filters),
+                    sum,
+                    spec.find,
+                    (spec.timeRange != null) ? spec.timeRange : "weekly",
+                    spec.parentDirDepth,
+                    Collections.emptyMap());
+          } finally {
+            release(spec.set, spec.filters);
+          }
+          writeMap(json, histogram);
+          break;
+        }
+      case "divide":
+        {
+          String sum2 = (spec.sum2 != null) ? spec.sum2 : "count";
+          long sumValue1;
+          long sumValue2;
+          try {
+            QueryChecker.isValidQuery(
+                spec.set,
+                NNAHelper.parseFilters(spec.filters),
+                null,
+                sum,
+                NNAHelper.parseFilterOps(spec.filters),
+                null);
+            QueryChecker.isValidQuery(
+                spec.set2,
+                NNAHelper.parseFilters(spec.filters2),
+                null,
+                sum2,
+                NNAHelper.parseFilterOps(spec.filters2),
+                null);
+            sumValue1 = queryEngine.sum(getFiltered(spec.set, spec.filters), sum);
+            sumValue2 = queryEngine.sum(getFiltered(spec.set2, spec.filters2), sum2);
+          } finally {
+            release(spec.set, spec.filters);
+            release(spec.set2, spec.filters2);
+          }
+          json.writeNumberField("result", (float) sumValue1 / (float) sumValue2);
+          break;
+        }
+      default:
+        throw new IllegalArgumentException(
+            "Unknown batch query type: "
+                + spec.query
+                + ". Please use one of: filter, sum, histogram, divide.");
+    }
+  }
+
+  private void writeMap(JsonGenerator json, Map<String, Long> values) throws IOException {
+    json.writeObjectFieldStart("result");
+    for (Map.Entry<String, Long> entry : values.entrySet()) {
+      json.writeNumberField(entry.getKey(), entry.getValue());
+    }
+    json.writeEndObject();
+  }
+
+  private Collection<INode> getFiltered(String set, String filters) {
+    String key = toKey(set, filters);
+    Collection<INode> inodes = filtered.get(key);
+    if (inodes == null) {
+      inodes =
+          NNAHelper.performFilters(
+              nnLoader, set, NNAHelper.parseFilters(filters), NNAHelper.parseFilterOps(filters));
+      filtered.put(key, inodes);
+    }
+    return inodes;
+  }
+
+  private void release(String set, String filters) {
+    String key = toKey(set, filters);
+    Integer uses = remainingUses.get(key);
+    if (uses == null || uses <= 1) {
+      remainingUses.remove(key);
+      filtered.remove(key);
+    } else {
+      remainingUses.put(key, uses - 1);
+    }
+  }
+
+  private static String toKey(String set, String filters) {
+    return set + "|" + ((filters != null) ? filters.trim() : "");
+  }
+}
@@ -21,6 +21,8 @@ package com.paypal.namenode;
 
 import com.google.gson.Gson;
 import com.paypal.security.SecurityConfiguration;
+import java.io.IOException;
+import java.io.Writer;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -30,13 +32,17 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -44,9 +50,66 @@ public class HSQLDriver {
 
   public static final Logger LOG = LoggerFactory.getLogger(HSQLDriver.class.getName());
 
+  private static final String INSERT_SQL =
+      "INSERT INTO HISTORY (STDATE,SYS_DATE,EMPTYDIRS,TINYFILES,EMPTYFILES,SMALLFILES,DISKSPACE,NUMFILES,NUMDIRS,USER,MEDIUMFILES) VALUES (?,?,?,?,?,?,?,?,?,?,?)";
+  private static final int MAX_BATCH_ROWS = 1000;
+  private static final long COMPACTION_CHECK_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+  /** The only connection that writes; guarded by this. Reads go through the read pool. */
   private Connection con = null;
 
+  private HistoryConnectionPool readPool = null;
+  private long queryTimeoutMs = 0L;
+  private PreparedStatement insertStatement = null;
+
+  private BlockingQueue<HistoryReport> historyQueue = null;
+  private Thread historyWriter = null;
+  private volatile boolean writing = false;
+  private int compactAfterDays = 0;
+  private long lastCompactionCheck = 0L;
+
+  private final AtomicInteger maxQueued = new AtomicInteger();
+  private final AtomicLong droppedReports = new AtomicLong();
+  private volatile long writtenReports = 0L;
+  private volatile long failedReports = 0L;
+  private volatile long lastWriteRows = -1L;
+  private volatile long lastWriteDurationMs = -1L;
+  private volatile long compactedRows = 0L;
+
+  /** Opens the output of a history query once the query is known to succeed up to its first row. */
+  public interface HistoryOutput {
+    Writer open() throws IOException;
+  }
+
+  /** The suggestions of one report waiting to be written to the history table. */
+  private static class HistoryReport {
+    private final Map<String, Long> values;
+    private final Map<String, Map<String, Long>> maps;
+    private final Set<String> users;
+    private final long reportTime;
+
+    private HistoryReport(
+        Map<String, Long> values,
+        Map<String, Map<String, Long>> maps,
+        Set<String> users,
+        long reportTime) {
+      this.values = values;
+      this.maps = maps;
+      this.users = users;
+      this.reportTime = reportTime;
+    }
+  }
+
   public void dropConnection() throws SQLException {
+    stopHistoryWriter();
+    if (insertStatement != null) {
+      insertStatement.close();
+      insertStatement = null;
+    }
+    if (readPool != null) {
+      readPool.close();
+      readPool = null;
+    }
     if (con != null) {
       con.close();
       con = null;
@@ -62,10 +125,157 @@ public class HSQLDriver {
     String user = conf.getHistoricalUsername();
     String pass = conf.getHistoricalPassword();
     String baseDir = conf.getBaseDir();
-    con = DriverManager.getConnection("jdbc:hsqldb:file:" + baseDir + "/db/db", user, pass);
+    String url = "jdbc:hsqldb:file:" + baseDir + "/db/db";
+    con = DriverManager.getConnection(url, user, pass);
+    try (PreparedStatement mvccStatement =
+        con.prepareStatement("SET DATABASE TRANSACTION CONTROL MVCC")) {
+      mvccStatement.execute();
+    }
+    readPool = new HistoryConnectionPool(url, user, pass, conf.getHistoricalReadConnections());
+    queryTimeoutMs = conf.getHistoricalQueryTimeoutMs();
+    compactAfterDays = conf.getHistoricalCompactAfterDays();
+    startHistoryWriter(conf.getHistoricalQueueSize());
+  }
+
+  private void startHistoryWriter(int queueSize) {
+    historyQueue = new ArrayBlockingQueue<>(queueSize);
+    writing = true;
+    historyWriter = new Thread(this::writeQueuedHistory, "history-writer");
+    historyWriter.setDaemon(true);
+    historyWriter.start();
+  }
+
+  /** Lets the writer finish the reports still queued instead of interrupting it mid-write. */
+  private void stopHistoryWriter() {
+    if (historyWriter == null) {
+      return;
+    }
+    writing = false;
+    try {
+      historyWriter.join(TimeUnit.MINUTES.toMillis(1));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    historyWriter = null;
+  }
+
+  private void writeQueuedHistory() {
+    while (writing || !historyQueue.isEmpty()) {
+      HistoryReport report;
+      try {
+        report = historyQueue.poll(1, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        break;
+      }
+      if (report == null) {
+        continue;
+      }
+      long s1 = System.currentTimeMillis();
+      try {
+        lastWriteRows = insertHistory(report);
+        writtenReports++;
+      } catch (SQLException e) {
+        failedReports++;
+        LOG.info("Failed to write historical data due to: {}", e);
+        continue;
+      }
+      lastWriteDurationMs = System.currentTimeMillis() - s1;
+      LOG.info(
+          "Writing {} rows to embedded SQL DB took: {} ms.", lastWriteRows, lastWriteDurationMs);
+      maybeCompactHistory(report.reportTime);
+    }
   }
 
-  public void createTable() throws SQLException {
+  private void maybeCompactHistory(long now) {
+    if (compactAfterDays <= 0 || now - lastCompactionCheck < COMPACTION_CHECK_INTERVAL_MS) {
+      return;
+    }
+    lastCompactionCheck = now;
+    long cutoff = HistoryRollup.Period.DAY.bucketOf(now - TimeUnit.DAYS.toMillis(compactAfterDays));
+    long s1 = System.currentTimeMillis();
+    try {
+      long compacted = compactHistory(cutoff);
+      if (compacted > 0) {
+        compactedRows += compacted;
+        LOG.info(
+            "Compacting {} history rows into daily rollups took: {} ms.",
+            compacted,
+            (System.currentTimeMillis() - s1));
+      }
+    } catch (SQLException e) {
+      LOG.info("Failed to compact historical data due to: {}", e);
+    }
+  }
+
+  /**
+   * Rolls HISTORY rows older than the cutoff up into one HISTORY_ROLLUP row per user and day and
+   * deletes them, committing one day at a time.
+   *
+   * @param cutoff start of the first day to keep raw history of
+   * @return number of HISTORY rows compacted
+   */
+  public synchronized long compactHistory(long cutoff) throws SQLException {
+    if (con == null) {
+      return 0L;
+    }
+    long oldest;
+    try (PreparedStatement minStatement = con.prepareStatement("SELECT MIN(STDATE) FROM HISTORY");
+        ResultSet result = minStatement.executeQuery()) {
+      Timestamp min = result.next() ? result.getTimestamp(1) : null;
+      if (min == null) {
+        return 0L;
+      }
+      oldest = min.getTime();
+    }
+    long compacted = 0L;
+    boolean autoCommit = con.getAutoCommit();
+    con.setAutoCommit(false);
+    try (PreparedStatement select =
+            con.prepareStatement(
+                "SELECT * FROM HISTORY WHERE STDATE >= ? AND STDATE < ? ORDER BY HISTORY.USER, STDATE");
+        PreparedStatement insert = con.prepareStatement(HistoryRollup.insertRollupSql());
+        PreparedStatement delete =
+            con.prepareStatement("DELETE FROM HISTORY WHERE STDATE >= ? AND STDATE < ?")) {
+      for (long day = HistoryRollup.Period.DAY.bucketOf(oldest); day < cutoff; ) {
+        long nextDay = HistoryRollup.Period.DAY.bucketOf(day + TimeUnit.HOURS.toMillis(36));
+        Timestamp from = new Timestamp(day);
+        Timestamp to = new Timestamp(Math.min(nextDay, cutoff));
+        select.setTimestamp(1, from);
+        select.setTimestamp(2, to);
+        HistoryRollup rollup = null;
+        try (ResultSet rows = select.executeQuery()) {
+          while (rows.next()) {
+            String user = rows.getString("USER");
+            if (rollup == null || !rollup.user.equals(user)) {
+              if (rollup != null) {
+                rollup.addToBatch(insert);
+              }
+              rollup = new HistoryRollup(user, day);
+            }
+            rollup.addRow(rows);
+            compacted++;
+          }
+        }
+        if (rollup != null) {
+          rollup.addToBatch(insert);
+          insert.executeBatch();
+          delete.setTimestamp(1, from);
+          delete.setTimestamp(2, to);
+          delete.execute();
+          con.commit();
+        }
+        day = nextDay;
+      }
+    } catch (SQLException e) {
+      con.rollback();
+      throw e;
+    } finally {
+      con.setAutoCommit(autoCommit);
+    }
+    return compacted;
+  }
+
+  public synchronized void createTable() throws SQLException {
     String sqlCreate =
         "CREATE CACHED TABLE IF NOT EXISTS HISTORY"
             + "  (ID BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH 1, INCREMENT BY 1) NOT NULL PRIMARY KEY,"
@@ -102,74 +312,178 @@ public class HSQLDriver {
         columnStatement.execute();
       }
     }
+
+    String[] indexes = {
+      "CREATE INDEX IF NOT EXISTS HISTORY_USER_DATE ON HISTORY (USER, SYS_DATE)",
+      "CREATE INDEX IF NOT EXISTS HISTORY_STDATE ON HISTORY (STDATE)"
+    };
+    for (String index : indexes) {
+      try (PreparedStatement indexStatement = con.prepareStatement(index)) {
+        indexStatement.execute();
+      }
+    }
+    try (PreparedStatement rollupStatement =
+        con.prepareStatement(HistoryRollup.createRollupTableSql())) {
+      rollupStatement.execute();
+    }
+
+    String sumTypeCheck =
+        "SELECT TYPE_NAME FROM INFORMATION_SCHEMA.SYSTEM_COLUMNS "
+            + "WHERE TABLE_NAME = 'HISTORY_ROLLUP' and COLUMN_NAME = 'SUM_DISKSPACE'";
+    boolean bigintSums = false;
+    try (PreparedStatement sumTypeStatement = con.prepareStatement(sumTypeCheck)) {
+      try (ResultSet resultSet = sumTypeStatement.executeQuery()) {
+        while (resultSet.next()) {
+          bigintSums = "BIGINT".equals(resultSet.getString(1));
+        }
+      }
+    }
+
+    if (bigintSums) {
+      LOG.info("Converting sums of History rollup embedded DB table to DOUBLE.");
+      for (String alterColumn : HistoryRollup.alterSumColumnsSql()) {
+        try (PreparedStatement columnStatement = con.prepareStatement(alterColumn)) {
+          columnStatement.execute();
+        }
+      }
+    }
     con.commit();
   }
 
-  public void logHistoryPerUser(
-      Map<String, Long> cachedValues, Map<String, Map<String, Long>> cachedMaps, Set<String> users)
-      throws SQLException {
-    writeHistory(cachedValues, "");
-    for (String user : users) {
-      // For each user make an entry in database
-      Map<String, Long> userData = new HashMap<>();
-      userData.put(
-          "emptyFiles",
-          cachedMaps
-              .getOrDefault("emptyFilesUsers", Collections.emptyMap())
-              .getOrDefault(user, 0L));
-      userData.put(
-          "emptyDirs",
-          cachedMaps.getOrDefault("emptyDirsUsers", Collections.emptyMap()).getOrDefault(user, 0L));
-      userData.put(
-          "tinyFiles",
-          cachedMaps.getOrDefault("tinyFilesUsers", Collections.emptyMap()).getOrDefault(user, 0L));
-      userData.put(
-          "smallFiles",
-          cachedMaps
-              .getOrDefault("smallFilesUsers", Collections.emptyMap())
-              .getOrDefault(user, 0L));
-      userData.put(
-          "diskspace",
-          cachedMaps.getOrDefault("diskspaceUsers", Collections.emptyMap()).getOrDefault(user, 0L));
-      userData.put(
-          "mediumFiles",
-          cachedMaps
-              .getOrDefault("mediumFilesUsers", Collections.emptyMap())
-              .getOrDefault(user, 0L));
-      userData.put(
-          "numFiles",
-          cachedMaps.getOrDefault("numFilesUsers", Collections.emptyMap()).getOrDefault(user, 0L));
-      userData.put(
-          "numDirs",
-          cachedMaps.getOrDefault("numDirsUsers", Collections.emptyMap()).getOrDefault(user, 0L));
-      writeHistory(userData, user);
+  /**
+   * Queues the history of one suggestions report for the background writer. Never blocks; if the
+   * writer has fallen behind by the size of the queue the report is dropped and counted.
+   *
+   * @param cachedValues the suggestion values, must not be modified afterwards
+   * @param cachedMaps the suggestion maps, must not be modified afterwards
+   * @param users the users of the report, must not be modified afterwards
+   * @return whether the report was queued
+   */
+  public boolean logHistoryPerUserAsync(
+      Map<String, Long> cachedValues,
+      Map<String, Map<String, Long>> cachedMaps,
+      Set<String> users) {
+    BlockingQueue<HistoryReport> queue = historyQueue;
+    if (queue == null) {
+      return false;
     }
+    HistoryReport report =
+        new HistoryReport(cachedValues, cachedMaps, users, System.currentTimeMillis());
+    if (!queue.offer(report)) {
+      long dropped = droppedReports.incrementAndGet();
+      LOG.warn("History writer is behind; dropped report number {}.", dropped);
+      return false;
+    }
+    maxQueued.accumulateAndGet(queue.size(), Math::max);
+    return true;
   }
 
-  private void writeHistory(Map<String, Long> data, String user) throws SQLException {
-    if (con != null) {
-      Date today = new java.util.Date();
-      java.sql.Date sqlDate = new java.sql.Date(today.getTime());
-      Timestamp current = new java.sql.Timestamp(today.getTime());
-      String insertSQL =
-          "INSERT INTO HISTORY (STDATE,SYS_DATE,EMPTYDIRS,TINYFILES,EMPTYFILES,SMALLFILES,DISKSPACE,NUMFILES,NUMDIRS,USER,MEDIUMFILES) VALUES (?,?,?,?,?,?,?,?,?,?,?)";
-      try (PreparedStatement insertStatement = con.prepareStatement(insertSQL)) {
-        // Set Arguments
-        insertStatement.setObject(1, current);
-        insertStatement.setObject(2, sqlDate);
-        insertStatement.setObject(3, data.get("emptyDirs"));
-        insertStatement.setObject(4, data.get("tinyFiles"));
-        insertStatement.setObject(5, data.get("emptyFiles"));
-        insertStatement.setObject(6, data.get("smallFiles"));
-        insertStatement.setObject(7, data.get("diskspace"));
-        insertStatement.setObject(8, data.get("numFiles"));
-        insertStatement.setObject(9, data.get("numDirs"));
-        insertStatement.setObject(10, user);
-        insertStatement.setObject(11, data.get("mediumFiles"));
-        insertStatement.execute();
+  /**
+   * Writes one row for the whole report and one per user as a batch on the reused insert statement
+   * and commits them as one transaction.
+   *
+   * @return number of rows written
+   */
+  private synchronized long insertHistory(HistoryReport report) throws SQLException {
+    if (con == null) {
+      return 0L;
+    }
+    if (insertStatement == null) {
+      insertStatement = con.prepareStatement(INSERT_SQL);
+    }
+    java.sql.Date sqlDate = new java.sql.Date(report.reportTime);
+    Timestamp current = new Timestamp(report.reportTime);
+    Map<String, Map<String, Long>> maps = report.maps;
+    Map<String, Long> emptyDirs = maps.getOrDefault("emptyDirsUsers", Collections.emptyMap());
+    Map<String, Long> tinyFiles = maps.getOrDefault("tinyFilesUsers", Collections.emptyMap());
+    Map<String, Long> emptyFiles = maps.getOrDefault("emptyFilesUsers", Collections.emptyMap());
+    Map<String, Long> smallFiles = maps.getOrDefault("smallFilesUsers", Collections.emptyMap());
+    Map<String, Long> diskspace = maps.getOrDefault("diskspaceUsers", Collections.emptyMap());
+    Map<String, Long> numFiles = maps.getOrDefault("numFilesUsers", Collections.emptyMap());
+    Map<String, Long> numDirs = maps.getOrDefault("numDirsUsers", Collections.emptyMap());
+    Map<String, Long> mediumFiles = maps.getOrDefault("mediumFilesUsers", Collections.emptyMap());
+
+    boolean autoCommit = con.getAutoCommit();
+    con.setAutoCommit(false);
+    long rows = 0L;
+    try {
+      Map<String, Long> data = report.values;
+      addHistoryRow(
+          current,
+          sqlDate,
+          "",
+          data.get("emptyDirs"),
+          data.get("tinyFiles"),
+          data.get("emptyFiles"),
+          data.get("smallFiles"),
+          data.get("diskspace"),
+          data.get("numFiles"),
+          data.get("numDirs"),
+          data.get("mediumFiles"));
+      rows++;
+      for (String user : report.users) {
+        // For each user make an entry in database
+        addHistoryRow(
+            current,
+            sqlDate,
+            user,
+            emptyDirs.getOrDefault(user, 0L),
+            tinyFiles.getOrDefault(user, 0L),
+            emptyFiles.getOrDefault(user, 0L),
+            smallFiles.getOrDefault(user, 0L),
+            diskspace.getOrDefault(user, 0L),
+            numFiles.getOrDefault(user, 0L),
+            numDirs.getOrDefault(user, 0L),
+            mediumFiles.getOrDefault(user, 0L));
+        if (++rows % MAX_BATCH_ROWS == 0) {
+          insertStatement.executeBatch();
+        }
       }
+      insertStatement.executeBatch();
       con.commit();
+    } catch (SQLException e) {
+      insertStatement.clearBatch();
+      con.rollback();
+      throw e;
+    } finally {
+      con.setAutoCommit(autoCommit);
     }
+    return rows;
+  }
+
+  private void addHistoryRow(
+      Timestamp current,
+      java.sql.Date sqlDate,
+      String user,
+      Long emptyDirs,
+      Long tinyFiles,
+      Long emptyFiles,
+      Long smallFiles,
+      Long diskspace,
+      Long numFiles,
+      Long numDirs,
+      Long mediumFiles)
+      throws SQLException {
+    insertStatement.setObject(1, current);
+    insertStatement.setObject(2, sqlDate);
+    insertStatement.setObject(3, emptyDirs);
+    insertStatement.setObject(4, tinyFiles);
+    insertStatement.setObject(5, emptyFiles);
+    insertStatement.setObject(6, smallFiles);
+    insertStatement.setObject(7, diskspace);
+    insertStatement.setObject(8, numFiles);
+    insertStatement.setObject(9, numDirs);
+    insertStatement.setObject(10, user);
+    insertStatement.setObject(11, mediumFiles);
+    insertStatement.addBatch();
+  }
+
+  public long getWrittenReports() {
+    return writtenReports;
+  }
+
+  public long getDroppedReports() {
+    return droppedReports.get();
   }
 
   private PreparedStatement buildSQLDeleteQuery(int days) throws SQLException {
@@ -178,74 +492,164 @@ public class HSQLDriver {
     return con.prepareStatement(deleteSQL);
   }
 
-  String getAllHistory(String startDate, String endDate, String user)
-      throws SQLException, ParseException {
-    if (con != null) {
-      ResultSet result = null;
-      try {
-        if (user != null
-            && (startDate == null || startDate.length() == 0)
-            && (endDate == null || endDate.length() == 0)) {
-          try (PreparedStatement selectStatement =
-              con.prepareStatement("SELECT * FROM HISTORY WHERE HISTORY.USER = ?")) {
-            selectStatement.setString(1, user);
-            result = selectStatement.executeQuery();
+  /**
+   * Streams the history of a user as a JSON array. Without a rollup every raw HISTORY row is
+   * written; with a rollup of "hour", "day" or "week" one object with the min, max, average and
+   * last value of every metric is written per bucket, covering compacted history as well.
+   *
+   * @param startDate first day (MM/dd/yyyy) or null for all history
+   * @param endDate last day (MM/dd/yyyy) or null for all history
+   * @param user the user or the empty string for the whole namespace
+   * @param rollup length of the buckets or null for raw rows
+   * @param output opens the writer to stream the JSON to
+   */
+  public void writeHistory(
+      String startDate, String endDate, String user, String rollup, HistoryOutput output)
+      throws SQLException, ParseException, IOException {
+    HistoryConnectionPool pool = readPool;
+    if (pool == null) {
+      throw new SQLException("DB connection is not open.");
+    }
+    boolean allDates =
+        (startDate == null || startDate.length() == 0)
+            && (endDate == null || endDate.length() == 0);
+    boolean dateRange =
+        startDate != null && startDate.length() > 0 && endDate != null && endDate.length() > 0;
+    if (user == null || !(allDates || dateRange)) {
+      throw new SQLException(
+          "Please define a proper username and starting and ending date range (MM/dd/YYYY) in the URL.");
+    }
+    HistoryRollup.Period period = (rollup == null) ? null : HistoryRollup.Period.of(rollup);
+    String rawSql =
+        "SELECT * FROM HISTORY WHERE HISTORY.USER = ?"
+            + (dateRange ? " AND HISTORY.SYS_DATE BETWEEN ? AND ?" : "")
+            + " ORDER BY STDATE";
+    String rollupSql =
+        "SELECT * FROM HISTORY_ROLLUP WHERE HISTORY_ROLLUP.USER = ?"
+            + (dateRange ? " AND CAST(BUCKET AS DATE) BETWEEN ? AND ?" : "")
+            + " ORDER BY BUCKET";
+
+    java.sql.Date fromDate = dateRange ? convertToSQLDate(startDate) : null;
+    java.sql.Date toDate = dateRange ? convertToSQLDate(endDate) : null;
+
+    Gson gson = new Gson();
+    Connection read = pool.borrow(queryTimeoutMs);
+    PreparedStatement first = null;
+    PreparedStatement raw = null;
+    JsonGenerator json = null;
+    try {
+      // Prepare and run the first query before opening the output, so errors reach the client.
+      if (period == null) {
+        raw = prepareHistoryQuery(read, rawSql, user, fromDate, toDate);
+        first = raw;
+      } else {
+        first = prepareHistoryQuery(read, rollupSql, user, fromDate, toDate);
+        raw = prepareHistoryQuery(read, rawSql, user, fromDate, toDate);
+      }
+      HistoryRollup current = null;
+      try (ResultSet rows = first.executeQuery()) {
+        json = new JsonFactory().createJsonGenerator(output.open());
+        json.writeStartArray();
+        if (period == null) {
+          writeRows(json, gson, rows);
+        } else {
+          while (rows.next()) {
+            long time = rows.getTimestamp("BUCKET").getTime();
+            current = nextRollup(json, gson, current, user, period, time);
+            current.mergeRollupRow(rows);
           }
-        } else if (user != null
-            && startDate != null
-            && startDate.length() > 0
-            && endDate != null
-            && endDate.length() > 0) {
-          try (PreparedStatement upselectStatement =
-              con.prepareStatement(
-                  "SELECT * FROM HISTORY WHERE HISTORY.SYS_DATE BETWEEN ? AND ? AND HISTORY.USER = ?")) {
-            upselectStatement.setObject(1, convertToSQLDate(startDate));
-            upselectStatement.setObject(2, convertToSQLDate(endDate));
-            upselectStatement.setString(3, user);
-            result = upselectStatement.executeQuery();
+        }
+      }
+      if (period != null) {
+        try (ResultSet rows = raw.executeQuery()) {
+          while (rows.next()) {
+            long time = rows.getTimestamp("STDATE").getTime();
+            current = nextRollup(json, gson, current, user, period, time);
+            current.addRow(rows);
           }
-        } else {
-          throw new SQLException(
-              "Please define a proper username and starting and ending date range (MM/dd/YYYY) in the URL.");
         }
-        return convertResultSetToJson(result);
-      } finally {
-        if (result != null) {
-          result.close();
+        if (current != null) {
+          current.writeJson(json, gson);
         }
       }
+      json.writeEndArray();
+    } finally {
+      if (json != null) {
+        json.close();
+      }
+      if (raw != null && raw != first) {
+        raw.close();
+      }
+      if (first != null) {
+        first.close();
+      }
+      pool.release(read);
     }
-    throw new SQLException("DB connection is not open.");
   }
 
-  private java.sql.Date convertToSQLDate(String date) throws ParseException {
-    SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy");
-    Date javaDate = sdf.parse(date);
-    Date modDateTime = new Date(javaDate.getTime());
-    return new java.sql.Date(modDateTime.getTime());
+  private PreparedStatement prepareHistoryQuery(
+      Connection read, String sql, String user, java.sql.Date fromDate, java.sql.Date toDate)
+      throws SQLException {
+    PreparedStatement select = read.prepareStatement(sql);
+    select.setFetchSize(MAX_BATCH_ROWS);
+    select.setQueryTimeout((int) Math.max(1L, TimeUnit.MILLISECONDS.toSeconds(queryTimeoutMs)));
+    select.setString(1, user);
+    if (fromDate != null) {
+      select.setObject(2, fromDate);
+      select.setObject(3, toDate);
+    }
+    return select;
   }
 
-  private String convertResultSetToJson(ResultSet resultSet) throws SQLException {
-    if (resultSet == null) {
-      return null;
+  private static HistoryRollup nextRollup(
+      JsonGenerator json,
+      Gson gson,
+      HistoryRollup current,
+      String user,
+      HistoryRollup.Period period,
+      long time)
+      throws IOException {
+    if (current != null && current.covers(user, period, time)) {
+      return current;
+    }
+    if (current != null) {
+      current.writeJson(json, gson);
     }
-    List<Map<String, Object>> list = new ArrayList<>();
+    return new HistoryRollup(user, period.bucketOf(time));
+  }
+
+  private static void writeRows(JsonGenerator json, Gson gson, ResultSet resultSet)
+      throws SQLException, IOException {
     ResultSetMetaData metadata = resultSet.getMetaData();
     int numColumns = metadata.getColumnCount();
-
     while (resultSet.next()) {
-      Map<String, Object> map = new HashMap<>();
+      json.writeStartObject();
       for (int i = 1; i <= numColumns; ++i) {
-        String columnName = metadata.getColumnName(i);
-        map.put(columnName, resultSet.getObject(columnName));
+        json.writeFieldName(metadata.getColumnName(i));
+        Object value = resultSet.getObject(i);
+        if (value == null) {
+          json.writeNull();
+        } else if (value instanceof Long || value instanceof Integer) {
+          json.writeNumber(((Number) value).longValue());
+        } else if (value instanceof String) {
+          json.writeString((String) value);
+        } else {
+          // Dates keep the format they always had.
+          json.writeRawValue(gson.toJson(value));
+        }
       }
-      list.add(map);
+      json.writeEndObject();
     }
+  }
 
-    return new Gson().toJson(list);
+  private java.sql.Date convertToSQLDate(String date) throws ParseException {
+    SimpleDateFormat sdf = new SimpleDateFormat("MM/dd/yyyy");
+    Date javaDate = sdf.parse(date);
+    Date modDateTime = new Date(javaDate.getTime());
+    return new java.sql.Date(modDateTime.getTime());
   }
 
-  public void rebuildTable(String table) throws SQLException {
+  public synchronized void rebuildTable(String table) throws SQLException {
     switch (table) {
       case "LOGIN":
         try (PreparedStatement dropLogin = con.prepareStatement("DROP TABLE LOGIN IF EXISTS")) {
@@ -253,8 +657,16 @@ public class HSQLDriver {
         }
         return;
       case "HISTORY":
+        if (insertStatement != null) {
+          insertStatement.close();
+          insertStatement = null;
+        }
         try (PreparedStatement dropHistory = con.prepareStatement("DROP TABLE HISTORY IF EXISTS")) {
           dropHistory.execute();
+        }
+        try (PreparedStatement dropRollup =
+            con.prepareStatement("DROP TABLE HISTORY_ROLLUP IF EXISTS")) {
+          dropRollup.execute();
           createTable();
         }
         return;
@@ -263,19 +675,49 @@ public class HSQLDriver {
     }
   }
 
-  public void truncateTable(String table, Integer days) throws SQLException {
+  public synchronized void truncateTable(String table, Integer days) throws SQLException {
     if (days == null || days == 0) {
       throw new IllegalArgumentException("No days to keep limit set for truncate.");
     }
     switch (table) {
       case "HISTORY":
-        PreparedStatement truncateStatement = buildSQLDeleteQuery(days);
-        truncateStatement.execute();
-        truncateStatement.close();
+        try (PreparedStatement truncateStatement = buildSQLDeleteQuery(days)) {
+          truncateStatement.execute();
+        }
+        try (PreparedStatement truncateRollups =
+            con.prepareStatement(
+                "DELETE FROM HISTORY_ROLLUP WHERE LASTDATE < DATE_SUB(NOW(), INTERVAL "
+                    + days
+                    + " DAY)")) {
+          truncateRollups.execute();
+        }
         return;
       default:
         throw new IllegalArgumentException(
             "No such truncate for table: " + table + " exists in embedded DB.");
     }
   }
+
+  @Override
+  public String toString() {
+    BlockingQueue<HistoryReport> queue = historyQueue;
+    return "History reports queued: "
+        + ((queue == null) ? 0 : queue.size())
+        + ", max queued: "
+        + maxQueued.get()
+        + ", dropped: "
+        + droppedReports.get()
+        + ", written: "
+        + writtenReports
+        + ", failed: "
+        + failedReports
+        + ", last write rows: "
+        + lastWriteRows
+        + ", took (ms): "
+        + lastWriteDurationMs
+        + ", compacted rows: "
+        + compactedRows
+        + ", idle read connections: "
+        + ((readPool == null) ? 0 : readPool.getIdle());
+  }
 }
@@ -0,0 +1,184 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.namenode;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fixed-size pool of read-only connections to the embedded history DB. Requests that cannot get a
+ * connection within their timeout fail instead of queueing up behind long history reads.
+ *
+ * <p>Connections are handed out to one request at a time. Each request reads from a single MVCC
+ * snapshot that ends when its connection is released, so it never blocks on or sees half of a
+ * concurrent write. A connection returned closed or broken is replaced by a new one; if it cannot
+ * be replaced right away, the next borrower that finds no idle connection opens it instead.
+ */
+class HistoryConnectionPool {
+
+  private final String url;
+  private final String user;
+  private final String pass;
+  private final BlockingQueue<Connection> idle;
+  private final List<Connection> all = new ArrayList<>();
+  private final AtomicInteger missing = new AtomicInteger();
+
+  private volatile boolean closed = false;
+
+  HistoryConnectionPool(String url, String user, String pass, int size) throws SQLException {
+    if (size < 1) {
+      throw new IllegalArgumentException("History DB read connections must be at least 1.");
+    }
+    this.url = url;
+    this.user = user;
+    this.pass = pass;
+    this.idle = new ArrayBlockingQueue<>(size);
+    for (int i = 0; i < size; i++) {
+      idle.add(open());
+    }
+  }
+
+  private Connection open() throws SQLException {
+    Connection con = DriverManager.getConnection(url, user, pass);
+    con.setReadOnly(true);
+    con.setAutoCommit(false);
+    con.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+    synchronized (all) {
+      all.add(con);
+    }
+    return con;
+  }
+
+  /**
+   * @param timeoutMs how long to wait for an idle connection
+   * @return a connection that must be given back with {@link #release(Connection)}
+   * @throws SQLException if no connection became idle within the timeout
+   */
+  Connection borrow(long timeoutMs) throws SQLException {
+    if (closed) {
+      throw new SQLException("DB connection is not open.");
+    }
+    Connection con = idle.poll();
+    if (con == null) {
+      con = openMissing();
+    }
+    if (con == null) {
+      try {
+        con = idle.poll(timeoutMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted waiting for a history DB connection.", e);
+      }
+    }
+    if (con == null) {
+      con = openMissing();
+    }
+    if (con == null) {
+      throw new SQLException(
+          "Timed out after " + timeoutMs + " ms waiting for a history DB connection.");
+    }
+    return con;
+  }
+
+  /**
+   * Opens a connection in place of one that could not be replaced when it was released.
+   *
+   * @return the new connection, or null if no connection is missing from the pool
+   * @throws SQLException if the connection could not be opened; it stays missing
+   */
+  private Connection openMissing() throws SQLException {
+    int count;
+    do {
+      count = missing.get();
+      if (count == 0) {
+        return null;
+      }
+    } while (!missing.compareAndSet(count, count - 1));
+    try {
+      return open();
+    } catch (SQLException e) {
+      missing.incrementAndGet();
+      throw e;
+    }
+  }
+
+  void release(Connection con) {
+    try {
+      if (!con.isClosed()) {
+        con.rollback();
+        if (con.isValid(1)) {
+          offer(con);
+          return;
+        }
+      }
+    } catch (SQLException e) {
+      HSQLDriver.LOG.info("Discarding history DB connection due to: {}", e);
+    }
+    synchronized (all) {
+      all.remove(con);
+    }
+    close(con);
+    if (closed) {
+      return;
+    }
+    try {
+      offer(open());
+    } catch (SQLException e) {
+      HSQLDriver.LOG.info("Failed to replace history DB connection due to: {}", e);
+      missing.incrementAndGet();
+    }
+  }
+
+  private void offer(Connection con) {
+    if (closed || !idle.offer(con)) {
+      close(con);
+    }
+  }
+
+  int getIdle() {
+    return idle.size();
+  }
+
+  void close() {
+    closed = true;
+    synchronized (all) {
+      for (Connection con : all) {
+        close(con);
+      }
+      all.clear();
+    }
+    idle.clear();
+  }
+
+  private static void close(Connection con) {
+    try {
+      con.close();
+    } catch (SQLException e) {
+      HSQLDriver.LOG.info("Failed to close history DB connection due to: {}", e);
+    }
+  }
+}
@@ -0,0 +1,267 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.namenode;
+
+import com.google.gson.Gson;
+import java.io.IOException;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Arrays;
+import org.codehaus.jackson.JsonGenerator;
+
+/**
+ * Min, max, average and last value of every history metric of one user over one time bucket.
+ *
+ * <p>Rollups are built from HISTORY rows in time order and can be stored in and merged from the
+ * HISTORY_ROLLUP table, which keeps one row per user and day for compacted history.
+ */
+class HistoryRollup {
+
+  static final String[] METRICS = {
+    "EMPTYDIRS",
+    "TINYFILES",
+    "EMPTYFILES",
+    "SMALLFILES",
+    "DISKSPACE",
+    "NUMFILES",
+    "NUMDIRS",
+    "MEDIUMFILES"
+  };
+
+  /** Length of the time buckets of a rollup. */
+  enum Period {
+    HOUR,
+    DAY,
+    WEEK;
+
+    /**
+     * @param time a time in ms
+     * @return start of the bucket containing the time in the local time zone, in ms
+     */
+    long bucketOf(long time) {
+      ZoneId zone = ZoneId.systemDefault();
+      LocalDateTime dateTime = LocalDateTime.ofInstant(Instant.ofEpochMilli(time), zone);
+      switch (this) {
+        case HOUR:
+          dateTime = dateTime.truncatedTo(ChronoUnit.HOURS);
+          break;
+        case DAY:
+          dateTime = dateTime.truncatedTo(ChronoUnit.DAYS);
+          break;
+        case WEEK:
+          dateTime =
+              dateTime
+                  .truncatedTo(ChronoUnit.DAYS)
+                  .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+          break;
+        default:
+          throw new IllegalArgumentException("No such rollup: " + this);
+      }
+      return dateTime.atZone(zone).toInstant().toEpochMilli();
+    }
+
+    static Period of(String rollup) {
+      try {
+        return Period.valueOf(rollup.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException(
+            "No such rollup: " + rollup + ". Please use one of: " + Arrays.toString(values()));
+      }
+    }
+  }
+
+  final String user;
+  final long bucket;
+
+  private long samples = 0L;
+  private long lastTime = Long.MIN_VALUE;
+  private final long[] min = new long[METRICS.length];
+  private final long[] max = new long[METRICS.length];
+  private final double[] sum = new double[METRICS.length];
+  private final long[] count = new long[METRICS.length];
+  private final long[] last = new long[METRICS.length];
+
+  HistoryRollup(String user, long bucket) {
+    this.user = user;
+    this.bucket = bucket;
+    Arrays.fill(min, Long.MAX_VALUE);
+    Arrays.fill(max, Long.MIN_VALUE);
+  }
+
+  /**
+   * @param user the user of the rollup
+   * @param period length of the bucket
+   * @param time a time within the bucket
+   * @return whether this rollup covers the user and time
+   */
+  boolean covers(String user, Period period, long time) {
+    return this.user.equals(user) && bucket == period.bucketOf(time);
+  }
+
+  /**
+   * Adds one HISTORY row. Rows must be added in time order.
+   *
+   * @param row the result set positioned at a HISTORY row
+   */
+  void addRow(ResultSet row) throws SQLException {
+    long time = row.getTimestamp("STDATE").getTime();
+    for (int i = 0; i < METRICS.length; i++) {
+      long value = row.getLong(METRICS[i]);
+      if (row.wasNull()) {
+        continue;
+      }
+      min[i] = Math.min(min[i], value);
+      max[i] = Math.max(max[i], value);
+      sum[i] += value;
+      count[i]++;
+      if (time >= lastTime) {
+        last[i] = value;
+      }
+    }
+    samples++;
+    lastTime = Math.max(lastTime, time);
+  }
+
+  /**
+   * Merges one HISTORY_ROLLUP row. Rows must be merged in time order.
+   *
+   * @param row the result set positioned at a HISTORY_ROLLUP row
+   */
+  void mergeRollupRow(ResultSet row) throws SQLException {
+    long time = row.getTimestamp("LASTDATE").getTime();
+    for (int i = 0; i < METRICS.length; i++) {
+      long metricCount = row.getLong("CNT_" + METRICS[i]);
+      if (metricCount == 0L) {
+        continue;
+      }
+      min[i] = Math.min(min[i], row.getLong("MIN_" + METRICS[i]));
+      max[i] = Math.max(max[i], row.getLong("MAX_" + METRICS[i]));
+      sum[i] += row.getDouble("SUM_" + METRICS[i]);
+      count[i] += metricCount;
+      if (time >= lastTime) {
+        last[i] = row.getLong("LAST_" + METRICS[i]);
+      }
+    }
+    samples += row.getLong("SAMPLES");
+    lastTime = Math.max(lastTime, time);
+  }
+
+  /** @return the DDL of the HISTORY_ROLLUP table */
+  static String createRollupTableSql() {
+    StringBuilder sql =
+        new StringBuilder(
+            "CREATE CACHED TABLE IF NOT EXISTS HISTORY_ROLLUP"
+                + "  (BUCKET TIMESTAMP NOT NULL,"
+                + "   LASTDATE TIMESTAMP NOT NULL,"
+                + "   USER VARCHAR(100) NOT NULL,"
+                + "   SAMPLES BIGINT NOT NULL");
+    for (String metric : METRICS) {
+      for (String aggregate : new String[] {"MIN_", "MAX_", "SUM_", "CNT_", "LAST_"}) {
+        String type = aggregate.equals("SUM_") ? " DOUBLE" : " BIGINT";
+        sql.append(", ").append(aggregate).append(metric).append(type);
+      }
+    }
+    return sql.append(", PRIMARY KEY (USER, BUCKET))").toString();
+  }
+
+  /**
+   * Sums of DISKSPACE over a week of samples overflow a BIGINT, so sums are kept as DOUBLE.
+   *
+   * @return the statements that convert the SUM_ columns of a HISTORY_ROLLUP table created with
+   *     BIGINT sums
+   */
+  static String[] alterSumColumnsSql() {
+    String[] sql = new String[METRICS.length];
+    for (int i = 0; i < METRICS.length; i++) {
+      sql[i] =
+          "ALTER TABLE HISTORY_ROLLUP ALTER COLUMN SUM_" + METRICS[i] + " SET DATA TYPE DOUBLE";
+    }
+    return sql;
+  }
+
+  /** @return the parameterized insert statement of a HISTORY_ROLLUP row */
+  static String insertRollupSql() {
+    StringBuilder columns = new StringBuilder("BUCKET,LASTDATE,USER,SAMPLES");
+    StringBuilder values = new StringBuilder("?,?,?,?");
+    for (String metric : METRICS) {
+      for (String aggregate : new String[] {"MIN_", "MAX_", "SUM_", "CNT_", "LAST_"}) {
+        columns.append(',').append(aggregate).append(metric);
+        values.append(",?");
+      }
+    }
+    return "INSERT INTO HISTORY_ROLLUP (" + columns + ") VALUES (" + values + ")";
+  }
+
+  /**
+   * Adds this rollup to a batch of the statement prepared from {@link #insertRollupSql()}.
+   *
+   * @param insert the prepared insert statement
+   */
+  void addToBatch(PreparedStatement insert) throws SQLException {
+    insert.setTimestamp(1, new Timestamp(bucket));
+    insert.setTimestamp(2, new Timestamp(lastTime));
+    insert.setString(3, user);
+    insert.setLong(4, samples);
+    int param = 5;
+    for (int i = 0; i < METRICS.length; i++) {
+      insert.setLong(param++, (count[i] == 0L) ? 0L : min[i]);
+      insert.setLong(param++, (count[i] == 0L) ? 0L : max[i]);
+      insert.setDouble(param++, sum[i]);
+      insert.setLong(param++, count[i]);
+      insert.setLong(param++, last[i]);
+    }
+    insert.addBatch();
+  }
+
+  /**
+   * Writes this rollup as a JSON object.
+   *
+   * @param json the generator to write to
+   * @param gson formats the bucket the same way as the times of raw history
+   */
+  void writeJson(JsonGenerator json, Gson gson) throws IOException {
+    json.writeStartObject();
+    json.writeStringField("USER", user);
+    json.writeFieldName("BUCKET");
+    json.writeRawValue(gson.toJson(new Timestamp(bucket)));
+    json.writeNumberField("SAMPLES", samples);
+    for (int i = 0; i < METRICS.length; i++) {
+      if (count[i] == 0L) {
+        json.writeNullField(METRICS[i]);
+        continue;
+      }
+      json.writeObjectFieldStart(METRICS[i]);
+      json.writeNumberField("min", min[i]);
+      json.writeNumberField("max", max[i]);
+      json.writeNumberField("avg", sum[i] / count[i]);
+      json.writeNumberField("last", last[i]);
+      json.writeEndObject();
+    }
+    json.writeEndObject();
+  }
+}
@@ -20,12 +20,22 @@
 package com.paypal.namenode;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.zip.GZIPOutputStream;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodePathWriter;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.HISTOGRAM;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.PATH_OUTPUT;
 import org.apache.hadoop.hdfs.server.namenode.NNLoader;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
 import org.apache.hadoop.hdfs.server.namenode.queries.BaseQuery;
+import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
 import org.apache.hadoop.io.IOUtils;
 import org.codehaus.jackson.JsonFactory;
 import org.codehaus.jackson.JsonGenerator;
@@ -66,6 +76,83 @@ class NNAHelper {
     }
   }
 
+  static String toXAxis(HISTOGRAM htEnum) {
+    switch (htEnum) {
+      case user:
+        return "User Names";
+      case group:
+        return "Group Names";
+      case accessTime:
+        return "Last Accessed Time";
+      case modTime:
+        return "Last Modified Time";
+      case fileSize:
+        return "File Sizes (No Replication Factor)";
+      case diskspaceConsumed:
+        return "Diskspace Consumed (File Size * Replication Factor)";
+      case fileReplica:
+        return "File Replication Factor";
+      case storageType:
+        return "Storage Type Policy";
+      case memoryConsumed:
+        return "Memory Consumed";
+      case parentDir:
+        return "Directory Path";
+      case fileType:
+        return "File Type";
+      case dirQuota:
+        return "Directory Path";
+      default:
+        throw new IllegalArgumentException(
+            "Could not determine histogram type: "
+                + htEnum
+                + ".\nPlease check /histograms for available histograms.");
+    }
+  }
+
+  static Map<String, Long> histogram(
+      NNLoader nnLoader,
+      HISTOGRAM htEnum,
+      Collection<INode> inodes,
+      String sum,
+      String find,
+      String timeRange,
+      Integer parentDirDepth,
+      Map<String, Function<INode, Long>> transformMap) {
+    QueryEngine queryEngine = nnLoader.getQueryEngine();
+    switch (htEnum) {
+      case user:
+        return queryEngine.byUserHistogram(inodes, sum, find);
+      case group:
+        return queryEngine.byGroupHistogram(inodes, sum, find);
+      case accessTime:
+        return queryEngine.accessTimeHistogram(inodes, sum, find, timeRange);
+      case modTime:
+        return queryEngine.modTimeHistogram(inodes, sum, find, timeRange);
+      case fileSize:
+        return queryEngine.fileSizeHistogram(inodes, sum, find);
+      case diskspaceConsumed:
+        return queryEngine.diskspaceConsumedHistogram(inodes, sum, find, transformMap);
+      case fileReplica:
+        return queryEngine.fileReplicaHistogram(inodes, sum, find, transformMap);
+      case storageType:
+        return queryEngine.storageTypeHistogram(inodes, sum, find);
+      case memoryConsumed:
+        return queryEngine.memoryConsumedHistogram(inodes, sum, find);
+      case parentDir:
+        return queryEngine.parentDirHistogram(inodes, parentDirDepth, sum, find);
+      case fileType:
+        return queryEngine.fileTypeHistogram(inodes, sum, find);
+      case dirQuota:
+        return queryEngine.dirQuotaHistogram(inodes, sum);
+      default:
+        throw new IllegalArgumentException(
+            "Could not determine histogram type: "
+                + htEnum
+                + ".\nPlease check /histograms for available histograms.");
+    }
+  }
+
   static String toTitle(String histType, String sum) {
     return histType.toUpperCase() + " HISTOGRAM | " + sum.toUpperCase();
   }
@@ -93,7 +180,82 @@ class NNAHelper {
       return inodes;
     }
 
-    return nnLoader.getQueryEngine().combinedFilter(inodes, filters, filterOps);
+    return nnLoader.getQueryEngine().combinedFilter(set, inodes, filters, filterOps);
+  }
+
+  /**
+   * Opens a response for a list of paths in the requested path output, gzipped if the client
+   * accepts it.
+   *
+   * @param req the request
+   * @param resp the response to write to
+   * @param pathOutput name of the requested path output; null for plain text
+   * @param flushBytes number of bytes written between two flushes to the client
+   * @return the writer to the client
+   * @throws IOException if the response could not be opened
+   */
+  static INodePathWriter createPathWriter(
+      HttpServletRequest req, HttpServletResponse resp, String pathOutput, int flushBytes)
+      throws IOException {
+    PATH_OUTPUT output;
+    try {
+      output = (pathOutput == null) ? PATH_OUTPUT.text : PATH_OUTPUT.valueOf(pathOutput);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException(
+          "Could not determine path output: "
+              + pathOutput
+              + ".\nPlease use one of: "
+              + Arrays.toString(PATH_OUTPUT.values())
+              + ".");
+    }
+    String contentType = (output == PATH_OUTPUT.text) ? "text/plain" : "application/octet-stream";
+    return new INodePathWriter(
+        openResponse(req, resp, contentType, flushBytes), flushBytes, output);
+  }
+
+  /**
+   * Opens the response stream, gzip compressed if the client accepts it.
+   *
+   * @param req the request
+   * @param resp the response
+   * @param contentType the content type of the response
+   * @param flushBytes size of the compression buffer
+   * @return the stream to write the response body to; closing it completes the response
+   * @throws IOException if the response stream cannot be opened
+   */
+  static OutputStream openResponse(
+      HttpServletRequest req, HttpServletResponse resp, String contentType, int flushBytes)
+      throws IOException {
+    resp.setContentType(contentType);
+    OutputStream out = resp.getOutputStream();
+    String acceptEncoding = req.getHeader("Accept-Encoding");
+    if (acceptEncoding != null && acceptEncoding.contains("gzip")) {
+      resp.setHeader("Content-Encoding", "gzip");
+      out = new GZIPOutputStream(out, flushBytes, true);
+    }
+    return out;
+  }
+
+  /**
+   * Streams a response body to the client instead of returning it as one string.
+   *
+   * @param req the request
+   * @param resp the response
+   * @param contentType the content type of the response
+   * @param flushBytes size of the compression buffer
+   * @param body the body to write
+   * @throws IOException if writing the response fails
+   */
+  static void writeResponse(
+      HttpServletRequest req,
+      HttpServletResponse resp,
+      String contentType,
+      int flushBytes,
+      Histograms.Output body)
+      throws IOException {
+    try (OutputStream out = openResponse(req, resp, contentType, flushBytes)) {
+      body.write(out);
+    }
   }
 
   static void toJsonList(HttpServletResponse resp, Enum[]... values) throws IOException {
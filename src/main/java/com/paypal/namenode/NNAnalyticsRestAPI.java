@@ -28,10 +28,12 @@ import static spark.Spark.post;
 import com.google.common.annotations.VisibleForTesting;
 import com.nimbusds.jose.EncryptionMethod;
 import com.nimbusds.jose.JWEAlgorithm;
+import com.paypal.namenode.QueryCoalescer.QueryResult;
 import com.paypal.security.SecurityConfiguration;
 import com.paypal.security.SecurityContext;
 import com.sun.management.OperatingSystemMXBean;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
@@ -40,31 +42,34 @@ import java.lang.management.RuntimeMXBean;
 import java.lang.management.ThreadInfo;
 import java.lang.management.ThreadMXBean;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
 import java.sql.SQLException;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collector;
 import java.util.stream.Collectors;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodePathWriter;
 import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
-import org.apache.hadoop.hdfs.server.namenode.NNAConstants;
 import org.apache.hadoop.hdfs.server.namenode.NNAConstants.ENDPOINT;
 import org.apache.hadoop.hdfs.server.namenode.NNAConstants.FILTER;
 import org.apache.hadoop.hdfs.server.namenode.NNAConstants.FILTER_OP;
@@ -76,9 +81,14 @@ import org.apache.hadoop.hdfs.server.namenode.NNAConstants.SET;
 import org.apache.hadoop.hdfs.server.namenode.NNAConstants.SUM;
 import org.apache.hadoop.hdfs.server.namenode.NNAConstants.TRANSFORM;
 import org.apache.hadoop.hdfs.server.namenode.NNLoader;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
+import org.apache.hadoop.hdfs.server.namenode.SharedScanScheduler;
 import org.apache.hadoop.hdfs.server.namenode.TransferFsImageWrapper;
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsReloadScheduler;
+import org.apache.hadoop.hdfs.server.namenode.cache.TimeSeriesStore;
 import org.apache.hadoop.hdfs.server.namenode.operations.BaseOperation;
 import org.apache.hadoop.hdfs.server.namenode.operations.Delete;
+import org.apache.hadoop.hdfs.server.namenode.operations.OperationExecutor;
 import org.apache.hadoop.hdfs.server.namenode.operations.SetReplication;
 import org.apache.hadoop.hdfs.server.namenode.operations.SetStoragePolicy;
 import org.apache.hadoop.hdfs.server.namenode.queries.BaseQuery;
@@ -112,6 +122,7 @@ import org.pac4j.jwt.profile.JwtGenerator;
 import org.pac4j.ldap.credentials.authenticator.LdapAuthenticator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import spark.Request;
 import spark.Spark;
 
 /**
@@ -143,10 +154,9 @@ public class NNAnalyticsRestAPI {
   private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
   private final SecurityContext secContext = new SecurityContext();
 
-  private final ExecutorService operationService = Executors.newFixedThreadPool(1);
+  private final QueryCoalescer queryCoalescer = new QueryCoalescer();
+  private final OperationExecutor operationExecutor = new OperationExecutor();
   private final ExecutorService internalService = Executors.newFixedThreadPool(2);
-  private final Map<String, BaseOperation> runningOperations =
-      Collections.synchronizedMap(new HashMap<>());
 
   private final AtomicBoolean savingNamespace = new AtomicBoolean(false);
 
@@ -377,6 +387,8 @@ public class NNAnalyticsRestAPI {
           for (BaseQuery query : runningQueries) {
             sb.append(query.toString()).append("\n");
           }
+          sb.append(queryCoalescer.toString()).append("\n");
+          sb.append(operationExecutor.toString()).append("\n");
           sb.append("\n");
 
           boolean isInit = nnLoader.isInit();
@@ -385,7 +397,20 @@ public class NNAnalyticsRestAPI {
           sb.append("Current system time (ms): ").append(Time.now()).append("\n");
           sb.append("Ready to service queries: ").append(isInit).append("\n");
           sb.append("Ready to service history: ").append(isHistorical).append("\n");
-          sb.append("Ready to service suggestions: ").append(isProvidingSuggestions).append("\n\n");
+          sb.append("Ready to service suggestions: ").append(isProvidingSuggestions).append("\n");
+          SuggestionsReloadScheduler reloadScheduler = nnLoader.getSuggestionsReloadScheduler();
+          if (reloadScheduler != null) {
+            sb.append(reloadScheduler.toString()).append("\n");
+          }
+          sb.append(nnLoader.getSuggestionsEngine().getCacheManager().toString()).append("\n");
+          if (isHistorical) {
+            sb.append(hsqlDriver.toString()).append("\n");
+          }
+          TimeSeriesStore timeSeries = nnLoader.getSuggestionsEngine().getTimeSeriesStore();
+          if (timeSeries != null) {
+            sb.append(timeSeries.toString()).append("\n");
+          }
+          sb.append("\n");
           if (isInit) {
             long allSetSize = nnLoader.getINodeSet(SET.all.name()).size();
             long fileSetSize = nnLoader.getINodeSet(SET.files.name()).size();
@@ -658,7 +683,10 @@ public class NNAnalyticsRestAPI {
             return "";
           }
 
-          lock.writeLock().lock();
+          // Divisions only sum, so they can share scans with concurrent queries.
+          SharedScanScheduler scanScheduler = nnLoader.getScanScheduler();
+          Lock queryLock = (scanScheduler != null) ? lock.readLock() : lock.writeLock();
+          queryLock.lock();
           try {
             String filterStr1 = req.queryMap("filters1").value();
             String filterStr2 = req.queryMap("filters2").value();
@@ -682,14 +710,22 @@ public class NNAnalyticsRestAPI {
             QueryChecker.isValidQuery(set1, filters1, null, sum1, filterOps1, null);
             QueryChecker.isValidQuery(set2, filters2, null, sum2, filterOps2, null);
 
-            Collection<INode> inodes1 =
-                NNAHelper.performFilters(nnLoader, set1, filters1, filterOps1);
-            Collection<INode> inodes2 =
-                NNAHelper.performFilters(nnLoader, set2, filters2, filterOps2);
-
             if (!sum1.isEmpty() && !sum2.isEmpty()) {
-              long sumValue1 = nnLoader.getQueryEngine().sum(inodes1, sum1);
-              long sumValue2 = nnLoader.getQueryEngine().sum(inodes2, sum2);
+              long sumValue1;
+              long sumValue2;
+              if (scanScheduler != null) {
+                Future<Long> future1 = scanScheduler.submitSum(set1, filters1, filterOps1, sum1);
+                Future<Long> future2 = scanScheduler.submitSum(set2, filters2, filterOps2, sum2);
+                sumValue1 = SharedScanScheduler.await(future1);
+                sumValue2 = SharedScanScheduler.await(future2);
+              } else {
+                Collection<INode> inodes1 =
+                    NNAHelper.performFilters(nnLoader, set1, filters1, filterOps1);
+                Collection<INode> inodes2 =
+                    NNAHelper.performFilters(nnLoader, set2, filters2, filterOps2);
+                sumValue1 = nnLoader.getQueryEngine().sum(inodes1, sum1);
+                sumValue2 = nnLoader.getQueryEngine().sum(inodes2, sum2);
+              }
               float division = (float) sumValue1 / (float) sumValue2;
 
               LOG.info("The result of {} dividied by {} is: {}", sumValue1, sumValue2, division);
@@ -718,13 +754,17 @@ public class NNAnalyticsRestAPI {
 
             return res;
           } finally {
-            lock.writeLock().unlock();
+            queryLock.unlock();
           }
         });
 
     /* FILTER endpoint takes 1 set of "set", "filter", "sum" / "limit" parameters and returns either
     the list of file paths that pass the filters or the summation of the INode fields that pass the filters
-    in PLAINTEXT form. */
+    in PLAINTEXT form. Paths are sorted by path component unless "sorted=false" is given, comparing
+    the UTF-8 bytes of each component as signed bytes, which is the order HDFS keeps directory children
+    in. Without a "find" they are listed by walking the namespace tree in order and streamed as they
+    are found.
+    "pathOutput=frontCoded" returns the paths front-coded instead, see INodePathWriter. */
     /* TODO: Consider separating logic of "list of file paths" to /dump endpoint. */
     /* TODO: Move "&filterOps=" into API of "&filters=" by making filter triplets separated by ":". */
     get(
@@ -736,7 +776,13 @@ public class NNAnalyticsRestAPI {
             return "";
           }
 
-          lock.writeLock().lock();
+          // Sums without a find can share scans with concurrent queries.
+          SharedScanScheduler scanScheduler =
+              (req.queryMap("find").value() == null && req.queryMap("sum").value() != null)
+                  ? nnLoader.getScanScheduler()
+                  : null;
+          Lock queryLock = (scanScheduler != null) ? lock.readLock() : lock.writeLock();
+          queryLock.lock();
           try {
             String fullFilterStr = req.queryMap("filters").value();
             String emailsToStr = req.queryMap("emailTo").value();
@@ -756,17 +802,26 @@ public class NNAnalyticsRestAPI {
             if (limit == null) {
               limit = Integer.MAX_VALUE;
             }
+            Boolean sorted = req.queryMap("sorted").booleanValue();
+            // Sorted path listings without a find walk the tree in order instead of sorting.
+            boolean orderedDump = sumStr == null && find == null && (sorted == null || sorted);
 
             for (String sum : sums) {
               QueryChecker.isValidQuery(set, filters, null, sum, filterOps, find);
             }
 
             Collection<INode> inodes =
-                NNAHelper.performFilters(nnLoader, set, filters, filterOps, find);
+                (scanScheduler != null || orderedDump)
+                    ? null
+                    : NNAHelper.performFilters(nnLoader, set, filters, filterOps, find);
 
             if (sums.length == 1 && sumStr != null) {
               String sum = sums[0];
-              long sumValue = nnLoader.getQueryEngine().sum(inodes, sum);
+              long sumValue =
+                  (scanScheduler != null)
+                      ? SharedScanScheduler.await(
+                          scanScheduler.submitSum(set, filters, filterOps, sum))
+                      : nnLoader.getQueryEngine().sum(inodes, sum);
               String message = String.valueOf(sumValue);
               if (emailsTo != null
                   && emailsTo.length != 0
@@ -793,15 +848,62 @@ public class NNAnalyticsRestAPI {
               res.body(message);
             } else if (sums.length > 1 && sumStr != null) {
               StringBuilder message = new StringBuilder();
-              for (String sum : sums) {
-                long sumValue = nnLoader.getQueryEngine().sum(inodes, sum);
-                message.append(sumValue).append("\n");
+              if (scanScheduler != null) {
+                List<Future<Long>> futures = new ArrayList<>(sums.length);
+                for (String sum : sums) {
+                  futures.add(scanScheduler.submitSum(set, filters, filterOps, sum));
+                }
+                for (Future<Long> future : futures) {
+                  message.append(SharedScanScheduler.await(future)).append("\n");
+                }
+              } else {
+                for (String sum : sums) {
+                  long sumValue = nnLoader.getQueryEngine().sum(inodes, sum);
+                  message.append(sumValue).append("\n");
+                }
               }
               res.body(message.toString());
             } else {
-              nnLoader.getQueryEngine().dumpINodePaths(inodes, limit, res.raw());
+              INodePathWriter writer =
+                  NNAHelper.createPathWriter(
+                      req.raw(),
+                      res.raw(),
+                      req.queryMap("pathOutput").value(),
+                      conf.getDumpFlushBytes());
+              QueryEngine queryEngine = nnLoader.getQueryEngine();
+              if (orderedDump) {
+                Predicate<INode> predicate = nnLoader.getINodeSetPredicate(set);
+                if (filters != null) {
+                  predicate = predicate.and(queryEngine.getFilterPredicate(filters, filterOps));
+                }
+                queryEngine.dumpINodePathsInOrder(nnLoader.getRoot(), predicate, limit, writer);
+              } else {
+                queryEngine.dumpINodePaths(inodes, limit, sorted == null || sorted, writer);
+              }
             }
 
+            return res;
+          } finally {
+            queryLock.unlock();
+          }
+        });
+
+    /* BATCH endpoint takes a JSON array of "filter", "histogram" and "divide" queries as the POST body
+    and returns the results of all queries in a single JSON document. Queries over the same set and
+    filters share one filtering pass. */
+    post(
+        "/batch",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          res.header("Content-Type", "application/json");
+          if (!nnLoader.isInit()) {
+            return "";
+          }
+
+          BatchQuery.Spec[] specs = BatchQuery.parse(req.body());
+          lock.writeLock().lock();
+          try {
+            new BatchQuery(nnLoader).execute(specs, res.raw());
             return res;
           } finally {
             lock.writeLock().unlock();
@@ -820,204 +922,25 @@ public class NNAnalyticsRestAPI {
           res.header("Access-Control-Allow-Origin", "*");
 
           if (!nnLoader.isInit()) {
-            res.header("Content-Type", "application/json");
-            return Histograms.toChartJsJson(new HashMap<>(), "not_loaded", "", "");
+            NNAHelper.writeResponse(
+                req.raw(),
+                res.raw(),
+                "application/json",
+                conf.getDumpFlushBytes(),
+                out ->
+                    Histograms.writeChartJsJson(Collections.emptyMap(), "not_loaded", "", "", out));
+            return res;
           }
 
-          lock.writeLock().lock();
-          try {
-            String fullFilterStr = req.queryMap("filters").value();
-            String histogramConditionsStr = req.queryMap("histogramConditions").value();
-            String emailsToStr = req.queryMap("emailTo").value();
-            String emailsCCStr = req.queryMap("emailCC").value();
-            String emailFrom = req.queryMap("emailFrom").value();
-            String emailHost = req.queryMap("emailHost").value();
-            String emailConditionsStr = req.queryMap("emailConditions").value();
-            String[] filters = NNAHelper.parseFilters(fullFilterStr);
-            String[] filterOps = NNAHelper.parseFilterOps(fullFilterStr);
-            String histType = req.queryMap("type").value();
-            String set = req.queryMap("set").value();
-            Integer top = req.queryMap("top").integerValue();
-            Integer bottom = req.queryMap("bottom").integerValue();
-            String sumStr = req.queryMap("sum").value();
-            Boolean useLock = req.queryMap("useLock").booleanValue();
-            Boolean sortAscending = req.queryMap("sortAscending").booleanValue();
-            Boolean sortDescending = req.queryMap("sortDescending").booleanValue();
-            String sum = (sumStr != null) ? sumStr : "count";
-            String[] emailsTo = (emailsToStr != null) ? emailsToStr.split(",") : null;
-            String[] emailsCC = (emailsCCStr != null) ? emailsCCStr.split(",") : null;
-            String transformConditionsStr = req.queryMap("transformConditions").value();
-            String transformFieldsStr = req.queryMap("transformFields").value();
-            String transformOutputsStr = req.queryMap("transformOutputs").value();
-            Integer parentDirDepth = req.queryMap("parentDirDepth").integerValue();
-            String timeRangeStr = req.queryMap("timeRange").value();
-            String timeRange = (timeRangeStr != null) ? timeRangeStr : "weekly";
-            String outputTypeStr = req.queryMap("histogramOutput").value();
-            String outputType = (outputTypeStr != null) ? outputTypeStr : "chart";
-            String type = req.queryMap("type").value();
-            String find = req.queryMap("find").value();
-
-            QueryChecker.isValidQuery(set, filters, type, sum, filterOps, find);
-            Collection<INode> inodes = NNAHelper.performFilters(nnLoader, set, filters, filterOps);
-
-            HISTOGRAM htEnum = HISTOGRAM.valueOf(histType);
-            Map<String, Function<INode, Long>> transformMap =
-                Transforms.getAttributeTransforms(
-                    transformConditionsStr, transformFieldsStr, transformOutputsStr, nnLoader);
-            Map<String, Long> histogram;
-            long startTime = System.currentTimeMillis();
-            String xAxis;
-
-            nnLoader.namesystemWriteLock(useLock);
-            try {
-              switch (htEnum) {
-                case user:
-                  histogram = nnLoader.getQueryEngine().byUserHistogram(inodes, sum, find);
-                  xAxis = "User Names";
-                  break;
-                case group:
-                  histogram = nnLoader.getQueryEngine().byGroupHistogram(inodes, sum, find);
-                  xAxis = "Group Names";
-                  break;
-                case accessTime:
-                  histogram =
-                      nnLoader.getQueryEngine().accessTimeHistogram(inodes, sum, find, timeRange);
-                  xAxis = "Last Accessed Time";
-                  break;
-                case modTime:
-                  histogram =
-                      nnLoader.getQueryEngine().modTimeHistogram(inodes, sum, find, timeRange);
-                  xAxis = "Last Modified Time";
-                  break;
-                case fileSize:
-                  histogram = nnLoader.getQueryEngine().fileSizeHistogram(inodes, sum, find);
-                  xAxis = "File Sizes (No Replication Factor)";
-                  break;
-                case diskspaceConsumed:
-                  histogram =
-                      nnLoader
-                          .getQueryEngine()
-                          .diskspaceConsumedHistogram(inodes, sum, find, transformMap);
-                  xAxis = "Diskspace Consumed (File Size * Replication Factor)";
-                  break;
-                case fileReplica:
-                  histogram =
-                      nnLoader
-                          .getQueryEngine()
-                          .fileReplicaHistogram(inodes, sum, find, transformMap);
-                  xAxis = "File Replication Factor";
-                  break;
-                case storageType:
-                  histogram = nnLoader.getQueryEngine().storageTypeHistogram(inodes, sum, find);
-                  xAxis = "Storage Type Policy";
-                  break;
-                case memoryConsumed:
-                  histogram = nnLoader.getQueryEngine().memoryConsumedHistogram(inodes, sum, find);
-                  xAxis = "Memory Consumed";
-                  break;
-                case parentDir:
-                  histogram =
-                      nnLoader
-                          .getQueryEngine()
-                          .parentDirHistogram(inodes, parentDirDepth, sum, find);
-                  xAxis = "Directory Path";
-                  break;
-                case fileType:
-                  histogram = nnLoader.getQueryEngine().fileTypeHistogram(inodes, sum, find);
-                  xAxis = "File Type";
-                  break;
-                case dirQuota:
-                  histogram = nnLoader.getQueryEngine().dirQuotaHistogram(inodes, sum);
-                  xAxis = "Directory Path";
-                  break;
-                default:
-                  throw new IllegalArgumentException(
-                      "Could not determine histogram type: "
-                          + histType
-                          + ".\nPlease check /histograms for available histograms.");
-              }
-            } finally {
-              nnLoader.namesystemWriteUnlock(useLock);
-            }
-
-            // Perform conditions filtering.
-            if (histogramConditionsStr != null && !histogramConditionsStr.isEmpty()) {
-              histogram =
-                  nnLoader
-                      .getQueryEngine()
-                      .removeKeysOnConditional(histogram, histogramConditionsStr);
-            }
-
-            // Slice top and bottom.
-            if (top != null && bottom != null) {
-              throw new IllegalArgumentException("Please choose only one type of slice.");
-            } else if (top != null && top > 0) {
-              histogram = Histograms.sliceToTop(histogram, top);
-            } else if (bottom != null && bottom > 0) {
-              histogram = Histograms.sliceToBottom(histogram, bottom);
-            }
-
-            // Sort results.
-            if (sortAscending != null && sortDescending != null) {
-              throw new IllegalArgumentException("Please choose one type of sort.");
-            } else if (sortAscending != null && sortAscending) {
-              histogram = Histograms.sortByValue(histogram, true);
-            } else if (sortDescending != null && sortDescending) {
-              histogram = Histograms.sortByValue(histogram, false);
-            }
-
-            long endTime = System.currentTimeMillis();
-            LOG.info("Performing histogram: {} took: {} ms.", histType, (endTime - startTime));
-
-            // Email out.
-            if (emailsTo != null
-                && emailsTo.length != 0
-                && emailHost != null
-                && emailFrom != null) {
-              String subject =
-                  nnLoader.getAuthority()
-                      + " | X: "
-                      + histType
-                      + " | Y: "
-                      + sum
-                      + " | "
-                      + set
-                      + " | Filters: "
-                      + fullFilterStr;
-              try {
-                Set<String> highlightKeys = new HashSet<>();
-                if (emailConditionsStr != null) {
-                  MailOutput.check(emailConditionsStr, histogram, highlightKeys, nnLoader);
-                }
-                MailOutput.write(
-                    subject, histogram, highlightKeys, emailHost, emailsTo, emailsCC, emailFrom);
-              } catch (Exception e) {
-                LOG.info("Failed to email output with exception: {}", e);
-              }
-            }
-
-            // Return final histogram to Web UI as output type.
-            HISTOGRAM_OUTPUT output = HISTOGRAM_OUTPUT.valueOf(outputType);
-            switch (output) {
-              case chart:
-                res.header("Content-Type", "application/json");
-                return Histograms.toChartJsJson(
-                    histogram, NNAHelper.toTitle(histType, sum), NNAHelper.toYAxis(sum), xAxis);
-              case json:
-                res.header("Content-Type", "application/json");
-                return Histograms.toJson(histogram);
-              case csv:
-                res.header("Content-Type", "text/plain");
-                return Histograms.toCSV(histogram, find);
-              default:
-                throw new IllegalArgumentException(
-                    "Could not determine output type: "
-                        + histType
-                        + ".\nPlease check /histogramOutputs for available histogram outputs.");
-            }
-          } finally {
-            lock.writeLock().unlock();
-          }
+          String queryKey = QueryCoalescer.toKey(req.raw(), secContext.getAccessLevels());
+          QueryResult result = queryCoalescer.execute(queryKey, () -> histogram(req));
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              result.getContentType(),
+              conf.getDumpFlushBytes(),
+              result.getBody());
+          return res;
         });
 
     /* HISTOGRAM2 endpoint takes 1 set of "set", "filter", "type", and  "sum" parameters and returns a histogram
@@ -1030,167 +953,25 @@ public class NNAnalyticsRestAPI {
           res.header("Access-Control-Allow-Origin", "*");
 
           if (!nnLoader.isInit()) {
-            res.header("Content-Type", "application/json");
-            return Histograms.toChartJsJson(new HashMap<>(), "not_loaded", "", "");
+            NNAHelper.writeResponse(
+                req.raw(),
+                res.raw(),
+                "application/json",
+                conf.getDumpFlushBytes(),
+                out ->
+                    Histograms.writeChartJsJson(Collections.emptyMap(), "not_loaded", "", "", out));
+            return res;
           }
 
-          lock.writeLock().lock();
-          try {
-            String fullFilterStr = req.queryMap("filters").value();
-            String[] filters = NNAHelper.parseFilters(fullFilterStr);
-            String[] filterOps = NNAHelper.parseFilterOps(fullFilterStr);
-            String histType = req.queryMap("type").value();
-            String set = req.queryMap("set").value();
-            String sumStr = req.queryMap("sum").value();
-            Integer sortAscendingIndex = req.queryMap("sortAscendingIndex").integerValue();
-            Integer sortDescendingIndex = req.queryMap("sortDescendingIndex").integerValue();
-            String histogramConditionsStr = req.queryMap("histogramConditions").value();
-            Boolean useLock = req.queryMap("useLock").booleanValue();
-            String[] sums = (sumStr != null) ? sumStr.split(",") : new String[0];
-            Integer parentDirDepth = req.queryMap("parentDirDepth").integerValue();
-            String outputTypeStr = req.queryMap("histogramOutput").value();
-            String timeRangeStr = req.queryMap("timeRange").value();
-            String timeRange = (timeRangeStr != null) ? timeRangeStr : "weekly";
-            String outputType = (outputTypeStr != null) ? outputTypeStr : "json";
-            String type = req.queryMap("type").value();
-            String findStr = req.queryMap("find").value();
-            String[] finds = (findStr != null) ? findStr.split(",") : new String[0];
-
-            for (String sum : sums) {
-              QueryChecker.isValidQuery(set, filters, type, sum, filterOps, null);
-            }
-            for (String find : finds) {
-              QueryChecker.isValidQuery(set, filters, type, null, filterOps, find);
-            }
-            Collection<INode> inodes = NNAHelper.performFilters(nnLoader, set, filters, filterOps);
-
-            HISTOGRAM htEnum = HISTOGRAM.valueOf(histType);
-            List<Map<String, Long>> histograms = new ArrayList<>(sums.length + finds.length);
-
-            long startTime = System.currentTimeMillis();
-            for (int i = 0, j = 0; i < sums.length || j < finds.length; ) {
-              Map<String, Long> histogram;
-              String sum = null;
-              String find = null;
-              if (i < sums.length) {
-                sum = sums[i];
-                i++;
-              } else {
-                find = finds[j];
-                j++;
-              }
-
-              nnLoader.namesystemWriteLock(useLock);
-              try {
-                switch (htEnum) {
-                  case user:
-                    histogram = nnLoader.getQueryEngine().byUserHistogram(inodes, sum, find);
-                    break;
-                  case group:
-                    histogram = nnLoader.getQueryEngine().byGroupHistogram(inodes, sum, find);
-                    break;
-                  case accessTime:
-                    histogram =
-                        nnLoader.getQueryEngine().accessTimeHistogram(inodes, sum, find, timeRange);
-                    break;
-                  case modTime:
-                    histogram =
-                        nnLoader.getQueryEngine().modTimeHistogram(inodes, sum, find, timeRange);
-                    break;
-                  case fileSize:
-                    histogram = nnLoader.getQueryEngine().fileSizeHistogram(inodes, sum, find);
-                    break;
-                  case diskspaceConsumed:
-                    histogram =
-                        nnLoader
-                            .getQueryEngine()
-                            .diskspaceConsumedHistogram(inodes, sum, find, null);
-                    break;
-                  case fileReplica:
-                    histogram =
-                        nnLoader.getQueryEngine().fileReplicaHistogram(inodes, sum, find, null);
-                    break;
-                  case storageType:
-                    histogram = nnLoader.getQueryEngine().storageTypeHistogram(inodes, sum, find);
-                    break;
-                  case memoryConsumed:
-                    histogram =
-                        nnLoader.getQueryEngine().memoryConsumedHistogram(inodes, sum, find);
-                    break;
-                  case parentDir:
-                    histogram =
-                        nnLoader
-                            .getQueryEngine()
-                            .parentDirHistogram(inodes, parentDirDepth, sum, find);
-                    break;
-                  case fileType:
-                    histogram = nnLoader.getQueryEngine().fileTypeHistogram(inodes, sum, find);
-                    break;
-                  default:
-                    throw new IllegalArgumentException(
-                        "Could not determine histogram type: "
-                            + histType
-                            + ".\nPlease check /histograms for available histograms.");
-                }
-              } finally {
-                nnLoader.namesystemWriteUnlock(useLock);
-              }
-              histograms.add(histogram);
-            }
-
-            Map<String, List<Long>> mergedHistogram =
-                histograms
-                    .parallelStream()
-                    .flatMap(m -> m.entrySet().stream())
-                    .collect(
-                        Collectors.groupingBy(
-                            Entry::getKey,
-                            Collector.of(
-                                ArrayList<Long>::new,
-                                (list, item) -> list.add(item.getValue()),
-                                (left, right) -> {
-                                  left.addAll(right);
-                                  return left;
-                                })));
-
-            // Perform conditions filtering.
-            if (histogramConditionsStr != null && !histogramConditionsStr.isEmpty()) {
-              mergedHistogram =
-                  nnLoader
-                      .getQueryEngine()
-                      .removeKeysOnConditional2(mergedHistogram, histogramConditionsStr);
-            }
-
-            // Sort results.
-            if (sortAscendingIndex != null && sortDescendingIndex != null) {
-              throw new IllegalArgumentException("Please choose one type of sort index.");
-            } else if (sortAscendingIndex != null) {
-              mergedHistogram = Histograms.sortByValue(mergedHistogram, sortAscendingIndex, true);
-            } else if (sortDescendingIndex != null) {
-              mergedHistogram = Histograms.sortByValue(mergedHistogram, sortDescendingIndex, false);
-            }
-
-            long endTime = System.currentTimeMillis();
-            LOG.info("Performing histogram2: {} took: {} ms.", histType, (endTime - startTime));
-
-            // Return final histogram to Web UI as output type.
-            HISTOGRAM_OUTPUT output = HISTOGRAM_OUTPUT.valueOf(outputType);
-            switch (output) {
-              case json:
-                res.header("Content-Type", "application/json");
-                return Histograms.toJson(mergedHistogram);
-              case csv:
-                res.header("Content-Type", "text/plain");
-                return Histograms.toCSV(mergedHistogram);
-              default:
-                throw new IllegalArgumentException(
-                    "Could not determine output type: "
-                        + histType
-                        + ".\nPlease check /histogramOutputs for available histogram outputs.");
-            }
-          } finally {
-            lock.writeLock().unlock();
-          }
+          String queryKey = QueryCoalescer.toKey(req.raw(), secContext.getAccessLevels());
+          QueryResult result = queryCoalescer.execute(queryKey, () -> histogram2(req));
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              result.getContentType(),
+              conf.getDumpFlushBytes(),
+              result.getBody());
+          return res;
         });
 
     /* FILTER endpoint takes 1 set of "set", "filter", "sum" / "limit" parameters and returns either
@@ -1217,12 +998,10 @@ public class NNAnalyticsRestAPI {
             Integer limit = req.queryMap("limit").integerValue();
             Integer sleep = req.queryMap("sleep").integerValue();
             String operation = req.queryMap("operation").value();
+            Boolean dryRun = req.queryMap("dryRun").booleanValue();
             if (limit == null) {
               limit = Integer.MAX_VALUE;
             }
-            if (sleep == null) {
-              sleep = NNAConstants.DEFAULT_DELETE_SLEEP_MS;
-            }
             if (operation == null || operation.isEmpty()) {
               throw new IllegalArgumentException("No operation defined. Please check /operations.");
             }
@@ -1270,31 +1049,11 @@ public class NNAnalyticsRestAPI {
                 throw new IllegalArgumentException(
                     "Unknown operation:" + operationSplits[0] + ". Please check /operations.");
             }
-            runningOperations.put(operationObj.identity(), operationObj);
-
-            final int finalSleep = sleep;
-            Callable<Object> callable =
-                Executors.callable(
-                    () -> {
-                      try {
-                        operationObj.initialize();
-                        while (operationObj.hasNext()) {
-                          try {
-                            if (finalSleep >= 100) {
-                              Thread.sleep(finalSleep);
-                            }
-                          } catch (InterruptedException ignored) {
-                          }
-                          operationObj.performOp();
-                        }
-                        operationObj.close();
-                      } catch (IllegalStateException e) {
-                        operationObj.abort();
-                        LOG.info("Aborted operation due to: {}", e);
-                      }
-                      runningOperations.remove(operationObj.identity());
-                    });
-            operationService.submit(callable);
+            if (dryRun != null && dryRun) {
+              res.body(operationObj.plan().toString());
+              return res;
+            }
+            operationExecutor.submit(operationObj, sleep);
             res.body(operationObj.identity());
 
             return res;
@@ -1325,17 +1084,18 @@ public class NNAnalyticsRestAPI {
               limit = 1;
             }
             if (identity == null || identity.length() == 0) {
-              Set<Entry<String, BaseOperation>> entries = runningOperations.entrySet();
+              Collection<BaseOperation> operations = operationExecutor.getOperations();
               StringBuilder sb = new StringBuilder();
-              sb.append("Total Operations: ").append(entries.size()).append('\n');
-              for (Entry<String, BaseOperation> entry : entries) {
-                BaseOperation operation = entry.getValue();
+              sb.append("Total Operations: ").append(operations.size()).append('\n');
+              for (BaseOperation operation : operations) {
                 sb.append("ID: ");
-                sb.append(entry.getKey());
+                sb.append(operation.identity());
                 sb.append(", total: ");
                 sb.append(operation.totalToPerform());
                 sb.append(", operated: ");
                 sb.append(operation.numPerformed());
+                sb.append(", skipped: ");
+                sb.append(operation.numSkipped());
                 sb.append(" || owner: ");
                 sb.append(operation.owner());
                 sb.append(" || type: ");
@@ -1346,13 +1106,27 @@ public class NNAnalyticsRestAPI {
               }
               res.body(sb.toString());
             } else {
-              BaseOperation operation = runningOperations.get(identity);
+              BaseOperation operation = operationExecutor.get(identity);
               if (operation == null) {
                 throw new MalformedURLException("Operation not found.");
               }
+              Boolean workList = req.queryMap("workList").booleanValue();
+              if (workList != null && workList) {
+                try (INodePathWriter writer =
+                    NNAHelper.createPathWriter(
+                        req.raw(),
+                        res.raw(),
+                        req.queryMap("pathOutput").value(),
+                        conf.getDumpFlushBytes())) {
+                  operation.writeWorkList(writer);
+                }
+                return res;
+              }
               int totalToPerform = operation.totalToPerform();
               int numPerformed = operation.numPerformed();
-              double percentageDone = ((double) numPerformed / (double) totalToPerform) * 100.0;
+              int numSkipped = operation.numSkipped();
+              double percentageDone =
+                  ((double) (numPerformed + numSkipped) / (double) totalToPerform) * 100.0;
               List<String> lastDeleted = operation.lastPerformed(limit);
               Collections.reverse(lastDeleted);
 
@@ -1366,14 +1140,26 @@ public class NNAnalyticsRestAPI {
                       + "Query: "
                       + operation.query()
                       + '\n'
+                      + "Plan: "
+                      + operation.plan()
+                      + '\n'
                       + "Total to perform: "
                       + totalToPerform
                       + '\n'
                       + "Total performed: "
                       + numPerformed
                       + '\n'
+                      + "Total skipped: "
+                      + numSkipped
+                      + '\n'
+                      + "In flight: "
+                      + operation.numInFlight()
+                      + '\n'
                       + "Total left to perform: "
-                      + (totalToPerform - numPerformed)
+                      + (totalToPerform - numPerformed - numSkipped)
+                      + '\n'
+                      + "Current rate: "
+                      + operationExecutor.getRateLimiter(identity)
                       + '\n'
                       + "Percentage done: "
                       + percentageDone
@@ -1415,7 +1201,7 @@ public class NNAnalyticsRestAPI {
             if (limit == null) {
               limit = 1;
             }
-            BaseOperation operation = runningOperations.get(identity);
+            BaseOperation operation = operationExecutor.get(identity);
             if (operation == null) {
               throw new MalformedURLException("Operation not found.");
             }
@@ -1425,7 +1211,9 @@ public class NNAnalyticsRestAPI {
 
             int totalToPerform = operation.totalToPerform();
             int numPerformed = operation.numPerformed();
-            double percentageDone = ((double) numPerformed / (double) totalToPerform) * 100.0;
+            int numSkipped = operation.numSkipped();
+            double percentageDone =
+                ((double) (numPerformed + numSkipped) / (double) totalToPerform) * 100.0;
             List<String> lastPerformed = operation.lastPerformed(limit);
             Collections.reverse(lastPerformed);
 
@@ -1445,8 +1233,17 @@ public class NNAnalyticsRestAPI {
                     + "Total performed: "
                     + numPerformed
                     + '\n'
+                    + "Total skipped: "
+                    + numSkipped
+                    + '\n'
+                    + "In flight: "
+                    + operation.numInFlight()
+                    + '\n'
                     + "Total left to perform: "
-                    + (totalToPerform - numPerformed)
+                    + (totalToPerform - numPerformed - numSkipped)
+                    + '\n'
+                    + "Current rate: "
+                    + operationExecutor.getRateLimiter(identity)
                     + '\n'
                     + "Percentage done: "
                     + percentageDone
@@ -1473,7 +1270,13 @@ public class NNAnalyticsRestAPI {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
           String username = req.queryMap("username").value();
-          return nnLoader.getSuggestionsEngine().getSuggestionsAsJson(username);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getSuggestionsAsJson(username));
+          return res;
         });
 
     /* DIRECTORIES endpoint is an reader-level endpoint meant to dump the cached directory analysis by NNA. */
@@ -1487,7 +1290,13 @@ public class NNAnalyticsRestAPI {
           if (sum == null || sum.isEmpty()) {
             sum = "count";
           }
-          return nnLoader.getSuggestionsEngine().getDirectoriesAsJson(directory, sum);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getDirectoriesAsJson(directory, sum));
+          return res;
         });
 
     /* DIRECTORIES endpoint is an reader-level endpoint meant to dump the cached directory analysis by NNA. */
@@ -1500,7 +1309,13 @@ public class NNAnalyticsRestAPI {
           if (sum == null || sum.isEmpty()) {
             sum = "count";
           }
-          return nnLoader.getSuggestionsEngine().getFileAgeAsJson(sum);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getFileAgeAsJson(sum));
+          return res;
         });
 
     /* ADDDIRECTORY endpoint is an admin-level endpoint meant to add a directory for cached analysis by NNA. */
@@ -1535,7 +1350,13 @@ public class NNAnalyticsRestAPI {
           res.header("Content-Type", "application/json");
           String user = req.queryMap("user").value();
           String sum = req.queryMap("sum").value();
-          return nnLoader.getSuggestionsEngine().getQuotaAsJson(user, sum);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getQuotaAsJson(user, sum));
+          return res;
         });
 
     /* USERS endpoint is an admin-level endpoint meant to dump the cached set of detected users by NNA. */
@@ -1545,7 +1366,13 @@ public class NNAnalyticsRestAPI {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
           String suggestion = req.queryMap("suggestion").value();
-          return nnLoader.getSuggestionsEngine().getUsersAsJson(suggestion);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getUsersAsJson(suggestion));
+          return res;
         });
 
     /* TOP endpoint is an admin-level endpoint meant to dump the cached set of top issues by NNA. */
@@ -1558,7 +1385,13 @@ public class NNAnalyticsRestAPI {
           if (limit == null) {
             limit = 10;
           }
-          return nnLoader.getSuggestionsEngine().getIssuesAsJson(limit, false);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getIssuesAsJson(limit, false));
+          return res;
         });
 
     /* BOTTOM endpoint is an admin-level endpoint meant to dump the cached set of bottom issues by NNA.
@@ -1572,10 +1405,17 @@ public class NNAnalyticsRestAPI {
           if (limit == null) {
             limit = 10;
           }
-          return nnLoader.getSuggestionsEngine().getIssuesAsJson(limit, true);
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getIssuesAsJson(limit, true));
+          return res;
         });
 
-    /* HISTORY endpoint returns a set of data points from DB-stored suggestion snapshots. */
+    /* HISTORY endpoint returns a set of data points from DB-stored suggestion snapshots.
+    Optional "&rollup=" of hour, day or week returns min, max, avg and last per metric and bucket. */
     get(
         "/history",
         (req, res) -> {
@@ -1585,7 +1425,42 @@ public class NNAnalyticsRestAPI {
           String username = (usernameStr == null) ? "" : usernameStr;
           String fromDate = req.queryMap("fromDate").value();
           String toDate = req.queryMap("toDate").value();
-          return hsqlDriver.getAllHistory(fromDate, toDate, username);
+          String rollup = req.queryMap("rollup").value();
+          hsqlDriver.writeHistory(
+              fromDate,
+              toDate,
+              username,
+              rollup,
+              () ->
+                  new OutputStreamWriter(
+                      NNAHelper.openResponse(
+                          req.raw(), res.raw(), "application/json", conf.getDumpFlushBytes()),
+                      StandardCharsets.UTF_8));
+          return res;
+        });
+
+    /* TIMESERIES endpoint returns the [time, value] points of one suggestion over time.
+    "metric" is a suggestion value or map name, "user" the user or directory within the map. */
+    get(
+        "/timeseries",
+        (req, res) -> {
+          res.header("Access-Control-Allow-Origin", "*");
+          TimeSeriesStore timeSeries = nnLoader.getSuggestionsEngine().getTimeSeriesStore();
+          if (timeSeries == null) {
+            throw new IllegalArgumentException("Time series are disabled.");
+          }
+          String metric = req.queryMap("metric").value();
+          String user = req.queryMap("user").value();
+          Long from = req.queryMap("from").longValue();
+          Long to = req.queryMap("to").longValue();
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              timeSeries.getPoints(
+                  metric, user, (from == null) ? 0L : from, (to == null) ? Long.MAX_VALUE : to));
+          return res;
         });
 
     /* TOKEN endpoint returns a set of user names and the last known DelegationToken issuance date. */
@@ -1594,7 +1469,13 @@ public class NNAnalyticsRestAPI {
         (req, res) -> {
           res.header("Access-Control-Allow-Origin", "*");
           res.header("Content-Type", "application/json");
-          return nnLoader.getSuggestionsEngine().getTokens();
+          NNAHelper.writeResponse(
+              req.raw(),
+              res.raw(),
+              "application/json",
+              conf.getDumpFlushBytes(),
+              nnLoader.getSuggestionsEngine().getTokens());
+          return res;
         });
 
     /* SAVENAMESPACE endpoint is an admin-level endpoint meant to dump the in-memory INode set
@@ -1668,6 +1549,8 @@ public class NNAnalyticsRestAPI {
           try {
             nnLoader.clear();
             nnLoader.load(null, null, conf);
+            operationExecutor.resume(
+                conf.getBaseDir(), nnLoader::getFileSystem, nnLoader::getINode);
             res.body("Reload complete.");
           } catch (Throwable e) {
             res.body("Reload failed: " + e);
@@ -1716,7 +1599,10 @@ public class NNAnalyticsRestAPI {
     /* Any query tracking should be removed once the query is completed. */
     after(
         (req, res) -> {
-          res.header("Content-Encoding", "gzip");
+          // Streamed responses are already committed with their own encoding.
+          if (!res.raw().isCommitted()) {
+            res.header("Content-Encoding", "gzip");
+          }
           runningQueries.remove(NNAHelper.createQuery(req.raw(), secContext.getUserName()));
         });
 
@@ -1732,7 +1618,9 @@ public class NNAnalyticsRestAPI {
             res.header("Content-Type", "text/plain");
             res.status(HttpStatus.SC_FORBIDDEN);
             res.body(ex.getMessage());
-          } else if (ex instanceof MalformedURLException || ex instanceof SQLException) {
+          } else if (ex instanceof MalformedURLException
+              || ex instanceof SQLException
+              || ex instanceof ParseException) {
             res.header("Access-Control-Allow-Origin", "*");
             res.header("Content-Type", "text/plain");
             res.status(HttpStatus.SC_BAD_REQUEST);
@@ -1766,9 +1654,11 @@ public class NNAnalyticsRestAPI {
 
     Spark.awaitInitialization();
 
+    operationExecutor.start(conf);
     nnLoader.initHistoryRecorder(hsqlDriver, conf, conf.getHistoricalEnabled());
     nnLoader.load(gSet, preloadedHadoopConf, conf);
-    nnLoader.initReloadThreads(internalService, conf);
+    operationExecutor.resume(conf.getBaseDir(), nnLoader::getFileSystem, nnLoader::getINode);
+    nnLoader.initReloadThreads(internalService, conf, runningQueries::size);
   }
 
   @VisibleForTesting
@@ -1779,10 +1669,287 @@ public class NNAnalyticsRestAPI {
       LOG.error("Error during shutdown: ", e);
     }
     nnLoader.clear();
-    runningOperations.clear();
     runningQueries.clear();
-    operationService.shutdown();
+    operationExecutor.shutdown();
     internalService.shutdown();
     Spark.stop();
   }
+
+  /**
+   * Executes a /histogram query under the query lock.
+   *
+   * @param req the request
+   * @return the result to write to the client
+   */
+  private QueryResult histogram(Request req) throws Exception {
+    lock.writeLock().lock();
+    try {
+      String fullFilterStr = req.queryMap("filters").value();
+      String histogramConditionsStr = req.queryMap("histogramConditions").value();
+      String emailsToStr = req.queryMap("emailTo").value();
+      String emailsCCStr = req.queryMap("emailCC").value();
+      String emailFrom = req.queryMap("emailFrom").value();
+      String emailHost = req.queryMap("emailHost").value();
+      String emailConditionsStr = req.queryMap("emailConditions").value();
+      String[] filters = NNAHelper.parseFilters(fullFilterStr);
+      String[] filterOps = NNAHelper.parseFilterOps(fullFilterStr);
+      String histType = req.queryMap("type").value();
+      String set = req.queryMap("set").value();
+      Integer top = req.queryMap("top").integerValue();
+      Integer bottom = req.queryMap("bottom").integerValue();
+      String sumStr = req.queryMap("sum").value();
+      Boolean useLock = req.queryMap("useLock").booleanValue();
+      Boolean sortAscending = req.queryMap("sortAscending").booleanValue();
+      Boolean sortDescending = req.queryMap("sortDescending").booleanValue();
+      String sum = (sumStr != null) ? sumStr : "count";
+      String[] emailsTo = (emailsToStr != null) ? emailsToStr.split(",") : null;
+      String[] emailsCC = (emailsCCStr != null) ? emailsCCStr.split(",") : null;
+      String transformConditionsStr = req.queryMap("transformConditions").value();
+      String transformFieldsStr = req.queryMap("transformFields").value();
+      String transformOutputsStr = req.queryMap("transformOutputs").value();
+      Integer parentDirDepth = req.queryMap("parentDirDepth").integerValue();
+      String timeRangeStr = req.queryMap("timeRange").value();
+      String timeRange = (timeRangeStr != null) ? timeRangeStr : "weekly";
+      String outputTypeStr = req.queryMap("histogramOutput").value();
+      String outputType = (outputTypeStr != null) ? outputTypeStr : "chart";
+      String type = req.queryMap("type").value();
+      String find = req.queryMap("find").value();
+
+      QueryChecker.isValidQuery(set, filters, type, sum, filterOps, find);
+      Collection<INode> inodes = NNAHelper.performFilters(nnLoader, set, filters, filterOps);
+
+      HISTOGRAM htEnum = HISTOGRAM.valueOf(histType);
+      Map<String, Function<INode, Long>> transformMap =
+          Transforms.getAttributeTransforms(
+              transformConditionsStr, transformFieldsStr, transformOutputsStr, nnLoader);
+      Map<String, Long> histogram;
+      long startTime = System.currentTimeMillis();
+      String xAxis;
+
+      nnLoader.namesystemWriteLock(useLock);
+      try {
+        histogram =
+            NNAHelper.histogram(
+                nnLoader, htEnum, inodes, sum, find, timeRange, parentDirDepth, transformMap);
+        xAxis = NNAHelper.toXAxis(htEnum);
+      } finally {
+        nnLoader.namesystemWriteUnlock(useLock);
+      }
+
+      // Perform conditions filtering.
+      if (histogramConditionsStr != null && !histogramConditionsStr.isEmpty()) {
+        histogram =
+            nnLoader.getQueryEngine().removeKeysOnConditional(histogram, histogramConditionsStr);
+      }
+
+      // Slice top and bottom.
+      if (top != null && bottom != null) {
+        throw new IllegalArgumentException("Please choose only one type of slice.");
+      } else if (top != null && top > 0) {
+        histogram = Histograms.sliceToTop(histogram, top);
+      } else if (bottom != null && bottom > 0) {
+        histogram = Histograms.sliceToBottom(histogram, bottom);
+      }
+
+      // Sort results.
+      if (sortAscending != null && sortDescending != null) {
+        throw new IllegalArgumentException("Please choose one type of sort.");
+      } else if (sortAscending != null && sortAscending) {
+        histogram = Histograms.sortByValue(histogram, true);
+      } else if (sortDescending != null && sortDescending) {
+        histogram = Histograms.sortByValue(histogram, false);
+      }
+
+      long endTime = System.currentTimeMillis();
+      LOG.info("Performing histogram: {} took: {} ms.", histType, (endTime - startTime));
+
+      // Email out.
+      if (emailsTo != null && emailsTo.length != 0 && emailHost != null && emailFrom != null) {
+        String subject =
+            nnLoader.getAuthority()
+                + " | X: "
+                + histType
+                + " | Y: "
+                + sum
+                + " | "
+                + set
+                + " | Filters: "
+                + fullFilterStr;
+        try {
+          Set<String> highlightKeys = new HashSet<>();
+          if (emailConditionsStr != null) {
+            MailOutput.check(emailConditionsStr, histogram, highlightKeys, nnLoader);
+          }
+          MailOutput.write(
+              subject, histogram, highlightKeys, emailHost, emailsTo, emailsCC, emailFrom);
+        } catch (Exception e) {
+          LOG.info("Failed to email output with exception: {}", e);
+        }
+      }
+
+      // Return final histogram to Web UI as output type.
+      HISTOGRAM_OUTPUT output = HISTOGRAM_OUTPUT.valueOf(outputType);
+      switch (output) {
+        case chart:
+          Map<String, Long> chartHistogram = histogram;
+          String title = NNAHelper.toTitle(histType, sum);
+          String yAxis = NNAHelper.toYAxis(sum);
+          return new QueryResult(
+              "application/json",
+              out -> Histograms.writeChartJsJson(chartHistogram, title, yAxis, xAxis, out));
+        case json:
+          Map<String, Long> jsonHistogram = histogram;
+          return new QueryResult(
+              "application/json", out -> Histograms.writeJson(jsonHistogram, out));
+        case csv:
+          Map<String, Long> csvHistogram = histogram;
+          return new QueryResult("text/plain", out -> Histograms.writeCSV(csvHistogram, find, out));
+        default:
+          throw new IllegalArgumentException(
+              "Could not determine output type: "
+                  + histType
+                  + ".\nPlease check /histogramOutputs for available histogram outputs.");
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /**
+   * Executes a /histogram2 query under the query lock.
+   *
+   * @param req the request
+   * @return the result to write to the client
+   */
+  private QueryResult histogram2(Request req) throws Exception {
+    lock.writeLock().lock();
+    try {
+      String fullFilterStr = req.queryMap("filters").value();
+      String[] filters = NNAHelper.parseFilters(fullFilterStr);
+      String[] filterOps = NNAHelper.parseFilterOps(fullFilterStr);
+      String histType = req.queryMap("type").value();
+      String set = req.queryMap("set").value();
+      String sumStr = req.queryMap("sum").value();
+      Integer sortAscendingIndex = req.queryMap("sortAscendingIndex").integerValue();
+      Integer sortDescendingIndex = req.queryMap("sortDescendingIndex").integerValue();
+      String histogramConditionsStr = req.queryMap("histogramConditions").value();
+      Boolean useLock = req.queryMap("useLock").booleanValue();
+      String[] sums = (sumStr != null) ? sumStr.split(",") : new String[0];
+      Integer parentDirDepth = req.queryMap("parentDirDepth").integerValue();
+      String outputTypeStr = req.queryMap("histogramOutput").value();
+      String timeRangeStr = req.queryMap("timeRange").value();
+      String timeRange = (timeRangeStr != null) ? timeRangeStr : "weekly";
+      String outputType = (outputTypeStr != null) ? outputTypeStr : "json";
+      String type = req.queryMap("type").value();
+      String findStr = req.queryMap("find").value();
+      String[] finds = (findStr != null) ? findStr.split(",") : new String[0];
+
+      for (String sum : sums) {
+        QueryChecker.isValidQuery(set, filters, type, sum, filterOps, null);
+      }
+      for (String find : finds) {
+        QueryChecker.isValidQuery(set, filters, type, null, filterOps, find);
+      }
+      Collection<INode> inodes = NNAHelper.performFilters(nnLoader, set, filters, filterOps);
+
+      HISTOGRAM htEnum = HISTOGRAM.valueOf(histType);
+
+      long startTime = System.currentTimeMillis();
+      if (htEnum == HISTOGRAM.dirQuota) {
+        throw new IllegalArgumentException(
+            "Could not determine histogram type: "
+                + histType
+                + ".\nPlease check /histograms for available histograms.");
+      }
+
+      List<Map<String, Long>> histograms;
+      nnLoader.namesystemWriteLock(useLock);
+      try {
+        histograms =
+            nnLoader
+                .getQueryEngine()
+                .multiHistogram(inodes, htEnum, sums, finds, timeRange, parentDirDepth);
+        if (histograms == null) {
+          histograms = new ArrayList<>(sums.length + finds.length);
+          for (int i = 0, j = 0; i < sums.length || j < finds.length; ) {
+            String sum = null;
+            String find = null;
+            if (i < sums.length) {
+              sum = sums[i];
+              i++;
+            } else {
+              find = finds[j];
+              j++;
+            }
+            histograms.add(
+                NNAHelper.histogram(
+                    nnLoader,
+                    htEnum,
+                    inodes,
+                    sum,
+                    find,
+                    timeRange,
+                    parentDirDepth,
+                    Collections.emptyMap()));
+          }
+        }
+      } finally {
+        nnLoader.namesystemWriteUnlock(useLock);
+      }
+
+      Map<String, List<Long>> mergedHistogram =
+          histograms
+              .parallelStream()
+              .flatMap(m -> m.entrySet().stream())
+              .collect(
+                  Collectors.groupingBy(
+                      Entry::getKey,
+                      Collector.of(
+                          ArrayList<Long>::new,
+                          (list, item) -> list.add(item.getValue()),
+                          (left, right) -> {
+                            left.addAll(right);
+                            return left;
+                          })));
+
+      // Perform conditions filtering.
+      if (histogramConditionsStr != null && !histogramConditionsStr.isEmpty()) {
+        mergedHistogram =
+            nnLoader
+                .getQueryEngine()
+                .removeKeysOnConditional2(mergedHistogram, histogramConditionsStr);
+      }
+
+      // Sort results.
+      if (sortAscendingIndex != null && sortDescendingIndex != null) {
+        throw new IllegalArgumentException("Please choose one type of sort index.");
+      } else if (sortAscendingIndex != null) {
+        mergedHistogram = Histograms.sortByValue(mergedHistogram, sortAscendingIndex, true);
+      } else if (sortDescendingIndex != null) {
+        mergedHistogram = Histograms.sortByValue(mergedHistogram, sortDescendingIndex, false);
+      }
+
+      long endTime = System.currentTimeMillis();
+      LOG.info("Performing histogram2: {} took: {} ms.", histType, (endTime - startTime));
+
+      // Return final histogram to Web UI as output type.
+      HISTOGRAM_OUTPUT output = HISTOGRAM_OUTPUT.valueOf(outputType);
+      switch (output) {
+        case json:
+          Map<String, List<Long>> jsonHistogram = mergedHistogram;
+          return new QueryResult(
+              "application/json", out -> Histograms.writeJson(jsonHistogram, out));
+        case csv:
+          Map<String, List<Long>> csvHistogram = mergedHistogram;
+          return new QueryResult("text/plain", out -> Histograms.writeCSV(csvHistogram, out));
+        default:
+          throw new IllegalArgumentException(
+              "Could not determine output type: "
+                  + histType
+                  + ".\nPlease check /histogramOutputs for available histogram outputs.");
+      }
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
 }
@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.namenode;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.servlet.http.HttpServletRequest;
+import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single-flight de-duplication of identical in-flight queries. The first request for a given key
+ * executes the query; every identical request arriving while it runs waits for and receives the
+ * same result instead of running its own scan.
+ */
+class QueryCoalescer {
+
+  public static final Logger LOG = LoggerFactory.getLogger(QueryCoalescer.class.getName());
+
+  private final Map<String, CompletableFuture<QueryResult>> inFlight = new ConcurrentHashMap<>();
+  private final AtomicLong coalesced = new AtomicLong(0L);
+
+  /**
+   * Result of a query. The body is written to each client separately, so coalesced requests share
+   * the computed result without it ever being rendered into one string.
+   */
+  static class QueryResult {
+    private final String contentType;
+    private final Histograms.Output body;
+
+    QueryResult(String contentType, Histograms.Output body) {
+      this.contentType = contentType;
+      this.body = body;
+    }
+
+    String getContentType() {
+      return contentType;
+    }
+
+    Histograms.Output getBody() {
+      return body;
+    }
+  }
+
+  /**
+   * Creates the coalescing key for a request. Parameters are sorted so that their order in the URL
+   * does not matter and the "proxy" parameter is dropped as it only affects who is asking. The
+   * caller's access levels are part of the key so requests are only shared within one scope.
+   *
+   * @param req the request
+   * @param accessLevels the access levels of the requesting user
+   * @return normalized key for the request
+   */
+  static String toKey(HttpServletRequest req, Enum<?>[] accessLevels) {
+    Map<String, String> params = new TreeMap<>();
+    for (Map.Entry<String, String[]> param : req.getParameterMap().entrySet()) {
+      if (param.getKey().equals("proxy")) {
+        continue;
+      }
+      String[] values = param.getValue().clone();
+      Arrays.sort(values);
+      params.put(param.getKey(), String.join(",", values));
+    }
+    return req.getRequestURI() + "?" + params + "|" + Arrays.toString(accessLevels);
+  }
+
+  /**
+   * Executes the query or attaches to an identical one that is already running.
+   *
+   * @param key the normalized query key
+   * @param query the query to execute if no identical query is running
+   * @return the result of the query
+   * @throws Exception the exception thrown by the query
+   */
+  QueryResult execute(String key, Callable<QueryResult> query) throws Exception {
+    CompletableFuture<QueryResult> future = new CompletableFuture<>();
+    CompletableFuture<QueryResult> running = inFlight.putIfAbsent(key, future);
+    if (running != null) {
+      coalesced.incrementAndGet();
+      LOG.info("Attaching to in-flight query: {}", key);
+      try {
+        return running.get();
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof Exception) {
+          throw (Exception) cause;
+        }
+        throw e;
+      }
+    }
+
+    try {
+      QueryResult result = query.call();
+      future.complete(result);
+      return result;
+    } catch (Throwable e) {
+      future.completeExceptionally(e);
+      throw e;
+    } finally {
+      inFlight.remove(key, future);
+    }
+  }
+
+  long getCoalescedCount() {
+    return coalesced.get();
+  }
+
+  int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  @Override
+  public String toString() {
+    return "In-flight queries: "
+        + getInFlightCount()
+        + ", coalesced queries: "
+        + getCoalescedCount();
+  }
+}
@@ -46,6 +46,35 @@ public class SecurityConfiguration {
   private static final String LDAP_RESPONSE_TIMEOUT_DEFAULT = "1000";
   private static final String NNA_SUGGESTIONS_RELOAD_TIMEOUT_DEFAULT = "900000";
   private static final String NNA_BASE_DIR_DEFAULT = "/usr/local/nn-analytics";
+  private static final String NNA_QUERY_CACHE_ENABLED_DEFAULT = "true";
+  private static final String NNA_QUERY_CACHE_MAX_BYTES_DEFAULT = "536870912";
+  private static final String NNA_QUERY_CACHE_TTL_MS_DEFAULT = "300000";
+  private static final String NNA_QUERY_CACHE_MAX_TXID_DRIFT_DEFAULT = "10000";
+  private static final String NNA_QUERY_DUMP_FLUSH_BYTES_DEFAULT = "65536";
+  private static final String NNA_SHARED_SCAN_ENABLED_DEFAULT = "true";
+  private static final String NNA_SHARED_SCAN_BATCH_WINDOW_MS_DEFAULT = "25";
+  private static final String NNA_SUGGESTIONS_INCREMENTAL_ENABLED_DEFAULT = "true";
+  private static final String NNA_SUGGESTIONS_INCREMENTAL_INTERVAL_MS_DEFAULT = "30000";
+  private static final String NNA_SUGGESTIONS_RELOAD_MIN_INTERVAL_MS_DEFAULT = "60000";
+  private static final String NNA_SUGGESTIONS_RELOAD_TXID_THRESHOLD_DEFAULT = "100000";
+  private static final String NNA_SUGGESTIONS_RELOAD_INODE_THRESHOLD_DEFAULT = "100000";
+  private static final String NNA_SUGGESTIONS_RELOAD_BUSY_QUERIES_DEFAULT = "4";
+  private static final String NNA_CACHE_COMPRESSION_ENABLED_DEFAULT = "true";
+  private static final String NNA_HISTORICAL_QUEUE_SIZE_DEFAULT = "8";
+  private static final String NNA_HISTORICAL_COMPACT_AFTER_DAYS_DEFAULT = "0";
+  private static final String NNA_HISTORICAL_READ_CONNECTIONS_DEFAULT = "4";
+  private static final String NNA_HISTORICAL_QUERY_TIMEOUT_MS_DEFAULT = "30000";
+  private static final String NNA_TIMESERIES_ENABLED_DEFAULT = "true";
+  private static final String NNA_TIMESERIES_SEGMENT_MS_DEFAULT = "86400000";
+  private static final String NNA_TIMESERIES_RETENTION_DAYS_DEFAULT = "365";
+  private static final String NNA_OPERATIONS_CONCURRENT_DEFAULT = "2";
+  private static final String NNA_OPERATIONS_WORKERS_DEFAULT = "4";
+  private static final String NNA_OPERATIONS_RATE_INITIAL_DEFAULT = "20";
+  private static final String NNA_OPERATIONS_RATE_MIN_DEFAULT = "1";
+  private static final String NNA_OPERATIONS_RATE_MAX_DEFAULT = "500";
+  private static final String NNA_OPERATIONS_RPC_LATENCY_TARGET_MS_DEFAULT = "100";
+  private static final String NNA_OPERATIONS_LOG_COMMIT_INTERVAL_MS_DEFAULT = "1000";
+  private static final String NNA_OPERATIONS_LOG_COMMIT_BYTES_DEFAULT = "65536";
 
   public SecurityConfiguration() {
     InputStream input = this.getClass().getClassLoader().getResourceAsStream(SEC_PROPERTIES);
@@ -129,6 +158,89 @@ public class SecurityConfiguration {
             "nna.suggestions.reload.sleep.ms", NNA_SUGGESTIONS_RELOAD_TIMEOUT_DEFAULT));
   }
 
+  public boolean getQueryCacheEnabled() {
+    return Boolean.parseBoolean(
+        properties.getProperty("nna.query.cache.enable", NNA_QUERY_CACHE_ENABLED_DEFAULT));
+  }
+
+  public long getQueryCacheMaxBytes() {
+    return Long.parseLong(
+        properties.getProperty("nna.query.cache.max.bytes", NNA_QUERY_CACHE_MAX_BYTES_DEFAULT));
+  }
+
+  public long getQueryCacheTtlMs() {
+    return Long.parseLong(
+        properties.getProperty("nna.query.cache.ttl.ms", NNA_QUERY_CACHE_TTL_MS_DEFAULT));
+  }
+
+  public long getQueryCacheMaxTxidDrift() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.query.cache.max.txid.drift", NNA_QUERY_CACHE_MAX_TXID_DRIFT_DEFAULT));
+  }
+
+  public int getDumpFlushBytes() {
+    return Integer.parseInt(
+        properties.getProperty("nna.query.dump.flush.bytes", NNA_QUERY_DUMP_FLUSH_BYTES_DEFAULT));
+  }
+
+  public boolean getSharedScanEnabled() {
+    return Boolean.parseBoolean(
+        properties.getProperty("nna.shared.scan.enable", NNA_SHARED_SCAN_ENABLED_DEFAULT));
+  }
+
+  public long getSharedScanBatchWindowMs() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.shared.scan.batch.window.ms", NNA_SHARED_SCAN_BATCH_WINDOW_MS_DEFAULT));
+  }
+
+  public long getSuggestionsReloadMinIntervalMs() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.suggestions.reload.min.interval.ms",
+            NNA_SUGGESTIONS_RELOAD_MIN_INTERVAL_MS_DEFAULT));
+  }
+
+  public long getSuggestionsReloadTxidThreshold() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.suggestions.reload.txid.threshold",
+            NNA_SUGGESTIONS_RELOAD_TXID_THRESHOLD_DEFAULT));
+  }
+
+  public long getSuggestionsReloadINodeThreshold() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.suggestions.reload.inode.threshold",
+            NNA_SUGGESTIONS_RELOAD_INODE_THRESHOLD_DEFAULT));
+  }
+
+  public int getSuggestionsReloadBusyQueries() {
+    return Integer.parseInt(
+        properties.getProperty(
+            "nna.suggestions.reload.busy.queries", NNA_SUGGESTIONS_RELOAD_BUSY_QUERIES_DEFAULT));
+  }
+
+  public boolean getSuggestionsIncrementalEnabled() {
+    return Boolean.parseBoolean(
+        properties.getProperty(
+            "nna.suggestions.incremental.enable", NNA_SUGGESTIONS_INCREMENTAL_ENABLED_DEFAULT));
+  }
+
+  public long getSuggestionsIncrementalIntervalMs() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.suggestions.incremental.interval.ms",
+            NNA_SUGGESTIONS_INCREMENTAL_INTERVAL_MS_DEFAULT));
+  }
+
+  public boolean getCacheCompressionEnabled() {
+    return Boolean.parseBoolean(
+        properties.getProperty(
+            "nna.cache.compression.enable", NNA_CACHE_COMPRESSION_ENABLED_DEFAULT));
+  }
+
   public String getJwtSignatureSecret() {
     return properties.getProperty("jwt.signature.secret");
   }
@@ -208,4 +320,87 @@ public class SecurityConfiguration {
   public String getHistoricalPassword() {
     return properties.getProperty("nna.historical.password", "root");
   }
+
+  public int getHistoricalQueueSize() {
+    return Integer.parseInt(
+        properties.getProperty("nna.historical.queue.size", NNA_HISTORICAL_QUEUE_SIZE_DEFAULT));
+  }
+
+  public int getHistoricalCompactAfterDays() {
+    return Integer.parseInt(
+        properties.getProperty(
+            "nna.historical.compact.after.days", NNA_HISTORICAL_COMPACT_AFTER_DAYS_DEFAULT));
+  }
+
+  public int getHistoricalReadConnections() {
+    return Integer.parseInt(
+        properties.getProperty(
+            "nna.historical.read.connections", NNA_HISTORICAL_READ_CONNECTIONS_DEFAULT));
+  }
+
+  public long getHistoricalQueryTimeoutMs() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.historical.query.timeout.ms", NNA_HISTORICAL_QUERY_TIMEOUT_MS_DEFAULT));
+  }
+
+  public boolean getTimeSeriesEnabled() {
+    return Boolean.parseBoolean(
+        properties.getProperty("nna.timeseries.enable", NNA_TIMESERIES_ENABLED_DEFAULT));
+  }
+
+  public long getTimeSeriesSegmentMs() {
+    return Long.parseLong(
+        properties.getProperty("nna.timeseries.segment.ms", NNA_TIMESERIES_SEGMENT_MS_DEFAULT));
+  }
+
+  public int getTimeSeriesRetentionDays() {
+    return Integer.parseInt(
+        properties.getProperty(
+            "nna.timeseries.retention.days", NNA_TIMESERIES_RETENTION_DAYS_DEFAULT));
+  }
+
+  public int getOperationsConcurrent() {
+    return Integer.parseInt(
+        properties.getProperty("nna.operations.concurrent", NNA_OPERATIONS_CONCURRENT_DEFAULT));
+  }
+
+  public int getOperationsWorkers() {
+    return Integer.parseInt(
+        properties.getProperty("nna.operations.workers", NNA_OPERATIONS_WORKERS_DEFAULT));
+  }
+
+  public double getOperationsRateInitial() {
+    return Double.parseDouble(
+        properties.getProperty("nna.operations.rate.initial", NNA_OPERATIONS_RATE_INITIAL_DEFAULT));
+  }
+
+  public double getOperationsRateMin() {
+    return Double.parseDouble(
+        properties.getProperty("nna.operations.rate.min", NNA_OPERATIONS_RATE_MIN_DEFAULT));
+  }
+
+  public double getOperationsRateMax() {
+    return Double.parseDouble(
+        properties.getProperty("nna.operations.rate.max", NNA_OPERATIONS_RATE_MAX_DEFAULT));
+  }
+
+  public long getOperationsRpcLatencyTargetMs() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.operations.rpc.latency.target.ms", NNA_OPERATIONS_RPC_LATENCY_TARGET_MS_DEFAULT));
+  }
+
+  public long getOperationsLogCommitIntervalMs() {
+    return Long.parseLong(
+        properties.getProperty(
+            "nna.operations.log.commit.interval.ms",
+            NNA_OPERATIONS_LOG_COMMIT_INTERVAL_MS_DEFAULT));
+  }
+
+  public int getOperationsLogCommitBytes() {
+    return Integer.parseInt(
+        properties.getProperty(
+            "nna.operations.log.commit.bytes", NNA_OPERATIONS_LOG_COMMIT_BYTES_DEFAULT));
+  }
 }
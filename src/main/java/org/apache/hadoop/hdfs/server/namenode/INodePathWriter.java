@@ -0,0 +1,254 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.PATH_OUTPUT;
+
+/**
+ * Writes lists of full INode paths, straight from the local name bytes of their ancestors.
+ *
+ * <p>The path of the last written INode is kept in a reusable buffer together with its ancestors,
+ * so the next path only appends the components below the deepest shared ancestor. Consecutive
+ * siblings, as handed out by an ordered walk, only copy their own name. No Strings are built and
+ * nothing is allocated per path once the buffers have grown to the deepest path.
+ *
+ * <p>Paths are written in one of two formats:
+ *
+ * <ul>
+ *   <li>{@link PATH_OUTPUT#text}: one UTF-8 path per line.
+ *   <li>{@link PATH_OUTPUT#frontCoded}: the ASCII magic {@value #FRONT_CODED_MAGIC}, the block size
+ *       as a varint and then per path the number of leading bytes shared with the previous path and
+ *       the number of remaining bytes as varints, followed by the remaining UTF-8 bytes. The first
+ *       path of every block shares nothing, so blocks can be decoded on their own. Varints are
+ *       unsigned LEB128: 7 bits per byte, least significant first, high bit set on all but the last
+ *       byte. The list ends with the stream.
+ * </ul>
+ *
+ * <p>Output is buffered and flushed to the underlying stream every time the buffer fills up. Not
+ * thread-safe.
+ */
+public class INodePathWriter implements Closeable {
+
+  public static final String FRONT_CODED_MAGIC = "NNAFC1";
+  public static final int FRONT_CODED_BLOCK_SIZE = 256;
+
+  private static final byte SEPARATOR = '/';
+
+  private final OutputStream out;
+  private final PATH_OUTPUT format;
+  private final byte[] buffer;
+  private int buffered = 0;
+  private boolean started = false;
+  private long written = 0L;
+
+  private INode[] ancestors = new INode[16];
+  private int[] ends = new int[16];
+  private int depth = 0;
+  private byte[] path = new byte[256];
+  private int length = 0;
+  private int shared = 0;
+
+  /**
+   * @param out stream to write to; closed along with this writer
+   * @param flushBytes number of bytes written between two flushes of the stream
+   * @param format the output format
+   */
+  public INodePathWriter(OutputStream out, int flushBytes, PATH_OUTPUT format) {
+    this.out = out;
+    this.format = format;
+    this.buffer = new byte[Math.max(1, flushBytes)];
+  }
+
+  /**
+   * Writes the full path of an INode.
+   *
+   * @param node the INode
+   * @throws IOException if writing to the stream failed
+   */
+  public void write(INode node) throws IOException {
+    assemble(node);
+    writePath();
+  }
+
+  /**
+   * Writes a path that was already built.
+   *
+   * @param bytes the UTF-8 bytes of the path
+   * @throws IOException if writing to the stream failed
+   */
+  public void write(byte[] bytes) throws IOException {
+    ensureCapacity(bytes.length);
+    int previousLength = length;
+    shared = 0;
+    length = 0;
+    for (byte b : bytes) {
+      put(b, previousLength);
+    }
+    // The ancestors no longer match the path buffer.
+    depth = 0;
+    writePath();
+  }
+
+  /** @return number of paths written */
+  public long getWritten() {
+    return written;
+  }
+
+  /**
+   * Builds the path of an INode into the path buffer, keeping the components it shares with the
+   * previous path.
+   */
+  private void assemble(INode node) {
+    int newDepth = 0;
+    for (INode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+      newDepth++;
+    }
+    int previousLength = length;
+    if (newDepth == 0) {
+      // The root itself.
+      depth = 0;
+      shared = 0;
+      length = 0;
+      put(SEPARATOR, previousLength);
+      return;
+    }
+    if (newDepth > ancestors.length) {
+      ancestors = Arrays.copyOf(ancestors, Math.max(newDepth, ancestors.length * 2));
+      ends = Arrays.copyOf(ends, ancestors.length);
+    }
+    // Replace ancestors bottom up until one is found in the same place as for the last path.
+    int level = newDepth - 1;
+    INode current = node;
+    while (level >= 0 && !(level < depth && ancestors[level] == current)) {
+      ancestors[level] = current;
+      current = current.getParent();
+      level--;
+    }
+    length = (level < 0) ? 0 : ends[level];
+    shared = length;
+    for (level++; level < newDepth; level++) {
+      byte[] name = ancestors[level].getLocalNameBytes();
+      ensureCapacity(length + 1 + name.length);
+      put(SEPARATOR, previousLength);
+      for (byte b : name) {
+        put(b, previousLength);
+      }
+      ends[level] = length;
+    }
+    depth = newDepth;
+  }
+
+  /** Appends a byte to the path buffer, extending the prefix shared with the previous path. */
+  private void put(byte b, int previousLength) {
+    if (shared == length && length < previousLength && path[length] == b) {
+      shared++;
+    }
+    path[length++] = b;
+  }
+
+  private void ensureCapacity(int capacity) {
+    if (capacity > path.length) {
+      path = Arrays.copyOf(path, Math.max(capacity, path.length * 2));
+    }
+  }
+
+  private void writePath() throws IOException {
+    if (format == PATH_OUTPUT.text) {
+      write(path, 0, length);
+      writeByte('\n');
+    } else {
+      writeHeader();
+      int prefix = (written % FRONT_CODED_BLOCK_SIZE == 0) ? 0 : shared;
+      writeVarint(prefix);
+      writeVarint(length - prefix);
+      write(path, prefix, length - prefix);
+    }
+    written++;
+  }
+
+  private void writeHeader() throws IOException {
+    if (started) {
+      return;
+    }
+    started = true;
+    if (format == PATH_OUTPUT.frontCoded) {
+      byte[] magic = FRONT_CODED_MAGIC.getBytes(StandardCharsets.US_ASCII);
+      write(magic, 0, magic.length);
+      writeVarint(FRONT_CODED_BLOCK_SIZE);
+    }
+  }
+
+  private void writeVarint(int value) throws IOException {
+    while ((value & ~0x7F) != 0) {
+      writeByte((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    writeByte(value);
+  }
+
+  private void writeByte(int b) throws IOException {
+    buffer[buffered++] = (byte) b;
+    if (buffered == buffer.length) {
+      flush();
+    }
+  }
+
+  private void write(byte[] bytes, int offset, int count) throws IOException {
+    while (count > 0) {
+      int copied = Math.min(count, buffer.length - buffered);
+      System.arraycopy(bytes, offset, buffer, buffered, copied);
+      buffered += copied;
+      offset += copied;
+      count -= copied;
+      if (buffered == buffer.length) {
+        flush();
+      }
+    }
+  }
+
+  /**
+   * Writes out all buffered bytes and flushes the stream.
+   *
+   * @throws IOException if writing to the stream failed
+   */
+  public void flush() throws IOException {
+    if (buffered > 0) {
+      out.write(buffer, 0, buffered);
+      buffered = 0;
+    }
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      writeHeader();
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,300 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import java.util.stream.StreamSupport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes several histogram columns over the same INodes in a single parallel pass. Each column is
+ * bound to a bin plan that maps an INode to its bin; columns sharing a plan share the bin lookup.
+ * Every column keeps its own per-bin accumulator and is finalized exactly like the matching
+ * single-column histogram in {@link QueryEngine}.
+ */
+class MultiHistogram {
+
+  public static final Logger LOG = LoggerFactory.getLogger(MultiHistogram.class.getName());
+
+  private enum Mode {
+    SUM,
+    MAX,
+    MIN,
+    AVG,
+    NONE
+  }
+
+  private static class Plan {
+    private final ToIntFunction<INode> binFunc;
+    private final int numBins;
+    private final boolean binMapping;
+    private final Function<long[], Map<String, Long>> toHistogram;
+
+    private Plan(
+        ToIntFunction<INode> binFunc,
+        int numBins,
+        boolean binMapping,
+        Function<long[], Map<String, Long>> toHistogram) {
+      this.binFunc = binFunc;
+      this.numBins = numBins;
+      this.binMapping = binMapping;
+      this.toHistogram = toHistogram;
+    }
+  }
+
+  private static class Column {
+    private final int plan;
+    private final Mode mode;
+    private final Function<INode, Long> valueFunc;
+
+    private Column(int plan, Mode mode, Function<INode, Long> valueFunc) {
+      this.plan = plan;
+      this.mode = mode;
+      this.valueFunc = valueFunc;
+    }
+  }
+
+  private final List<Plan> plans = new ArrayList<>();
+  private final List<Column> columns = new ArrayList<>();
+
+  /**
+   * Adds a plan that bins INodes into the first bin whose upper bound is not exceeded, like the
+   * filtering histograms, ex: file size or access time.
+   *
+   * @param nodeToLong the INode value to bin on
+   * @param binsArray upper bounds of each bin
+   * @param toHistogram maps the finalized bins to the histogram
+   * @return the plan index
+   */
+  int addFilteringPlan(
+      Function<INode, Long> nodeToLong,
+      Long[] binsArray,
+      Function<long[], Map<String, Long>> toHistogram) {
+    ToIntFunction<INode> binFunc =
+        node -> {
+          long datum = nodeToLong.apply(node);
+          for (int i = 0; i < binsArray.length; i++) {
+            if (datum <= binsArray[i]) {
+              return i;
+            }
+          }
+          return binsArray.length;
+        };
+    plans.add(new Plan(binFunc, binsArray.length + 1, false, toHistogram));
+    return plans.size() - 1;
+  }
+
+  /**
+   * Adds a plan that bins INodes by a pre-computed key ID, like the bin mapping histograms, ex: by
+   * user or group. IDs outside of the key map fall into a trailing unmapped bin.
+   *
+   * @param nodeToLong the INode to key ID function
+   * @param binKeyMap map of keys to key IDs
+   * @param toHistogram maps the finalized bins to the histogram
+   * @return the plan index
+   */
+  int addBinMappingPlan(
+      Function<INode, Long> nodeToLong,
+      Map<String, Long> binKeyMap,
+      Function<long[], Map<String, Long>> toHistogram) {
+    int unmapped = binKeyMap.size();
+    ToIntFunction<INode> binFunc =
+        node -> {
+          int id = (int) (long) nodeToLong.apply(node);
+          return (id < unmapped && id != -1) ? id : unmapped;
+        };
+    plans.add(new Plan(binFunc, unmapped + 1, true, toHistogram));
+    return plans.size() - 1;
+  }
+
+  void addSum(int plan, Function<INode, Long> sumFunc) {
+    columns.add(new Column(plan, Mode.SUM, sumFunc));
+  }
+
+  void addFind(int plan, String findOp, Function<INode, Long> findFunc) {
+    Mode mode;
+    switch (findOp) {
+      case "max":
+        mode = Mode.MAX;
+        break;
+      case "min":
+        mode = Mode.MIN;
+        break;
+      case "avg":
+        mode = Mode.AVG;
+        break;
+      default:
+        mode = Mode.NONE;
+        break;
+    }
+    columns.add(new Column(plan, mode, findFunc));
+  }
+
+  /**
+   * Fills all columns in one parallel pass over the INodes.
+   *
+   * @param inodes the INodes to bin
+   * @return one histogram per column in the order the columns were added
+   */
+  List<Map<String, Long>> run(Collection<INode> inodes) {
+    long start = System.currentTimeMillis();
+    Accumulators result =
+        StreamSupport.stream(inodes.spliterator(), true)
+            .collect(Accumulators::new, Accumulators::accept, Accumulators::combine);
+    List<Map<String, Long>> histograms = new ArrayList<>(columns.size());
+    for (int c = 0; c < columns.size(); c++) {
+      Plan plan = plans.get(columns.get(c).plan);
+      histograms.add(plan.toHistogram.apply(result.finish(c)));
+    }
+    long end = System.currentTimeMillis();
+    LOG.info(
+        "Histogram of {} columns over {} bin plans took: {} ms.",
+        columns.size(),
+        plans.size(),
+        (end - start));
+    return histograms;
+  }
+
+  /** Per-thread partial results of all columns. */
+  private class Accumulators {
+    private final int[] bins = new int[plans.size()];
+    private final long[][] values = new long[columns.size()][];
+    private final long[][] counts = new long[columns.size()][];
+    private final BigInteger[][] overflows = new BigInteger[columns.size()][];
+
+    private Accumulators() {
+      for (int c = 0; c < columns.size(); c++) {
+        Column column = columns.get(c);
+        Plan plan = plans.get(column.plan);
+        values[c] = new long[plan.numBins];
+        if (plan.binMapping && (column.mode == Mode.MAX || column.mode == Mode.MIN)) {
+          Arrays.fill(values[c], -1L);
+        }
+        if (column.mode == Mode.AVG) {
+          counts[c] = new long[plan.numBins];
+          overflows[c] = new BigInteger[plan.numBins];
+        }
+      }
+    }
+
+    private void accept(INode node) {
+      for (int p = 0; p < bins.length; p++) {
+        bins[p] = plans.get(p).binFunc.applyAsInt(node);
+      }
+      for (int c = 0; c < values.length; c++) {
+        Column column = columns.get(c);
+        int bin = bins[column.plan];
+        long value = column.valueFunc.apply(node);
+        update(c, column, plans.get(column.plan).binMapping, bin, value, 1L);
+      }
+    }
+
+    private void combine(Accumulators other) {
+      for (int c = 0; c < values.length; c++) {
+        Column column = columns.get(c);
+        boolean binMapping = plans.get(column.plan).binMapping;
+        for (int bin = 0; bin < values[c].length; bin++) {
+          if (column.mode == Mode.AVG) {
+            update(c, column, binMapping, bin, other.values[c][bin], other.counts[c][bin]);
+            if (other.overflows[c][bin] != null) {
+              addOverflow(c, bin, other.overflows[c][bin]);
+            }
+          } else if (!(binMapping && other.values[c][bin] == -1L && column.mode == Mode.MIN)) {
+            update(c, column, binMapping, bin, other.values[c][bin], 1L);
+          }
+        }
+      }
+    }
+
+    private void update(int c, Column column, boolean binMapping, int bin, long value, long count) {
+      long[] histogram = values[c];
+      long current = histogram[bin];
+      switch (column.mode) {
+        case SUM:
+          histogram[bin] = current + value;
+          break;
+        case MAX:
+          if (current < value) {
+            histogram[bin] = value;
+          }
+          break;
+        case MIN:
+          if (binMapping) {
+            if (current == -1L || current > value) {
+              histogram[bin] = value;
+            }
+          } else if (value == 0L || current > value) {
+            histogram[bin] = value;
+          }
+          break;
+        case AVG:
+          long total = current + value;
+          if (((current ^ total) & (value ^ total)) < 0) {
+            addOverflow(c, bin, BigInteger.valueOf(current));
+            total = value;
+          }
+          histogram[bin] = total;
+          counts[c][bin] += count;
+          break;
+        default:
+          break;
+      }
+    }
+
+    private void addOverflow(int c, int bin, BigInteger value) {
+      BigInteger overflow = overflows[c][bin];
+      overflows[c][bin] = (overflow == null) ? value : overflow.add(value);
+    }
+
+    private long[] finish(int c) {
+      Column column = columns.get(c);
+      long[] histogram = values[c];
+      int unmapped = histogram.length - 1;
+      if (column.mode == Mode.AVG) {
+        long[] averages = new long[histogram.length];
+        for (int bin = 0; bin < histogram.length; bin++) {
+          long count = counts[c][bin];
+          if (count != 0) {
+            BigInteger total = BigInteger.valueOf(histogram[bin]);
+            if (overflows[c][bin] != null) {
+              total = total.add(overflows[c][bin]);
+            }
+            averages[bin] = total.divide(BigInteger.valueOf(count)).longValue();
+          } else if (plans.get(column.plan).binMapping && bin != unmapped) {
+            averages[bin] = -1L;
+          }
+        }
+        return averages;
+      }
+      if (plans.get(column.plan).binMapping && histogram[unmapped] == -1L) {
+        histogram[unmapped] = 0L;
+      }
+      return histogram;
+    }
+  }
+}
@@ -27,8 +27,6 @@ public interface NNAConstants {
 
   Charset CHARSET = Charset.defaultCharset();
 
-  int DEFAULT_DELETE_SLEEP_MS = 5000;
-
   enum SET {
     all,
     files,
@@ -56,6 +54,11 @@ public interface NNAConstants {
     json
   }
 
+  enum PATH_OUTPUT {
+    text,
+    frontCoded
+  }
+
   enum FILTER {
     accessTime,
     modTime,
@@ -247,11 +250,13 @@ public interface NNAConstants {
     filter,
     histogram,
     divide,
+    batch,
     saveNamespace,
     fetchNamespace,
     reloadNamespace,
     log,
     history,
+    timeseries,
     suggestions,
     users,
     top,
@@ -290,6 +295,7 @@ public interface NNAConstants {
       EnumSet.of(
           ENDPOINT.suggestions,
           ENDPOINT.history,
+          ENDPOINT.timeseries,
           ENDPOINT.token,
           ENDPOINT.directories,
           ENDPOINT.users,
@@ -303,6 +309,7 @@ public interface NNAConstants {
           ENDPOINT.filter,
           ENDPOINT.histogram,
           ENDPOINT.divide,
+          ENDPOINT.batch,
           ENDPOINT.top,
           ENDPOINT.bottom,
           ENDPOINT.dump);
@@ -33,6 +33,8 @@ import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
 import javax.servlet.http.HttpServletResponse;
@@ -44,7 +46,10 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.DFSConfigKeys;
 import org.apache.hadoop.hdfs.DFSUtil;
 import org.apache.hadoop.hdfs.protocol.HdfsConstants;
+import org.apache.hadoop.hdfs.server.namenode.cache.PredicateCache;
 import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsEngine;
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsReloadScheduler;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Phase;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.StartupProgressView;
 import org.apache.hadoop.hdfs.server.namenode.startupprogress.Step;
@@ -68,6 +73,7 @@ public class NNLoader {
 
   private final VersionInterface versionLoader;
   private final SuggestionsEngine suggestionsEngine;
+  private volatile SuggestionsReloadScheduler reloadScheduler;
   private final QueryEngine queryEngine;
 
   private AtomicBoolean inited = new AtomicBoolean(false);
@@ -78,7 +84,9 @@ public class NNLoader {
   private Set<INode> all = null;
   private Map<INode, INode> files = null;
   private Map<INode, INode> dirs = null;
+  private INodeDirectory root = null;
   private TokenExtractor tokenExtractor = null;
+  private SharedScanScheduler scanScheduler = null;
 
   public NNLoader() {
     versionLoader = new VersionContext();
@@ -94,6 +102,11 @@ public class NNLoader {
     return hsqlDriver;
   }
 
+  /** @return the scheduler of full suggestion reloads or null if reloads were not started */
+  public SuggestionsReloadScheduler getSuggestionsReloadScheduler() {
+    return reloadScheduler;
+  }
+
   public SuggestionsEngine getSuggestionsEngine() {
     return suggestionsEngine;
   }
@@ -102,6 +115,10 @@ public class NNLoader {
     return queryEngine;
   }
 
+  public SharedScanScheduler getScanScheduler() {
+    return scanScheduler;
+  }
+
   public boolean isInit() {
     return inited.get();
   }
@@ -351,6 +368,13 @@ public class NNLoader {
             .filter(INode::isDirectory)
             .collect(Collectors.toConcurrentMap(node -> node, node -> node));
     long e1 = System.currentTimeMillis();
+    root =
+        dirs.keySet()
+            .parallelStream()
+            .filter(INode::isRoot)
+            .findAny()
+            .map(INode::asDirectory)
+            .orElse(null);
     LOG.info("Filtering {} files and {} dirs took: {} ms.", files.size(), dirs.size(), (e1 - s1));
 
     if (preloadedInodes == null) {
@@ -361,7 +385,7 @@ public class NNLoader {
         Field mapField = iNodeMap.getClass().getDeclaredField("map");
         mapField.setAccessible(true);
         GSet<INode, INodeWithAdditionalFields> newGSet =
-            new GSetSeperatorWrapper(gsetMap, files, dirs);
+            new GSetSeperatorWrapper(gsetMap, files, dirs, suggestionsEngine.getINodeListener());
         mapField.set(iNodeMap, newGSet);
         namesystem.writeUnlock();
 
@@ -372,6 +396,21 @@ public class NNLoader {
       }
     }
     queryEngine.setVersionLoader(versionLoader);
+    if (nnaConf.getQueryCacheEnabled()) {
+      queryEngine.setPredicateCache(
+          new PredicateCache(
+              nnaConf.getQueryCacheMaxBytes(),
+              nnaConf.getQueryCacheTtlMs(),
+              nnaConf.getQueryCacheMaxTxidDrift(),
+              this::getCurrentTxID));
+    } else {
+      queryEngine.setPredicateCache(null);
+    }
+    if (nnaConf.getSharedScanEnabled()) {
+      scanScheduler =
+          new SharedScanScheduler(
+              this::getINodeSet, queryEngine, nnaConf.getSharedScanBatchWindowMs());
+    }
 
     long end = System.currentTimeMillis();
     LOG.info("NNLoader bootstrap'd in: {} ms.", (end - start));
@@ -417,6 +456,14 @@ public class NNLoader {
 
   public void clear() {
     suggestionsEngine.stop();
+    PredicateCache predicateCache = queryEngine.getPredicateCache();
+    if (predicateCache != null) {
+      predicateCache.clear();
+    }
+    if (scanScheduler != null) {
+      scanScheduler.shutdown();
+      scanScheduler = null;
+    }
     if (namesystem != null) {
       try {
         namesystem.stopStandbyServices();
@@ -452,6 +499,48 @@ public class NNLoader {
     }
   }
 
+  /** @return the root directory of the loaded namespace */
+  public INodeDirectory getRoot() {
+    return root;
+  }
+
+  /**
+   * @param path an absolute path
+   * @return the INode at the path in the loaded namespace or null if there is none
+   */
+  public INode getINode(String path) {
+    INode node = root;
+    for (String component : path.split("/")) {
+      if (node == null || component.isEmpty()) {
+        continue;
+      }
+      node =
+          node.isDirectory()
+              ? node.asDirectory()
+                  .getChild(DFSUtil.string2Bytes(component), Snapshot.CURRENT_STATE_ID)
+              : null;
+    }
+    return node;
+  }
+
+  /**
+   * @param set the name of a set
+   * @return predicate passing the INodes that belong to the set
+   */
+  public Predicate<INode> getINodeSetPredicate(String set) {
+    switch (set) {
+      case "all":
+        return node -> true;
+      case "files":
+        return INode::isFile;
+      case "dirs":
+        return INode::isDirectory;
+      default:
+        throw new IllegalArgumentException(
+            "You did not specify a set to use. Please check /sets for available sets.");
+    }
+  }
+
   public Collection<INode> getINodeSet(String set) {
     long start = System.currentTimeMillis();
     Collection<INode> inodes;
@@ -478,21 +567,62 @@ public class NNLoader {
     return inodes;
   }
 
-  public void initReloadThreads(ExecutorService internalService, SecurityConfiguration conf) {
+  /**
+   * Starts the suggestions reload and keytab reload threads. Full suggestion reloads are scheduled
+   * by the amount of namespace changes and the query load; incremental updates are applied
+   * in-between.
+   *
+   * @param internalService the executor to run the threads on
+   * @param conf the NNA configuration
+   * @param runningQueries supplies the number of currently running queries
+   */
+  public void initReloadThreads(
+      ExecutorService internalService, SecurityConfiguration conf, IntSupplier runningQueries) {
+    long minIntervalMs = conf.getSuggestionsReloadMinIntervalMs();
+    SuggestionsReloadScheduler scheduler =
+        new SuggestionsReloadScheduler(
+            minIntervalMs,
+            conf.getSuggestionsReloadSleepMs(),
+            conf.getSuggestionsReloadTxidThreshold(),
+            conf.getSuggestionsReloadINodeThreshold(),
+            conf.getSuggestionsReloadBusyQueries());
+    long checkIntervalMs =
+        conf.getSuggestionsIncrementalEnabled()
+            ? Math.min(minIntervalMs, conf.getSuggestionsIncrementalIntervalMs())
+            : minIntervalMs;
+    reloadScheduler = scheduler;
     Future<Void> reload =
         internalService.submit(
             () -> {
               while (true) {
-                try {
-                  suggestionsEngine.reloadSuggestions(this);
-                } catch (Throwable e) {
-                  LOG.info("Suggestion reload failed: {}", e);
-                  for (StackTraceElement element : e.getStackTrace()) {
-                    LOG.info(element.toString());
+                long start = System.currentTimeMillis();
+                long txid = getCurrentTxID();
+                long inodeChanges = suggestionsEngine.getNumINodeChanges();
+                SuggestionsReloadScheduler.Reason reason =
+                    scheduler.nextReload(start, txid, inodeChanges, runningQueries.getAsInt());
+                if (reason != null) {
+                  try {
+                    suggestionsEngine.reloadSuggestions(this);
+                  } catch (Throwable e) {
+                    LOG.info("Suggestion reload failed: {}", e);
+                    for (StackTraceElement element : e.getStackTrace()) {
+                      LOG.info(element.toString());
+                    }
+                  }
+                  long end = System.currentTimeMillis();
+                  scheduler.reloaded(reason, start, end, txid, inodeChanges);
+                  LOG.info("Suggestion reload due to {} took: {} ms.", reason, (end - start));
+                } else {
+                  // Apply incremental updates in-between full reloads; a full reload reconciles
+                  // them.
+                  try {
+                    suggestionsEngine.applyIncrementalUpdates();
+                  } catch (Throwable e) {
+                    LOG.info("Incremental suggestion update failed: {}", e);
                   }
                 }
                 try {
-                  Thread.sleep(conf.getSuggestionsReloadSleepMs());
+                  Thread.sleep(checkIntervalMs);
                 } catch (InterruptedException ignored) {
                 }
               }
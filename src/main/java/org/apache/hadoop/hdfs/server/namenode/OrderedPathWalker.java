@@ -0,0 +1,261 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import com.google.common.primitives.SignedBytes;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Predicate;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+
+/**
+ * Walks the namespace tree depth-first and hands out the INodes passing a predicate. Directories
+ * keep their children sorted by name, so INodes come out in {@link #PATH_ORDER} without ever
+ * sorting them or building their paths.
+ *
+ * <p>Top-level subtrees are walked in parallel on a pool shared by all walkers. Each walk fills its
+ * own small queue of INode chunks and queues are drained in subtree order, so only a few chunks per
+ * started walk are held in memory and the first INodes are available as soon as the first subtree
+ * is entered. A walk whose queue is full gives up its thread and is resumed once its queue is
+ * drained, so a slow client never holds on to threads of the shared pool. Walks further ahead only
+ * start once earlier ones were drained.
+ *
+ * <p>Not thread-safe; {@link #close()} must be called to stop any walks still running.
+ */
+class OrderedPathWalker implements Iterator<INode>, Closeable {
+
+  /**
+   * Order INodes are handed out in: by path component, each compared as signed bytes the same way
+   * directories order their children. A directory's subtree therefore comes before siblings that
+   * extend its name with characters below '/'.
+   */
+  static final Comparator<byte[][]> PATH_ORDER =
+      (left, right) -> {
+        Comparator<byte[]> names = SignedBytes.lexicographicalComparator();
+        for (int i = 0; i < left.length && i < right.length; i++) {
+          int compared = names.compare(left[i], right[i]);
+          if (compared != 0) {
+            return compared;
+          }
+        }
+        return Integer.compare(left.length, right.length);
+      };
+
+  private static final int CHUNK_SIZE = 1024;
+  private static final int CHUNKS_PER_WALK = 4;
+  private static final List<INode> END = Collections.emptyList();
+  private static final ExecutorService WALKERS =
+      Executors.newFixedThreadPool(
+          Runtime.getRuntime().availableProcessors(),
+          r -> {
+            Thread thread = new Thread(r, "ordered-path-walker");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private final Predicate<INode> predicate;
+  private final List<SubtreeWalk> walks = new ArrayList<>();
+  private final int parallelism;
+  private volatile boolean closed = false;
+  private volatile Throwable failure = null;
+
+  private int current = 0;
+  private Iterator<INode> chunk = Collections.emptyIterator();
+
+  /**
+   * Starts walking the tree below the root.
+   *
+   * @param root the root directory
+   * @param predicate predicate INodes need to pass to be handed out
+   * @param parallelism maximum number of subtrees walked ahead of the one being drained
+   */
+  OrderedPathWalker(INodeDirectory root, Predicate<INode> predicate, int parallelism) {
+    this.predicate = predicate;
+    this.parallelism = Math.max(1, parallelism);
+    if (predicate.test(root)) {
+      chunk = Collections.<INode>singletonList(root).iterator();
+    }
+    for (INode child : root.getChildrenList(Snapshot.CURRENT_STATE_ID)) {
+      walks.add(new SubtreeWalk(child));
+    }
+    for (int i = 0; i < this.parallelism && i < walks.size(); i++) {
+      WALKERS.execute(walks.get(i));
+    }
+  }
+
+  /**
+   * @param node an INode
+   * @return the local names of the INode and its ancestors below the root, to be compared by {@link
+   *     #PATH_ORDER}
+   */
+  static byte[][] pathComponents(INode node) {
+    int depth = 0;
+    for (INode ancestor = node; ancestor.getParent() != null; ancestor = ancestor.getParent()) {
+      depth++;
+    }
+    byte[][] components = new byte[depth][];
+    INode ancestor = node;
+    for (int i = depth - 1; i >= 0; i--) {
+      components[i] = ancestor.getLocalNameBytes();
+      ancestor = ancestor.getParent();
+    }
+    return components;
+  }
+
+  @Override
+  public boolean hasNext() {
+    while (!chunk.hasNext()) {
+      if (current >= walks.size()) {
+        return false;
+      }
+      SubtreeWalk walk = walks.get(current);
+      List<INode> next;
+      try {
+        next = walk.queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for INodes.", e);
+      }
+      if (next == END) {
+        if (failure != null) {
+          throw new IllegalStateException("Failed to walk the namespace.", failure);
+        }
+        current++;
+        if (current + parallelism - 1 < walks.size()) {
+          WALKERS.execute(walks.get(current + parallelism - 1));
+        }
+      } else {
+        walk.resume();
+        chunk = next.iterator();
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public INode next() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return chunk.next();
+  }
+
+  /** Stops all walks still running or waiting to run. */
+  @Override
+  public void close() {
+    closed = true;
+  }
+
+  /**
+   * Walk of one top-level subtree, handing out INodes through its own bounded queue. The walk keeps
+   * its position on an explicit stack, so it can stop whenever its queue is full and continue on
+   * any thread once there is room again.
+   */
+  private class SubtreeWalk implements Runnable {
+    private final BlockingQueue<List<INode>> queue = new ArrayBlockingQueue<>(CHUNKS_PER_WALK);
+    private final Deque<Iterator<INode>> stack = new ArrayDeque<>();
+    private final Deque<List<INode>> pending = new ArrayDeque<>();
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+    private List<INode> buffer = new ArrayList<>(CHUNK_SIZE);
+
+    private SubtreeWalk(INode top) {
+      stack.push(Collections.singletonList(top).iterator());
+    }
+
+    @Override
+    public void run() {
+      try {
+        walk();
+      } catch (Throwable t) {
+        failure = t;
+        stack.clear();
+        pending.clear();
+        pending.add(END);
+        walk();
+      }
+    }
+
+    /** Called after a chunk was taken from the queue, continues the walk if it was parked. */
+    private void resume() {
+      if (parked.compareAndSet(true, false)) {
+        WALKERS.execute(this);
+      }
+    }
+
+    private void walk() {
+      while (!closed) {
+        if (!pending.isEmpty()) {
+          if (queue.offer(pending.peek())) {
+            pending.poll();
+            continue;
+          }
+          // Park, unless a chunk was taken before the consumer could see the walk is parked.
+          parked.set(true);
+          if (queue.remainingCapacity() == 0 || !parked.compareAndSet(true, false)) {
+            return;
+          }
+          continue;
+        }
+        if (stack.isEmpty()) {
+          return;
+        }
+        fillBuffer();
+      }
+    }
+
+    /** Walks until the buffer is full or the subtree is done and queues what was found. */
+    private void fillBuffer() {
+      while (!stack.isEmpty() && buffer.size() < CHUNK_SIZE) {
+        Iterator<INode> children = stack.peek();
+        if (!children.hasNext()) {
+          stack.pop();
+          continue;
+        }
+        INode node = children.next();
+        if (predicate.test(node)) {
+          buffer.add(node);
+        }
+        if (node.isDirectory()) {
+          stack.push(node.asDirectory().getChildrenList(Snapshot.CURRENT_STATE_ID).iterator());
+        }
+      }
+      if (!buffer.isEmpty()) {
+        pending.add(buffer);
+        buffer = new ArrayList<>(CHUNK_SIZE);
+      }
+      if (stack.isEmpty()) {
+        pending.add(END);
+      }
+    }
+  }
+}
@@ -20,31 +20,37 @@
 package org.apache.hadoop.hdfs.server.namenode;
 
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.math.BigInteger;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.AbstractMap;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 import java.util.function.Function;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.LongStream;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
-import javax.servlet.http.HttpServletResponse;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.HISTOGRAM;
+import org.apache.hadoop.hdfs.server.namenode.cache.PredicateCache;
 import org.apache.hadoop.hdfs.server.namenode.queries.FileTypeHistogram;
 import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
 import org.apache.hadoop.hdfs.server.namenode.queries.MemorySizeHistogram;
@@ -59,11 +65,241 @@ public class QueryEngine {
   public static final Logger LOG = LoggerFactory.getLogger(QueryEngine.class.getName());
 
   private VersionInterface versionLoader;
+  private PredicateCache predicateCache;
 
   public void setVersionLoader(VersionInterface versionLoader) {
     this.versionLoader = versionLoader;
   }
 
+  public void setPredicateCache(PredicateCache predicateCache) {
+    this.predicateCache = predicateCache;
+  }
+
+  public PredicateCache getPredicateCache() {
+    return predicateCache;
+  }
+
+  /**
+   * Filters a full INode set while re-using cached predicate results. Predicates that are already
+   * cached for the set are ANDed together into one bitmap and checked per INode as a bit lookup;
+   * all remaining predicates are evaluated in the same pass and their results are cached for later
+   * queries.
+   *
+   * <p>Since a new predicate needs its result for the entire set, uncached predicates are not
+   * short-circuited against each other.
+   *
+   * @param set the name of the set the INodes belong to; must be the entire set
+   * @param inodes the entire set of INodes for the given set name
+   * @param filters the filters to apply
+   * @param filterOps the filter operations to apply
+   * @return the INodes that pass all filters
+   */
+  public Collection<INode> combinedFilter(
+      String set, Collection<INode> inodes, String[] filters, String[] filterOps) {
+    CachedFilter cached = getCachedFilter(set, filters, filterOps);
+    if (cached == null) {
+      return combinedFilter(inodes, filters, filterOps);
+    }
+
+    if (cached.matchesNothing()) {
+      LOG.info(
+          "Cached filters: {} with filterOps: {} match nothing.",
+          Arrays.asList(filters),
+          Arrays.asList(filterOps));
+      return Collections.emptyList();
+    }
+
+    long start = System.currentTimeMillis();
+    try {
+      PredicateScan scan =
+          StreamSupport.stream(inodes.spliterator(), true)
+              .collect(cached::newCollectingScan, PredicateScan::accept, PredicateScan::combine);
+      cached.merge(scan);
+      cached.cacheResults();
+      return scan.matches;
+    } finally {
+      long end = System.currentTimeMillis();
+      LOG.info(
+          "Performing filters: {} with filterOps: {} ({} cached) took: {} ms.",
+          Arrays.asList(filters),
+          Arrays.asList(filterOps),
+          cached.getNumCached(),
+          (end - start));
+    }
+  }
+
+  /**
+   * Looks up the cached results of filters over a full INode set.
+   *
+   * @param set the name of the set that will be filtered
+   * @param filters the filters to apply
+   * @param filterOps the filter operations to apply
+   * @return the filters with their cached results; null if predicates are not cached
+   */
+  public CachedFilter getCachedFilter(String set, String[] filters, String[] filterOps) {
+    if (predicateCache == null || set == null || filters == null || filters.length == 0) {
+      return null;
+    }
+
+    final List<Function<INode, Boolean>> allFilters = new ArrayList<>(filters.length);
+    final List<Function<INode, Boolean>> uncachedFilters = new ArrayList<>(filters.length);
+    final List<String> uncachedKeys = new ArrayList<>(filters.length);
+    BitSet cachedBits = null;
+    for (int i = 0; i < filters.length; i++) {
+      Function<INode, Boolean> filterFunc = getFilter(filters[i], filterOps[i].split(":"));
+      allFilters.add(filterFunc);
+      String key = PredicateCache.toKey(set, filters[i], filterOps[i]);
+      BitSet bits = predicateCache.get(key);
+      if (bits == null) {
+        uncachedFilters.add(filterFunc);
+        uncachedKeys.add(key);
+      } else if (cachedBits == null) {
+        cachedBits = (BitSet) bits.clone();
+      } else {
+        cachedBits.and(bits);
+      }
+    }
+    return new CachedFilter(
+        predicateCache, allFilters, uncachedFilters, uncachedKeys, cachedBits, filters.length);
+  }
+
+  /**
+   * Filters over a full INode set together with the cached results of some of them. The set can be
+   * evaluated in parts, concurrently, with one {@link PredicateScan} each; once every part is
+   * merged the results of the uncached filters are cached.
+   */
+  public static class CachedFilter {
+    private final PredicateCache predicateCache;
+    private final List<Function<INode, Boolean>> allFilters;
+    private final List<Function<INode, Boolean>> uncachedFilters;
+    private final List<String> uncachedKeys;
+    private final BitSet knownBits;
+    private final int numFilters;
+    private final PredicateScan merged;
+
+    private CachedFilter(
+        PredicateCache predicateCache,
+        List<Function<INode, Boolean>> allFilters,
+        List<Function<INode, Boolean>> uncachedFilters,
+        List<String> uncachedKeys,
+        BitSet knownBits,
+        int numFilters) {
+      this.predicateCache = predicateCache;
+      this.allFilters = allFilters;
+      this.uncachedFilters = uncachedFilters;
+      this.uncachedKeys = uncachedKeys;
+      this.knownBits = knownBits;
+      this.numFilters = numFilters;
+      this.merged = new PredicateScan(this, null, null);
+    }
+
+    /** @return whether the cached filters alone already match nothing */
+    public boolean matchesNothing() {
+      return knownBits != null && knownBits.isEmpty();
+    }
+
+    /** @return number of filters whose results were cached */
+    public int getNumCached() {
+      return numFilters - uncachedKeys.size();
+    }
+
+    private PredicateScan newCollectingScan() {
+      List<INode> matches = new ArrayList<>();
+      return new PredicateScan(this, matches, matches::add);
+    }
+
+    /**
+     * Starts evaluating a part of the set. The scan is not thread-safe.
+     *
+     * @param onMatch called for every INode of the part that passes all filters
+     * @return the scan of the part; to be merged once it saw every INode of the part
+     */
+    public PredicateScan newScan(Consumer<INode> onMatch) {
+      return new PredicateScan(this, null, onMatch);
+    }
+
+    /**
+     * Records the predicate results of a finished part of the set.
+     *
+     * @param scan the scan of the part
+     */
+    public synchronized void merge(PredicateScan scan) {
+      for (int i = 0; i < merged.hits.length; i++) {
+        merged.hits[i].or(scan.hits[i]);
+      }
+      merged.outOfRange |= scan.outOfRange;
+    }
+
+    /** Caches the results of the uncached filters; only valid once the entire set was merged. */
+    public synchronized void cacheResults() {
+      if (!merged.outOfRange) {
+        for (int i = 0; i < uncachedKeys.size(); i++) {
+          predicateCache.put(uncachedKeys.get(i), merged.hits[i]);
+        }
+      }
+    }
+  }
+
+  /** Per-thread state of a filter pass that also records uncached predicate results. */
+  public static class PredicateScan {
+    private final CachedFilter filter;
+    private final BitSet[] hits;
+    private final List<INode> matches;
+    private final Consumer<INode> onMatch;
+    private boolean outOfRange = false;
+
+    private PredicateScan(CachedFilter filter, List<INode> matches, Consumer<INode> onMatch) {
+      this.filter = filter;
+      this.matches = matches;
+      this.onMatch = onMatch;
+      hits = new BitSet[filter.uncachedFilters.size()];
+      for (int i = 0; i < hits.length; i++) {
+        hits[i] = new BitSet();
+      }
+    }
+
+    /**
+     * Evaluates the filters for a single INode.
+     *
+     * @param node the INode
+     */
+    public void accept(INode node) {
+      long id = node.getId();
+      if (id < 0 || id > Integer.MAX_VALUE) {
+        // Cannot be represented in a bitmap; evaluate directly and do not cache this pass.
+        outOfRange = true;
+        for (Function<INode, Boolean> f : filter.allFilters) {
+          if (!f.apply(node)) {
+            return;
+          }
+        }
+        onMatch.accept(node);
+        return;
+      }
+      int ordinal = (int) id;
+      boolean passed = (filter.knownBits == null || filter.knownBits.get(ordinal));
+      List<Function<INode, Boolean>> uncachedFilters = filter.uncachedFilters;
+      for (int i = 0; i < uncachedFilters.size(); i++) {
+        if (uncachedFilters.get(i).apply(node)) {
+          hits[i].set(ordinal);
+        } else {
+          passed = false;
+        }
+      }
+      if (passed) {
+        onMatch.accept(node);
+      }
+    }
+
+    private void combine(PredicateScan other) {
+      for (int i = 0; i < hits.length; i++) {
+        hits[i].or(other.hits[i]);
+      }
+      matches.addAll(other.matches);
+      outOfRange |= other.outOfRange;
+    }
+  }
+
   public Collection<INode> combinedFilter(
       Collection<INode> inodes, String[] filters, String[] filterOps) {
     final ArrayList<Function<INode, Boolean>> filterArray = new ArrayList<>();
@@ -96,6 +332,23 @@ public class QueryEngine {
     }
   }
 
+  /**
+   * Combines filters into a single predicate that can be evaluated per INode, ex: as part of a
+   * shared scan.
+   *
+   * @param filters the filters to apply
+   * @param filterOps the filter operations to apply
+   * @return predicate that passes INodes passing all filters
+   */
+  public Predicate<INode> getFilterPredicate(String[] filters, String[] filterOps) {
+    Predicate<INode> predicate = node -> true;
+    for (int i = 0; i < filters.length; i++) {
+      Function<INode, Boolean> filterFunc = getFilter(filters[i], filterOps[i].split(":"));
+      predicate = predicate.and(filterFunc::apply);
+    }
+    return predicate;
+  }
+
   public Collection<INode> findFilter(Collection<INode> inodes, String find) {
 
     if (find == null || find.isEmpty()) {
@@ -324,7 +577,7 @@ public class QueryEngine {
     }
   }
 
-  Function<INode, Long> getSumFunctionForINode(String sum) {
+  public Function<INode, Long> getSumFunctionForINode(String sum) {
     switch (sum) {
       case "count":
         return node -> 1L;
@@ -1222,32 +1475,84 @@ public class QueryEngine {
         TimeHistogram.getKeys(timeRange));
   }
 
-  public void dumpINodePaths(Collection<INode> inodes, Integer limit, HttpServletResponse resp)
-      throws IOException {
-    LOG.info("Dumping a list of {} INodes to a client.", inodes.size());
+  /**
+   * Streams the full paths of INodes to a client in the format of the writer. If the client
+   * disconnects the dump is cancelled and no further paths are built.
+   *
+   * @param inodes the INodes to dump
+   * @param limit maximum number of INodes to dump; null for no limit
+   * @param sorted whether to sort the paths in {@link OrderedPathWalker#PATH_ORDER}, the same order
+   *     as {@link #dumpINodePathsInOrder}; unsorted dumps stream without building all paths first
+   * @param writer the writer to the client; closed once the dump is done
+   */
+  public void dumpINodePaths(
+      Collection<INode> inodes, Integer limit, boolean sorted, INodePathWriter writer) {
+    LOG.info("Dumping a list of {} INodes to a client, sorted: {}.", inodes.size(), sorted);
+    long start = System.currentTimeMillis();
+    long limitNum = (limit == null) ? Long.MAX_VALUE : limit;
+    Iterator<INode> sortedINodes;
+    if (sorted) {
+      // Collect each path once up front as the sort key instead of on every comparison.
+      List<Map.Entry<byte[][], INode>> keyed =
+          ((limitNum < inodes.size())
+                  ? inodes.stream().limit(limitNum).collect(Collectors.toList())
+                  : inodes)
+              .parallelStream()
+              .map(
+                  node ->
+                      new AbstractMap.SimpleImmutableEntry<>(
+                          OrderedPathWalker.pathComponents(node), node))
+              .sorted(Map.Entry.comparingByKey(OrderedPathWalker.PATH_ORDER))
+              .collect(Collectors.toList());
+      LOG.info("Sorting {} paths took: {} ms.", keyed.size(), (System.currentTimeMillis() - start));
+      sortedINodes = keyed.stream().map(Map.Entry::getValue).iterator();
+    } else {
+      sortedINodes = inodes.iterator();
+    }
+    writePaths(sortedINodes, limitNum, writer, start);
+  }
+
+  /**
+   * Streams the full paths of INodes passing a predicate to a client in path order by walking the
+   * namespace tree, evaluating the predicate inline. Paths are ordered in {@link
+   * OrderedPathWalker#PATH_ORDER}, so unlike a plain String sort a directory's subtree comes before
+   * siblings that share its name as a prefix. The first paths are sent as soon as they are found
+   * and the walk stops once the limit is reached or the client disconnects.
+   *
+   * @param root the root directory of the namespace
+   * @param predicate predicate INodes need to pass to be dumped, including set membership
+   * @param limit maximum number of INodes to dump; null for no limit
+   * @param writer the writer to the client; closed once the dump is done
+   */
+  public void dumpINodePathsInOrder(
+      INodeDirectory root, Predicate<INode> predicate, Integer limit, INodePathWriter writer) {
+    LOG.info("Dumping INodes to a client in path order.");
     long start = System.currentTimeMillis();
-    PrintWriter writer = resp.getWriter();
+    long limitNum = (limit == null) ? Long.MAX_VALUE : limit;
+    try (OrderedPathWalker walker =
+        new OrderedPathWalker(root, predicate, Runtime.getRuntime().availableProcessors())) {
+      writePaths(walker, limitNum, writer, start);
+    }
+  }
+
+  private static void writePaths(
+      Iterator<INode> inodes, long limit, INodePathWriter writer, long start) {
     try {
-      Collection<INode> subCollection;
-      if (limit != null && limit < inodes.size()) {
-        subCollection = inodes.stream().limit(limit).collect(Collectors.toList());
-      } else {
-        subCollection = inodes;
+      while (writer.getWritten() < limit && inodes.hasNext()) {
+        writer.write(inodes.next());
       }
-      subCollection
-          .stream()
-          .sorted(Comparator.comparing(INode::getFullPathName))
-          .forEach(
-              node -> {
-                writer.write(node.getFullPathName() + '\n');
-                writer.flush();
-              });
+      writer.close();
+    } catch (IOException e) {
+      LOG.info(
+          "Client went away after {} paths, cancelled the dump: {}",
+          writer.getWritten(),
+          e.toString());
+      return;
     } finally {
       IOUtils.closeStream(writer);
-      LOG.info("Closed response.");
     }
-    long end = System.currentTimeMillis();
-    LOG.info("Sending the entire response took {} ms.", (end - start));
+    LOG.info(
+        "Sending {} paths took: {} ms.", writer.getWritten(), (System.currentTimeMillis() - start));
   }
 
   public Map<String, Long> byUserHistogram(Collection<INode> inodes, String sum, String find) {
@@ -1543,6 +1848,257 @@ public class QueryEngine {
     return removeKeysOnConditional(histogram, "gte:0");
   }
 
+  /**
+   * Computes the histograms of several sums and finds over the same INodes in a single parallel
+   * pass, with one accumulator per column and bin. Each histogram is identical to the one computed
+   * by the matching single-column histogram method.
+   *
+   * @param inodes the INodes to bin
+   * @param htEnum the histogram type
+   * @param sums the sums to compute, ex: 'count'
+   * @param finds the finds to compute, ex: 'max:fileSize'
+   * @param timeRange the time range for time histograms
+   * @param parentDirDepth the directory depth for parent directory histograms
+   * @return histograms of all sums followed by histograms of all finds; or null if the histogram
+   *     type does not support a single pass and has to be computed column by column
+   */
+  public List<Map<String, Long>> multiHistogram(
+      Collection<INode> inodes,
+      HISTOGRAM htEnum,
+      String[] sums,
+      String[] finds,
+      String timeRange,
+      Integer parentDirDepth) {
+    if (inodes.isEmpty()) {
+      return null;
+    }
+    MultiHistogram multiHistogram = new MultiHistogram();
+    switch (htEnum) {
+      case accessTime:
+        addFilteringColumns(
+            multiHistogram,
+            node -> System.currentTimeMillis() - node.getAccessTime(),
+            TimeHistogram.getBinsArray(timeRange),
+            TimeHistogram.getKeys(timeRange),
+            sums,
+            finds);
+        break;
+      case modTime:
+        addFilteringColumns(
+            multiHistogram,
+            node -> System.currentTimeMillis() - node.getModificationTime(),
+            TimeHistogram.getBinsArray(timeRange),
+            TimeHistogram.getKeys(timeRange),
+            sums,
+            finds);
+        break;
+      case fileSize:
+        addFilteringColumns(
+            multiHistogram,
+            node -> node.asFile().computeFileSize(),
+            SpaceSizeHistogram.getBinsArray(),
+            SpaceSizeHistogram.getKeys(),
+            sums,
+            finds);
+        break;
+      case diskspaceConsumed:
+        addFilteringColumns(
+            multiHistogram,
+            getFilterFunctionToLongForINode("diskspaceConsumed"),
+            SpaceSizeHistogram.getBinsArray(),
+            SpaceSizeHistogram.getKeys(),
+            sums,
+            finds);
+        break;
+      case memoryConsumed:
+        addFilteringColumns(
+            multiHistogram,
+            node -> {
+              long inodeSize = 100L;
+              if (node.isFile()) {
+                inodeSize += node.asFile().numBlocks() * 150L;
+              }
+              return inodeSize;
+            },
+            MemorySizeHistogram.getBinsArray(),
+            MemorySizeHistogram.getKeys(),
+            sums,
+            finds);
+        break;
+      case user:
+        {
+          Map<String, Long> userToIdMap =
+              toIdMap(
+                  StreamSupport.stream(inodes.spliterator(), true)
+                      .map(INode::getUserName)
+                      .distinct()
+                      .collect(Collectors.toList()));
+          addBinMappingColumns(
+              multiHistogram,
+              node -> userToIdMap.get(node.getUserName()),
+              userToIdMap,
+              histogram -> histogram,
+              sums,
+              finds);
+          break;
+        }
+      case group:
+        {
+          Map<String, Long> groupToIdMap =
+              toIdMap(
+                  StreamSupport.stream(inodes.spliterator(), true)
+                      .map(INode::getGroupName)
+                      .distinct()
+                      .collect(Collectors.toList()));
+          addBinMappingColumns(
+              multiHistogram,
+              node -> groupToIdMap.get(node.getGroupName()),
+              groupToIdMap,
+              histogram -> histogram,
+              sums,
+              finds);
+          break;
+        }
+      case parentDir:
+        {
+          // Sums and finds default to different depths when none is given.
+          int sumDirDepth =
+              (parentDirDepth == null || parentDirDepth <= 0) ? Integer.MAX_VALUE : parentDirDepth;
+          int findDirDepth = (parentDirDepth != null) ? parentDirDepth : 0;
+          if (sumDirDepth == findDirDepth) {
+            addParentDirColumns(multiHistogram, inodes, sumDirDepth, sums, finds);
+          } else {
+            addParentDirColumns(multiHistogram, inodes, sumDirDepth, sums, new String[0]);
+            addParentDirColumns(multiHistogram, inodes, findDirDepth, new String[0], finds);
+          }
+          break;
+        }
+      case fileType:
+        {
+          if (finds.length != 0) {
+            return null;
+          }
+          Map<String, Long> typeToIdMap = toIdMap(FileTypeHistogram.keys);
+          addBinMappingColumns(
+              multiHistogram,
+              node -> typeToIdMap.get(FileTypeHistogram.determineType(node.getLocalName())),
+              typeToIdMap,
+              histogram -> removeKeysOnConditional(histogram, "gt:0"),
+              sums,
+              finds);
+          break;
+        }
+      default:
+        return null;
+    }
+    return multiHistogram.run(inodes);
+  }
+
+  private void addFilteringColumns(
+      MultiHistogram multiHistogram,
+      Function<INode, Long> nodeToLong,
+      Long[] binsArray,
+      List<String> keys,
+      String[] sums,
+      String[] finds) {
+    int plan =
+        multiHistogram.addFilteringPlan(
+            nodeToLong, binsArray, histogram -> Histograms.sortByKeys(keys, histogram));
+    addColumns(multiHistogram, plan, sums, finds);
+  }
+
+  private void addBinMappingColumns(
+      MultiHistogram multiHistogram,
+      Function<INode, Long> nodeToLong,
+      Map<String, Long> binKeyMap,
+      Function<Map<String, Long>, Map<String, Long>> postProcess,
+      String[] sums,
+      String[] finds) {
+    int plan =
+        multiHistogram.addBinMappingPlan(
+            nodeToLong,
+            binKeyMap,
+            histogram -> postProcess.apply(Histograms.mapByKeys(binKeyMap, histogram)));
+    addColumns(multiHistogram, plan, sums, finds);
+  }
+
+  private void addParentDirColumns(
+      MultiHistogram multiHistogram,
+      Collection<INode> inodes,
+      int dirDepth,
+      String[] sums,
+      String[] finds) {
+    if (sums.length == 0 && finds.length == 0) {
+      return;
+    }
+    List<String> distinctDirectories =
+        inodes
+            .parallelStream()
+            .map(node -> getParentDirAtDepth(node, dirDepth))
+            .distinct()
+            .collect(Collectors.toList());
+    Map<String, Long> dirToIdMap = toIdMap(distinctDirectories);
+    if (!dirToIdMap.containsKey("NO_MAPPING")) {
+      dirToIdMap.put("NO_MAPPING", (long) dirToIdMap.size());
+    }
+    final long noMappingId = dirToIdMap.get("NO_MAPPING");
+    addBinMappingColumns(
+        multiHistogram,
+        node -> {
+          Long index = dirToIdMap.get(getParentDirAtDepth(node, dirDepth));
+          return index != null ? index : noMappingId;
+        },
+        dirToIdMap,
+        histogram -> {
+          histogram.remove("NO_MAPPING");
+          return histogram;
+        },
+        sums,
+        finds);
+  }
+
+  private void addColumns(MultiHistogram multiHistogram, int plan, String[] sums, String[] finds) {
+    for (String sum : sums) {
+      multiHistogram.addSum(plan, getSumFunctionForINode(sum));
+    }
+    for (String find : finds) {
+      String[] findOps = find.split(":");
+      multiHistogram.addFind(plan, findOps[0], getFilterFunctionToLongForINode(findOps[1]));
+    }
+  }
+
+  /**
+   * Finds the parent directory of an INode at the given depth, as used by parent directory
+   * histograms.
+   *
+   * @param node the INode
+   * @param dirDepth the depth of the parent directory
+   * @return full path of the parent directory or "NO_MAPPING" if the INode is not deep enough
+   */
+  public static String getParentDirAtDepth(INode node, int dirDepth) {
+    try {
+      INodeDirectory parent = node.getParent();
+      int topParentDepth = new Path(parent.getFullPathName()).depth();
+      if (topParentDepth < dirDepth) {
+        return "NO_MAPPING";
+      }
+      for (int parentTravs = topParentDepth; parentTravs > dirDepth; parentTravs--) {
+        parent = parent.getParent();
+      }
+      return parent.getFullPathName();
+    } catch (Exception e) {
+      return "NO_MAPPING";
+    }
+  }
+
+  private static Map<String, Long> toIdMap(List<String> distinctKeys) {
+    Map<String, Long> keyToIdMap = new HashMap<>();
+    for (int i = 0; i < distinctKeys.size(); i++) {
+      keyToIdMap.putIfAbsent(distinctKeys.get(i), (long) i);
+    }
+    return keyToIdMap;
+  }
+
   /**
    * Creates histogram with only entries that satisfy the conditional String. Conditional String ex:
    * 'gte:1000' should create a histogram where all entries have values greater than or equal to
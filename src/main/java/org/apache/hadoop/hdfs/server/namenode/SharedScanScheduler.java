@@ -0,0 +1,488 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine.CachedFilter;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine.PredicateScan;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Cooperative scan scheduler that lets concurrent queries over the same INode set share a single
+ * parallel pass instead of each running their own.
+ *
+ * <p>Queries submitted for a set within a short batching window are started together. A pass splits
+ * the spliterator of the set into chunks that worker threads claim in sequence; every chunk is
+ * traversed once and each of its INodes is fed to every attached query. Queries arriving while a
+ * scan is running attach to it at the current chunk. Once the last chunk of a pass is claimed, the
+ * set is split again and the next pass covers the chunks they missed.
+ *
+ * <p>Like every other query over the live INode sets, scans are weakly consistent: INodes added or
+ * removed while a scan runs may or may not be seen. A query that wraps around relies on the set
+ * splitting the same way twice, so if edits change the layout of the set in-between, it may also
+ * see INodes near chunk boundaries twice or not at all.
+ */
+public class SharedScanScheduler {
+
+  public static final Logger LOG = LoggerFactory.getLogger(SharedScanScheduler.class.getName());
+
+  private static final int CHUNK_SIZE = 16384;
+
+  private final Function<String, Collection<INode>> setSupplier;
+  private final QueryEngine queryEngine;
+  private final long batchWindowMs;
+  private final int parallelism;
+  private final ExecutorService workers;
+  private final ScheduledExecutorService timer;
+  private final Map<String, ScanGroup> groups = new HashMap<>();
+
+  public SharedScanScheduler(
+      Function<String, Collection<INode>> setSupplier,
+      QueryEngine queryEngine,
+      long batchWindowMs) {
+    this.setSupplier = setSupplier;
+    this.queryEngine = queryEngine;
+    this.batchWindowMs = batchWindowMs;
+    this.parallelism = Runtime.getRuntime().availableProcessors();
+    this.workers =
+        Executors.newFixedThreadPool(
+            parallelism,
+            r -> {
+              Thread thread = new Thread(r, "shared-scan-worker");
+              thread.setDaemon(true);
+              return thread;
+            });
+    this.timer =
+        Executors.newSingleThreadScheduledExecutor(
+            r -> {
+              Thread thread = new Thread(r, "shared-scan-timer");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /** Evaluates a query over a single chunk; created per chunk, so it needs no synchronization. */
+  public interface ChunkScan {
+    /** @param node the next INode of the chunk */
+    void accept(INode node);
+
+    /** Called once every INode of the chunk was accepted. */
+    default void finish() {}
+  }
+
+  /** A single query attached to a shared scan. */
+  private static class ScanQuery {
+    private final Supplier<ChunkScan> scans;
+    private final CompletableFuture<Void> future = new CompletableFuture<>();
+    private long startPass;
+    private int startIndex;
+    private int inFlight;
+    private boolean fullyClaimed;
+
+    private ScanQuery(Supplier<ChunkScan> scans) {
+      this.scans = scans;
+    }
+
+    private boolean needs(long pass, int index) {
+      return (pass == startPass && index >= startIndex)
+          || (pass == startPass + 1 && index < startIndex);
+    }
+  }
+
+  /** State of one INode set; all fields are guarded by the group monitor. */
+  private static class ScanGroup {
+    private final String set;
+    private final List<ScanQuery> pending = new ArrayList<>();
+    private final List<ScanQuery> attached = new ArrayList<>();
+    private boolean scheduled = false;
+    private boolean running = false;
+    private List<Spliterator<INode>> chunks;
+    private long pass;
+    private int nextIndex;
+    private int activeWorkers;
+    private long startMs;
+
+    private ScanGroup(String set) {
+      this.set = set;
+    }
+  }
+
+  /**
+   * Submits a query to the next shared scan over the given set.
+   *
+   * @param set the INode set to scan
+   * @param filter the predicate INodes must pass
+   * @param accumulator called concurrently for every INode passing the predicate
+   * @return future that completes once the query has seen the entire set
+   */
+  public CompletableFuture<Void> submit(
+      String set, Predicate<INode> filter, Consumer<INode> accumulator) {
+    ChunkScan scan =
+        node -> {
+          if (filter.test(node)) {
+            accumulator.accept(node);
+          }
+        };
+    return submit(set, () -> scan);
+  }
+
+  /**
+   * Submits a query to the next shared scan over the given set.
+   *
+   * @param set the INode set to scan
+   * @param scans creates the evaluation of the query for each chunk; called concurrently
+   * @return future that completes once the query has seen the entire set
+   */
+  public CompletableFuture<Void> submit(String set, Supplier<ChunkScan> scans) {
+    ScanQuery query = new ScanQuery(scans);
+    final ScanGroup group;
+    synchronized (groups) {
+      group = groups.computeIfAbsent(set, ScanGroup::new);
+    }
+    synchronized (group) {
+      if (group.running) {
+        attach(group, query);
+        LOG.info("Query attached to running scan of: {} at chunk: {}.", set, query.startIndex);
+        while (group.activeWorkers < parallelism) {
+          group.activeWorkers++;
+          workers.submit(() -> scan(group));
+        }
+      } else {
+        group.pending.add(query);
+        if (!group.scheduled) {
+          group.scheduled = true;
+          timer.schedule(() -> startScan(group), batchWindowMs, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+    return query.future;
+  }
+
+  /**
+   * Submits a filtered sum to the next shared scan over the given set. Cached predicate results are
+   * used and recorded the same way as by {@link QueryEngine#combinedFilter(String, Collection,
+   * String[], String[])}.
+   *
+   * @param set the INode set to scan
+   * @param filters the filters to apply, may be null
+   * @param filterOps the filter operations to apply, may be null
+   * @param sum the sum to perform
+   * @return future of the summed value
+   */
+  public Future<Long> submitSum(String set, String[] filters, String[] filterOps, String sum) {
+    boolean noFilters = (filters == null || filters.length == 0);
+    if (noFilters && sum.equals("count")) {
+      return CompletableFuture.completedFuture((long) setSupplier.apply(set).size());
+    }
+    Function<INode, Long> sumFunc = queryEngine.getSumFunctionForINode(sum);
+    LongAdder adder = new LongAdder();
+    Consumer<INode> accumulator = node -> adder.add(sumFunc.apply(node));
+    CachedFilter cached = queryEngine.getCachedFilter(set, filters, filterOps);
+    if (cached == null) {
+      Predicate<INode> filter =
+          noFilters ? node -> true : queryEngine.getFilterPredicate(filters, filterOps);
+      return submit(set, filter, accumulator).thenApply(v -> adder.sum());
+    }
+    if (cached.matchesNothing()) {
+      return CompletableFuture.completedFuture(0L);
+    }
+    Supplier<ChunkScan> scans =
+        () -> {
+          PredicateScan scan = cached.newScan(accumulator);
+          return new ChunkScan() {
+            @Override
+            public void accept(INode node) {
+              scan.accept(node);
+            }
+
+            @Override
+            public void finish() {
+              cached.merge(scan);
+            }
+          };
+        };
+    return submit(set, scans)
+        .thenApply(
+            v -> {
+              cached.cacheResults();
+              return adder.sum();
+            });
+  }
+
+  /**
+   * Waits for the result of a shared scan and rethrows the failure of the query itself, if any.
+   *
+   * @param future the future as returned by submit
+   * @param <T> the result type
+   * @return the result of the query
+   * @throws Exception the exception thrown while evaluating the query
+   */
+  public static <T> T await(Future<T> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Exception) {
+        throw (Exception) cause;
+      }
+      throw e;
+    }
+  }
+
+  public void shutdown() {
+    timer.shutdownNow();
+    workers.shutdownNow();
+  }
+
+  /**
+   * Splits a set into chunks of at most CHUNK_SIZE INodes, as far as its spliterator allows.
+   *
+   * @param inodes the set
+   * @return the chunks in encounter order
+   */
+  private static List<Spliterator<INode>> split(Collection<INode> inodes) {
+    List<Spliterator<INode>> chunks = new ArrayList<>();
+    Deque<Spliterator<INode>> stack = new ArrayDeque<>();
+    stack.push(inodes.spliterator());
+    while (!stack.isEmpty()) {
+      Spliterator<INode> spliterator = stack.pop();
+      Spliterator<INode> prefix =
+          (spliterator.estimateSize() > CHUNK_SIZE) ? spliterator.trySplit() : null;
+      if (prefix != null) {
+        stack.push(spliterator);
+        stack.push(prefix);
+      } else {
+        chunks.add(spliterator);
+      }
+    }
+    return chunks;
+  }
+
+  private void attach(ScanGroup group, ScanQuery query) {
+    query.startPass = group.pass;
+    query.startIndex = group.nextIndex;
+    group.attached.add(query);
+  }
+
+  private void startScan(ScanGroup group) {
+    long start = System.currentTimeMillis();
+    List<Spliterator<INode>> chunks;
+    try {
+      chunks = split(setSupplier.apply(group.set));
+    } catch (Throwable e) {
+      synchronized (group) {
+        group.scheduled = false;
+        for (ScanQuery query : group.pending) {
+          query.future.completeExceptionally(e);
+        }
+        group.pending.clear();
+      }
+      return;
+    }
+
+    synchronized (group) {
+      group.scheduled = false;
+      group.chunks = chunks;
+      group.pass++;
+      group.nextIndex = 0;
+      for (ScanQuery query : group.pending) {
+        attach(group, query);
+      }
+      LOG.info(
+          "Starting shared scan of: {} in {} chunks for {} queries.",
+          group.set,
+          chunks.size(),
+          group.pending.size());
+      group.pending.clear();
+      if (chunks.isEmpty()) {
+        group.attached.forEach(query -> query.future.complete(null));
+        group.attached.clear();
+        group.chunks = null;
+        return;
+      }
+      group.running = true;
+      group.startMs = start;
+      group.activeWorkers = parallelism;
+      for (int i = 0; i < parallelism; i++) {
+        workers.submit(() -> scan(group));
+      }
+    }
+  }
+
+  /**
+   * Claims the next chunk any attached query still needs, starting the next pass once the current
+   * one is exhausted. Must hold the group monitor.
+   *
+   * @param group the scan group
+   * @param queries filled with the queries that need the claimed chunk
+   * @return the claimed chunk, or null if no query needs any more chunks
+   */
+  private Spliterator<INode> claim(ScanGroup group, List<ScanQuery> queries) {
+    while (true) {
+      if (group.nextIndex >= group.chunks.size()) {
+        endPass(group);
+        if (group.attached.stream().allMatch(query -> query.fullyClaimed)) {
+          return null;
+        }
+        try {
+          group.chunks = split(setSupplier.apply(group.set));
+        } catch (Throwable e) {
+          for (ScanQuery query : group.attached) {
+            if (!query.fullyClaimed) {
+              query.fullyClaimed = true;
+              query.future.completeExceptionally(e);
+            }
+          }
+          group.attached.removeIf(query -> query.future.isCompletedExceptionally());
+          return null;
+        }
+        group.pass++;
+        group.nextIndex = 0;
+        LOG.info("Shared scan of: {} wrapped around in {} chunks.", group.set, group.chunks.size());
+        continue;
+      }
+      int index = group.nextIndex++;
+      for (ScanQuery query : group.attached) {
+        if (!query.fullyClaimed && query.needs(group.pass, index)) {
+          queries.add(query);
+          query.inFlight++;
+          if (group.pass > query.startPass && index + 1 >= query.startIndex) {
+            query.fullyClaimed = true;
+          }
+        }
+      }
+      Spliterator<INode> chunk = group.chunks.set(index, null);
+      if (!queries.isEmpty()) {
+        return chunk;
+      }
+    }
+  }
+
+  /** Marks queries whose chunks were all claimed at the end of a pass, completing idle ones. */
+  private void endPass(ScanGroup group) {
+    Iterator<ScanQuery> it = group.attached.iterator();
+    while (it.hasNext()) {
+      ScanQuery query = it.next();
+      if (query.startPass < group.pass || query.startIndex == 0) {
+        query.fullyClaimed = true;
+      }
+      if (query.fullyClaimed && query.inFlight == 0) {
+        it.remove();
+        query.future.complete(null);
+      }
+    }
+  }
+
+  private void scan(ScanGroup group) {
+    while (true) {
+      Spliterator<INode> chunk;
+      List<ScanQuery> queries = new ArrayList<>();
+      synchronized (group) {
+        chunk = claim(group, queries);
+        if (chunk == null) {
+          // Every remaining chunk has been claimed; let the workers holding them finish up.
+          group.activeWorkers--;
+          if (group.activeWorkers == 0) {
+            group.running = false;
+            group.chunks = null;
+            long end = System.currentTimeMillis();
+            LOG.info("Shared scan of: {} took: {} ms.", group.set, (end - group.startMs));
+          }
+          return;
+        }
+      }
+
+      int numQueries = queries.size();
+      ChunkScan[] scans = new ChunkScan[numQueries];
+      Throwable[] failures = new Throwable[numQueries];
+      for (int i = 0; i < numQueries; i++) {
+        try {
+          scans[i] = queries.get(i).scans.get();
+        } catch (Throwable e) {
+          failures[i] = e;
+        }
+      }
+      try {
+        chunk.forEachRemaining(
+            node -> {
+              for (int i = 0; i < numQueries; i++) {
+                if (failures[i] == null) {
+                  try {
+                    scans[i].accept(node);
+                  } catch (Throwable e) {
+                    failures[i] = e;
+                  }
+                }
+              }
+            });
+      } catch (Throwable e) {
+        for (int i = 0; i < numQueries; i++) {
+          if (failures[i] == null) {
+            failures[i] = e;
+          }
+        }
+      }
+      for (int i = 0; i < numQueries; i++) {
+        if (failures[i] == null) {
+          try {
+            scans[i].finish();
+          } catch (Throwable e) {
+            failures[i] = e;
+          }
+        }
+      }
+
+      synchronized (group) {
+        for (int i = 0; i < numQueries; i++) {
+          ScanQuery query = queries.get(i);
+          query.inFlight--;
+          if (failures[i] != null) {
+            if (group.attached.remove(query)) {
+              query.future.completeExceptionally(failures[i]);
+            }
+          } else if (query.fullyClaimed && query.inFlight == 0 && group.attached.remove(query)) {
+            query.future.complete(null);
+          }
+        }
+      }
+    }
+  }
+}
@@ -22,27 +22,59 @@ package org.apache.hadoop.hdfs.server.namenode.cache;
 import com.paypal.security.SecurityConfiguration;
 import java.io.File;
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 import org.apache.commons.io.FileUtils;
-import org.apache.hadoop.util.MapSerializer;
+import org.apache.hadoop.util.CompactMapSerializer;
+import org.apache.hadoop.util.KeyDictionary;
 import org.mapdb.DB;
 import org.mapdb.DBMaker;
 import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * This class is simply a wrapper around MapDB classes for easier storage and possible future
  * abstraction if something better is discovered.
  *
  * <p>Any memory objects returned from this class are backed by mmap'd files and fsync'd upon
- * calling commit.
+ * calling commit. Writes can be handed to {@link #commitAsync(Runnable, Runnable)} to run and
+ * commit on a background thread; if it falls behind only the latest writes are run. A failed commit
+ * is rolled back so the next one starts from the last committed state.
+ *
+ * <p>Maps of maps are stored with a {@link CompactMapSerializer} under their own names, so caches
+ * written with the previous encoding are ignored and rebuilt by the next reload.
  */
 public class CacheManager {
 
+  public static final Logger LOG = LoggerFactory.getLogger(CacheManager.class.getName());
+
+  private static final String COMPACT_SUFFIX = "Compact";
+  private static final String KEY_DICTIONARY = "cachedKeyDictionary";
+
+  private final AtomicReference<Runnable[]> pendingWrites = new AtomicReference<>();
+  private final KeyDictionary keyDictionary = new KeyDictionary();
+
   private DB cache;
+  private Map<Integer, String> cachedKeyDictionary;
+  private CompactMapSerializer mapSerializer;
+  private ExecutorService commitService;
+
+  private volatile long lastCommitDurationMs = -1L;
+  private volatile long lastCommitBytes = -1L;
+  private volatile long commits = 0L;
+  private volatile long failedCommits = 0L;
 
   public Map<String, Map<String, Long>> getCachedMapToMap(String mapToMapName) {
-    return cache.hashMap(mapToMapName, Serializer.STRING, new MapSerializer()).createOrOpen();
+    return cache
+        .hashMap(mapToMapName + COMPACT_SUFFIX, Serializer.STRING, mapSerializer)
+        .createOrOpen();
   }
 
   public Map<String, Long> getCachedMap(String mapName) {
@@ -53,11 +85,116 @@ public class CacheManager {
     return cache.hashSet(setName, Serializer.STRING).createOrOpen();
   }
 
+  /**
+   * Writes the entries of the next version of a map that changed since the previous version and
+   * removes the ones it no longer has.
+   *
+   * @param target the cached map to write to
+   * @param previous the version last written to the target
+   * @param next the version to write
+   * @return number of entries written or removed
+   */
+  public static <V> int putChanged(
+      Map<String, V> target, Map<String, V> previous, Map<String, V> next) {
+    int changed = 0;
+    for (Map.Entry<String, V> entry : next.entrySet()) {
+      V old = previous.get(entry.getKey());
+      if (old != entry.getValue() && !Objects.equals(old, entry.getValue())) {
+        target.put(entry.getKey(), entry.getValue());
+        changed++;
+      }
+    }
+    for (String key : previous.keySet()) {
+      if (!next.containsKey(key)) {
+        target.remove(key);
+        changed++;
+      }
+    }
+    return changed;
+  }
+
+  /**
+   * Commits all writes together with the dictionary keys assigned for them. The keys only count as
+   * persisted once the commit succeeded, so a failed commit writes them again with the next one.
+   */
   public void commit() {
+    Map<Integer, String> newKeys = new HashMap<>();
+    int end = keyDictionary.getUnpersisted(newKeys);
+    if (!newKeys.isEmpty()) {
+      cachedKeyDictionary.putAll(newKeys);
+    }
     cache.commit();
+    keyDictionary.markPersisted(end);
+  }
+
+  /**
+   * Runs the writes and commits them on the background commit thread. Writes still waiting for the
+   * thread are replaced and never run. If the writes or the commit fail, the transaction is rolled
+   * back and onCommit is not run.
+   *
+   * @param writes the writes to the cached collections
+   * @param onCommit run on the commit thread once the writes are committed
+   */
+  public void commitAsync(Runnable writes, Runnable onCommit) {
+    if (pendingWrites.getAndSet(new Runnable[] {writes, onCommit}) == null) {
+      commitService.submit(this::commitPending);
+    }
+  }
+
+  private void commitPending() {
+    Runnable[] pending = pendingWrites.getAndSet(null);
+    if (pending == null) {
+      return;
+    }
+    long s1 = System.currentTimeMillis();
+    long bytesBefore = mapSerializer.getBytesWritten();
+    try {
+      pending[0].run();
+      commit();
+    } catch (Exception e) {
+      failedCommits++;
+      LOG.info("Failed to write cache data due to: {}", e);
+      rollback();
+      return;
+    }
+    pending[1].run();
+    long e1 = System.currentTimeMillis();
+    lastCommitDurationMs = e1 - s1;
+    lastCommitBytes = mapSerializer.getBytesWritten() - bytesBefore;
+    commits++;
+    LOG.info(
+        "Writing to embedded MapDB took: {} ms, encoded map bytes: {}.",
+        lastCommitDurationMs,
+        lastCommitBytes);
+  }
+
+  private void rollback() {
+    try {
+      cache.rollback();
+    } catch (Exception e) {
+      LOG.warn("Failed to roll back cache data due to: {}", e);
+    }
+  }
+
+  public long getFailedCommits() {
+    return failedCommits;
+  }
+
+  public long getLastCommitDurationMs() {
+    return lastCommitDurationMs;
+  }
+
+  public long getLastCommitBytes() {
+    return lastCommitBytes;
   }
 
   public void stop() {
+    commitService.shutdown();
+    try {
+      commitService.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
     cache.close();
   }
 
@@ -75,5 +212,30 @@ public class CacheManager {
             .closeOnJvmShutdown()
             .cleanerHackEnable()
             .make();
+    cachedKeyDictionary =
+        cache.hashMap(KEY_DICTIONARY, Serializer.INTEGER, Serializer.STRING).createOrOpen();
+    keyDictionary.load(cachedKeyDictionary);
+    mapSerializer = new CompactMapSerializer(keyDictionary, conf.getCacheCompressionEnabled());
+    commitService =
+        Executors.newSingleThreadExecutor(
+            r -> {
+              Thread thread = new Thread(r, "cache-commit");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  @Override
+  public String toString() {
+    return "Last cache commit took (ms): "
+        + lastCommitDurationMs
+        + ", encoded map bytes: "
+        + lastCommitBytes
+        + ", dictionary keys: "
+        + keyDictionary.size()
+        + ", commits: "
+        + commits
+        + ", failed commits: "
+        + failedCommits;
   }
 }
@@ -0,0 +1,295 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.CountedFile;
+import org.apache.hadoop.util.GSetChangeListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the suggestion counters of the last full aggregation up to date from INodes added to and
+ * removed from the INode map in-between.
+ *
+ * <p>Changes are queued by the thread applying edits and applied in batches by the suggestions
+ * reload thread. Files are only counted once they are no longer under construction so that their
+ * final size is used. Files modified within the last 24 hours are tracked in a timer wheel and move
+ * out of the 24 hour counters once they expire.
+ *
+ * <p>HDFS clears the blocks and parent of a deleted file before removing it from the INode map, so
+ * a removed file is subtracted with the values it was counted with. The full aggregation keeps
+ * those for every file it counts, and so does every file counted here. The same records make
+ * applying a change idempotent: a file is only added if it has no record yet and only subtracted if
+ * it has one. The full aggregation can therefore scan while edits keep being applied; changes
+ * queued during the scan are applied on top of its result whether or not the scan saw them.
+ *
+ * <p>INodes modified in place never show up in the INode map. Every application of changes
+ * therefore also re-reads a slice of the counted files in turn and re-counts those whose attributes
+ * or 1 and 2 year windows changed. Renamed directories and empty directories are only picked up by
+ * the next full aggregation, which replaces these counters and reports how far they had drifted.
+ *
+ * <p>Apart from the listener callbacks this class is not thread-safe.
+ */
+class IncrementalSuggestions implements GSetChangeListener<INodeWithAdditionalFields> {
+
+  public static final Logger LOG = LoggerFactory.getLogger(IncrementalSuggestions.class.getName());
+
+  private static final long WHEEL_TICK_MS = TimeUnit.MINUTES.toMillis(1);
+  private static final int SWEEP_FILES = 100000;
+
+  private static class Change {
+    private final INode node;
+    private final boolean added;
+
+    private Change(INode node, boolean added) {
+      this.node = node;
+      this.added = added;
+    }
+  }
+
+  private final Queue<Change> changes = new ConcurrentLinkedQueue<>();
+  private final AtomicLong numChanges = new AtomicLong(0L);
+  private final Set<INode> pendingFiles = new LinkedHashSet<>();
+  private Map<INode, CountedFile> countedFiles = new HashMap<>();
+  private Set<INode> countedDirs = new HashSet<>();
+  private List<CountedFile> sweep = new ArrayList<>();
+  private int sweepPosition = 0;
+  private TimerWheel<CountedFile> recentWheel;
+  private SuggestionsAggregate fileStats;
+  private SuggestionsAggregate dirStats;
+  private long lastDrift = 0L;
+
+  @Override
+  public void onPut(INodeWithAdditionalFields element) {
+    changes.add(new Change(element, true));
+    numChanges.incrementAndGet();
+  }
+
+  @Override
+  public void onRemove(INodeWithAdditionalFields element) {
+    changes.add(new Change(element, false));
+    numChanges.incrementAndGet();
+  }
+
+  /**
+   * Replaces the counters with the result of a full aggregation and records the drift of the
+   * incrementally maintained counters. Changes still queued are applied on top of it next.
+   *
+   * @param files the full aggregation of the files set, keeping every file counted
+   * @param dirs the full aggregation of the dirs set, keeping every directory counted
+   */
+  void reconcile(SuggestionsAggregate files, SuggestionsAggregate dirs) {
+    if (fileStats != null) {
+      lastDrift = fileStats.countDifferences(files) + dirStats.countDifferences(dirs);
+      LOG.info(
+          "Incremental suggestions drifted on {} counters since the last full reload.", lastDrift);
+    }
+    fileStats = files;
+    dirStats = dirs;
+    sweep = files.getCountedFiles();
+    sweepPosition = 0;
+    countedFiles = new HashMap<>(sweep.size() * 4 / 3 + 1);
+    recentWheel = new TimerWheel<>(WHEEL_TICK_MS, SuggestionsAggregate.RECENT_MS, files.getTime());
+    for (CountedFile file : sweep) {
+      countedFiles.put(file.node, file);
+      if (file.recent) {
+        recentWheel.schedule(file, recentUntil(file));
+      }
+    }
+    countedDirs = new HashSet<>(dirs.getCountedDirs());
+  }
+
+  /**
+   * Applies all queued changes, expires files out of the 24 hour window and re-counts the next
+   * slice of files that changed in place.
+   *
+   * @param now the current time
+   * @return whether any counter changed
+   */
+  boolean apply(long now) {
+    if (fileStats == null) {
+      changes.clear();
+      return false;
+    }
+    long start = System.currentTimeMillis();
+    int numChanges = 0;
+    Change change;
+    while ((change = changes.poll()) != null) {
+      if (change.added) {
+        added(change.node, now);
+      } else {
+        removed(change.node);
+      }
+      numChanges++;
+    }
+
+    int numCounted = 0;
+    Iterator<INode> pending = pendingFiles.iterator();
+    while (pending.hasNext()) {
+      INode node = pending.next();
+      if (!node.asFile().isUnderConstruction()) {
+        pending.remove();
+        if (!countedFiles.containsKey(node)) {
+          CountedFile file = CountedFile.of(node, now);
+          count(file);
+          sweep.add(file);
+          numCounted++;
+        }
+      }
+    }
+
+    List<CountedFile> expired = recentWheel.advance(now, IncrementalSuggestions::recentUntil);
+    int numExpired = 0;
+    for (CountedFile file : expired) {
+      if (countedFiles.get(file.node) == file && recount(file, now)) {
+        numExpired++;
+      }
+    }
+
+    int numSwept = 0;
+    int sweepFiles = Math.min(SWEEP_FILES, sweep.size());
+    for (int i = 0; i < sweepFiles && !sweep.isEmpty(); i++) {
+      if (sweepPosition >= sweep.size()) {
+        sweepPosition = 0;
+      }
+      CountedFile counted = countedFiles.get(sweep.get(sweepPosition).node);
+      if (counted == null) {
+        // Removed since; drop it from the sweep.
+        int last = sweep.size() - 1;
+        sweep.set(sweepPosition, sweep.get(last));
+        sweep.remove(last);
+        continue;
+      }
+      if (recount(counted, now)) {
+        numSwept++;
+      }
+      sweep.set(sweepPosition++, countedFiles.get(counted.node));
+    }
+
+    long end = System.currentTimeMillis();
+    LOG.info(
+        "Applying {} changes, counting {} closed files, expiring {} files and re-counting {}"
+            + " modified files took: {} ms.",
+        numChanges,
+        numCounted,
+        numExpired,
+        numSwept,
+        (end - start));
+    return (numChanges + numCounted + numExpired + numSwept) > 0;
+  }
+
+  private void added(INode node, long now) {
+    if (node.isFile()) {
+      if (countedFiles.containsKey(node)) {
+        return;
+      }
+      if (node.asFile().isUnderConstruction()) {
+        pendingFiles.add(node);
+      } else {
+        CountedFile file = CountedFile.of(node, now);
+        count(file);
+        sweep.add(file);
+      }
+    } else if (node.isDirectory()) {
+      if (countedDirs.add(node)) {
+        dirStats.addDir(node, 1L);
+      }
+    }
+  }
+
+  private void removed(INode node) {
+    if (node.isFile()) {
+      pendingFiles.remove(node);
+      CountedFile counted = countedFiles.remove(node);
+      if (counted != null) {
+        fileStats.addFile(counted, -1L);
+      }
+    } else if (node.isDirectory()) {
+      if (countedDirs.remove(node)) {
+        dirStats.addDir(node, -1L);
+      }
+    }
+  }
+
+  private void count(CountedFile file) {
+    fileStats.addFile(file, 1L);
+    countedFiles.put(file.node, file);
+    if (file.recent) {
+      recentWheel.schedule(file, recentUntil(file));
+    }
+  }
+
+  /**
+   * Re-counts a file with its current attributes and time windows. A file that is being written or
+   * already detached from the namespace keeps the attributes it was counted with.
+   *
+   * @return whether the file is counted differently now
+   */
+  private boolean recount(CountedFile counted, long now) {
+    INode node = counted.node;
+    CountedFile file =
+        (node.getParent() == null || node.asFile().isUnderConstruction())
+            ? counted.at(now)
+            : CountedFile.of(node, now);
+    if (file.countsAs(counted)) {
+      return false;
+    }
+    fileStats.addFile(counted, -1L);
+    count(file);
+    return true;
+  }
+
+  /** @return the first time the file no longer counts as modified within the last 24 hours */
+  private static long recentUntil(CountedFile file) {
+    return file.modTime + SuggestionsAggregate.RECENT_MS + 1L;
+  }
+
+  SuggestionsAggregate getFileStats() {
+    return fileStats;
+  }
+
+  SuggestionsAggregate getDirStats() {
+    return dirStats;
+  }
+
+  /** @return number of counters that differed at the last full reload */
+  long getLastDrift() {
+    return lastDrift;
+  }
+
+  /** @return total number of INodes added and removed so far */
+  long getNumChanges() {
+    return numChanges.get();
+  }
+}
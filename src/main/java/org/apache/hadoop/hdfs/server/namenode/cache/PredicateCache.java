@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class caches the result of individual filter predicates as bitmaps keyed by INode ID so that
+ * queries sharing sub-filters can AND previous results together instead of re-evaluating them.
+ *
+ * <p>An entry is only valid for a short time and while the namespace has not moved too far away
+ * from the transaction ID it was computed at. Entries are evicted in least-recently-used order once
+ * the combined size of all bitmaps exceeds the configured memory limit.
+ */
+public class PredicateCache {
+
+  public static final Logger LOG = LoggerFactory.getLogger(PredicateCache.class.getName());
+
+  private final long maxBytes;
+  private final long ttlMs;
+  private final long maxTxidDrift;
+  private final LongSupplier txidSupplier;
+
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+  private long sizeInBytes = 0L;
+  private long hits = 0L;
+  private long misses = 0L;
+
+  private static class Entry {
+    private final BitSet bits;
+    private final long txid;
+    private final long createdMs;
+    private final long bytes;
+
+    private Entry(BitSet bits, long txid, long createdMs) {
+      this.bits = bits;
+      this.txid = txid;
+      this.createdMs = createdMs;
+      this.bytes = bits.size() / Byte.SIZE;
+    }
+  }
+
+  public PredicateCache(long maxBytes, long ttlMs, long maxTxidDrift, LongSupplier txidSupplier) {
+    this.maxBytes = maxBytes;
+    this.ttlMs = ttlMs;
+    this.maxTxidDrift = maxTxidDrift;
+    this.txidSupplier = txidSupplier;
+  }
+
+  /**
+   * Normalizes a single predicate into a cache key. Whitespace is trimmed so that semantically
+   * equal filters from different queries share the same entry.
+   *
+   * @param set the INode set the predicate was evaluated against
+   * @param filter the filter name, ex: 'fileSize'
+   * @param filterOp the filter operation and value, ex: 'lte:1024'
+   * @return the normalized key
+   */
+  public static String toKey(String set, String filter, String filterOp) {
+    return set.trim() + "|" + filter.trim() + ":" + filterOp.trim();
+  }
+
+  /**
+   * Fetches the bitmap for a predicate if one exists and is still valid. The returned bitmap must
+   * not be modified by the caller.
+   *
+   * @param key the normalized predicate key
+   * @return bitmap of matching INode IDs or null if not cached
+   */
+  public synchronized BitSet get(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses++;
+      return null;
+    }
+    if (isExpired(entry, System.currentTimeMillis(), txidSupplier.getAsLong())) {
+      remove(key);
+      misses++;
+      return null;
+    }
+    hits++;
+    return entry.bits;
+  }
+
+  /**
+   * Stores the bitmap for a predicate and evicts expired or least-recently-used entries until the
+   * cache fits within its memory limit again.
+   *
+   * @param key the normalized predicate key
+   * @param bits bitmap of matching INode IDs
+   */
+  public synchronized void put(String key, BitSet bits) {
+    Entry entry = new Entry(bits, txidSupplier.getAsLong(), System.currentTimeMillis());
+    if (entry.bytes > maxBytes) {
+      LOG.info("Not caching predicate: {}; {} bytes exceeds the cache limit.", key, entry.bytes);
+      return;
+    }
+    remove(key);
+    entries.put(key, entry);
+    sizeInBytes += entry.bytes;
+    evict();
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    sizeInBytes = 0L;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getSizeInBytes() {
+    return sizeInBytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  private boolean isExpired(Entry entry, long now, long txid) {
+    return (now - entry.createdMs) > ttlMs || Math.abs(txid - entry.txid) > maxTxidDrift;
+  }
+
+  private void remove(String key) {
+    Entry removed = entries.remove(key);
+    if (removed != null) {
+      sizeInBytes -= removed.bytes;
+    }
+  }
+
+  private void evict() {
+    long now = System.currentTimeMillis();
+    long txid = txidSupplier.getAsLong();
+    Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Entry entry = iterator.next().getValue();
+      if (sizeInBytes > maxBytes || isExpired(entry, now, txid)) {
+        iterator.remove();
+        sizeInBytes -= entry.bytes;
+      }
+    }
+  }
+}
@@ -0,0 +1,613 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.StreamSupport;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeFile;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
+import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
+import org.apache.hadoop.hdfs.server.namenode.queries.TimeHistogram;
+
+/**
+ * All counters of the suggestions page for one INode set, gathered in a single parallel pass.
+ *
+ * <p>Every INode is classified once (empty, tiny, small, medium, last 24 hours, older than 1 and 2
+ * years) and added to the counters of its user and, for files, of its parent directory at depth 3.
+ * Set wide totals are the sum over all users. Each per-user or per-directory map only contains the
+ * keys that have at least one INode in the matching count column, exactly like a histogram over the
+ * equivalent filtered set would.
+ *
+ * <p>For the files set the same pass also credits every file to each of its ancestors that is set
+ * for analysis. For the dirs set the same pass also groups directories with a quota by owner and
+ * keeps their namespace and diskspace quota ratios used, keyed by full path.
+ *
+ * <p>If asked to, the pass also keeps the {@link CountedFile} of every file and every directory it
+ * counted, so that incremental updates can later subtract any of them again.
+ */
+class SuggestionsAggregate {
+
+  // Per-user columns of the files set.
+  static final int FILES = 0;
+  static final int FILES_DS = 1;
+  static final int FILES_24H = 2;
+  static final int FILES_24H_DS = 3;
+  static final int OLD_FILES_1YR = 4;
+  static final int OLD_FILES_1YR_DS = 5;
+  static final int OLD_FILES_2YR = 6;
+  static final int OLD_FILES_2YR_DS = 7;
+  static final int EMPTY_FILES = 8;
+  static final int EMPTY_FILES_MEM = 9;
+  static final int EMPTY_FILES_24H = 10;
+  static final int EMPTY_FILES_24H_MEM = 11;
+  static final int EMPTY_FILES_1YR = 12;
+  static final int TINY_FILES = 13;
+  static final int TINY_FILES_MEM = 14;
+  static final int TINY_FILES_DS = 15;
+  static final int TINY_FILES_24H = 16;
+  static final int TINY_FILES_24H_MEM = 17;
+  static final int TINY_FILES_24H_DS = 18;
+  static final int TINY_FILES_1YR = 19;
+  static final int SMALL_FILES = 20;
+  static final int SMALL_FILES_MEM = 21;
+  static final int SMALL_FILES_DS = 22;
+  static final int SMALL_FILES_24H = 23;
+  static final int SMALL_FILES_24H_MEM = 24;
+  static final int SMALL_FILES_24H_DS = 25;
+  static final int SMALL_FILES_1YR = 26;
+  static final int MEDIUM_FILES = 27;
+
+  // Per-user columns of the dirs set.
+  static final int DIRS = 28;
+  static final int EMPTY_DIRS = 29;
+  static final int EMPTY_DIRS_MEM = 30;
+  static final int EMPTY_DIRS_24H = 31;
+  static final int EMPTY_DIRS_24H_MEM = 32;
+  static final int EMPTY_DIRS_1YR = 33;
+
+  private static final int NUM_COLUMNS = 34;
+
+  // Per-directory columns of the files set.
+  static final int DIR_FILES = 0;
+  static final int DIR_FILES_DS = 1;
+  static final int DIR_FILES_24H = 2;
+  static final int DIR_FILES_24H_DS = 3;
+
+  private static final int NUM_DIR_COLUMNS = 4;
+  private static final int PARENT_DIR_DEPTH = 3;
+
+  private static final long TINY_FILE_SIZE = 1024L;
+  private static final long SMALL_FILE_SIZE = 1048576L;
+  private static final long MEDIUM_FILE_SIZE = 134217728L;
+
+  static final long RECENT_MS = TimeUnit.HOURS.toMillis(24);
+  private static final long OLD_1YR_MS = TimeUnit.DAYS.toMillis(365);
+  private static final long OLD_2YR_MS = TimeUnit.DAYS.toMillis(365 * 2);
+
+  private final long recentMs;
+  private final long olderThan1yrMs;
+  private final long now;
+  private final Long[] modTimeBins;
+  private final Function<INode, Long> numChildrenFunc;
+  private final Function<INode, Boolean> hasQuotaFunc;
+  private final Function<INode, Long> nsQuotaRatioFunc;
+  private final Function<INode, Long> dsQuotaRatioFunc;
+
+  private final Map<String, long[]> users = new HashMap<>();
+  private final Map<String, long[]> parentDirs = new HashMap<>();
+  private final long[] modTimeCount;
+  private final long[] modTimeDs;
+  private final boolean keepCounted;
+  private final List<CountedFile> countedFiles = new ArrayList<>();
+  private final List<INode> countedDirs = new ArrayList<>();
+  private final WatchedDirs watchedDirs;
+  private final long[][] watchedDirTotals;
+  private final Map<String, Map<String, Long>> nsQuotaRatios = new HashMap<>();
+  private final Map<String, Map<String, Long>> dsQuotaRatios = new HashMap<>();
+
+  private SuggestionsAggregate(
+      long now, QueryEngine queryEngine, WatchedDirs watchedDirs, boolean keepCounted) {
+    this.now = now;
+    this.recentMs = now - RECENT_MS;
+    this.olderThan1yrMs = now - OLD_1YR_MS;
+    this.keepCounted = keepCounted;
+    this.modTimeBins = TimeHistogram.getBinsArray("monthly");
+    this.modTimeCount = new long[modTimeBins.length + 1];
+    this.modTimeDs = new long[modTimeBins.length + 1];
+    this.watchedDirs = watchedDirs;
+    this.watchedDirTotals = new long[NUM_DIR_COLUMNS][watchedDirs.size()];
+    if (queryEngine == null) {
+      this.numChildrenFunc = null;
+      this.hasQuotaFunc = null;
+      this.nsQuotaRatioFunc = null;
+      this.dsQuotaRatioFunc = null;
+    } else {
+      this.numChildrenFunc = queryEngine.getFilterFunctionToLongForINode("dirNumChildren");
+      this.hasQuotaFunc = queryEngine.getFilterFunctionToBooleanForINode("hasQuota");
+      this.nsQuotaRatioFunc = queryEngine.getSumFunctionForINode("nsQuotaRatioUsed");
+      this.dsQuotaRatioFunc = queryEngine.getSumFunctionForINode("dsQuotaRatioUsed");
+    }
+  }
+
+  /**
+   * Aggregates the files set.
+   *
+   * @param files all files
+   * @param watchedDirs the directories set for analysis
+   * @param now the time all relative time filters are evaluated against
+   * @param keepCounted whether to keep the record of every file counted
+   * @return the aggregate of the files set
+   */
+  static SuggestionsAggregate ofFiles(
+      Collection<INode> files, WatchedDirs watchedDirs, long now, boolean keepCounted) {
+    return StreamSupport.stream(files.spliterator(), true)
+        .collect(
+            () -> new SuggestionsAggregate(now, null, watchedDirs, keepCounted),
+            SuggestionsAggregate::acceptFile,
+            SuggestionsAggregate::combine);
+  }
+
+  /**
+   * Aggregates the dirs set.
+   *
+   * @param dirs all directories
+   * @param queryEngine the query engine used to count directory children and compute quota ratios
+   * @param now the time all relative time filters are evaluated against
+   * @param keepCounted whether to keep every directory counted
+   * @return the aggregate of the dirs set
+   */
+  static SuggestionsAggregate ofDirs(
+      Collection<INode> dirs, QueryEngine queryEngine, long now, boolean keepCounted) {
+    return StreamSupport.stream(dirs.spliterator(), true)
+        .collect(
+            () -> new SuggestionsAggregate(now, queryEngine, WatchedDirs.NONE, keepCounted),
+            SuggestionsAggregate::acceptDir,
+            SuggestionsAggregate::combine);
+  }
+
+  /**
+   * The attributes a file was counted with and the time windows it fell into. HDFS clears the
+   * blocks and parent of a deleted file before removing it from the INode map, so removing a file
+   * from the counters has to use these instead of the INode.
+   */
+  static final class CountedFile {
+    private static final Interner<String> PARENT_DIRS = Interners.newWeakInterner();
+
+    final INode node;
+    final String user;
+    final long fileSize;
+    final short replication;
+    final int numBlocks;
+    final long accessTime;
+    final long modTime;
+    final String parentDir;
+    final boolean recent;
+    final boolean old1yr;
+    final boolean old2yr;
+
+    private CountedFile(CountedFile file, long now) {
+      this.node = file.node;
+      this.user = file.user;
+      this.fileSize = file.fileSize;
+      this.replication = file.replication;
+      this.numBlocks = file.numBlocks;
+      this.accessTime = file.accessTime;
+      this.modTime = file.modTime;
+      this.parentDir = file.parentDir;
+      this.recent = modTime >= now - RECENT_MS;
+      this.old1yr = accessTime <= now - OLD_1YR_MS;
+      this.old2yr = accessTime <= now - OLD_2YR_MS;
+    }
+
+    private CountedFile(INode node, long now) {
+      INodeFile file = node.asFile();
+      this.node = node;
+      this.user = node.getUserName();
+      this.fileSize = file.computeFileSize();
+      this.replication = file.getFileReplication();
+      this.numBlocks = file.numBlocks();
+      this.accessTime = node.getAccessTime();
+      this.modTime = node.getModificationTime();
+      this.parentDir = PARENT_DIRS.intern(QueryEngine.getParentDirAtDepth(node, PARENT_DIR_DEPTH));
+      this.recent = modTime >= now - RECENT_MS;
+      this.old1yr = accessTime <= now - OLD_1YR_MS;
+      this.old2yr = accessTime <= now - OLD_2YR_MS;
+    }
+
+    /**
+     * @param node the file
+     * @param now the time the time windows are evaluated against
+     * @return the current attributes of the file as they are counted
+     */
+    static CountedFile of(INode node, long now) {
+      return new CountedFile(node, now);
+    }
+
+    /**
+     * @param now the time the time windows are evaluated against
+     * @return the same attributes in the time windows of the given time
+     */
+    CountedFile at(long now) {
+      return new CountedFile(this, now);
+    }
+
+    /**
+     * @param other another record of the same file
+     * @return whether both records add the same to every counter
+     */
+    boolean countsAs(CountedFile other) {
+      return user.equals(other.user)
+          && fileSize == other.fileSize
+          && replication == other.replication
+          && numBlocks == other.numBlocks
+          && accessTime == other.accessTime
+          && modTime == other.modTime
+          && parentDir.equals(other.parentDir)
+          && recent == other.recent
+          && old1yr == other.old1yr
+          && old2yr == other.old2yr;
+    }
+  }
+
+  private void acceptFile(INode node) {
+    CountedFile file = CountedFile.of(node, now);
+    boolean recent = file.recent;
+    long diskspace = addFile(file, 1L);
+    if (keepCounted) {
+      countedFiles.add(file);
+    }
+    if (!watchedDirs.isEmpty()) {
+      for (INode parent = node.getParent(); parent != null; parent = parent.getParent()) {
+        int index = watchedDirs.indexOf(parent);
+        if (index < 0) {
+          continue;
+        }
+        watchedDirTotals[DIR_FILES][index]++;
+        watchedDirTotals[DIR_FILES_DS][index] += diskspace;
+        if (recent) {
+          watchedDirTotals[DIR_FILES_24H][index]++;
+          watchedDirTotals[DIR_FILES_24H_DS][index] += diskspace;
+        }
+      }
+    }
+  }
+
+  /**
+   * Adds or removes a file from the counters. The time windows are taken from the record and the
+   * modification time histogram is evaluated against the time of this aggregate, so removing a file
+   * with the record it was added with reverts exactly what adding it did.
+   *
+   * @param file the file as it is counted
+   * @param sign 1 to add the file, -1 to remove it
+   * @return the signed diskspace consumed by the file
+   */
+  long addFile(CountedFile file, long sign) {
+    long fileSize = file.fileSize;
+    long diskspace = sign * fileSize * file.replication;
+    long memory = sign * (100L + file.numBlocks * 150L);
+    boolean recent = file.recent;
+    boolean old1yr = file.old1yr;
+
+    long[] user = users.computeIfAbsent(file.user, k -> new long[NUM_COLUMNS]);
+    user[FILES] += sign;
+    user[FILES_DS] += diskspace;
+    if (recent) {
+      user[FILES_24H] += sign;
+      user[FILES_24H_DS] += diskspace;
+    }
+    if (old1yr) {
+      user[OLD_FILES_1YR] += sign;
+      user[OLD_FILES_1YR_DS] += diskspace;
+    }
+    if (file.old2yr) {
+      user[OLD_FILES_2YR] += sign;
+      user[OLD_FILES_2YR_DS] += diskspace;
+    }
+
+    if (fileSize == 0L) {
+      user[EMPTY_FILES] += sign;
+      user[EMPTY_FILES_MEM] += memory;
+      if (recent) {
+        user[EMPTY_FILES_24H] += sign;
+        user[EMPTY_FILES_24H_MEM] += memory;
+      }
+      if (old1yr) {
+        user[EMPTY_FILES_1YR] += sign;
+      }
+    } else if (fileSize > 0L && fileSize <= TINY_FILE_SIZE) {
+      addSizedFile(user, TINY_FILES, sign, diskspace, memory, recent, old1yr);
+    } else if (fileSize > TINY_FILE_SIZE && fileSize <= SMALL_FILE_SIZE) {
+      addSizedFile(user, SMALL_FILES, sign, diskspace, memory, recent, old1yr);
+    } else if (fileSize > SMALL_FILE_SIZE && fileSize <= MEDIUM_FILE_SIZE) {
+      user[MEDIUM_FILES] += sign;
+    }
+
+    String parentDir = file.parentDir;
+    if (!parentDir.equals("NO_MAPPING")) {
+      long[] dir = parentDirs.computeIfAbsent(parentDir, k -> new long[NUM_DIR_COLUMNS]);
+      dir[DIR_FILES] += sign;
+      dir[DIR_FILES_DS] += diskspace;
+      if (recent) {
+        dir[DIR_FILES_24H] += sign;
+        dir[DIR_FILES_24H_DS] += diskspace;
+      }
+    }
+
+    int bin = modTimeBins.length;
+    long age = now - file.modTime;
+    for (int i = 0; i < modTimeBins.length; i++) {
+      if (age <= modTimeBins[i]) {
+        bin = i;
+        break;
+      }
+    }
+    modTimeCount[bin] += sign;
+    modTimeDs[bin] += diskspace;
+    return diskspace;
+  }
+
+  /** Tiny and small files share a column layout of count, mem, ds, 24h count, mem, ds, 1yr. */
+  private static void addSizedFile(
+      long[] user,
+      int column,
+      long sign,
+      long diskspace,
+      long memory,
+      boolean recent,
+      boolean old1yr) {
+    user[column] += sign;
+    user[column + 1] += memory;
+    user[column + 2] += diskspace;
+    if (recent) {
+      user[column + 3] += sign;
+      user[column + 4] += memory;
+      user[column + 5] += diskspace;
+    }
+    if (old1yr) {
+      user[column + 6] += sign;
+    }
+  }
+
+  private void acceptDir(INode node) {
+    if (keepCounted) {
+      countedDirs.add(node);
+    }
+    long[] user = users.computeIfAbsent(node.getUserName(), k -> new long[NUM_COLUMNS]);
+    user[DIRS]++;
+    if (numChildrenFunc.apply(node) == 0L) {
+      long memory = 100L;
+      long modTime = node.getModificationTime();
+      user[EMPTY_DIRS]++;
+      user[EMPTY_DIRS_MEM] += memory;
+      if (modTime >= recentMs) {
+        user[EMPTY_DIRS_24H]++;
+        user[EMPTY_DIRS_24H_MEM] += memory;
+      }
+      if (modTime <= olderThan1yrMs) {
+        user[EMPTY_DIRS_1YR]++;
+      }
+    }
+    if (hasQuotaFunc.apply(node)) {
+      String path = node.getFullPathName();
+      addQuotaRatio(nsQuotaRatios, node, path, nsQuotaRatioFunc);
+      addQuotaRatio(dsQuotaRatios, node, path, dsQuotaRatioFunc);
+    }
+  }
+
+  /** Keeps non-negative ratios only, as quotas that are not set have a negative ratio. */
+  private static void addQuotaRatio(
+      Map<String, Map<String, Long>> ratios,
+      INode node,
+      String path,
+      Function<INode, Long> ratioFunc) {
+    long ratio = ratioFunc.apply(node);
+    if (ratio >= 0L) {
+      ratios.computeIfAbsent(node.getUserName(), k -> new HashMap<>()).put(path, ratio);
+    }
+  }
+
+  /**
+   * Adds or removes a directory from the directory count of its user. Whether a directory is empty
+   * depends on its children and is only refreshed by a full aggregation.
+   *
+   * @param node the directory
+   * @param sign 1 to add the directory, -1 to remove it
+   */
+  void addDir(INode node, long sign) {
+    long[] user = users.computeIfAbsent(node.getUserName(), k -> new long[NUM_COLUMNS]);
+    user[DIRS] += sign;
+  }
+
+  /**
+   * Counts the number of per-user counters that differ from another aggregate.
+   *
+   * @param other the aggregate to compare to
+   * @return number of differing counters
+   */
+  long countDifferences(SuggestionsAggregate other) {
+    long differences = 0L;
+    Set<String> allUsers = new HashSet<>(users.keySet());
+    allUsers.addAll(other.users.keySet());
+    long[] zeros = new long[NUM_COLUMNS];
+    for (String user : allUsers) {
+      long[] values = users.getOrDefault(user, zeros);
+      long[] otherValues = other.users.getOrDefault(user, zeros);
+      for (int i = 0; i < NUM_COLUMNS; i++) {
+        if (values[i] != otherValues[i]) {
+          differences++;
+        }
+      }
+    }
+    return differences;
+  }
+
+  private void combine(SuggestionsAggregate other) {
+    merge(users, other.users);
+    merge(parentDirs, other.parentDirs);
+    for (int i = 0; i < modTimeCount.length; i++) {
+      modTimeCount[i] += other.modTimeCount[i];
+      modTimeDs[i] += other.modTimeDs[i];
+    }
+    countedFiles.addAll(other.countedFiles);
+    countedDirs.addAll(other.countedDirs);
+    for (int i = 0; i < NUM_DIR_COLUMNS; i++) {
+      for (int j = 0; j < watchedDirTotals[i].length; j++) {
+        watchedDirTotals[i][j] += other.watchedDirTotals[i][j];
+      }
+    }
+    mergeQuotaRatios(nsQuotaRatios, other.nsQuotaRatios);
+    mergeQuotaRatios(dsQuotaRatios, other.dsQuotaRatios);
+  }
+
+  private static void mergeQuotaRatios(
+      Map<String, Map<String, Long>> into, Map<String, Map<String, Long>> from) {
+    for (Map.Entry<String, Map<String, Long>> entry : from.entrySet()) {
+      Map<String, Long> ratios = into.get(entry.getKey());
+      if (ratios == null) {
+        into.put(entry.getKey(), entry.getValue());
+      } else {
+        ratios.putAll(entry.getValue());
+      }
+    }
+  }
+
+  private static void merge(Map<String, long[]> into, Map<String, long[]> from) {
+    for (Map.Entry<String, long[]> entry : from.entrySet()) {
+      long[] values = into.get(entry.getKey());
+      if (values == null) {
+        into.put(entry.getKey(), entry.getValue());
+      } else {
+        long[] otherValues = entry.getValue();
+        for (int i = 0; i < values.length; i++) {
+          values[i] += otherValues[i];
+        }
+      }
+    }
+  }
+
+  /** @return the users owning at least one INode of the set */
+  Set<String> getUsers() {
+    Set<String> owners = new HashSet<>();
+    for (Map.Entry<String, long[]> entry : users.entrySet()) {
+      if (entry.getValue()[FILES] > 0L || entry.getValue()[DIRS] > 0L) {
+        owners.add(entry.getKey());
+      }
+    }
+    return owners;
+  }
+
+  /**
+   * @param column the per-user column to sum
+   * @return the column summed over all users
+   */
+  long total(int column) {
+    long total = 0L;
+    for (long[] values : users.values()) {
+      total += values[column];
+    }
+    return total;
+  }
+
+  /**
+   * @param column the per-user column to return
+   * @param countColumn the count column that decides whether a user is part of the result
+   * @return map of user to column value
+   */
+  Map<String, Long> byUser(int column, int countColumn) {
+    return toMap(users, column, countColumn);
+  }
+
+  /**
+   * @param column the per-directory column to return
+   * @param countColumn the count column that decides whether a directory is part of the result
+   * @return map of parent directory to column value
+   */
+  Map<String, Long> byParentDir(int column, int countColumn) {
+    return toMap(parentDirs, column, countColumn);
+  }
+
+  /**
+   * @param user the owner of the directories
+   * @param diskspace whether to return the diskspace instead of the namespace quota ratios
+   * @return map of full path to quota ratio used in percent of the directories with a quota
+   */
+  Map<String, Long> quotaRatios(String user, boolean diskspace) {
+    Map<String, Long> ratios = (diskspace ? dsQuotaRatios : nsQuotaRatios).get(user);
+    return (ratios == null) ? new HashMap<>() : ratios;
+  }
+
+  /**
+   * @param column the per-directory column to return
+   * @return map of every directory set for analysis to column value
+   */
+  Map<String, Long> byWatchedDir(int column) {
+    return watchedDirs.toMap(watchedDirTotals[column]);
+  }
+
+  /** @return the time all relative time filters of this aggregate are evaluated against */
+  long getTime() {
+    return now;
+  }
+
+  /** @return every file as it was counted, if the aggregate was asked to keep them */
+  List<CountedFile> getCountedFiles() {
+    return countedFiles;
+  }
+
+  /** @return every directory counted, if the aggregate was asked to keep them */
+  List<INode> getCountedDirs() {
+    return countedDirs;
+  }
+
+  /**
+   * @param diskspace whether to return diskspace consumed instead of file count
+   * @return monthly modification time histogram
+   */
+  Map<String, Long> modTimeHistogram(boolean diskspace) {
+    if (total(FILES) == 0L) {
+      return Collections.emptyMap();
+    }
+    return Histograms.sortByKeys(
+        TimeHistogram.getKeys("monthly"), diskspace ? modTimeDs : modTimeCount);
+  }
+
+  private static Map<String, Long> toMap(Map<String, long[]> source, int column, int countColumn) {
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, long[]> entry : source.entrySet()) {
+      long[] values = entry.getValue();
+      if (values[countColumn] > 0L) {
+        result.put(entry.getKey(), values[column]);
+      }
+    }
+    return result;
+  }
+}
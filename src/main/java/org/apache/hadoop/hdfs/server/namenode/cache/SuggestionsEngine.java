@@ -19,27 +19,66 @@
 
 package org.apache.hadoop.hdfs.server.namenode.cache;
 
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.DIRS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.DIR_FILES;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.DIR_FILES_24H;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.DIR_FILES_24H_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.DIR_FILES_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_DIRS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_DIRS_1YR;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_DIRS_24H;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_DIRS_24H_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_DIRS_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_FILES;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_FILES_1YR;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_FILES_24H;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_FILES_24H_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.EMPTY_FILES_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.FILES;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.FILES_24H;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.FILES_24H_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.FILES_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.MEDIUM_FILES;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.OLD_FILES_1YR;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.OLD_FILES_1YR_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.OLD_FILES_2YR;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.OLD_FILES_2YR_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES_1YR;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES_24H;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES_24H_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES_24H_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.SMALL_FILES_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES_1YR;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES_24H;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES_24H_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES_24H_MEM;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES_DS;
+import static org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsAggregate.TINY_FILES_MEM;
+
 import com.google.common.collect.Sets;
 import com.paypal.namenode.HSQLDriver;
 import com.paypal.security.SecurityConfiguration;
 import java.io.IOException;
-import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.LinkedHashMap;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
 import org.apache.hadoop.hdfs.server.namenode.NNLoader;
 import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
 import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
-import org.apache.hadoop.util.VirtualINodeTree;
+import org.apache.hadoop.util.GSetChangeListener;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -57,7 +96,71 @@ public class SuggestionsEngine {
 
   public static final Logger LOG = LoggerFactory.getLogger(SuggestionsEngine.class.getName());
 
+  /** Per-user suggestions by output name and name of the suggestion map they are read from. */
+  private static final String[][] USER_SUGGESTIONS = {
+    {"diskspace", "diskspaceUsers"},
+    {"diskspace24h", "diskspace24hUsers"},
+    {"numFiles", "numFilesUsers"},
+    {"numFiles24h", "numFiles24hUsers"},
+    {"numDirs", "numDirsUsers"},
+    {"emptyFiles", "emptyFilesUsers"},
+    {"emptyFiles24h", "emptyFiles24hUsers"},
+    {"emptyFiles1yr", "emptyFiles1yrUsers"},
+    {"emptyFilesMem", "emptyFilesMemUsers"},
+    {"emptyFiles24hMem", "emptyFiles24hMemUsers"},
+    {"emptyDirs", "emptyDirsUsers"},
+    {"emptyDirs24h", "emptyDirs24hUsers"},
+    {"emptyDirs1yr", "emptyDirs1yrUsers"},
+    {"emptyDirsMem", "emptyDirsMemUsers"},
+    {"emptyDirs24hMem", "emptyDirs24hMemUsers"},
+    {"tinyFiles", "tinyFilesUsers"},
+    {"tinyFiles24h", "tinyFiles24hUsers"},
+    {"tinyFiles1yr", "tinyFiles1yrUsers"},
+    {"tinyFilesMem", "tinyFilesMemUsers"},
+    {"tinyFiles24hMem", "tinyFiles24hMemUsers"},
+    {"tinyFilesDs", "tinyFilesDsUsers"},
+    {"tinyFiles24hDs", "tinyFiles24hDsUsers"},
+    {"smallFiles", "smallFilesUsers"},
+    {"smallFiles24h", "smallFiles24hUsers"},
+    {"smallFiles1yr", "smallFiles1yrUsers"},
+    {"smallFilesMem", "smallFilesMemUsers"},
+    {"smallFiles24hMem", "smallFiles24hMemUsers"},
+    {"smallFilesDs", "smallFilesDsUsers"},
+    {"smallFiles24hDs", "smallFiles24hDsUsers"},
+    {"mediumFiles", "mediumFilesUsers"},
+    {"largeFiles", "largeFilesUsers"},
+    {"oldFiles1yr", "oldFiles1yrUsers"},
+    {"oldFiles1yrDs", "oldFiles1yrDsUsers"},
+    {"oldFiles2yr", "oldFiles2yrUsers"},
+    {"oldFiles2yrDs", "oldFiles2yrDsUsers"},
+    {"nsQuotaCount", "nsQuotaCountsUsers"},
+    {"dsQuotaCount", "dsQuotaCountsUsers"},
+    {"nsQuotaThreshCount", "nsQuotaThreshCountsUsers"},
+    {"dsQuotaThreshCount", "dsQuotaThreshCountsUsers"},
+  };
+
+  private static final Set<String> USER_SUGGESTION_NAMES =
+      Arrays.stream(USER_SUGGESTIONS).map(s -> s[0]).collect(Collectors.toSet());
+
+  /** Issues by output name and name of the suggestion map they are sliced from. */
+  private static final String[][] ISSUES = {
+    {"emptyFiles", "emptyFilesUsers"},
+    {"emptyDirs", "emptyDirsUsers"},
+    {"tinyFiles", "tinyFilesUsers"},
+    {"smallFiles", "smallFilesUsers"},
+    {"emptyFiles24h", "emptyFiles24hUsers"},
+    {"emptyDirs24h", "emptyDirs24hUsers"},
+    {"tinyFiles24h", "tinyFiles24hUsers"},
+    {"smallFiles24h", "smallFiles24hUsers"},
+    {"oldFiles1yr", "oldFiles1yrUsers"},
+    {"dirCount", "dirCount"},
+    {"dirDiskspace", "dirDs"},
+    {"dirCount24h", "dirCount24h"},
+    {"dirDiskspace24h", "dirDs24h"}
+  };
+
   private final CacheManager cacheManager;
+  private TimeSeriesStore timeSeries;
 
   private Map<String, Long> cachedValues;
   private Map<String, Map<String, Long>> cachedMaps;
@@ -67,6 +170,14 @@ public class SuggestionsEngine {
   private Map<String, Map<String, Long>> cachedUserNsQuotas;
   private Map<String, Map<String, Long>> cachedUserDsQuotas;
 
+  private Map<String, Map<String, Long>> cachedDirsOverlay = Collections.emptyMap();
+
+  private volatile SuggestionsSnapshot snapshot = SuggestionsSnapshot.EMPTY;
+  private SuggestionsSnapshot persistedSnapshot = SuggestionsSnapshot.EMPTY;
+
+  private final Object reloadLock = new Object();
+  private IncrementalSuggestions incremental;
+
   private AtomicBoolean loaded;
 
   public SuggestionsEngine() {
@@ -78,25 +189,27 @@ public class SuggestionsEngine {
     return loaded.get();
   }
 
-  private Map<String, Long> getCachedMap(String innerMapName) {
-    return cachedMaps.getOrDefault(innerMapName, Collections.emptyMap());
-  }
-
   /**
    * This method should only be called after NNLoader has finished loading the FSImage.
    *
    * <p>Calling this method will issue many queries in the background and update the various MapDB
-   * cached objects.
+   * cached objects. When incremental updates are enabled the fresh counters also replace the
+   * incrementally maintained ones; edits keep being applied while the aggregation runs.
    *
    * @param nnLoader The main NNLoader and in-memory metadata set.
    */
   public void reloadSuggestions(NNLoader nnLoader) {
+    synchronized (reloadLock) {
+      reloadSuggestionsLocked(nnLoader);
+    }
+  }
+
+  private void reloadSuggestionsLocked(NNLoader nnLoader) {
     long s1 = System.currentTimeMillis();
     Collection<INode> files = nnLoader.getINodeSet("files");
     Collection<INode> dirs = nnLoader.getINodeSet("dirs");
+    SuggestionsSnapshot.Builder next = snapshot.toBuilder();
 
-    long numFiles = files.size();
-    long numDirs = dirs.size();
     long capacity = 0L;
 
     try {
@@ -107,228 +220,28 @@ public class SuggestionsEngine {
     }
 
     QueryEngine queryEngine = nnLoader.getQueryEngine();
-    final Map<String, Long> modTimeCount =
-        queryEngine.modTimeHistogram(files, "count", null, "monthly");
-    final Map<String, Long> modTimeDiskspace =
-        queryEngine.modTimeHistogram(files, "diskspaceConsumed", null, "monthly");
-
-    final Set<String> fileUsers =
-        files.parallelStream().map(INode::getUserName).distinct().collect(Collectors.toSet());
-    final Set<String> dirUsers =
-        dirs.parallelStream().map(INode::getUserName).distinct().collect(Collectors.toSet());
-    final Set<String> users = Sets.union(fileUsers, dirUsers);
-
-    final long diskspace = queryEngine.sum(files, "diskspaceConsumed");
-    final Collection<INode> files24h =
-        queryEngine.combinedFilter(files, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
-    final long numFiles24h = files24h.size();
-    final long diskspace24h = queryEngine.sum(files24h, "diskspaceConsumed");
-    final Map<String, Long> numFiles24hUsers = queryEngine.byUserHistogramCpu(files24h, "count");
-    final Map<String, Long> diskspace24hUsers =
-        queryEngine.byUserHistogramCpu(files24h, "diskspaceConsumed");
-    final Map<String, Long> diskspaceUsers =
-        queryEngine.byUserHistogramCpu(files, "diskspaceConsumed");
-
-    final Collection<INode> oldFiles1yr =
-        queryEngine.combinedFilter(
-            files, new String[] {"accessTime"}, new String[] {"olderThanYears:1"});
-    final Map<String, Long> oldFiles1yrCountUsers =
-        queryEngine.byUserHistogramCpu(oldFiles1yr, "count");
-    final Map<String, Long> oldFiles1yrDsUsers =
-        queryEngine.byUserHistogramCpu(oldFiles1yr, "diskspaceConsumed");
-    final Collection<INode> oldFiles2yr =
-        queryEngine.combinedFilter(
-            files, new String[] {"accessTime"}, new String[] {"olderThanYears:2"});
-    final Map<String, Long> oldFiles2yrCountUsers =
-        queryEngine.byUserHistogramCpu(oldFiles2yr, "count");
-    final Map<String, Long> oldFiles2yrDsUsers =
-        queryEngine.byUserHistogramCpu(oldFiles2yr, "diskspaceConsumed");
-
-    final Collection<INode> emptyFiles =
-        queryEngine.combinedFilter(files, new String[] {"fileSize"}, new String[] {"eq:0"});
-    final Collection<INode> emptyDirs =
-        queryEngine.combinedFilter(dirs, new String[] {"dirNumChildren"}, new String[] {"eq:0"});
-    final Collection<INode> tinyFiles =
-        queryEngine.combinedFilter(
-            files, new String[] {"fileSize", "fileSize"}, new String[] {"lte:1024", "gt:0"});
-    final Collection<INode> smallFiles =
-        queryEngine.combinedFilter(
-            files, new String[] {"fileSize", "fileSize"}, new String[] {"lte:1048576", "gt:1024"});
-    final Collection<INode> mediumFiles =
-        queryEngine.combinedFilter(
-            files,
-            new String[] {"fileSize", "fileSize"},
-            new String[] {"lte:134217728", "gt:1048576"});
-
-    final Collection<INode> emptyFiles24h =
-        queryEngine.combinedFilter(
-            emptyFiles, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
-    final Collection<INode> emptyDirs24h =
-        queryEngine.combinedFilter(
-            emptyDirs, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
-    final Collection<INode> tinyFiles24h =
-        queryEngine.combinedFilter(
-            tinyFiles, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
-    final Collection<INode> smallFiles24h =
-        queryEngine.combinedFilter(
-            smallFiles, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
-
-    final Collection<INode> emptyFiles1yr =
-        queryEngine.combinedFilter(
-            emptyFiles, new String[] {"accessTime"}, new String[] {"olderThanYears:1"});
-    final Collection<INode> emptyDirs1yr =
-        queryEngine.combinedFilter(
-            emptyDirs, new String[] {"modTime"}, new String[] {"olderThanYears:1"});
-    final Collection<INode> tinyFiles1yr =
-        queryEngine.combinedFilter(
-            tinyFiles, new String[] {"accessTime"}, new String[] {"olderThanYears:1"});
-    final Collection<INode> smallFiles1yr =
-        queryEngine.combinedFilter(
-            smallFiles, new String[] {"accessTime"}, new String[] {"olderThanYears:1"});
-
-    final long emptyFilesCount = emptyFiles.size();
-    final long emptyDirsCount = emptyDirs.size();
-    final long emptyFilesMem = queryEngine.sum(emptyFiles, "memoryConsumed");
-    final long emptyDirsMem = queryEngine.sum(emptyDirs, "memoryConsumed");
-    final long tinyFilesCount = tinyFiles.size();
-    final long smallFilesCount = smallFiles.size();
-    final long mediumFilesCount = mediumFiles.size();
-    final long largeFilesCount =
-        numFiles - emptyFilesCount - tinyFilesCount - smallFilesCount - mediumFilesCount;
-    final long tinyFilesMem = queryEngine.sum(tinyFiles, "memoryConsumed");
-    final long smallFilesMem = queryEngine.sum(smallFiles, "memoryConsumed");
-    final long tinyFilesDs = queryEngine.sum(tinyFiles, "diskspaceConsumed");
-    final long smallFilesDs = queryEngine.sum(smallFiles, "diskspaceConsumed");
-
-    final long emptyFiles24hCount = emptyFiles24h.size();
-    final long emptyDirs24hCount = emptyDirs24h.size();
-    final long emptyFiles24hMem = queryEngine.sum(emptyFiles24h, "memoryConsumed");
-    final long emptyDirs24hMem = queryEngine.sum(emptyDirs24h, "memoryConsumed");
-    final long tinyFiles24hCount = tinyFiles24h.size();
-    final long smallFiles24hCount = smallFiles24h.size();
-    final long tinyFiles24hMem = queryEngine.sum(tinyFiles24h, "memoryConsumed");
-    final long smallFiles24hMem = queryEngine.sum(smallFiles24h, "memoryConsumed");
-    final long tinyFiles24hDs = queryEngine.sum(tinyFiles24h, "diskspaceConsumed");
-    final long smallFiles24hDs = queryEngine.sum(smallFiles24h, "diskspaceConsumed");
-
-    final long emptyFiles1yrCount = emptyFiles1yr.size();
-    final long emptyDirs1yrCount = emptyDirs1yr.size();
-    final long tinyFiles1yrCount = tinyFiles1yr.size();
-    final long smallFiles1yrCount = smallFiles1yr.size();
-
-    final long oldFiles1yrCount = oldFiles1yr.size();
-    final long oldFiles2yrCount = oldFiles2yr.size();
-    final long oldFiles1yrDs = queryEngine.sum(oldFiles1yr, "diskspaceConsumed");
-    final long oldFiles2yrDs = queryEngine.sum(oldFiles2yr, "diskspaceConsumed");
-
-    final Map<String, Long> filesUsers = queryEngine.byUserHistogram(files, "count", null);
-    final Map<String, Long> dirsUsers = queryEngine.byUserHistogramCpu(dirs, "count");
-
-    final Map<String, Long> emptyFilesUsers = queryEngine.byUserHistogramCpu(emptyFiles, "count");
-    final Map<String, Long> emptyDirsUsers = queryEngine.byUserHistogramCpu(emptyDirs, "count");
-    final Map<String, Long> tinyFilesUsers = queryEngine.byUserHistogramCpu(tinyFiles, "count");
-    final Map<String, Long> smallFilesUsers = queryEngine.byUserHistogramCpu(smallFiles, "count");
-    final Map<String, Long> mediumFilesUsers = queryEngine.byUserHistogramCpu(mediumFiles, "count");
-    final Map<String, Long> largeFilesUsers = new HashMap<>(users.size());
-    users.forEach(
-        u -> {
-          long largeFiles =
-              filesUsers.getOrDefault(u, 0L)
-                  - emptyFilesUsers.getOrDefault(u, 0L)
-                  - tinyFilesUsers.getOrDefault(u, 0L)
-                  - smallFilesUsers.getOrDefault(u, 0L)
-                  - mediumFilesUsers.getOrDefault(u, 0L);
-          largeFilesUsers.put(u, largeFiles);
-        });
-
-    final Map<String, Long> emptyFiles24hUsers =
-        queryEngine.byUserHistogramCpu(emptyFiles24h, "count");
-    final Map<String, Long> emptyDirs24hUsers =
-        queryEngine.byUserHistogramCpu(emptyDirs24h, "count");
-    final Map<String, Long> tinyFiles24hUsers =
-        queryEngine.byUserHistogramCpu(tinyFiles24h, "count");
-    final Map<String, Long> smallFiles24hUsers =
-        queryEngine.byUserHistogramCpu(smallFiles24h, "count");
-    final Map<String, Long> emptyFiles1yrUsers =
-        queryEngine.byUserHistogramCpu(emptyFiles1yr, "count");
-    final Map<String, Long> emptyDirs1yrUsers =
-        queryEngine.byUserHistogramCpu(emptyDirs1yr, "count");
-    final Map<String, Long> tinyFiles1yrUsers =
-        queryEngine.byUserHistogramCpu(tinyFiles1yr, "count");
-    final Map<String, Long> smallFiles1yrUsers =
-        queryEngine.byUserHistogramCpu(smallFiles1yr, "count");
-    final Map<String, Long> emptyFilesMemUsers =
-        queryEngine.byUserHistogramCpu(emptyFiles, "memoryConsumed");
-    final Map<String, Long> emptyDirsMemUsers =
-        queryEngine.byUserHistogramCpu(emptyDirs, "memoryConsumed");
-    final Map<String, Long> tinyFilesMemUsers =
-        queryEngine.byUserHistogramCpu(tinyFiles, "memoryConsumed");
-    final Map<String, Long> smallFilesMemUsers =
-        queryEngine.byUserHistogramCpu(smallFiles, "memoryConsumed");
-    final Map<String, Long> tinyFilesDsUsers =
-        queryEngine.byUserHistogramCpu(tinyFiles, "diskspaceConsumed");
-    final Map<String, Long> smallFilesDsUsers =
-        queryEngine.byUserHistogramCpu(smallFiles, "diskspaceConsumed");
-    final Map<String, Long> emptyFiles24hMemUsers =
-        queryEngine.byUserHistogramCpu(emptyFiles24h, "memoryConsumed");
-    final Map<String, Long> emptyDirs24hMemUsers =
-        queryEngine.byUserHistogramCpu(emptyDirs24h, "memoryConsumed");
-    final Map<String, Long> tinyFiles24hMemUsers =
-        queryEngine.byUserHistogramCpu(tinyFiles24h, "memoryConsumed");
-    final Map<String, Long> smallFiles24hMemUsers =
-        queryEngine.byUserHistogramCpu(smallFiles24h, "memoryConsumed");
-    final Map<String, Long> tinyFiles24hDsUsers =
-        queryEngine.byUserHistogramCpu(tinyFiles24h, "diskspaceConsumed");
-    final Map<String, Long> smallFiles24hDsUsers =
-        queryEngine.byUserHistogramCpu(smallFiles24h, "diskspaceConsumed");
-
-    Map<String, Long> dirCount = queryEngine.parentDirHistogramCpu(files, 3, "count");
-    Map<String, Long> dirDs = queryEngine.parentDirHistogramCpu(files, 3, "diskspaceConsumed");
-    dirCount = Histograms.sliceToTop(dirCount, 1000);
-    dirDs = Histograms.sliceToTop(dirDs, 1000);
-
-    VirtualINodeTree tree = new VirtualINodeTree();
-    cachedDirs.forEach(tree::addElement);
-    List<String> commonRoots = tree.getCommonAncestorsAsStrings();
-
-    for (String commonRoot : commonRoots) {
-      Collection<INode> commonINodes =
-          queryEngine.combinedFilter(
-              files, new String[] {"path"}, new String[] {"startsWith:" + commonRoot});
-
-      for (String cachedDir : cachedDirs) {
-        if (!cachedDir.startsWith(commonRoot)) {
-          continue;
-        }
-        Collection<INode> inodes;
-        if (cachedDir.equals(commonRoot)) {
-          inodes = commonINodes;
-        } else {
-          inodes =
-              queryEngine.combinedFilter(
-                  commonINodes, new String[] {"path"}, new String[] {"startsWith:" + cachedDir});
-        }
-        long count = inodes.size();
-        long diskspaceConsumed = queryEngine.sum(inodes, "diskspaceConsumed");
-        dirCount.put(cachedDir, count);
-        dirDs.put(cachedDir, diskspaceConsumed);
-      }
-    }
-
-    Map<String, Long> dirCount24h = queryEngine.parentDirHistogramCpu(files24h, 3, "count");
-    dirCount24h = Histograms.sliceToTop(dirCount24h, 1000);
-    Map<String, Long> dirDs24h =
-        queryEngine.parentDirHistogramCpu(files24h, 3, "diskspaceConsumed");
-    dirDs24h = Histograms.sliceToTop(dirDs24h, 1000);
-    for (String dir : cachedDirs) {
-      Collection<INode> inodes =
-          queryEngine.combinedFilter(
-              files24h, new String[] {"path"}, new String[] {"startsWith:" + dir});
-      long count = inodes.size();
-      long diskspaceConsumed = queryEngine.sum(inodes, "diskspaceConsumed");
-      dirCount24h.put(dir, count);
-      dirDs24h.put(dir, diskspaceConsumed);
+    long now = System.currentTimeMillis();
+    final WatchedDirs watchedDirs;
+    synchronized (cachedDirs) {
+      watchedDirs = WatchedDirs.resolve(dirs, new ArrayList<>(cachedDirs));
     }
+    // Incremental updates continue from the files and directories counted by this scan.
+    boolean keepCounted = (incremental != null);
+    final SuggestionsAggregate fileStats =
+        SuggestionsAggregate.ofFiles(files, watchedDirs, now, keepCounted);
+    final SuggestionsAggregate dirStats =
+        SuggestionsAggregate.ofDirs(dirs, queryEngine, now, keepCounted);
+    long e0 = System.currentTimeMillis();
+    LOG.info("Aggregating suggestions over files and dirs took: {} ms.", (e0 - now));
+
+    final Set<String> users = Sets.union(fileStats.getUsers(), dirStats.getUsers());
+
+    final Map<String, Map<String, Long>> dirsOverlay = new HashMap<>();
+    dirsOverlay.put("dirCount", fileStats.byWatchedDir(DIR_FILES));
+    dirsOverlay.put("dirDs", fileStats.byWatchedDir(DIR_FILES_DS));
+    dirsOverlay.put("dirCount24h", fileStats.byWatchedDir(DIR_FILES_24H));
+    dirsOverlay.put("dirDs24h", fileStats.byWatchedDir(DIR_FILES_24H_DS));
+    cachedDirsOverlay = dirsOverlay;
 
     long nsQuotaCount = 0;
     long dsQuotaCount = 0;
@@ -339,17 +252,12 @@ public class SuggestionsEngine {
     final Map<String, Long> nsQuotaCountsUsers = new HashMap<>();
     final Map<String, Long> dsQuotaCountsUsers = new HashMap<>();
     for (String user : users) {
-      Collection<INode> quotaDirs =
-          queryEngine.combinedFilter(
-              dirs, new String[] {"user", "hasQuota"}, new String[] {"eq:" + user, "eq:true"});
-      Map<String, Long> nsQuotaRatio =
-          queryEngine.dirQuotaHistogramCpu(quotaDirs, "nsQuotaRatioUsed");
-      Map<String, Long> dsQuotaRatio =
-          queryEngine.dirQuotaHistogramCpu(quotaDirs, "dsQuotaRatioUsed");
-      long nsThreshExceeded = nsQuotaRatio.values().parallelStream().filter(v -> v > 85L).count();
-      long dsThreshExceeded = dsQuotaRatio.values().parallelStream().filter(v -> v > 85L).count();
-      cachedUserNsQuotas.put(user, nsQuotaRatio);
-      cachedUserDsQuotas.put(user, dsQuotaRatio);
+      Map<String, Long> nsQuotaRatio = dirStats.quotaRatios(user, false);
+      Map<String, Long> dsQuotaRatio = dirStats.quotaRatios(user, true);
+      long nsThreshExceeded = nsQuotaRatio.values().stream().filter(v -> v > 85L).count();
+      long dsThreshExceeded = dsQuotaRatio.values().stream().filter(v -> v > 85L).count();
+      next.userNsQuotas.put(user, nsQuotaRatio);
+      next.userDsQuotas.put(user, dsQuotaRatio);
       nsQuotaThreshCountsUsers.put(user, nsThreshExceeded);
       dsQuotaThreshCountsUsers.put(user, dsThreshExceeded);
       nsQuotaCount += nsQuotaRatio.size();
@@ -365,98 +273,24 @@ public class SuggestionsEngine {
 
     long s2 = System.currentTimeMillis();
 
-    cachedLogins.putAll(nnLoader.getTokenExtractor().getTokenLastLogins());
-    cachedUsers.clear();
-    cachedUsers.addAll(users);
-    cachedValues.put("timeTaken", timeTaken);
-    cachedValues.put("reportTime", e1);
-    cachedValues.put("capacity", capacity);
-    cachedValues.put("diskspace", diskspace);
-    cachedValues.put("diskspace24h", diskspace24h);
-    cachedValues.put("numFiles", numFiles);
-    cachedValues.put("numFiles24h", numFiles24h);
-    cachedValues.put("numDirs", numDirs);
-    cachedValues.put("totalFiles", numFiles);
-    cachedValues.put("totalDirs", numDirs);
-    cachedValues.put("emptyFiles", emptyFilesCount);
-    cachedValues.put("emptyDirs", emptyDirsCount);
-    cachedValues.put("tinyFiles", tinyFilesCount);
-    cachedValues.put("smallFiles", smallFilesCount);
-    cachedValues.put("emptyFiles24h", emptyFiles24hCount);
-    cachedValues.put("emptyDirs24h", emptyDirs24hCount);
-    cachedValues.put("tinyFiles24h", tinyFiles24hCount);
-    cachedValues.put("smallFiles24h", smallFiles24hCount);
-    cachedValues.put("emptyFiles1yr", emptyFiles1yrCount);
-    cachedValues.put("emptyDirs1yr", emptyDirs1yrCount);
-    cachedValues.put("tinyFiles1yr", tinyFiles1yrCount);
-    cachedValues.put("smallFiles1yr", smallFiles1yrCount);
-    cachedValues.put("mediumFiles", mediumFilesCount);
-    cachedValues.put("largeFiles", largeFilesCount);
-    cachedValues.put("emptyFilesMem", emptyFilesMem);
-    cachedValues.put("emptyDirsMem", emptyDirsMem);
-    cachedValues.put("tinyFilesMem", tinyFilesMem);
-    cachedValues.put("tinyFilesDs", tinyFilesDs);
-    cachedValues.put("smallFilesMem", smallFilesMem);
-    cachedValues.put("smallFilesDs", smallFilesDs);
-    cachedValues.put("emptyFiles24hMem", emptyFiles24hMem);
-    cachedValues.put("emptyDirs24hMem", emptyDirs24hMem);
-    cachedValues.put("tinyFiles24hMem", tinyFiles24hMem);
-    cachedValues.put("smallFiles24hMem", smallFiles24hMem);
-    cachedValues.put("tinyFiles24hDs", tinyFiles24hDs);
-    cachedValues.put("smallFiles24hDs", smallFiles24hDs);
-    cachedValues.put("oldFiles1yr", oldFiles1yrCount);
-    cachedValues.put("oldFiles1yrDs", oldFiles1yrDs);
-    cachedValues.put("oldFiles2yr", oldFiles2yrCount);
-    cachedValues.put("oldFiles2yrDs", oldFiles2yrDs);
-    cachedValues.put("nsQuotaCount", nsQuotaCount);
-    cachedValues.put("dsQuotaCount", dsQuotaCount);
-    cachedValues.put("nsQuotaThreshCount", nsQuotaThreshCount);
-    cachedValues.put("dsQuotaThreshCount", dsQuotaThreshCount);
-    cachedMaps.put("diskspaceUsers", diskspaceUsers);
-    cachedMaps.put("numFilesUsers", filesUsers);
-    cachedMaps.put("numDirsUsers", dirsUsers);
-    cachedMaps.put("emptyFilesUsers", emptyFilesUsers);
-    cachedMaps.put("emptyDirsUsers", emptyDirsUsers);
-    cachedMaps.put("emptyFilesMemUsers", emptyFilesMemUsers);
-    cachedMaps.put("emptyDirsMemUsers", emptyDirsMemUsers);
-    cachedMaps.put("tinyFilesUsers", tinyFilesUsers);
-    cachedMaps.put("smallFilesUsers", smallFilesUsers);
-    cachedMaps.put("tinyFilesMemUsers", tinyFilesMemUsers);
-    cachedMaps.put("smallFilesMemUsers", smallFilesMemUsers);
-    cachedMaps.put("tinyFilesDsUsers", tinyFilesDsUsers);
-    cachedMaps.put("smallFilesDsUsers", smallFilesDsUsers);
-    cachedMaps.put("diskspace24hUsers", diskspace24hUsers);
-    cachedMaps.put("numFiles24hUsers", numFiles24hUsers);
-    cachedMaps.put("emptyFiles24hUsers", emptyFiles24hUsers);
-    cachedMaps.put("emptyDirs24hUsers", emptyDirs24hUsers);
-    cachedMaps.put("emptyFiles24hMemUsers", emptyFiles24hMemUsers);
-    cachedMaps.put("emptyDirs24hMemUsers", emptyDirs24hMemUsers);
-    cachedMaps.put("tinyFiles24hUsers", tinyFiles24hUsers);
-    cachedMaps.put("smallFiles24hUsers", smallFiles24hUsers);
-    cachedMaps.put("tinyFiles24hMemUsers", tinyFiles24hMemUsers);
-    cachedMaps.put("smallFiles24hMemUsers", smallFiles24hMemUsers);
-    cachedMaps.put("tinyFiles24hDsUsers", tinyFiles24hDsUsers);
-    cachedMaps.put("smallFiles24hDsUsers", smallFiles24hDsUsers);
-    cachedMaps.put("emptyFiles1yrUsers", emptyFiles1yrUsers);
-    cachedMaps.put("emptyDirs1yrUsers", emptyDirs1yrUsers);
-    cachedMaps.put("tinyFiles1yrUsers", tinyFiles1yrUsers);
-    cachedMaps.put("smallFiles1yrUsers", smallFiles1yrUsers);
-    cachedMaps.put("mediumFilesUsers", mediumFilesUsers);
-    cachedMaps.put("largeFilesUsers", largeFilesUsers);
-    cachedMaps.put("oldFiles1yrUsers", oldFiles1yrCountUsers);
-    cachedMaps.put("oldFiles1yrDsUsers", oldFiles1yrDsUsers);
-    cachedMaps.put("oldFiles2yrUsers", oldFiles2yrCountUsers);
-    cachedMaps.put("oldFiles2yrDsUsers", oldFiles2yrDsUsers);
-    cachedMaps.put("dirCount", dirCount);
-    cachedMaps.put("dirDs", dirDs);
-    cachedMaps.put("dirCount24h", dirCount24h);
-    cachedMaps.put("dirDs24h", dirDs24h);
-    cachedMaps.put("modTimeCount", modTimeCount);
-    cachedMaps.put("modTimeDiskspace", modTimeDiskspace);
-    cachedMaps.put("nsQuotaCountsUsers", nsQuotaCountsUsers);
-    cachedMaps.put("dsQuotaCountsUsers", dsQuotaCountsUsers);
-    cachedMaps.put("nsQuotaThreshCountsUsers", nsQuotaThreshCountsUsers);
-    cachedMaps.put("dsQuotaThreshCountsUsers", dsQuotaThreshCountsUsers);
+    next.logins.putAll(nnLoader.getTokenExtractor().getTokenLastLogins());
+    next.values.put("timeTaken", timeTaken);
+    next.values.put("reportTime", e1);
+    next.values.put("capacity", capacity);
+    next.values.put("nsQuotaCount", nsQuotaCount);
+    next.values.put("dsQuotaCount", dsQuotaCount);
+    next.values.put("nsQuotaThreshCount", nsQuotaThreshCount);
+    next.values.put("dsQuotaThreshCount", dsQuotaThreshCount);
+    next.maps.put("nsQuotaCountsUsers", nsQuotaCountsUsers);
+    next.maps.put("dsQuotaCountsUsers", dsQuotaCountsUsers);
+    next.maps.put("nsQuotaThreshCountsUsers", nsQuotaThreshCountsUsers);
+    next.maps.put("dsQuotaThreshCountsUsers", dsQuotaThreshCountsUsers);
+    publishStats(next, fileStats, dirStats, cachedDirsOverlay);
+    SuggestionsSnapshot published = next.build();
+    snapshot = published;
+    if (incremental != null) {
+      incremental.reconcile(fileStats, dirStats);
+    }
 
     long e2 = System.currentTimeMillis();
     LOG.info("Sync-switch of suggestions took: {} ms.", (e2 - s2));
@@ -464,31 +298,309 @@ public class SuggestionsEngine {
     loaded.set(true);
 
     HSQLDriver historyDbDriver = nnLoader.getEmbeddedHistoryDatabaseDriver();
+    if (timeSeries != null) {
+      timeSeries.recordAsync(published.getReportTime(), published.values, published.maps);
+    }
     if (historyDbDriver != null && nnLoader.isInit() && nnLoader.isHistorical()) {
-      long s3 = System.currentTimeMillis();
-      try {
-        historyDbDriver.logHistoryPerUser(cachedValues, cachedMaps, cachedUsers);
-      } catch (SQLException e) {
-        LOG.info("Failed to write historical data due to: {}", e);
-      }
-      long e3 = System.currentTimeMillis();
-      LOG.info("Writing to embedded SQL DB took: {} ms.", (e3 - s3));
+      historyDbDriver.logHistoryPerUserAsync(published.values, published.maps, published.users);
     } else {
       LOG.info("No historical data written as it is disabled.");
     }
 
-    long s4 = System.currentTimeMillis();
-    try {
-      cacheManager.commit();
-    } catch (Exception e) {
-      LOG.info("Failed to write cache data due to: {}", e);
+    persist(published);
+  }
+
+  /**
+   * Applies the INode changes seen since the last call to the suggestions and publishes them. The
+   * analysis of directories set for analysis, quotas and logins only change with a full reload.
+   *
+   * @return whether any suggestion changed
+   */
+  public boolean applyIncrementalUpdates() {
+    if (incremental == null) {
+      return false;
+    }
+    synchronized (reloadLock) {
+      if (!loaded.get() || !incremental.apply(System.currentTimeMillis())) {
+        return false;
+      }
+      long s1 = System.currentTimeMillis();
+      SuggestionsSnapshot.Builder next = snapshot.toBuilder();
+      publishStats(next, incremental.getFileStats(), incremental.getDirStats(), cachedDirsOverlay);
+      long e1 = System.currentTimeMillis();
+      next.values.put("reportTime", e1);
+      SuggestionsSnapshot published = next.build();
+      snapshot = published;
+      LOG.info("Publishing incremental suggestions took: {} ms.", (e1 - s1));
+      persist(published);
+      return true;
+    }
+  }
+
+  /**
+   * @return the listener to register on the INode map for incremental updates or null if they are
+   *     disabled
+   */
+  public GSetChangeListener<INodeWithAdditionalFields> getINodeListener() {
+    return incremental;
+  }
+
+  /** @return number of counters the incremental updates had drifted from the last full reload */
+  public long getLastReconcileDrift() {
+    return (incremental == null) ? 0L : incremental.getLastDrift();
+  }
+
+  /**
+   * @return total number of INodes added and removed so far or 0 if incremental updates are
+   *     disabled
+   */
+  public long getNumINodeChanges() {
+    return (incremental == null) ? 0L : incremental.getNumChanges();
+  }
+
+  private static void publishStats(
+      SuggestionsSnapshot.Builder next,
+      SuggestionsAggregate fileStats,
+      SuggestionsAggregate dirStats,
+      Map<String, Map<String, Long>> cachedDirsOverlay) {
+    final Map<String, Long> modTimeCount = fileStats.modTimeHistogram(false);
+    final Map<String, Long> modTimeDiskspace = fileStats.modTimeHistogram(true);
+
+    final Set<String> users = Sets.union(fileStats.getUsers(), dirStats.getUsers());
+
+    final long numFiles = fileStats.total(FILES);
+    final long numDirs = dirStats.total(DIRS);
+    final long diskspace = fileStats.total(FILES_DS);
+    final long numFiles24h = fileStats.total(FILES_24H);
+    final long diskspace24h = fileStats.total(FILES_24H_DS);
+    final Map<String, Long> numFiles24hUsers = fileStats.byUser(FILES_24H, FILES_24H);
+    final Map<String, Long> diskspace24hUsers = fileStats.byUser(FILES_24H_DS, FILES_24H);
+    final Map<String, Long> diskspaceUsers = fileStats.byUser(FILES_DS, FILES);
+    final Map<String, Long> oldFiles1yrCountUsers = fileStats.byUser(OLD_FILES_1YR, OLD_FILES_1YR);
+    final Map<String, Long> oldFiles1yrDsUsers = fileStats.byUser(OLD_FILES_1YR_DS, OLD_FILES_1YR);
+    final Map<String, Long> oldFiles2yrCountUsers = fileStats.byUser(OLD_FILES_2YR, OLD_FILES_2YR);
+    final Map<String, Long> oldFiles2yrDsUsers = fileStats.byUser(OLD_FILES_2YR_DS, OLD_FILES_2YR);
+
+    final long emptyFilesCount = fileStats.total(EMPTY_FILES);
+    final long emptyDirsCount = dirStats.total(EMPTY_DIRS);
+    final long emptyFilesMem = fileStats.total(EMPTY_FILES_MEM);
+    final long emptyDirsMem = dirStats.total(EMPTY_DIRS_MEM);
+    final long tinyFilesCount = fileStats.total(TINY_FILES);
+    final long smallFilesCount = fileStats.total(SMALL_FILES);
+    final long mediumFilesCount = fileStats.total(MEDIUM_FILES);
+    final long largeFilesCount =
+        numFiles - emptyFilesCount - tinyFilesCount - smallFilesCount - mediumFilesCount;
+    final long tinyFilesMem = fileStats.total(TINY_FILES_MEM);
+    final long smallFilesMem = fileStats.total(SMALL_FILES_MEM);
+    final long tinyFilesDs = fileStats.total(TINY_FILES_DS);
+    final long smallFilesDs = fileStats.total(SMALL_FILES_DS);
+
+    final long emptyFiles24hCount = fileStats.total(EMPTY_FILES_24H);
+    final long emptyDirs24hCount = dirStats.total(EMPTY_DIRS_24H);
+    final long emptyFiles24hMem = fileStats.total(EMPTY_FILES_24H_MEM);
+    final long emptyDirs24hMem = dirStats.total(EMPTY_DIRS_24H_MEM);
+    final long tinyFiles24hCount = fileStats.total(TINY_FILES_24H);
+    final long smallFiles24hCount = fileStats.total(SMALL_FILES_24H);
+    final long tinyFiles24hMem = fileStats.total(TINY_FILES_24H_MEM);
+    final long smallFiles24hMem = fileStats.total(SMALL_FILES_24H_MEM);
+    final long tinyFiles24hDs = fileStats.total(TINY_FILES_24H_DS);
+    final long smallFiles24hDs = fileStats.total(SMALL_FILES_24H_DS);
+
+    final long emptyFiles1yrCount = fileStats.total(EMPTY_FILES_1YR);
+    final long emptyDirs1yrCount = dirStats.total(EMPTY_DIRS_1YR);
+    final long tinyFiles1yrCount = fileStats.total(TINY_FILES_1YR);
+    final long smallFiles1yrCount = fileStats.total(SMALL_FILES_1YR);
+
+    final long oldFiles1yrCount = fileStats.total(OLD_FILES_1YR);
+    final long oldFiles2yrCount = fileStats.total(OLD_FILES_2YR);
+    final long oldFiles1yrDs = fileStats.total(OLD_FILES_1YR_DS);
+    final long oldFiles2yrDs = fileStats.total(OLD_FILES_2YR_DS);
+
+    final Map<String, Long> filesUsers = fileStats.byUser(FILES, FILES);
+    final Map<String, Long> dirsUsers = dirStats.byUser(DIRS, DIRS);
+
+    final Map<String, Long> emptyFilesUsers = fileStats.byUser(EMPTY_FILES, EMPTY_FILES);
+    final Map<String, Long> emptyDirsUsers = dirStats.byUser(EMPTY_DIRS, EMPTY_DIRS);
+    final Map<String, Long> tinyFilesUsers = fileStats.byUser(TINY_FILES, TINY_FILES);
+    final Map<String, Long> smallFilesUsers = fileStats.byUser(SMALL_FILES, SMALL_FILES);
+    final Map<String, Long> mediumFilesUsers = fileStats.byUser(MEDIUM_FILES, MEDIUM_FILES);
+    final Map<String, Long> largeFilesUsers = new HashMap<>(users.size());
+    users.forEach(
+        u -> {
+          long largeFiles =
+              filesUsers.getOrDefault(u, 0L)
+                  - emptyFilesUsers.getOrDefault(u, 0L)
+                  - tinyFilesUsers.getOrDefault(u, 0L)
+                  - smallFilesUsers.getOrDefault(u, 0L)
+                  - mediumFilesUsers.getOrDefault(u, 0L);
+          largeFilesUsers.put(u, largeFiles);
+        });
+
+    final Map<String, Long> emptyFiles24hUsers = fileStats.byUser(EMPTY_FILES_24H, EMPTY_FILES_24H);
+    final Map<String, Long> emptyDirs24hUsers = dirStats.byUser(EMPTY_DIRS_24H, EMPTY_DIRS_24H);
+    final Map<String, Long> tinyFiles24hUsers = fileStats.byUser(TINY_FILES_24H, TINY_FILES_24H);
+    final Map<String, Long> smallFiles24hUsers = fileStats.byUser(SMALL_FILES_24H, SMALL_FILES_24H);
+    final Map<String, Long> emptyFiles1yrUsers = fileStats.byUser(EMPTY_FILES_1YR, EMPTY_FILES_1YR);
+    final Map<String, Long> emptyDirs1yrUsers = dirStats.byUser(EMPTY_DIRS_1YR, EMPTY_DIRS_1YR);
+    final Map<String, Long> tinyFiles1yrUsers = fileStats.byUser(TINY_FILES_1YR, TINY_FILES_1YR);
+    final Map<String, Long> smallFiles1yrUsers = fileStats.byUser(SMALL_FILES_1YR, SMALL_FILES_1YR);
+    final Map<String, Long> emptyFilesMemUsers = fileStats.byUser(EMPTY_FILES_MEM, EMPTY_FILES);
+    final Map<String, Long> emptyDirsMemUsers = dirStats.byUser(EMPTY_DIRS_MEM, EMPTY_DIRS);
+    final Map<String, Long> tinyFilesMemUsers = fileStats.byUser(TINY_FILES_MEM, TINY_FILES);
+    final Map<String, Long> smallFilesMemUsers = fileStats.byUser(SMALL_FILES_MEM, SMALL_FILES);
+    final Map<String, Long> tinyFilesDsUsers = fileStats.byUser(TINY_FILES_DS, TINY_FILES);
+    final Map<String, Long> smallFilesDsUsers = fileStats.byUser(SMALL_FILES_DS, SMALL_FILES);
+    final Map<String, Long> emptyFiles24hMemUsers =
+        fileStats.byUser(EMPTY_FILES_24H_MEM, EMPTY_FILES_24H);
+    final Map<String, Long> emptyDirs24hMemUsers =
+        dirStats.byUser(EMPTY_DIRS_24H_MEM, EMPTY_DIRS_24H);
+    final Map<String, Long> tinyFiles24hMemUsers =
+        fileStats.byUser(TINY_FILES_24H_MEM, TINY_FILES_24H);
+    final Map<String, Long> smallFiles24hMemUsers =
+        fileStats.byUser(SMALL_FILES_24H_MEM, SMALL_FILES_24H);
+    final Map<String, Long> tinyFiles24hDsUsers =
+        fileStats.byUser(TINY_FILES_24H_DS, TINY_FILES_24H);
+    final Map<String, Long> smallFiles24hDsUsers =
+        fileStats.byUser(SMALL_FILES_24H_DS, SMALL_FILES_24H);
+
+    Map<String, Long> dirCount = fileStats.byParentDir(DIR_FILES, DIR_FILES);
+    Map<String, Long> dirDs = fileStats.byParentDir(DIR_FILES_DS, DIR_FILES);
+    Map<String, Long> dirCount24h = fileStats.byParentDir(DIR_FILES_24H, DIR_FILES_24H);
+    Map<String, Long> dirDs24h = fileStats.byParentDir(DIR_FILES_24H_DS, DIR_FILES_24H);
+    dirCount = Histograms.sliceToTop(dirCount, 1000);
+    dirDs = Histograms.sliceToTop(dirDs, 1000);
+    dirCount24h = Histograms.sliceToTop(dirCount24h, 1000);
+    dirDs24h = Histograms.sliceToTop(dirDs24h, 1000);
+    dirCount.putAll(cachedDirsOverlay.getOrDefault("dirCount", Collections.emptyMap()));
+    dirDs.putAll(cachedDirsOverlay.getOrDefault("dirDs", Collections.emptyMap()));
+    dirCount24h.putAll(cachedDirsOverlay.getOrDefault("dirCount24h", Collections.emptyMap()));
+    dirDs24h.putAll(cachedDirsOverlay.getOrDefault("dirDs24h", Collections.emptyMap()));
+
+    next.users.clear();
+    next.users.addAll(users);
+    next.values.put("diskspace", diskspace);
+    next.values.put("diskspace24h", diskspace24h);
+    next.values.put("numFiles", numFiles);
+    next.values.put("numFiles24h", numFiles24h);
+    next.values.put("numDirs", numDirs);
+    next.values.put("totalFiles", numFiles);
+    next.values.put("totalDirs", numDirs);
+    next.values.put("emptyFiles", emptyFilesCount);
+    next.values.put("emptyDirs", emptyDirsCount);
+    next.values.put("tinyFiles", tinyFilesCount);
+    next.values.put("smallFiles", smallFilesCount);
+    next.values.put("emptyFiles24h", emptyFiles24hCount);
+    next.values.put("emptyDirs24h", emptyDirs24hCount);
+    next.values.put("tinyFiles24h", tinyFiles24hCount);
+    next.values.put("smallFiles24h", smallFiles24hCount);
+    next.values.put("emptyFiles1yr", emptyFiles1yrCount);
+    next.values.put("emptyDirs1yr", emptyDirs1yrCount);
+    next.values.put("tinyFiles1yr", tinyFiles1yrCount);
+    next.values.put("smallFiles1yr", smallFiles1yrCount);
+    next.values.put("mediumFiles", mediumFilesCount);
+    next.values.put("largeFiles", largeFilesCount);
+    next.values.put("emptyFilesMem", emptyFilesMem);
+    next.values.put("emptyDirsMem", emptyDirsMem);
+    next.values.put("tinyFilesMem", tinyFilesMem);
+    next.values.put("tinyFilesDs", tinyFilesDs);
+    next.values.put("smallFilesMem", smallFilesMem);
+    next.values.put("smallFilesDs", smallFilesDs);
+    next.values.put("emptyFiles24hMem", emptyFiles24hMem);
+    next.values.put("emptyDirs24hMem", emptyDirs24hMem);
+    next.values.put("tinyFiles24hMem", tinyFiles24hMem);
+    next.values.put("smallFiles24hMem", smallFiles24hMem);
+    next.values.put("tinyFiles24hDs", tinyFiles24hDs);
+    next.values.put("smallFiles24hDs", smallFiles24hDs);
+    next.values.put("oldFiles1yr", oldFiles1yrCount);
+    next.values.put("oldFiles1yrDs", oldFiles1yrDs);
+    next.values.put("oldFiles2yr", oldFiles2yrCount);
+    next.values.put("oldFiles2yrDs", oldFiles2yrDs);
+    next.maps.put("diskspaceUsers", diskspaceUsers);
+    next.maps.put("numFilesUsers", filesUsers);
+    next.maps.put("numDirsUsers", dirsUsers);
+    next.maps.put("emptyFilesUsers", emptyFilesUsers);
+    next.maps.put("emptyDirsUsers", emptyDirsUsers);
+    next.maps.put("emptyFilesMemUsers", emptyFilesMemUsers);
+    next.maps.put("emptyDirsMemUsers", emptyDirsMemUsers);
+    next.maps.put("tinyFilesUsers", tinyFilesUsers);
+    next.maps.put("smallFilesUsers", smallFilesUsers);
+    next.maps.put("tinyFilesMemUsers", tinyFilesMemUsers);
+    next.maps.put("smallFilesMemUsers", smallFilesMemUsers);
+    next.maps.put("tinyFilesDsUsers", tinyFilesDsUsers);
+    next.maps.put("smallFilesDsUsers", smallFilesDsUsers);
+    next.maps.put("diskspace24hUsers", diskspace24hUsers);
+    next.maps.put("numFiles24hUsers", numFiles24hUsers);
+    next.maps.put("emptyFiles24hUsers", emptyFiles24hUsers);
+    next.maps.put("emptyDirs24hUsers", emptyDirs24hUsers);
+    next.maps.put("emptyFiles24hMemUsers", emptyFiles24hMemUsers);
+    next.maps.put("emptyDirs24hMemUsers", emptyDirs24hMemUsers);
+    next.maps.put("tinyFiles24hUsers", tinyFiles24hUsers);
+    next.maps.put("smallFiles24hUsers", smallFiles24hUsers);
+    next.maps.put("tinyFiles24hMemUsers", tinyFiles24hMemUsers);
+    next.maps.put("smallFiles24hMemUsers", smallFiles24hMemUsers);
+    next.maps.put("tinyFiles24hDsUsers", tinyFiles24hDsUsers);
+    next.maps.put("smallFiles24hDsUsers", smallFiles24hDsUsers);
+    next.maps.put("emptyFiles1yrUsers", emptyFiles1yrUsers);
+    next.maps.put("emptyDirs1yrUsers", emptyDirs1yrUsers);
+    next.maps.put("tinyFiles1yrUsers", tinyFiles1yrUsers);
+    next.maps.put("smallFiles1yrUsers", smallFiles1yrUsers);
+    next.maps.put("mediumFilesUsers", mediumFilesUsers);
+    next.maps.put("largeFilesUsers", largeFilesUsers);
+    next.maps.put("oldFiles1yrUsers", oldFiles1yrCountUsers);
+    next.maps.put("oldFiles1yrDsUsers", oldFiles1yrDsUsers);
+    next.maps.put("oldFiles2yrUsers", oldFiles2yrCountUsers);
+    next.maps.put("oldFiles2yrDsUsers", oldFiles2yrDsUsers);
+    next.maps.put("dirCount", dirCount);
+    next.maps.put("dirDs", dirDs);
+    next.maps.put("dirCount24h", dirCount24h);
+    next.maps.put("dirDs24h", dirDs24h);
+    next.maps.put("modTimeCount", modTimeCount);
+    next.maps.put("modTimeDiskspace", modTimeDiskspace);
+  }
+
+  /**
+   * Queues the entries that changed since the last written snapshot to be written to the MapDB
+   * caches. Only the latest queued snapshot is written if the writer falls behind, and it only
+   * becomes the base of the next diff once its commit succeeded.
+   */
+  private void persist(SuggestionsSnapshot published) {
+    cacheManager.commitAsync(() -> write(published), () -> persistedSnapshot = published);
+  }
+
+  /** Runs on the cache commit thread only. */
+  private void write(SuggestionsSnapshot published) {
+    SuggestionsSnapshot previous = persistedSnapshot;
+    int changed = CacheManager.putChanged(cachedValues, previous.values, published.values);
+    changed += CacheManager.putChanged(cachedMaps, previous.maps, published.maps);
+    changed += CacheManager.putChanged(cachedLogins, previous.logins, published.logins);
+    changed +=
+        CacheManager.putChanged(cachedUserNsQuotas, previous.userNsQuotas, published.userNsQuotas);
+    changed +=
+        CacheManager.putChanged(cachedUserDsQuotas, previous.userDsQuotas, published.userDsQuotas);
+    for (String user : Sets.difference(previous.users, published.users)) {
+      cachedUsers.remove(user);
+      changed++;
+    }
+    for (String user : Sets.difference(published.users, previous.users)) {
+      cachedUsers.add(user);
+      changed++;
     }
-    long e4 = System.currentTimeMillis();
-    LOG.info("Writing to embedded MapDB took: {} ms.", (e4 - s4));
+    LOG.info("Writing {} changed suggestion entries to embedded MapDB.", changed);
   }
 
-  public String getTokens() {
-    return Histograms.toJson(Histograms.sortByValue(cachedLogins, true));
+  /** @return the store of suggestions over time or null if it is disabled */
+  public TimeSeriesStore getTimeSeriesStore() {
+    return timeSeries;
+  }
+
+  /** @return the MapDB cache backing the suggestions */
+  public CacheManager getCacheManager() {
+    return cacheManager;
+  }
+
+  public Histograms.Output getTokens() {
+    Map<String, Long> tokens = Histograms.sortByValue(snapshot.logins, true);
+    return out -> Histograms.writeJson(tokens, out);
   }
 
   public void addDirectoryToAnalysis(String directory) throws IOException {
@@ -521,7 +633,8 @@ public class SuggestionsEngine {
     return cachedDirs;
   }
 
-  public String getQuotaAsJson(String user, String sum) {
+  public Histograms.Output getQuotaAsJson(String user, String sum) {
+    SuggestionsSnapshot current = snapshot;
     if (sum == null || sum.length() == 0) {
       throw new IllegalArgumentException(
           "Please define a sum of either diskspaceConsumed or count for Quotas.");
@@ -529,9 +642,13 @@ public class SuggestionsEngine {
     if (user != null && user.length() > 0) {
       switch (sum) {
         case "dsQuotaRatioUsed":
-          return Histograms.toJson(Histograms.sortByValue(cachedUserDsQuotas.get(user), false));
+          Map<String, Long> dsQuotas =
+              Histograms.sortByValue(current.userDsQuotas.get(user), false);
+          return out -> Histograms.writeJson(dsQuotas, out);
         case "nsQuotaRatioUsed":
-          return Histograms.toJson(Histograms.sortByValue(cachedUserNsQuotas.get(user), false));
+          Map<String, Long> nsQuotas =
+              Histograms.sortByValue(current.userNsQuotas.get(user), false);
+          return out -> Histograms.writeJson(nsQuotas, out);
         default:
           throw new IllegalArgumentException(
               "Please choose between diskspaceConsumed or count for Quotas.");
@@ -539,9 +656,9 @@ public class SuggestionsEngine {
     } else {
       switch (sum) {
         case "dsQuotaRatioUsed":
-          return Histograms.toJson(cachedUserDsQuotas);
+          return out -> Histograms.writeJson(current.userDsQuotas, out);
         case "nsQuotaRatioUsed":
-          return Histograms.toJson(cachedUserNsQuotas);
+          return out -> Histograms.writeJson(current.userNsQuotas, out);
         default:
           throw new IllegalArgumentException(
               "Please choose between diskspaceConsumed or count for Quotas.");
@@ -549,93 +666,79 @@ public class SuggestionsEngine {
     }
   }
 
-  public String getFileAgeAsJson(String sum) {
+  public Histograms.Output getFileAgeAsJson(String sum) {
+    SuggestionsSnapshot current = snapshot;
     if (sum == null || sum.length() == 0) {
       throw new IllegalArgumentException(
           "Please define a sum of either diskspaceConsumed or count for File ages.");
     }
     switch (sum) {
       case "diskspaceConsumed":
-        return Histograms.toJson(getCachedMap("modTimeDiskspace"));
+        return out -> Histograms.writeJson(current.getMap("modTimeDiskspace"), out);
       case "count":
-        return Histograms.toJson(getCachedMap("modTimeCount"));
+        return out -> Histograms.writeJson(current.getMap("modTimeCount"), out);
       default:
         throw new IllegalArgumentException(
             "Please choose between diskspaceConsumed or count for File ages.");
     }
   }
 
-  public String getUsersAsJson(String suggestion) {
+  public Histograms.Output getUsersAsJson(String suggestion) {
+    SuggestionsSnapshot current = snapshot;
     if (suggestion == null || suggestion.isEmpty()) {
-      return Histograms.toJson(cachedUsers);
+      return out -> Histograms.writeJson(current.users, out);
     } else {
-      Map<String, Long> userSuggestions = cachedMaps.get(suggestion);
+      Map<String, Long> userSuggestions = current.maps.get(suggestion);
       if (userSuggestions == null) {
         throw new IllegalArgumentException(suggestion + " is not a valid suggestion query.");
       }
-      return Histograms.toJson(userSuggestions);
+      return out -> Histograms.writeJson(userSuggestions, out);
     }
   }
 
-  public String getSuggestionsAsJson(String user) {
+  /**
+   * Writes the suggestion values. For a user, the per-user suggestions and last login replace the
+   * namespace-wide values of the same name.
+   *
+   * @param user the user or null or empty for the whole namespace
+   * @return the json output of the suggestions
+   */
+  public Histograms.Output getSuggestionsAsJson(String user) {
+    SuggestionsSnapshot current = snapshot;
     if (user == null || user.isEmpty()) {
-      return Histograms.toJson(cachedValues);
-    } else {
-      Map<String, Long> userMap = new HashMap<>(cachedValues);
-      userMap.put("diskspace", getCachedMap("diskspaceUsers").getOrDefault(user, 0L));
-      userMap.put("diskspace24h", getCachedMap("diskspace24hUsers").getOrDefault(user, 0L));
-      userMap.put("numFiles", getCachedMap("numFilesUsers").getOrDefault(user, 0L));
-      userMap.put("numFiles24h", getCachedMap("numFiles24hUsers").getOrDefault(user, 0L));
-      userMap.put("numDirs", getCachedMap("numDirsUsers").getOrDefault(user, 0L));
-      userMap.put("emptyFiles", getCachedMap("emptyFilesUsers").getOrDefault(user, 0L));
-      userMap.put("emptyFiles24h", getCachedMap("emptyFiles24hUsers").getOrDefault(user, 0L));
-      userMap.put("emptyFiles1yr", getCachedMap("emptyFiles1yrUsers").getOrDefault(user, 0L));
-      userMap.put("emptyFilesMem", getCachedMap("emptyFilesMemUsers").getOrDefault(user, 0L));
-      userMap.put("emptyFiles24hMem", getCachedMap("emptyFiles24hMemUsers").getOrDefault(user, 0L));
-      userMap.put("emptyDirs", getCachedMap("emptyDirsUsers").getOrDefault(user, 0L));
-      userMap.put("emptyDirs24h", getCachedMap("emptyDirs24hUsers").getOrDefault(user, 0L));
-      userMap.put("emptyDirs1yr", getCachedMap("emptyDirs1yrUsers").getOrDefault(user, 0L));
-      userMap.put("emptyDirsMem", getCachedMap("emptyDirsMemUsers").getOrDefault(user, 0L));
-      userMap.put("emptyDirs24hMem", getCachedMap("emptyDirs24hMemUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFiles", getCachedMap("tinyFilesUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFiles24h", getCachedMap("tinyFiles24hUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFiles1yr", getCachedMap("tinyFiles1yrUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFilesMem", getCachedMap("tinyFilesMemUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFiles24hMem", getCachedMap("tinyFiles24hMemUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFilesDs", getCachedMap("tinyFilesDsUsers").getOrDefault(user, 0L));
-      userMap.put("tinyFiles24hDs", getCachedMap("tinyFiles24hDsUsers").getOrDefault(user, 0L));
-      userMap.put("smallFiles", getCachedMap("smallFilesUsers").getOrDefault(user, 0L));
-      userMap.put("smallFiles24h", getCachedMap("smallFiles24hUsers").getOrDefault(user, 0L));
-      userMap.put("smallFiles1yr", getCachedMap("smallFiles1yrUsers").getOrDefault(user, 0L));
-      userMap.put("smallFilesMem", getCachedMap("smallFilesMemUsers").getOrDefault(user, 0L));
-      userMap.put("smallFiles24hMem", getCachedMap("smallFiles24hMemUsers").getOrDefault(user, 0L));
-      userMap.put("smallFilesDs", getCachedMap("smallFilesDsUsers").getOrDefault(user, 0L));
-      userMap.put("smallFiles24hDs", getCachedMap("smallFiles24hDsUsers").getOrDefault(user, 0L));
-      userMap.put("mediumFiles", getCachedMap("mediumFilesUsers").getOrDefault(user, 0L));
-      userMap.put("largeFiles", getCachedMap("largeFilesUsers").getOrDefault(user, 0L));
-      userMap.put("oldFiles1yr", getCachedMap("oldFiles1yrUsers").getOrDefault(user, 0L));
-      userMap.put("oldFiles1yrDs", getCachedMap("oldFiles1yrDsUsers").getOrDefault(user, 0L));
-      userMap.put("oldFiles2yr", getCachedMap("oldFiles2yrUsers").getOrDefault(user, 0L));
-      userMap.put("oldFiles2yrDs", getCachedMap("oldFiles2yrDsUsers").getOrDefault(user, 0L));
-      userMap.put("nsQuotaCount", getCachedMap("nsQuotaCountsUsers").getOrDefault(user, 0L));
-      userMap.put("dsQuotaCount", getCachedMap("dsQuotaCountsUsers").getOrDefault(user, 0L));
-      userMap.put(
-          "nsQuotaThreshCount", getCachedMap("nsQuotaThreshCountsUsers").getOrDefault(user, 0L));
-      userMap.put(
-          "dsQuotaThreshCount", getCachedMap("dsQuotaThreshCountsUsers").getOrDefault(user, 0L));
-      userMap.put("lastLogin", cachedLogins.getOrDefault(user, 0L));
-      return Histograms.toJson(userMap);
+      return out -> Histograms.writeJson(current.values, out);
     }
+    return out -> {
+      JsonGenerator json = Histograms.createGenerator(out);
+      try {
+        json.writeStartObject();
+        for (Map.Entry<String, Long> value : current.values.entrySet()) {
+          if (!USER_SUGGESTION_NAMES.contains(value.getKey())) {
+            json.writeFieldName(value.getKey());
+            Histograms.writeValue(json, value.getValue());
+          }
+        }
+        for (String[] suggestion : USER_SUGGESTIONS) {
+          json.writeNumberField(
+              suggestion[0], current.getMap(suggestion[1]).getOrDefault(user, 0L));
+        }
+        json.writeNumberField("lastLogin", current.logins.getOrDefault(user, 0L));
+        json.writeEndObject();
+      } finally {
+        json.close();
+      }
+    };
   }
 
-  public String getDirectoriesAsJson(String directory, String sum) {
+  public Histograms.Output getDirectoriesAsJson(String directory, String sum) {
+    SuggestionsSnapshot current = snapshot;
     Map<String, Long> dirMap;
     switch (sum) {
       case "count":
-        dirMap = getCachedMap("dirCount");
+        dirMap = current.getMap("dirCount");
         break;
       case "diskspaceConsumed":
-        dirMap = getCachedMap("dirDs");
+        dirMap = current.getMap("dirDs");
         break;
       default:
         throw new IllegalArgumentException("Invalid sum type: " + sum);
@@ -643,70 +746,74 @@ public class SuggestionsEngine {
     if (directory != null && !directory.isEmpty()) {
       dirMap = Collections.singletonMap(directory, dirMap.get(directory));
     }
-    return Histograms.toJson(dirMap);
+    Map<String, Long> dirs = dirMap;
+    return out -> Histograms.writeJson(dirs, out);
   }
 
-  public String getIssuesAsJson(Integer limit, boolean ascending) {
-    Map<String, Map<String, Long>> issuesMap = new LinkedHashMap<>();
-    Map<String, Long> topEmptyFileUsers =
-        Histograms.sortByValue(getCachedMap("emptyFilesUsers"), ascending);
-    Map<String, Long> topEmptyDirUsers =
-        Histograms.sortByValue(getCachedMap("emptyDirsUsers"), ascending);
-    Map<String, Long> topTinyFilesUsers =
-        Histograms.sortByValue(getCachedMap("tinyFilesUsers"), ascending);
-    Map<String, Long> topSmallFilesUsers =
-        Histograms.sortByValue(getCachedMap("smallFilesUsers"), ascending);
-    Map<String, Long> topEmptyFile24hUsers =
-        Histograms.sortByValue(getCachedMap("emptyFiles24hUsers"), ascending);
-    Map<String, Long> topEmptyDir24hUsers =
-        Histograms.sortByValue(getCachedMap("emptyDirs24hUsers"), ascending);
-    Map<String, Long> topTinyFiles24hUsers =
-        Histograms.sortByValue(getCachedMap("tinyFiles24hUsers"), ascending);
-    Map<String, Long> topSmallFiles24hUsers =
-        Histograms.sortByValue(getCachedMap("smallFiles24hUsers"), ascending);
-    Map<String, Long> topOldFiles1yrUsers =
-        Histograms.sortByValue(getCachedMap("oldFiles1yrUsers"), ascending);
-    Map<String, Long> topDirCount = Histograms.sortByValue(getCachedMap("dirCount"), ascending);
-    Map<String, Long> topDirDiskspace = Histograms.sortByValue(getCachedMap("dirDs"), ascending);
-    Map<String, Long> topDirCount24h =
-        Histograms.sortByValue(getCachedMap("dirCount24h"), ascending);
-    Map<String, Long> topDirDiskspace24h =
-        Histograms.sortByValue(getCachedMap("dirDs24h"), ascending);
-    Function<Map<String, Long>, Map<String, Long>> sliceFunc =
-        (histogramMap) ->
-            (ascending
-                ? Histograms.sliceToBottom(histogramMap, limit)
-                : Histograms.sliceToTop(histogramMap, limit));
-    issuesMap.put("emptyFiles", sliceFunc.apply(topEmptyFileUsers));
-    issuesMap.put("emptyDirs", sliceFunc.apply(topEmptyDirUsers));
-    issuesMap.put("tinyFiles", sliceFunc.apply(topTinyFilesUsers));
-    issuesMap.put("smallFiles", sliceFunc.apply(topSmallFilesUsers));
-    issuesMap.put("emptyFiles24h", sliceFunc.apply(topEmptyFile24hUsers));
-    issuesMap.put("emptyDirs24h", sliceFunc.apply(topEmptyDir24hUsers));
-    issuesMap.put("tinyFiles24h", sliceFunc.apply(topTinyFiles24hUsers));
-    issuesMap.put("smallFiles24h", sliceFunc.apply(topSmallFiles24hUsers));
-    issuesMap.put("oldFiles1yr", sliceFunc.apply(topOldFiles1yrUsers));
-    issuesMap.put("dirCount", sliceFunc.apply(topDirCount));
-    issuesMap.put("dirDiskspace", sliceFunc.apply(topDirDiskspace));
-    issuesMap.put("dirCount24h", sliceFunc.apply(topDirCount24h));
-    issuesMap.put("dirDiskspace24h", sliceFunc.apply(topDirDiskspace24h));
-    return Histograms.toJson(issuesMap);
+  /**
+   * Writes the top or bottom users and directories of each issue, ordered by rank. Each issue is
+   * sliced while it is written so only one slice is held at a time.
+   *
+   * @param limit number of users or directories per issue
+   * @param ascending whether to write the bottom instead of the top entries
+   * @return the json output of the issues
+   */
+  public Histograms.Output getIssuesAsJson(Integer limit, boolean ascending) {
+    if (limit == null || limit < 0) {
+      throw new IllegalArgumentException("Please define a non-negative limit for issues.");
+    }
+    SuggestionsSnapshot current = snapshot;
+    return out -> {
+      JsonGenerator json = Histograms.createGenerator(out);
+      try {
+        json.writeStartObject();
+        for (String[] issue : ISSUES) {
+          Map<String, Long> histogram = current.getMap(issue[1]);
+          json.writeFieldName(issue[0]);
+          Histograms.writeValue(
+              json,
+              ascending
+                  ? Histograms.sliceToBottom(histogram, limit)
+                  : Histograms.sliceToTop(histogram, limit));
+        }
+        json.writeEndObject();
+      } finally {
+        json.close();
+      }
+    };
   }
 
   public void stop() {
+    if (timeSeries != null) {
+      timeSeries.stop();
+    }
     cacheManager.stop();
   }
 
   public void start(SecurityConfiguration conf) throws IOException {
     cacheManager.start(conf);
+    if (conf.getTimeSeriesEnabled()) {
+      this.timeSeries = new TimeSeriesStore();
+      timeSeries.start(conf);
+    }
+    if (conf.getSuggestionsIncrementalEnabled()) {
+      this.incremental = new IncrementalSuggestions();
+    }
     this.cachedDirs = Collections.synchronizedSet(cacheManager.getCachedSet("cachedDirs"));
-    this.cachedUsers = Collections.synchronizedSet(cacheManager.getCachedSet("cachedUsers"));
-    this.cachedValues = Collections.synchronizedMap(cacheManager.getCachedMap("cachedValues"));
-    this.cachedLogins = Collections.synchronizedMap(cacheManager.getCachedMap("cachedLogins"));
-    this.cachedMaps = Collections.synchronizedMap(cacheManager.getCachedMapToMap("cachedMaps"));
-    this.cachedUserNsQuotas =
-        Collections.synchronizedMap(cacheManager.getCachedMapToMap("cachedUserNsQuotas"));
-    this.cachedUserDsQuotas =
-        Collections.synchronizedMap(cacheManager.getCachedMapToMap("cachedUserDsQuotas"));
+    this.cachedUsers = cacheManager.getCachedSet("cachedUsers");
+    this.cachedValues = cacheManager.getCachedMap("cachedValues");
+    this.cachedLogins = cacheManager.getCachedMap("cachedLogins");
+    this.cachedMaps = cacheManager.getCachedMapToMap("cachedMaps");
+    this.cachedUserNsQuotas = cacheManager.getCachedMapToMap("cachedUserNsQuotas");
+    this.cachedUserDsQuotas = cacheManager.getCachedMapToMap("cachedUserDsQuotas");
+    SuggestionsSnapshot.Builder persisted = new SuggestionsSnapshot.Builder();
+    persisted.values.putAll(cachedValues);
+    persisted.maps.putAll(cachedMaps);
+    persisted.users.addAll(cachedUsers);
+    persisted.logins.putAll(cachedLogins);
+    persisted.userNsQuotas.putAll(cachedUserNsQuotas);
+    persisted.userDsQuotas.putAll(cachedUserDsQuotas);
+    this.snapshot = persisted.build();
+    this.persistedSnapshot = snapshot;
   }
 }
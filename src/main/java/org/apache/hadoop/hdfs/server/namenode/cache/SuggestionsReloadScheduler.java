@@ -0,0 +1,164 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+/**
+ * Decides when the next full suggestions reload is due based on how much the namespace changed.
+ *
+ * <p>A reload is triggered once the number of transactions or of INodes added and removed since the
+ * last reload passes its threshold, but never before the minimum interval has elapsed. While the
+ * number of running queries is at or above the busy threshold, reloads triggered by changes are
+ * deferred and the minimum interval doubles for every deferral until the next reload. Once the
+ * maximum interval has elapsed a reload is always due.
+ *
+ * <p>Not thread-safe; {@link #toString()} may be called from any thread.
+ */
+public class SuggestionsReloadScheduler {
+
+  /** The reason for a full suggestions reload. */
+  public enum Reason {
+    INITIAL,
+    TXID_DELTA,
+    INODE_CHANGES,
+    MAX_INTERVAL
+  }
+
+  private final long minIntervalMs;
+  private final long maxIntervalMs;
+  private final long txidThreshold;
+  private final long inodeChangesThreshold;
+  private final int busyQueries;
+
+  private long effectiveMinIntervalMs;
+  private long lastReloadTime = -1L;
+  private long lastTxid;
+  private long lastINodeChanges;
+
+  private volatile Reason lastReason;
+  private volatile long lastReloadDurationMs = -1L;
+  private volatile long lastReloadEndTime = -1L;
+  private volatile long deferrals = 0L;
+
+  /**
+   * @param minIntervalMs minimum time between two reloads
+   * @param maxIntervalMs maximum time between two reloads
+   * @param txidThreshold number of transactions that triggers a reload
+   * @param inodeChangesThreshold number of INodes added or removed that triggers a reload
+   * @param busyQueries number of running queries at which reloads are deferred
+   */
+  public SuggestionsReloadScheduler(
+      long minIntervalMs,
+      long maxIntervalMs,
+      long txidThreshold,
+      long inodeChangesThreshold,
+      int busyQueries) {
+    if (minIntervalMs > maxIntervalMs) {
+      throw new IllegalArgumentException(
+          "Minimum reload interval "
+              + minIntervalMs
+              + " ms exceeds maximum reload interval "
+              + maxIntervalMs
+              + " ms.");
+    }
+    this.minIntervalMs = minIntervalMs;
+    this.maxIntervalMs = maxIntervalMs;
+    this.txidThreshold = txidThreshold;
+    this.inodeChangesThreshold = inodeChangesThreshold;
+    this.busyQueries = busyQueries;
+    this.effectiveMinIntervalMs = minIntervalMs;
+  }
+
+  /**
+   * Checks whether a reload is due.
+   *
+   * @param now the current time
+   * @param txid the last applied transaction id
+   * @param inodeChanges total number of INodes added and removed so far
+   * @param runningQueries number of queries currently running
+   * @return the reason for the reload or null if no reload is due
+   */
+  public Reason nextReload(long now, long txid, long inodeChanges, int runningQueries) {
+    if (lastReloadTime < 0L) {
+      return Reason.INITIAL;
+    }
+    long elapsed = now - lastReloadTime;
+    if (elapsed >= maxIntervalMs) {
+      return Reason.MAX_INTERVAL;
+    }
+    if (elapsed < effectiveMinIntervalMs) {
+      return null;
+    }
+    Reason reason = null;
+    if (txid - lastTxid >= txidThreshold) {
+      reason = Reason.TXID_DELTA;
+    } else if (inodeChanges - lastINodeChanges >= inodeChangesThreshold) {
+      reason = Reason.INODE_CHANGES;
+    }
+    if (reason != null && runningQueries >= busyQueries) {
+      effectiveMinIntervalMs = Math.min(effectiveMinIntervalMs * 2, maxIntervalMs);
+      deferrals++;
+      return null;
+    }
+    return reason;
+  }
+
+  /**
+   * Records a finished reload.
+   *
+   * @param reason the reason of the reload
+   * @param startTime the time the reload started
+   * @param endTime the time the reload finished
+   * @param txid the last applied transaction id when the reload started
+   * @param inodeChanges the number of INodes added and removed when the reload started
+   */
+  public void reloaded(Reason reason, long startTime, long endTime, long txid, long inodeChanges) {
+    lastReloadTime = startTime;
+    lastTxid = txid;
+    lastINodeChanges = inodeChanges;
+    effectiveMinIntervalMs = minIntervalMs;
+    lastReason = reason;
+    lastReloadDurationMs = endTime - startTime;
+    lastReloadEndTime = endTime;
+  }
+
+  public Reason getLastReason() {
+    return lastReason;
+  }
+
+  public long getLastReloadDurationMs() {
+    return lastReloadDurationMs;
+  }
+
+  public long getDeferrals() {
+    return deferrals;
+  }
+
+  @Override
+  public String toString() {
+    return "Last suggestions reload reason: "
+        + lastReason
+        + ", finished at (ms): "
+        + lastReloadEndTime
+        + ", took (ms): "
+        + lastReloadDurationMs
+        + ", deferred reloads: "
+        + deferrals;
+  }
+}
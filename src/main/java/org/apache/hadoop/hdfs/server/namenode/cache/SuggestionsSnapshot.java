@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One consistent version of all suggestions. Snapshots are never modified once built; a reload
+ * copies the current snapshot into a {@link Builder}, updates it off to the side and publishes the
+ * result as a whole. Inner maps are always replaced, never updated in place, so copies only need to
+ * be one level deep.
+ */
+class SuggestionsSnapshot {
+
+  static final SuggestionsSnapshot EMPTY = new Builder().build();
+
+  final Map<String, Long> values;
+  final Map<String, Map<String, Long>> maps;
+  final Set<String> users;
+  final Map<String, Long> logins;
+  final Map<String, Map<String, Long>> userNsQuotas;
+  final Map<String, Map<String, Long>> userDsQuotas;
+
+  private SuggestionsSnapshot(Builder builder) {
+    this.values = Collections.unmodifiableMap(builder.values);
+    this.maps = Collections.unmodifiableMap(builder.maps);
+    this.users = Collections.unmodifiableSet(builder.users);
+    this.logins = Collections.unmodifiableMap(builder.logins);
+    this.userNsQuotas = Collections.unmodifiableMap(builder.userNsQuotas);
+    this.userDsQuotas = Collections.unmodifiableMap(builder.userDsQuotas);
+  }
+
+  /**
+   * @param name name of the suggestion map
+   * @return the suggestion map or an empty map if it does not exist
+   */
+  Map<String, Long> getMap(String name) {
+    return maps.getOrDefault(name, Collections.emptyMap());
+  }
+
+  /** @return time this snapshot was reported or 0 if it never was */
+  long getReportTime() {
+    return values.getOrDefault("reportTime", 0L);
+  }
+
+  /** @return a builder starting out with the contents of this snapshot */
+  Builder toBuilder() {
+    Builder builder = new Builder();
+    builder.values.putAll(values);
+    builder.maps.putAll(maps);
+    builder.users.addAll(users);
+    builder.logins.putAll(logins);
+    builder.userNsQuotas.putAll(userNsQuotas);
+    builder.userDsQuotas.putAll(userDsQuotas);
+    return builder;
+  }
+
+  /** Mutable contents of the next snapshot. Only used by the thread building it. */
+  static class Builder {
+    final Map<String, Long> values = new HashMap<>();
+    final Map<String, Map<String, Long>> maps = new HashMap<>();
+    final Set<String> users = new HashSet<>();
+    final Map<String, Long> logins = new HashMap<>();
+    final Map<String, Map<String, Long>> userNsQuotas = new HashMap<>();
+    final Map<String, Map<String, Long>> userDsQuotas = new HashMap<>();
+
+    SuggestionsSnapshot build() {
+      return new SuggestionsSnapshot(this);
+    }
+  }
+}
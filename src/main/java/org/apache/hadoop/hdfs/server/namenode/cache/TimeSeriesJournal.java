@@ -0,0 +1,251 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.IOUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-ahead journal of the open segment of a {@link TimeSeriesStore}.
+ *
+ * <p>Series keys are written once, the first time they are seen, and numbered in that order. Each
+ * report then only holds the series whose value changed since the previous report, as the delta of
+ * the id and the value in the zig-zag varints of {@link TimeSeriesSegment}. Series missing from a
+ * report are 0, as in the segment. Every record is length prefixed so a torn last record can be cut
+ * off:
+ *
+ * <pre>
+ * int length, varlong time, varint newKeys, newKeys x (varint keyLength, byte[] key),
+ * varint changes, changes x (varint idDelta, varlong valueDelta)
+ * </pre>
+ */
+class TimeSeriesJournal {
+
+  public static final Logger LOG = LoggerFactory.getLogger(TimeSeriesJournal.class.getName());
+
+  /** Receives the reports of a replayed journal in order. */
+  interface ReportConsumer {
+    void accept(long time, Map<String, Long> points) throws IOException;
+  }
+
+  private final File file;
+  private final Map<String, Integer> ids = new HashMap<>();
+  private final List<String> keys = new ArrayList<>();
+  private long[] values = new long[16];
+  private long records = 0L;
+  private FileOutputStream fileOut = null;
+  private DataOutputStream out = null;
+
+  TimeSeriesJournal(File file) {
+    this.file = file;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Appends a report and syncs it to disk.
+   *
+   * @param time time of the report
+   * @param points value per series key
+   */
+  void append(long time, Map<String, Long> points) throws IOException {
+    List<byte[]> newKeys = new ArrayList<>();
+    int newKeyBytes = 0;
+    for (String key : points.keySet()) {
+      if (!ids.containsKey(key)) {
+        byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+        newKeys.add(bytes);
+        newKeyBytes += bytes.length;
+        addKey(key);
+      }
+    }
+    int[] changedIds = new int[keys.size()];
+    long[] changedValues = new long[keys.size()];
+    int changes = 0;
+    for (int id = 0; id < keys.size(); id++) {
+      Long value = points.get(keys.get(id));
+      long next = (value == null) ? 0L : value;
+      if (next != values[id]) {
+        changedIds[changes] = id;
+        changedValues[changes++] = next;
+      }
+    }
+
+    byte[] body = new byte[20 + newKeys.size() * 5 + newKeyBytes + 5 + changes * 15];
+    int length = TimeSeriesSegment.writeVarLong(body, 0, time);
+    length = TimeSeriesSegment.writeVarLong(body, length, newKeys.size());
+    for (byte[] key : newKeys) {
+      length = TimeSeriesSegment.writeVarLong(body, length, key.length);
+      System.arraycopy(key, 0, body, length, key.length);
+      length += key.length;
+    }
+    length = TimeSeriesSegment.writeVarLong(body, length, changes);
+    int previousId = 0;
+    for (int i = 0; i < changes; i++) {
+      int id = changedIds[i];
+      length = TimeSeriesSegment.writeVarLong(body, length, id - previousId);
+      length =
+          TimeSeriesSegment.writeVarLong(
+              body, length, TimeSeriesSegment.zigZag(changedValues[i] - values[id]));
+      values[id] = changedValues[i];
+      previousId = id;
+    }
+
+    if (out == null) {
+      // A journal left behind by a failed delete holds another segment; start over.
+      fileOut = new FileOutputStream(file, records > 0);
+      out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16));
+    }
+    out.writeInt(length);
+    out.write(body, 0, length);
+    out.flush();
+    fileOut.getFD().sync();
+    records++;
+  }
+
+  /**
+   * Replays the journal and cuts off a report torn by a crash.
+   *
+   * @param consumer receives every report with the values of all series seen so far
+   * @return number of reports replayed
+   */
+  long replay(ReportConsumer consumer) throws IOException {
+    if (!file.exists()) {
+      return 0L;
+    }
+    long valid = 0L;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      while (true) {
+        byte[] body;
+        try {
+          int length = in.readInt();
+          if (length < 0) {
+            break;
+          }
+          body = new byte[length];
+          in.readFully(body);
+        } catch (EOFException e) {
+          break;
+        }
+        long time;
+        try {
+          time = decode(body);
+        } catch (ArrayIndexOutOfBoundsException e) {
+          break;
+        }
+        valid += 4L + body.length;
+        records++;
+        Map<String, Long> points = new HashMap<>(keys.size() * 4 / 3 + 1);
+        for (int id = 0; id < keys.size(); id++) {
+          points.put(keys.get(id), values[id]);
+        }
+        consumer.accept(time, points);
+      }
+    }
+    if (valid < file.length()) {
+      LOG.info("Truncating torn time series journal from {} to {} bytes.", file.length(), valid);
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.setLength(valid);
+      }
+    }
+    return records;
+  }
+
+  /** Applies one record to the keys and values; leaves them unchanged if it is torn. */
+  private long decode(byte[] body) {
+    int[] position = {0};
+    long time = TimeSeriesSegment.readVarLong(body, position);
+    int newKeys = (int) TimeSeriesSegment.readVarLong(body, position);
+    List<String> added = new ArrayList<>();
+    for (int i = 0; i < newKeys; i++) {
+      int keyLength = (int) TimeSeriesSegment.readVarLong(body, position);
+      if (keyLength < 0 || position[0] + keyLength > body.length) {
+        throw new ArrayIndexOutOfBoundsException(position[0] + keyLength);
+      }
+      added.add(new String(body, position[0], keyLength, StandardCharsets.UTF_8));
+      position[0] += keyLength;
+    }
+    int changes = (int) TimeSeriesSegment.readVarLong(body, position);
+    int[] changedIds = new int[Math.max(changes, 0)];
+    long[] changedDeltas = new long[changedIds.length];
+    int id = 0;
+    for (int i = 0; i < changes; i++) {
+      id += (int) TimeSeriesSegment.readVarLong(body, position);
+      if (id < 0 || id >= keys.size() + added.size()) {
+        throw new ArrayIndexOutOfBoundsException(id);
+      }
+      changedIds[i] = id;
+      changedDeltas[i] = TimeSeriesSegment.unZigZag(TimeSeriesSegment.readVarLong(body, position));
+    }
+    for (String key : added) {
+      addKey(key);
+    }
+    for (int i = 0; i < changedIds.length; i++) {
+      values[changedIds[i]] += changedDeltas[i];
+    }
+    return time;
+  }
+
+  private void addKey(String key) {
+    ids.put(key, keys.size());
+    keys.add(key);
+    if (keys.size() > values.length) {
+      values = Arrays.copyOf(values, values.length * 2);
+    }
+  }
+
+  /** Closes and deletes the journal once its segment is sealed. */
+  void delete() {
+    close();
+    ids.clear();
+    keys.clear();
+    values = new long[16];
+    records = 0L;
+    if (file.exists() && !file.delete()) {
+      LOG.info("Failed to delete time series journal: {}", file);
+    }
+  }
+
+  void close() {
+    IOUtils.closeQuietly(out);
+    out = null;
+    fileOut = null;
+  }
+}
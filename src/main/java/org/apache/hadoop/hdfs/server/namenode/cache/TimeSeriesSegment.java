@@ -0,0 +1,453 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One time window of the {@link TimeSeriesStore}. All series of a segment share one column of
+ * timestamps; every series is a column of values starting at the point it was first recorded.
+ *
+ * <p>Timestamps are stored as delta-of-delta and values as delta zig-zag varints. An open segment
+ * is appended to in memory; sealing writes it to a file which is then memory-mapped for reads. The
+ * file holds a header, the timestamp column, the series keys, a fixed-width index sorted by key for
+ * binary search and the value columns:
+ *
+ * <pre>
+ * int magic, int version, long firstTime, long lastTime,
+ * int points, int timestampBytes, byte[] timestamps,
+ * int series, int keyBytes, byte[] keys,
+ * series x (int keyOffset, int keyLength, int firstPoint, int valueOffset, int valueLength),
+ * byte[] values
+ * </pre>
+ *
+ * <p>All offsets are ints, so a segment is limited to 2GB; {@link #getEstimatedBytes()} lets the
+ * store seal open segments well before that.
+ */
+class TimeSeriesSegment {
+
+  static final String SUFFIX = ".nts";
+
+  private static final int MAGIC = 0x4e4e5453;
+  private static final int VERSION = 1;
+  private static final int INDEX_ENTRY_BYTES = 20;
+
+  /** Values of one series in an open segment. */
+  private static class SeriesColumn {
+    private final int firstPoint;
+    private int points = 0;
+    private long last = 0L;
+    private byte[] bytes = new byte[8];
+    private int length = 0;
+
+    private SeriesColumn(int firstPoint) {
+      this.firstPoint = firstPoint;
+    }
+
+    private void append(long value) {
+      if (length + 10 > bytes.length) {
+        byte[] grown = new byte[bytes.length * 2];
+        System.arraycopy(bytes, 0, grown, 0, length);
+        bytes = grown;
+      }
+      length = writeVarLong(bytes, length, zigZag(value - last));
+      last = value;
+      points++;
+    }
+  }
+
+  // Open segments only.
+  private final Map<String, SeriesColumn> columns;
+  private long[] times;
+  private int points;
+  private long keyBytes = 0L;
+  private long valueBytes = 0L;
+
+  // Sealed segments only.
+  private final File file;
+  private final ByteBuffer mapped;
+  private long[] sealedTimes;
+  private int series;
+  private int keysStart;
+  private int indexStart;
+  private int valuesStart;
+
+  private final long firstTime;
+  private long lastTime;
+
+  /** Starts a new open segment. */
+  TimeSeriesSegment(long firstTime) {
+    this.columns = new HashMap<>();
+    this.times = new long[16];
+    this.points = 0;
+    this.file = null;
+    this.mapped = null;
+    this.firstTime = firstTime;
+    this.lastTime = firstTime;
+  }
+
+  private TimeSeriesSegment(File file, ByteBuffer mapped) throws IOException {
+    this.columns = null;
+    this.file = file;
+    this.mapped = mapped;
+    if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+      throw new IOException("Not a time series segment: " + file);
+    }
+    this.firstTime = mapped.getLong(8);
+    this.lastTime = mapped.getLong(16);
+    this.points = mapped.getInt(24);
+    int timestampBytes = mapped.getInt(28);
+    int seriesStart = 32 + timestampBytes;
+    this.series = mapped.getInt(seriesStart);
+    int keyBytes = mapped.getInt(seriesStart + 4);
+    this.keysStart = seriesStart + 8;
+    this.indexStart = keysStart + keyBytes;
+    this.valuesStart = indexStart + series * INDEX_ENTRY_BYTES;
+  }
+
+  /**
+   * Maps a sealed segment file.
+   *
+   * @param file the segment file
+   * @return the sealed segment
+   */
+  static TimeSeriesSegment open(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+        FileChannel channel = raf.getChannel()) {
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      return new TimeSeriesSegment(file, mapped);
+    }
+  }
+
+  static String key(String metric, String user) {
+    return metric + '\u0000' + user;
+  }
+
+  long getFirstTime() {
+    return firstTime;
+  }
+
+  long getLastTime() {
+    return lastTime;
+  }
+
+  int getPoints() {
+    return points;
+  }
+
+  int getSeries() {
+    return (columns != null) ? columns.size() : series;
+  }
+
+  /** @return upper bound of the size of an open segment once sealed */
+  long getEstimatedBytes() {
+    return 40L + points * 10L + keyBytes + columns.size() * (long) INDEX_ENTRY_BYTES + valueBytes;
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  /**
+   * Appends one point to every series of an open segment. Series not in the values are recorded as
+   * 0 from the point they were first seen on.
+   *
+   * @param time time of the point, not before the last point
+   * @param values value per series key
+   */
+  void append(long time, Map<String, Long> values) {
+    if (points == times.length) {
+      long[] grown = new long[times.length * 2];
+      System.arraycopy(times, 0, grown, 0, points);
+      times = grown;
+    }
+    times[points] = time;
+    for (Map.Entry<String, Long> entry : values.entrySet()) {
+      SeriesColumn column = columns.get(entry.getKey());
+      if (column == null) {
+        column = new SeriesColumn(points);
+        columns.put(entry.getKey(), column);
+        keyBytes += entry.getKey().getBytes(StandardCharsets.UTF_8).length;
+      }
+      int length = column.length;
+      column.append(entry.getValue());
+      valueBytes += column.length - length;
+    }
+    points++;
+    for (SeriesColumn column : columns.values()) {
+      while (column.firstPoint + column.points < points) {
+        int length = column.length;
+        column.append(0L);
+        valueBytes += column.length - length;
+      }
+    }
+    lastTime = time;
+  }
+
+  /**
+   * Writes an open segment to a new file in the directory.
+   *
+   * @param dir the directory of the segment files
+   * @return the file written
+   */
+  File seal(File dir) throws IOException {
+    byte[] timestampColumn = encodeTimes(times, points);
+    List<byte[]> keys = new ArrayList<>(columns.size());
+    Map<ByteBuffer, SeriesColumn> byKey = new HashMap<>();
+    for (Map.Entry<String, SeriesColumn> entry : columns.entrySet()) {
+      byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+      keys.add(key);
+      byKey.put(ByteBuffer.wrap(key), entry.getValue());
+    }
+    keys.sort(TimeSeriesSegment::compareUnsigned);
+    long bytes =
+        40L
+            + timestampColumn.length
+            + keyBytes
+            + keys.size() * (long) INDEX_ENTRY_BYTES
+            + valueBytes;
+    if (bytes > Integer.MAX_VALUE) {
+      throw new IOException("Time series segment of " + bytes + " bytes exceeds 2GB.");
+    }
+
+    File target = new File(dir, firstTime + "-" + lastTime + SUFFIX);
+    File tmp = new File(dir, target.getName() + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(tmp);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut, 1 << 16))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(firstTime);
+      out.writeLong(lastTime);
+      out.writeInt(points);
+      out.writeInt(timestampColumn.length);
+      out.write(timestampColumn);
+      out.writeInt(keys.size());
+      out.writeInt((int) keyBytes);
+      for (byte[] key : keys) {
+        out.write(key);
+      }
+      int keyOffset = 0;
+      int valueOffset = 0;
+      for (byte[] key : keys) {
+        SeriesColumn column = byKey.get(ByteBuffer.wrap(key));
+        out.writeInt(keyOffset);
+        out.writeInt(key.length);
+        out.writeInt(column.firstPoint);
+        out.writeInt(valueOffset);
+        out.writeInt(column.length);
+        keyOffset += key.length;
+        valueOffset += column.length;
+      }
+      for (byte[] key : keys) {
+        SeriesColumn column = byKey.get(ByteBuffer.wrap(key));
+        out.write(column.bytes, 0, column.length);
+      }
+      // The journal of the open segment is deleted once the sealed file is in place.
+      out.flush();
+      fileOut.getFD().sync();
+    }
+    Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    return target;
+  }
+
+  /**
+   * Streams the points of one series within a time range.
+   *
+   * @param key the series key
+   * @param from first time, inclusive
+   * @param to last time, inclusive
+   * @param consumer receives the points
+   */
+  void read(String key, long from, long to, TimeSeriesStore.PointConsumer consumer)
+      throws IOException {
+    if (to < firstTime || from > lastTime) {
+      return;
+    }
+    if (columns != null) {
+      SeriesColumn column = columns.get(key);
+      if (column != null) {
+        readColumn(times, column.firstPoint, column.points, column.bytes, from, to, consumer);
+      }
+      return;
+    }
+    int entry = find(key.getBytes(StandardCharsets.UTF_8));
+    if (entry < 0) {
+      return;
+    }
+    int position = indexStart + entry * INDEX_ENTRY_BYTES;
+    int firstPoint = mapped.getInt(position + 8);
+    int valueOffset = mapped.getInt(position + 12);
+    int valueLength = mapped.getInt(position + 16);
+    byte[] bytes = new byte[valueLength];
+    ByteBuffer values = mapped.duplicate();
+    values.position(valuesStart + valueOffset);
+    values.get(bytes);
+    readColumn(getSealedTimes(), firstPoint, points - firstPoint, bytes, from, to, consumer);
+  }
+
+  private static void readColumn(
+      long[] times,
+      int firstPoint,
+      int count,
+      byte[] bytes,
+      long from,
+      long to,
+      TimeSeriesStore.PointConsumer consumer)
+      throws IOException {
+    long value = 0L;
+    int[] position = {0};
+    for (int i = 0; i < count; i++) {
+      value += unZigZag(readVarLong(bytes, position));
+      long time = times[firstPoint + i];
+      if (time > to) {
+        return;
+      }
+      if (time >= from) {
+        consumer.accept(time, value);
+      }
+    }
+  }
+
+  private synchronized long[] getSealedTimes() {
+    if (sealedTimes == null) {
+      int length = mapped.getInt(28);
+      byte[] bytes = new byte[length];
+      ByteBuffer column = mapped.duplicate();
+      column.position(32);
+      column.get(bytes);
+      sealedTimes = decodeTimes(bytes, points);
+    }
+    return sealedTimes;
+  }
+
+  private int find(byte[] key) {
+    int low = 0;
+    int high = series - 1;
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      int position = indexStart + mid * INDEX_ENTRY_BYTES;
+      int cmp = compareKey(keysStart + mapped.getInt(position), mapped.getInt(position + 4), key);
+      if (cmp < 0) {
+        low = mid + 1;
+      } else if (cmp > 0) {
+        high = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  private int compareKey(int offset, int length, byte[] key) {
+    int n = Math.min(length, key.length);
+    for (int i = 0; i < n; i++) {
+      int cmp = (mapped.get(offset + i) & 0xff) - (key[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return length - key.length;
+  }
+
+  private static int compareUnsigned(byte[] a, byte[] b) {
+    int n = Math.min(a.length, b.length);
+    for (int i = 0; i < n; i++) {
+      int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+      if (cmp != 0) {
+        return cmp;
+      }
+    }
+    return a.length - b.length;
+  }
+
+  static byte[] encodeTimes(long[] times, int count) {
+    byte[] bytes = new byte[count * 10];
+    int length = 0;
+    long previous = 0L;
+    long previousDelta = 0L;
+    for (int i = 0; i < count; i++) {
+      long delta = times[i] - previous;
+      length = writeVarLong(bytes, length, zigZag(delta - previousDelta));
+      previous = times[i];
+      previousDelta = delta;
+    }
+    byte[] encoded = new byte[length];
+    System.arraycopy(bytes, 0, encoded, 0, length);
+    return encoded;
+  }
+
+  static long[] decodeTimes(byte[] bytes, int count) {
+    long[] times = new long[count];
+    int[] position = {0};
+    long previous = 0L;
+    long previousDelta = 0L;
+    for (int i = 0; i < count; i++) {
+      long delta = previousDelta + unZigZag(readVarLong(bytes, position));
+      times[i] = previous + delta;
+      previous = times[i];
+      previousDelta = delta;
+    }
+    return times;
+  }
+
+  static int writeVarLong(byte[] bytes, int position, long value) {
+    while ((value & ~0x7FL) != 0L) {
+      bytes[position++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    bytes[position++] = (byte) value;
+    return position;
+  }
+
+  static long readVarLong(byte[] bytes, int[] position) {
+    long value = 0L;
+    int shift = 0;
+    byte b;
+    do {
+      b = bytes[position[0]++];
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+
+  static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+}
@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import com.paypal.security.SecurityConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
+import org.codehaus.jackson.JsonGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Embedded append-only store of every suggestion value over time, kept under baseDir/db/timeseries.
+ *
+ * <p>Each suggestions report is recorded as one point per series: one per suggestion value under
+ * the empty user and one per entry of every suggestion map, which covers all per-user suggestions
+ * as well as the directories set for analysis. Points are appended to an open {@link
+ * TimeSeriesSegment} in memory, which is sealed to a memory-mapped file once it spans the segment
+ * length, grows to 1GB, or the store stops. Segments past the retention are deleted.
+ *
+ * <p>Every report is also appended to the {@link TimeSeriesJournal} of the open segment and synced
+ * before it is recorded. The journal only holds the series that changed since the previous report,
+ * keyed by ids, so it stays close to the size of the segment. Starting the store replays the
+ * journal, so reports of an open segment survive a crash. The journal is deleted once its segment
+ * is sealed.
+ */
+public class TimeSeriesStore {
+
+  public static final Logger LOG = LoggerFactory.getLogger(TimeSeriesStore.class.getName());
+
+  private static final int QUEUED_REPORTS = 4;
+  private static final long MAX_SEGMENT_BYTES = 1L << 30;
+  private static final String JOURNAL = "open.ntj";
+
+  /** Receives the points of a range query in time order. */
+  public interface PointConsumer {
+    void accept(long time, long value) throws IOException;
+  }
+
+  private final CopyOnWriteArrayList<TimeSeriesSegment> sealed = new CopyOnWriteArrayList<>();
+  private final AtomicLong droppedReports = new AtomicLong();
+
+  private File dir;
+  private long segmentMs;
+  private long retentionMs;
+  private TimeSeriesSegment open = null;
+  private TimeSeriesJournal journal;
+  private ThreadPoolExecutor recorder;
+
+  private volatile long lastRecordDurationMs = -1L;
+  private volatile long lastSealDurationMs = -1L;
+
+  /** Opens the store and maps the sealed segments within the retention. */
+  public void start(SecurityConfiguration conf) throws IOException {
+    dir = new File(conf.getBaseDir() + "/db/timeseries");
+    FileUtils.forceMkdir(dir);
+    segmentMs = conf.getTimeSeriesSegmentMs();
+    retentionMs = TimeUnit.DAYS.toMillis(conf.getTimeSeriesRetentionDays());
+    File[] files = dir.listFiles((d, name) -> name.endsWith(TimeSeriesSegment.SUFFIX));
+    List<TimeSeriesSegment> segments = new ArrayList<>();
+    for (File file : (files == null) ? new File[0] : files) {
+      try {
+        segments.add(TimeSeriesSegment.open(file));
+      } catch (IOException e) {
+        LOG.info("Skipping unreadable time series segment: {}", file, e);
+      }
+    }
+    segments.sort(Comparator.comparingLong(TimeSeriesSegment::getFirstTime));
+    sealed.addAll(segments);
+    journal = new TimeSeriesJournal(new File(dir, JOURNAL));
+    replayJournal();
+    expire(System.currentTimeMillis());
+    recorder =
+        new ThreadPoolExecutor(
+            1,
+            1,
+            0L,
+            TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(QUEUED_REPORTS),
+            r -> {
+              Thread thread = new Thread(r, "timeseries-recorder");
+              thread.setDaemon(true);
+              return thread;
+            },
+            (r, executor) -> droppedReports.incrementAndGet());
+    LOG.info("Opened {} time series segments in {}.", sealed.size(), dir);
+  }
+
+  /**
+   * Records a suggestions report on the background recorder. Never blocks; reports are dropped and
+   * counted if the recorder has fallen behind.
+   *
+   * @param time time of the report
+   * @param values the suggestion values, must not be modified afterwards
+   * @param maps the suggestion maps, must not be modified afterwards
+   */
+  public void recordAsync(
+      long time, Map<String, Long> values, Map<String, Map<String, Long>> maps) {
+    recorder.execute(
+        () -> {
+          try {
+            record(time, values, maps);
+          } catch (IOException e) {
+            LOG.info("Failed to record time series due to: {}", e);
+          }
+        });
+  }
+
+  /**
+   * Records a suggestions report.
+   *
+   * @param time time of the report; reports older than the last recorded one are ignored
+   * @param values the suggestion values
+   * @param maps the suggestion maps
+   */
+  public synchronized void record(
+      long time, Map<String, Long> values, Map<String, Map<String, Long>> maps) throws IOException {
+    if (open != null && time < open.getLastTime()) {
+      return;
+    }
+    long s1 = System.currentTimeMillis();
+    if (open != null
+        && (time - open.getFirstTime() >= segmentMs
+            || open.getEstimatedBytes() >= MAX_SEGMENT_BYTES)) {
+      seal();
+      expire(time);
+    }
+    int size = values.size();
+    for (Map<String, Long> map : maps.values()) {
+      size += map.size();
+    }
+    Map<String, Long> points = new HashMap<>(size * 4 / 3 + 1);
+    for (Map.Entry<String, Long> entry : values.entrySet()) {
+      points.put(TimeSeriesSegment.key(entry.getKey(), ""), entry.getValue());
+    }
+    for (Map.Entry<String, Map<String, Long>> map : maps.entrySet()) {
+      for (Map.Entry<String, Long> entry : map.getValue().entrySet()) {
+        points.put(TimeSeriesSegment.key(map.getKey(), entry.getKey()), entry.getValue());
+      }
+    }
+    journal.append(time, points);
+    if (open == null) {
+      open = new TimeSeriesSegment(time);
+    }
+    open.append(time, points);
+    lastRecordDurationMs = System.currentTimeMillis() - s1;
+    LOG.info("Recording {} time series points took: {} ms.", points.size(), lastRecordDurationMs);
+  }
+
+  private void seal() throws IOException {
+    long s1 = System.currentTimeMillis();
+    File file = open.seal(dir);
+    sealed.add(TimeSeriesSegment.open(file));
+    open = null;
+    journal.delete();
+    lastSealDurationMs = System.currentTimeMillis() - s1;
+    LOG.info("Sealing time series segment {} took: {} ms.", file.getName(), lastSealDurationMs);
+  }
+
+  /**
+   * Rebuilds the open segment from its journal. A journal that outlived its segment only holds
+   * reports that are already in a sealed segment and is deleted.
+   */
+  private void replayJournal() throws IOException {
+    long sealedUntil = Long.MIN_VALUE;
+    for (TimeSeriesSegment segment : sealed) {
+      sealedUntil = Math.max(sealedUntil, segment.getLastTime());
+    }
+    long until = sealedUntil;
+    long reports =
+        journal.replay(
+            (time, points) -> {
+              if (time <= until) {
+                return;
+              }
+              if (open == null) {
+                open = new TimeSeriesSegment(time);
+              }
+              open.append(time, points);
+            });
+    if (open == null) {
+      journal.delete();
+    }
+    LOG.info("Replayed {} time series reports from {}.", reports, journal.getFile());
+  }
+
+  private void expire(long now) {
+    for (TimeSeriesSegment segment : sealed) {
+      if (segment.getLastTime() < now - retentionMs) {
+        sealed.remove(segment);
+        if (!segment.getFile().delete()) {
+          LOG.info("Failed to delete expired time series segment: {}", segment.getFile());
+        }
+      }
+    }
+  }
+
+  /**
+   * Streams the points of one series within a time range in time order.
+   *
+   * @param metric name of the suggestion value or map
+   * @param user the user or directory within the map, or the empty string for suggestion values
+   * @param from first time, inclusive
+   * @param to last time, inclusive
+   * @param consumer receives the points
+   */
+  public void query(String metric, String user, long from, long to, PointConsumer consumer)
+      throws IOException {
+    String key = TimeSeriesSegment.key(metric, user);
+    for (TimeSeriesSegment segment : sealed) {
+      segment.read(key, from, to, consumer);
+    }
+    synchronized (this) {
+      if (open != null) {
+        open.read(key, from, to, consumer);
+      }
+    }
+  }
+
+  /**
+   * Creates the body that streams the points of one series within a time range as a JSON array of
+   * [time, value] pairs.
+   *
+   * @param metric name of the suggestion value or map
+   * @param user the user or directory within the map, or the empty string for suggestion values
+   * @param from first time, inclusive
+   * @param to last time, inclusive
+   * @return the JSON body
+   */
+  public Histograms.Output getPoints(String metric, String user, long from, long to) {
+    if (metric == null || metric.isEmpty()) {
+      throw new IllegalArgumentException("Metric parameter 'metric' not defined.");
+    }
+    String series = (user == null) ? "" : user;
+    return out -> {
+      JsonGenerator json = Histograms.createGenerator(out);
+      try {
+        json.writeStartArray();
+        query(
+            metric,
+            series,
+            from,
+            to,
+            (time, value) -> {
+              json.writeStartArray();
+              json.writeNumber(time);
+              json.writeNumber(value);
+              json.writeEndArray();
+            });
+        json.writeEndArray();
+      } finally {
+        json.close();
+      }
+    };
+  }
+
+  /** Seals the open segment and deletes its journal. */
+  public void stop() {
+    if (recorder == null) {
+      return;
+    }
+    recorder.shutdown();
+    try {
+      recorder.awaitTermination(1, TimeUnit.MINUTES);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    synchronized (this) {
+      if (open != null) {
+        try {
+          seal();
+        } catch (IOException e) {
+          LOG.info("Failed to seal time series segment due to: {}", e);
+        }
+      }
+      journal.close();
+      open = null;
+    }
+    sealed.clear();
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "Time series segments: "
+        + sealed.size()
+        + ", bytes: "
+        + sealed.stream().mapToLong(segment -> segment.getFile().length()).sum()
+        + ", open segment points: "
+        + ((open == null) ? 0 : open.getPoints())
+        + ", series: "
+        + ((open == null) ? 0 : open.getSeries())
+        + ", last record took (ms): "
+        + lastRecordDurationMs
+        + ", last seal took (ms): "
+        + lastSealDurationMs
+        + ", dropped reports: "
+        + droppedReports.get();
+  }
+}
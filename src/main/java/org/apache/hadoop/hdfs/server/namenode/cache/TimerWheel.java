@@ -0,0 +1,111 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Hashed timer wheel of slots that each cover a fixed tick of time. Items are scheduled into the
+ * slot of their expiry time and handed out once the wheel advances past it. Items expiring beyond
+ * the wheel horizon go into the last slot and are re-checked against their expiry when handed out,
+ * so the caller should reschedule items that are not due yet.
+ *
+ * <p>Not thread-safe.
+ *
+ * @param <T> the item type
+ */
+class TimerWheel<T> {
+
+  private final long tickMs;
+  private final List<List<T>> slots;
+  private long currentTick;
+  private int size = 0;
+
+  /**
+   * @param tickMs the time covered by a single slot
+   * @param horizonMs the time covered by the entire wheel
+   * @param nowMs the current time
+   */
+  TimerWheel(long tickMs, long horizonMs, long nowMs) {
+    this.tickMs = tickMs;
+    int numSlots = (int) (horizonMs / tickMs) + 2;
+    this.slots = new ArrayList<>(numSlots);
+    for (int i = 0; i < numSlots; i++) {
+      slots.add(new ArrayList<>());
+    }
+    this.currentTick = nowMs / tickMs;
+  }
+
+  /**
+   * Schedules an item. Items that are already due are handed out on the next advance.
+   *
+   * @param item the item
+   * @param expiryMs the time the item is due
+   */
+  void schedule(T item, long expiryMs) {
+    long tick = Math.max(expiryMs / tickMs, currentTick);
+    tick = Math.min(tick, currentTick + slots.size() - 1);
+    slots.get((int) (tick % slots.size())).add(item);
+    size++;
+  }
+
+  /**
+   * Advances the wheel to the current time.
+   *
+   * @param nowMs the current time
+   * @param expiry the expiry time of an item, used to hold back items beyond the horizon
+   * @return the items that are due
+   */
+  List<T> advance(long nowMs, ToLongFunction<T> expiry) {
+    List<T> due = new ArrayList<>();
+    long targetTick = nowMs / tickMs;
+    List<T> notDue = new ArrayList<>();
+    // Never walk around the wheel more than once; later slots hold items of later rounds.
+    long lastTick = Math.min(targetTick, currentTick + slots.size() - 1);
+    for (long tick = currentTick; tick <= lastTick; tick++) {
+      List<T> slot = slots.get((int) (tick % slots.size()));
+      for (T item : slot) {
+        if (expiry.applyAsLong(item) <= nowMs) {
+          due.add(item);
+        } else {
+          notDue.add(item);
+        }
+      }
+      size -= slot.size();
+      slot.clear();
+    }
+    currentTick = Math.max(currentTick, targetTick);
+    for (T item : notDue) {
+      schedule(item, expiry.applyAsLong(item));
+    }
+    return due;
+  }
+
+  int size() {
+    return size;
+  }
+
+  void clear() {
+    slots.forEach(List::clear);
+    size = 0;
+  }
+}
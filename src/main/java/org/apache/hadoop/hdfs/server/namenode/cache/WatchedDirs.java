@@ -0,0 +1,114 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.cache;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+
+/**
+ * The directories set for analysis, resolved to their INodes so that files can be credited to every
+ * watched ancestor by walking up their parents instead of matching path prefixes.
+ *
+ * <p>Only directories whose local name matches the last component of a watched path have their full
+ * path built during resolution. Watched paths that do not resolve to a directory keep a total of 0.
+ */
+class WatchedDirs {
+
+  static final WatchedDirs NONE = new WatchedDirs(Collections.emptyList(), Collections.emptyMap());
+
+  private final List<String> paths;
+  private final Map<INode, Integer> indexes;
+
+  private WatchedDirs(List<String> paths, Map<INode, Integer> indexes) {
+    this.paths = paths;
+    this.indexes = indexes;
+  }
+
+  /**
+   * Resolves watched directory paths against the dirs set in a single parallel pass.
+   *
+   * @param dirs all directories
+   * @param watchedPaths the paths of directories set for analysis
+   * @return the resolved watched directories
+   */
+  static WatchedDirs resolve(Collection<INode> dirs, Collection<String> watchedPaths) {
+    if (watchedPaths.isEmpty()) {
+      return NONE;
+    }
+    List<String> paths = new ArrayList<>(new HashSet<>(watchedPaths));
+    Map<String, Integer> pathIndexes = new HashMap<>();
+    Set<ByteBuffer> names = new HashSet<>();
+    for (int i = 0; i < paths.size(); i++) {
+      String path = paths.get(i);
+      pathIndexes.put(path, i);
+      String name = path.substring(path.lastIndexOf('/') + 1);
+      names.add(ByteBuffer.wrap(name.getBytes(StandardCharsets.UTF_8)));
+    }
+    Map<INode, Integer> resolved =
+        dirs.parallelStream()
+            .filter(
+                dir ->
+                    dir.getLocalNameBytes() != null
+                        && names.contains(ByteBuffer.wrap(dir.getLocalNameBytes())))
+            .filter(dir -> pathIndexes.containsKey(dir.getFullPathName()))
+            .collect(Collectors.toMap(dir -> dir, dir -> pathIndexes.get(dir.getFullPathName())));
+    return new WatchedDirs(paths, resolved);
+  }
+
+  /** @return number of watched paths */
+  int size() {
+    return paths.size();
+  }
+
+  boolean isEmpty() {
+    return indexes.isEmpty();
+  }
+
+  /**
+   * @param dir a directory
+   * @return index of the watched path of the directory or -1 if it is not watched
+   */
+  int indexOf(INode dir) {
+    Integer index = indexes.get(dir);
+    return (index == null) ? -1 : index;
+  }
+
+  /**
+   * @param values one value per watched path, by index
+   * @return map of watched path to value
+   */
+  Map<String, Long> toMap(long[] values) {
+    Map<String, Long> result = new HashMap<>(paths.size());
+    for (int i = 0; i < paths.size(); i++) {
+      result.put(paths.get(i), values[i]);
+    }
+    return result;
+  }
+}
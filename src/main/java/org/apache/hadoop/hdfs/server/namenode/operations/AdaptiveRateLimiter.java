@@ -0,0 +1,151 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.hadoop.hdfs.server.namenode.operations;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Token bucket limiting the rate of RPCs an operation sends to the NameNode. The rate adapts to the
+ * RPC latency by additive increase / multiplicative decrease: at the end of every adjustment window
+ * the rate grows by a fixed step while the average latency of the window stayed at or below the
+ * target, and is halved once it went above it. The rate always stays between the minimum and
+ * maximum rate.
+ *
+ * <p>The bucket holds at most a tenth of a second worth of permits so idle workers cannot build up
+ * a large burst. Permits are reserved ahead, so callers waiting at the same time are spread out
+ * evenly instead of waking up together.
+ */
+public class AdaptiveRateLimiter {
+
+  static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100L);
+  static final double ADDITIVE_INCREASE = 1.0;
+  static final double MULTIPLICATIVE_DECREASE = 0.5;
+
+  private final double minRate;
+  private final double maxRate;
+  private final long targetLatencyNanos;
+
+  private double rate;
+  private double permits;
+  private long lastRefill;
+
+  private long windowStart;
+  private long windowLatencyNanos;
+  private int windowCalls;
+
+  private long increases = 0L;
+  private long decreases = 0L;
+
+  /**
+   * @param initialRate permits per second to start out with
+   * @param minRate lowest permits per second the rate decreases to
+   * @param maxRate highest permits per second the rate increases to
+   * @param targetLatencyMs highest average RPC latency at which the rate still increases
+   * @param now the current time in nanoseconds
+   */
+  public AdaptiveRateLimiter(
+      double initialRate, double minRate, double maxRate, long targetLatencyMs, long now) {
+    if (minRate <= 0 || minRate > maxRate) {
+      throw new IllegalArgumentException(
+          "Operation rate must be positive and the minimum rate "
+              + minRate
+              + " may not exceed the maximum rate "
+              + maxRate
+              + ".");
+    }
+    this.minRate = minRate;
+    this.maxRate = maxRate;
+    this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMs);
+    this.rate = Math.min(maxRate, Math.max(minRate, initialRate));
+    this.permits = 1.0;
+    this.lastRefill = now;
+    this.windowStart = now;
+  }
+
+  /**
+   * Blocks until a permit is available.
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  public void acquire() throws InterruptedException {
+    long waitNanos = reserve(System.nanoTime());
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Takes a permit, going into debt if none is available.
+   *
+   * @param now the current time in nanoseconds
+   * @return nanoseconds to wait until the permit may be used
+   */
+  public synchronized long reserve(long now) {
+    double capacity = Math.max(1.0, rate / 10.0);
+    permits = Math.min(capacity, permits + (now - lastRefill) * rate / 1e9);
+    lastRefill = now;
+    permits -= 1.0;
+    if (permits >= 0) {
+      return 0L;
+    }
+    return (long) Math.ceil(-permits / rate * 1e9);
+  }
+
+  /**
+   * Records the latency of one RPC and adjusts the rate once the adjustment window is over.
+   *
+   * @param latencyNanos the latency of the RPC in nanoseconds
+   * @param now the current time in nanoseconds
+   */
+  public synchronized void record(long latencyNanos, long now) {
+    windowLatencyNanos += latencyNanos;
+    windowCalls++;
+    if (now - windowStart < WINDOW_NANOS) {
+      return;
+    }
+    long averageLatencyNanos = windowLatencyNanos / windowCalls;
+    if (averageLatencyNanos > targetLatencyNanos) {
+      rate = Math.max(minRate, rate * MULTIPLICATIVE_DECREASE);
+      decreases++;
+    } else {
+      rate = Math.min(maxRate, rate + ADDITIVE_INCREASE);
+      increases++;
+    }
+    windowStart = now;
+    windowLatencyNanos = 0L;
+    windowCalls = 0;
+  }
+
+  /** @return the current rate in permits per second */
+  public synchronized double getRate() {
+    return rate;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "rate (ops/sec): "
+        + String.format("%.1f", rate)
+        + ", increases: "
+        + increases
+        + ", decreases: "
+        + decreases;
+  }
+}
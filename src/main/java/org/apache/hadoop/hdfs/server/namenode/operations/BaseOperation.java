@@ -19,47 +19,142 @@
 
 package org.apache.hadoop.hdfs.server.namenode.operations;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.Iterator;
+import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
+import java.util.function.Function;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodePathWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Common state of all operations. The plan of an operation is written to its work file on
+ * submission and streamed back from there while the operation runs; only the most recent paths stay
+ * in memory. Completed entries are checkpointed, so an operation suspended by a restart resumes
+ * after the last entry that was done together with all entries before it.
+ */
 public abstract class BaseOperation implements Operation {
 
   public static final Logger LOG = LoggerFactory.getLogger(BaseOperation.class.getName());
 
+  static final int RECENT_PATHS = 1000;
+  private static final int CHECKPOINT_ENTRIES = 1000;
+  private static final long CHECKPOINT_INTERVAL_MS = 1000L;
+  private static final byte IN_FLIGHT = 0;
+  private static final byte PERFORMED = 1;
+  private static final byte SKIPPED = 2;
+
   final OperationLog log;
-  final Collection<INode> toOperate;
-  final List<String> pathsOperated;
   final int totalToOperate;
   final String identity;
   final String owner;
   final String query;
   final FileSystem fs;
-  final Iterator<INode> iterator;
-  INode nextToOperate;
-
-  BaseOperation(
-      Collection<INode> toPerform, String owner, String query, String logbaseDir, FileSystem fs) {
-    this.pathsOperated = new ArrayList<>();
-    this.iterator = toPerform.iterator();
-    this.nextToOperate = iterator.hasNext() ? iterator.next() : null;
-    this.toOperate = toPerform;
+  final File workFile;
+  final File checkpointFile;
+  final boolean resumed;
+  private final String planSummary;
+  private final Deque<String> recentPaths = new ArrayDeque<>();
+  private final TreeMap<Long, Byte> pending = new TreeMap<>();
+  private OperationPlan plan;
+  private Integer sleepMs;
+  private OperationWorkFile.Reader reader;
+  private Function<String, INode> namespace;
+  OperationWorkFile.Entry nextToOperate;
+  int numPerformed;
+  int numSkipped;
+  int numInFlight;
+  boolean aborted;
+  boolean suspended;
+  private long checkpointDone;
+  private long checkpointPerformed;
+  private long checkpointSkipped;
+  private long lastCheckpointDone;
+  private long lastCheckpointTime;
+
+  BaseOperation(OperationPlan plan, String owner, String query, String logbaseDir, FileSystem fs) {
+    this(
+        UUID.randomUUID().toString(),
+        owner,
+        query,
+        logbaseDir,
+        fs,
+        plan.getRpcs(),
+        plan.toString(),
+        false);
+    this.plan = plan;
+  }
+
+  BaseOperation(OperationWorkFile.Header header, String logbaseDir, FileSystem fs) {
+    this(
+        header.identity,
+        header.owner,
+        header.query,
+        logbaseDir,
+        fs,
+        (int) header.entries,
+        header.planSummary,
+        true);
+    this.sleepMs = header.sleepMs;
+  }
+
+  private BaseOperation(
+      String identity,
+      String owner,
+      String query,
+      String logbaseDir,
+      FileSystem fs,
+      int totalToOperate,
+      String planSummary,
+      boolean resumed) {
+    this.identity = identity;
     this.owner = owner;
-    this.identity = UUID.randomUUID().toString();
-    this.totalToOperate = toPerform.size();
     this.query = query;
-    final boolean gzipLog = toPerform.size() >= (100 * 1000);
+    this.totalToOperate = totalToOperate;
+    this.planSummary = planSummary;
+    this.resumed = resumed;
+    final boolean gzipLog = totalToOperate >= (100 * 1000);
     this.log = new OperationLog(identity, logbaseDir, query, owner, gzipLog);
+    this.workFile = OperationWorkFile.workFile(logbaseDir, identity);
+    this.checkpointFile = OperationWorkFile.checkpointFile(logbaseDir, identity);
     this.fs = fs;
   }
 
+  /**
+   * Writes the plan to the work file and drops it from memory. Resumed operations were persisted
+   * before already.
+   *
+   * @param sleepMs the sleep the operation was submitted with, or null
+   * @throws IOException if the work file could not be written
+   */
+  synchronized void persist(Integer sleepMs) throws IOException {
+    if (plan == null) {
+      return;
+    }
+    this.sleepMs = sleepMs;
+    OperationWorkFile.write(
+        workFile,
+        new OperationWorkFile.Header(
+            identity, type(), argument(), owner, query, planSummary, sleepMs, plan.getRpcs()),
+        plan);
+    plan = null;
+  }
+
+  /** @return the sleep the operation was submitted with, or null */
+  synchronized Integer sleepMs() {
+    return sleepMs;
+  }
+
   @Override
   public int hashCode() {
     return identity.hashCode();
@@ -87,49 +182,255 @@ public abstract class BaseOperation implements Operation {
 
   @Override
   public synchronized void initialize() {
-    log.startLog();
+    try {
+      long[] checkpoint = OperationWorkFile.readCheckpoint(checkpointFile);
+      checkpointDone = checkpoint[0];
+      checkpointPerformed = checkpoint[1];
+      checkpointSkipped = checkpoint[2];
+      numPerformed = (int) checkpointPerformed;
+      numSkipped = (int) checkpointSkipped;
+      lastCheckpointDone = checkpointDone;
+      lastCheckpointTime = System.currentTimeMillis();
+      log.startLog(resumed);
+      reader = OperationWorkFile.open(workFile, checkpointDone);
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Could not open operation work file. Failing op: " + identity + ".", e);
+    }
+    if (!aborted && !suspended) {
+      nextToOperate = readNext();
+    }
   }
 
+  /**
+   * Closes the log and the work file reader and writes a last checkpoint. The work files stay on
+   * disk until {@link #removeWorkFiles()} is called. The file system is the JVM-wide cached one
+   * shared with concurrent operations, so it stays open.
+   */
   @Override
   public synchronized void close() {
-    IOUtils.closeQuietly(fs);
-    log.close();
+    IOUtils.closeQuietly(reader);
+    if (reader != null) {
+      checkpoint();
+    }
+    log.close(suspended);
+  }
+
+  /** Deletes the work and checkpoint files of this operation once it is done or aborted. */
+  synchronized void removeWorkFiles() {
+    if ((workFile.exists() && !workFile.delete())
+        || (checkpointFile.exists() && !checkpointFile.delete())) {
+      LOG.warn("Could not delete work files of operation: {}", identity);
+    }
   }
 
   @Override
   public synchronized List<String> lastPerformed(int numOfLast) {
-    int lastIndex = pathsOperated.size();
-    if (numOfLast >= lastIndex) {
-      return pathsOperated;
+    List<String> last = new ArrayList<>(recentPaths);
+    int lastIndex = last.size();
+    int firstIndex = Math.max(0, lastIndex - numOfLast);
+    return new ArrayList<>(last.subList(firstIndex, lastIndex));
+  }
+
+  /**
+   * Writes the paths of the entire work list in plan order, including entries already done.
+   *
+   * @param writer the writer to write the paths to; not closed
+   * @throws IOException if the work file could not be read or the paths not written
+   */
+  public void writeWorkList(INodePathWriter writer) throws IOException {
+    try (OperationWorkFile.Reader workList = OperationWorkFile.open(workFile, 0L)) {
+      for (OperationWorkFile.Entry entry = workList.next();
+          entry != null;
+          entry = workList.next()) {
+        writer.write(entry.path.getBytes(StandardCharsets.UTF_8));
+      }
     }
-    return new ArrayList<>(pathsOperated.subList(lastIndex - numOfLast, lastIndex));
   }
 
   @Override
   public synchronized String upNext() {
     if (nextToOperate == null) {
-      return "ABORTED";
+      if (aborted) {
+        return "ABORTED";
+      }
+      return (suspended) ? "SUSPENDED" : "NONE";
+    }
+    return nextToOperate.path;
+  }
+
+  /**
+   * Makes the operation check every entry against the namespace before operating on it, so that a
+   * resumed operation skips paths that now hold a different INode than when it was planned.
+   *
+   * @param namespace resolves a path to the INode currently at that path, or null if there is none
+   */
+  synchronized void verifyAgainst(Function<String, INode> namespace) {
+    this.namespace = namespace;
+  }
+
+  private boolean isPlannedINode(OperationWorkFile.Entry entry) {
+    Function<String, INode> resolver;
+    synchronized (this) {
+      resolver = namespace;
+    }
+    if (resolver == null) {
+      return true;
     }
-    return nextToOperate.getFullPathName();
+    INode node = resolver.apply(entry.path);
+    if (node == null || node.getId() != entry.id) {
+      LOG.info(
+          "Skipping: {}, it no longer holds the INode with id {} it was planned with.",
+          entry.path,
+          entry.id);
+      return false;
+    }
+    return true;
   }
 
   @Override
-  public abstract boolean performOp();
+  public boolean performOp() {
+    OperationWorkFile.Entry entry = claimNext();
+    if (entry == null) {
+      return false;
+    }
+    boolean operated = false;
+    boolean performed = false;
+    try {
+      performed = isPlannedINode(entry) && operate(entry);
+      operated = true;
+      return performed;
+    } finally {
+      completed(entry, operated, performed);
+    }
+  }
+
+  /**
+   * Performs the operation on a single work file entry. Called without holding the lock on this
+   * operation.
+   *
+   * @param entry the entry to operate on
+   * @return true if the operation was performed and recorded through {@link #performed}, false if
+   *     the entry was skipped
+   */
+  abstract boolean operate(OperationWorkFile.Entry entry);
+
+  /** @return the argument of the operation, such as the replication factor, to resume it with */
+  abstract String argument();
+
+  /**
+   * Records the outcome of the operation on a single inode in the operation log.
+   *
+   * @param path the path of the inode
+   * @param inodeType the type of the inode
+   * @param success whether the operation succeeded
+   */
+  synchronized void performed(String path, String inodeType, boolean success) {
+    log.logOp(path, inodeType, success);
+    recentPaths.addLast(path);
+    if (recentPaths.size() > RECENT_PATHS) {
+      recentPaths.removeFirst();
+    }
+    numPerformed++;
+  }
+
+  private synchronized OperationWorkFile.Entry claimNext() {
+    OperationWorkFile.Entry entry = nextToOperate;
+    if (entry == null) {
+      return null;
+    }
+    pending.put(entry.index, IN_FLIGHT);
+    nextToOperate = readNext();
+    numInFlight++;
+    return entry;
+  }
+
+  private OperationWorkFile.Entry readNext() {
+    try {
+      return reader.next();
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Could not read operation work file. Failing op: " + identity + ".", e);
+    }
+  }
+
+  /**
+   * Moves the checkpoint past all leading entries that are done. Entries that failed with an
+   * exception stay pending so they are redone on resume.
+   */
+  private synchronized void completed(
+      OperationWorkFile.Entry entry, boolean operated, boolean performed) {
+    numInFlight--;
+    if (!operated) {
+      return;
+    }
+    if (!performed) {
+      numSkipped++;
+    }
+    pending.put(entry.index, (performed) ? PERFORMED : SKIPPED);
+    while (!pending.isEmpty() && pending.firstEntry().getValue() != IN_FLIGHT) {
+      Map.Entry<Long, Byte> first = pending.pollFirstEntry();
+      if (first.getValue() == PERFORMED) {
+        checkpointPerformed++;
+      } else {
+        checkpointSkipped++;
+      }
+      checkpointDone = first.getKey() + 1;
+    }
+    long now = System.currentTimeMillis();
+    if (checkpointDone - lastCheckpointDone >= CHECKPOINT_ENTRIES
+        || (checkpointDone > lastCheckpointDone
+            && now - lastCheckpointTime >= CHECKPOINT_INTERVAL_MS)) {
+      checkpoint();
+    }
+  }
+
+  private void checkpoint() {
+    // Everything the checkpoint covers has to be in the log first.
+    log.sync();
+    try {
+      OperationWorkFile.writeCheckpoint(
+          checkpointFile, checkpointDone, checkpointPerformed, checkpointSkipped);
+      lastCheckpointDone = checkpointDone;
+      lastCheckpointTime = System.currentTimeMillis();
+    } catch (IOException e) {
+      throw new IllegalStateException(
+          "Could not write operation checkpoint. Failing op: " + identity + ".", e);
+    }
+  }
 
   @Override
   public synchronized boolean hasNext() {
     return nextToOperate != null;
   }
 
+  /**
+   * Stops claiming further inodes. Inodes already in flight are still recorded; the log is closed
+   * by {@link #close()} once they are done.
+   */
   @Override
   public synchronized void abort() {
+    aborted = true;
     nextToOperate = null;
-    if (fs != null) {
-      IOUtils.closeQuietly(fs);
-    }
-    if (log != null) {
-      log.close();
-    }
+  }
+
+  /**
+   * Stops claiming further inodes without finishing the operation, so that it resumes from its work
+   * file on the next start.
+   */
+  synchronized void suspend() {
+    suspended = true;
+    nextToOperate = null;
+  }
+
+  /** @return true if the operation was suspended to be resumed later. */
+  synchronized boolean isSuspended() {
+    return suspended;
+  }
+
+  /** @return true if the operation was aborted. */
+  public synchronized boolean isAborted() {
+    return aborted;
   }
 
   @Override
@@ -143,8 +444,23 @@ public abstract class BaseOperation implements Operation {
   }
 
   @Override
-  public int numPerformed() {
-    return pathsOperated.size();
+  public synchronized int numPerformed() {
+    return numPerformed;
+  }
+
+  /** @return the number of inodes the operation did not apply to. */
+  public synchronized int numSkipped() {
+    return numSkipped;
+  }
+
+  /** @return the number of inodes being operated on right now. */
+  public synchronized int numInFlight() {
+    return numInFlight;
+  }
+
+  /** @return summary of the plan of RPCs for this operation. */
+  public String plan() {
+    return planSummary;
   }
 
   @Override
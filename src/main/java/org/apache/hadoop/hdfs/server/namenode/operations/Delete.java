@@ -28,24 +28,26 @@ public class Delete extends BaseOperation {
 
   public Delete(
       Collection<INode> toDelete, String query, String owner, String logBaseDir, FileSystem fs) {
-    super(toDelete, owner, query, logBaseDir, fs);
+    super(OperationPlan.collapsing(toDelete), owner, query, logBaseDir, fs);
+  }
+
+  Delete(OperationWorkFile.Header header, String logBaseDir, FileSystem fs) {
+    super(header, logBaseDir, fs);
   }
 
   @Override
-  public synchronized boolean performOp() {
-    if (!hasNext()) {
-      return false;
-    }
-    String path = nextToOperate.getFullPathName();
+  boolean operate(OperationWorkFile.Entry entry) {
+    String path = entry.path;
     LOG.info("About to delete: {}", path);
-    boolean file = nextToOperate.isFile();
-    boolean dir = nextToOperate.isDirectory();
+    boolean file = entry.kind == OperationWorkFile.FILE;
+    boolean dir = entry.kind == OperationWorkFile.DIR;
+    boolean recursive = entry.kind == OperationWorkFile.RECURSIVE_DIR;
     boolean success = true;
     String inodeType;
     /*
      * TODO:: DELETE WILL LOOK LIKE THIS:
      * try {
-     *   success = fs.delete(new Path(path), false);
+     *   success = fs.delete(new Path(path), recursive);
      * } catch (IOException e) {
      *   success = false;
      * }
@@ -54,6 +56,10 @@ public class Delete extends BaseOperation {
       /* TODO: Insert actual deletion code here. */
       LOG.info("Deleted file.");
       inodeType = "FILE";
+    } else if (recursive) {
+      /* TODO: Insert actual deletion code here. */
+      LOG.info("Deleted dir recursively.");
+      inodeType = "RECURSIVE_DIR";
     } else if (dir) {
       /* TODO: Insert actual deletion code here. */
       LOG.info("Deleted dir.");
@@ -62,17 +68,15 @@ public class Delete extends BaseOperation {
       LOG.info("Could not determine INode type. Did not delete.");
       return false;
     }
-    synchronized (pathsOperated) {
-      synchronized (toOperate) {
-        log.logOp(path, inodeType, success);
-        pathsOperated.add(path);
-        iterator.remove();
-      }
-    }
-    nextToOperate = iterator.hasNext() ? iterator.next() : null;
+    performed(path, inodeType, success);
     return true;
   }
 
+  @Override
+  String argument() {
+    return "";
+  }
+
   @Override
   public String type() {
     return NNAConstants.OPERATION.delete.name();
@@ -0,0 +1,328 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.hadoop.hdfs.server.namenode.operations;
+
+import com.paypal.security.SecurityConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.OPERATION;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs operations submitted through /submitOperation. Up to a configured number of operations run
+ * at the same time; further operations wait for one of them to finish. Every running operation
+ * issues its RPCs from its own pool of workers, all sharing one {@link AdaptiveRateLimiter} that
+ * adapts the rate of the operation to the latency of its RPCs.
+ *
+ * <p>Operations are persisted to their work files on submission. Shutting down suspends running
+ * operations, as does an unexpected exception of one of their RPCs; {@link #resume} picks them up
+ * again from their last checkpoint.
+ */
+public class OperationExecutor {
+
+  public static final Logger LOG = LoggerFactory.getLogger(OperationExecutor.class.getName());
+
+  private static final long SHUTDOWN_TIMEOUT_MS = 10000L;
+
+  /** Supplies the file system of a resumed operation. */
+  public interface FileSystemSupplier {
+    FileSystem get() throws IOException;
+  }
+
+  private final Map<String, BaseOperation> operations = new ConcurrentHashMap<>();
+  private final Map<String, AdaptiveRateLimiter> rateLimiters = new ConcurrentHashMap<>();
+  private final AtomicLong completedOperations = new AtomicLong();
+  private final AtomicLong abortedOperations = new AtomicLong();
+  private final AtomicLong suspendedOperations = new AtomicLong();
+
+  private ExecutorService operationService;
+  private int concurrentOperations;
+  private int workersPerOperation;
+  private double initialRate;
+  private double minRate;
+  private double maxRate;
+  private long targetLatencyMs;
+  private long logCommitIntervalMs;
+  private int logCommitBytes;
+
+  /**
+   * Creates the thread pool running operations.
+   *
+   * @param conf the NNA configuration
+   */
+  public void start(SecurityConfiguration conf) {
+    concurrentOperations = conf.getOperationsConcurrent();
+    workersPerOperation = conf.getOperationsWorkers();
+    initialRate = conf.getOperationsRateInitial();
+    minRate = conf.getOperationsRateMin();
+    maxRate = conf.getOperationsRateMax();
+    targetLatencyMs = conf.getOperationsRpcLatencyTargetMs();
+    logCommitIntervalMs = conf.getOperationsLogCommitIntervalMs();
+    logCommitBytes = conf.getOperationsLogCommitBytes();
+    if (concurrentOperations < 1 || workersPerOperation < 1) {
+      throw new IllegalArgumentException(
+          "Concurrent operations and workers per operation must be at least 1.");
+    }
+    operationService =
+        Executors.newFixedThreadPool(
+            concurrentOperations,
+            r -> {
+              Thread thread = new Thread(r, "operation-runner");
+              thread.setDaemon(true);
+              return thread;
+            });
+  }
+
+  /**
+   * Queues an operation to run once one of the concurrent operation slots is free.
+   *
+   * @param operation the operation to run
+   * @param sleepMs null to use the configured rates, 0 to start out at the maximum rate, or the
+   *     minimum time between two RPCs of this operation in milliseconds
+   * @throws IOException if the work file of the operation could not be written
+   */
+  public void submit(BaseOperation operation, Integer sleepMs) throws IOException {
+    operation.persist(sleepMs);
+    double operationMaxRate = maxRate;
+    double operationInitialRate = initialRate;
+    if (sleepMs != null && sleepMs > 0) {
+      operationMaxRate = Math.min(maxRate, 1000.0 / sleepMs);
+    } else if (sleepMs != null) {
+      operationInitialRate = maxRate;
+    }
+    AdaptiveRateLimiter rateLimiter =
+        new AdaptiveRateLimiter(
+            Math.min(operationInitialRate, operationMaxRate),
+            Math.min(minRate, operationMaxRate),
+            operationMaxRate,
+            targetLatencyMs,
+            System.nanoTime());
+    operations.put(operation.identity(), operation);
+    rateLimiters.put(operation.identity(), rateLimiter);
+    operationService.execute(() -> run(operation, rateLimiter));
+  }
+
+  /**
+   * @param identity the identity of an operation
+   * @return the running or queued operation or null if there is none
+   */
+  public BaseOperation get(String identity) {
+    return (identity == null) ? null : operations.get(identity);
+  }
+
+  /**
+   * @param identity the identity of an operation
+   * @return the rate limiter of the operation or null if there is none
+   */
+  public AdaptiveRateLimiter getRateLimiter(String identity) {
+    return (identity == null) ? null : rateLimiters.get(identity);
+  }
+
+  /** @return all running and queued operations */
+  public Collection<BaseOperation> getOperations() {
+    return new ArrayList<>(operations.values());
+  }
+
+  /**
+   * Resumes every operation left in the log directory by a previous run that is not running
+   * already.
+   *
+   * @param logBaseDir the operation log directory
+   * @param fsSupplier supplies the file system for every resumed operation
+   * @param namespace resolves a path to the INode currently at that path in the loaded namespace,
+   *     or null if there is none; entries whose path holds another INode than planned are skipped
+   * @return the number of resumed operations
+   */
+  public int resume(
+      String logBaseDir, FileSystemSupplier fsSupplier, Function<String, INode> namespace) {
+    File[] workFiles =
+        new File(logBaseDir).listFiles((dir, name) -> name.endsWith(OperationWorkFile.WORK_SUFFIX));
+    if (workFiles == null) {
+      return 0;
+    }
+    int resumed = 0;
+    for (File workFile : workFiles) {
+      try {
+        OperationWorkFile.Header header = OperationWorkFile.readHeader(workFile);
+        if (operations.containsKey(header.identity)) {
+          continue;
+        }
+        BaseOperation operation = resume(header, logBaseDir, fsSupplier.get());
+        operation.verifyAgainst(namespace);
+        submit(operation, operation.sleepMs());
+        resumed++;
+      } catch (IOException | IllegalArgumentException e) {
+        LOG.warn("Could not resume operation from: {}", workFile, e);
+      }
+    }
+    if (resumed > 0) {
+      LOG.info("Resumed {} operations from: {}", resumed, logBaseDir);
+    }
+    return resumed;
+  }
+
+  private static BaseOperation resume(
+      OperationWorkFile.Header header, String logBaseDir, FileSystem fs) {
+    switch (OPERATION.valueOf(header.type)) {
+      case delete:
+        return new Delete(header, logBaseDir, fs);
+      case setReplication:
+        return new SetReplication(header, logBaseDir, fs);
+      case setStoragePolicy:
+        return new SetStoragePolicy(header, logBaseDir, fs);
+      default:
+        throw new IllegalArgumentException("Unknown operation: " + header.type + ".");
+    }
+  }
+
+  /**
+   * Suspends all operations and stops the operation threads. Suspended and queued operations keep
+   * their work files and are resumed by the next {@link #resume}.
+   */
+  public void shutdown() {
+    operations.values().forEach(BaseOperation::suspend);
+    if (operationService != null) {
+      operationService.shutdownNow();
+      try {
+        operationService.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+    operations.clear();
+    rateLimiters.clear();
+  }
+
+  private void run(BaseOperation operation, AdaptiveRateLimiter rateLimiter) {
+    String identity = operation.identity();
+    AtomicInteger workerCount = new AtomicInteger();
+    ExecutorService workers =
+        Executors.newFixedThreadPool(
+            workersPerOperation,
+            r -> {
+              Thread thread =
+                  new Thread(
+                      r, "operation-" + identity + "-worker-" + workerCount.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    long startTime = System.currentTimeMillis();
+    try {
+      operation.log.setGroupCommit(logCommitIntervalMs, logCommitBytes);
+      operation.initialize();
+      for (int i = 0; i < workersPerOperation; i++) {
+        workers.execute(() -> work(operation, rateLimiter));
+      }
+      workers.shutdown();
+      workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    } catch (IllegalStateException e) {
+      operation.abort();
+      LOG.info("Aborted operation due to: {}", e);
+    } catch (InterruptedException e) {
+      operation.suspend();
+      Thread.currentThread().interrupt();
+    } finally {
+      workers.shutdownNow();
+      try {
+        workers.awaitTermination(SHUTDOWN_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      try {
+        operation.close();
+      } catch (IllegalStateException e) {
+        LOG.info("Failed to close operation {} due to: {}", identity, e);
+      }
+      // Work files go before the operation is unregistered so it can never be resumed twice.
+      if (operation.isSuspended()) {
+        suspendedOperations.incrementAndGet();
+      } else {
+        operation.removeWorkFiles();
+        if (operation.isAborted()) {
+          abortedOperations.incrementAndGet();
+        } else {
+          completedOperations.incrementAndGet();
+        }
+      }
+      operations.remove(identity);
+      rateLimiters.remove(identity);
+    }
+    LOG.info(
+        "Operation {} performed {} and skipped {} of {} inodes in {} log commits, {}. Took: {} ms.",
+        identity,
+        operation.numPerformed(),
+        operation.numSkipped(),
+        operation.totalToPerform(),
+        operation.log.getCommits(),
+        rateLimiter,
+        (System.currentTimeMillis() - startTime));
+  }
+
+  private void work(BaseOperation operation, AdaptiveRateLimiter rateLimiter) {
+    try {
+      while (operation.hasNext()) {
+        rateLimiter.acquire();
+        long start = System.nanoTime();
+        operation.performOp();
+        long end = System.nanoTime();
+        rateLimiter.record(end - start, end);
+      }
+    } catch (IllegalStateException e) {
+      operation.abort();
+      LOG.info("Aborted operation {} due to: {}", operation.identity(), e);
+    } catch (RuntimeException e) {
+      // The failed entry stays pending, so it is redone once the operation is resumed.
+      operation.suspend();
+      LOG.warn("Suspended operation {} due to: {}", operation.identity(), e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return "Running / queued operations: "
+        + operations.size()
+        + ", concurrent operations: "
+        + concurrentOperations
+        + ", workers per operation: "
+        + workersPerOperation
+        + ", completed operations: "
+        + completedOperations.get()
+        + ", aborted operations: "
+        + abortedOperations.get()
+        + ", suspended operations: "
+        + suspendedOperations.get();
+  }
+}
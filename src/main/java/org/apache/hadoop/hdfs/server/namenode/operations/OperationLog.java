@@ -21,44 +21,107 @@ package org.apache.hadoop.hdfs.server.namenode.operations;
 
 import static org.apache.hadoop.hdfs.server.namenode.NNAConstants.CHARSET;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.util.StreamingGZIPOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Log of every path an operation was performed on. Lines are appended to an in-memory buffer and
+ * group committed by a shared background flusher: once per commit interval, or as soon as the
+ * buffer holds the commit size. Every group commit writes the buffer in one go, flushes (and so
+ * deflates a gzip log) once and syncs the file, so the log is durable up to the last group commit.
+ * Free space is checked on the flusher as well; once it runs low the next logged path fails the
+ * operation.
+ *
+ * <p>A resumed log is appended to. A gzip log that was not closed, because the process died, ends
+ * in a truncated gzip member though, and a member appended after it could not be read. Such a log
+ * is left as it is and the resumed operation logs to the next free {@code <identity>.opLog.<n>.gz}
+ * instead, and keeps appending to the last of those on later resumes.
+ */
 class OperationLog {
 
   public static final Logger LOG = LoggerFactory.getLogger(OperationLog.class.getName());
 
   private static final long TEN_MEGABYTES = 10L * 1024L * 1024L;
 
+  private static final ScheduledExecutorService FLUSHER =
+      Executors.newSingleThreadScheduledExecutor(
+          r -> {
+            Thread thread = new Thread(r, "operation-log-flusher");
+            thread.setDaemon(true);
+            return thread;
+          });
+
   private final String identity;
   private final String owner;
   private final String query;
-  private final File log;
+  private final String logBaseDir;
+  private File log;
   private final boolean gzipLog;
 
+  private final Object commitLock = new Object();
+
   private OutputStream fileStream;
-  private boolean isClosed = false;
+  private FileOutputStream plainTextStream;
+  private volatile boolean isClosed = false;
+  private volatile boolean outOfSpace = false;
+  private volatile IOException commitFailure;
+  private ScheduledFuture<?> flusherTask;
+
+  private long commitIntervalMs = 1000L;
+  private int commitBytes = 64 * 1024;
+  private StringBuilder buffer = new StringBuilder();
+  private StringBuilder spare = new StringBuilder();
+  private boolean commitRequested = false;
+  private long commits = 0L;
 
   OperationLog(String identity, String logBaseDir, String query, String owner, boolean gzipLog) {
     this.identity = identity;
     this.owner = owner;
     this.query = query;
     this.gzipLog = gzipLog;
+    this.logBaseDir = logBaseDir;
 
     final String logPath = logBaseDir + "/" + identity + ".opLog" + ((gzipLog) ? ".gz" : "");
     this.log = new File(logPath);
   }
 
-  void startLog() {
+  /**
+   * Opens the log for writing.
+   *
+   * @param resume whether to append to the log of an operation resumed after a restart
+   */
+  void startLog(boolean resume) {
     // Start with creating new log file.
-    if (!log.exists()) {
+    if (resume && gzipLog) {
+      // Continue in the last log the operation wrote to, unless it was left truncated.
+      File next = log;
+      for (int i = 1; next.exists(); i++) {
+        log = next;
+        next = new File(logBaseDir + "/" + identity + ".opLog." + i + ".gz");
+      }
+      if (log.exists() && !isCompleteGzip(log)) {
+        LOG.warn("Log {} of op: {} is truncated, resuming log in: {}.", log, identity, next);
+        log = next;
+      }
+    }
+    if (resume && log.exists()) {
+      LOG.info("Resuming log for op: {}.", identity);
+    } else if (!log.exists()) {
       try {
         boolean created = log.createNewFile();
         if (!created) {
@@ -79,20 +142,23 @@ class OperationLog {
           "Log should not already be open. Failing op: " + identity + ".");
     }
     // Ensure there is enough space for new log.
-    try {
-      checkSpace();
-    } catch (Exception e) {
+    checkSpace();
+    if (outOfSpace) {
       try {
         // Delete log if there is not enough space left.
-        FileUtils.forceDelete(log);
+        if (!resume) {
+          FileUtils.forceDelete(log);
+        }
       } catch (IOException ioE) {
         throw new IllegalStateException(
             "Could not operation log on failure! Failing op: " + identity + ".", ioE);
       }
+      throw new IllegalStateException(
+          "Not enough space left to log. Failing op: " + identity + ".");
     }
     try {
-      FileOutputStream plainTextStream =
-          new FileOutputStream(log) {
+      plainTextStream =
+          new FileOutputStream(log, resume) {
             @Override
             public void close() throws IOException {
               isClosed = true;
@@ -111,7 +177,8 @@ class OperationLog {
     }
     try {
       fileStream.write(
-          ("Starting log for operation with identity: "
+          (((resume) ? "Resuming" : "Starting")
+                  + " log for operation with identity: "
                   + identity
                   + ", by owner: "
                   + owner
@@ -124,42 +191,149 @@ class OperationLog {
       throw new IllegalStateException(
           "Could not write operation log header. Failing op: " + identity + ".", e);
     }
+    flusherTask =
+        FLUSHER.scheduleWithFixedDelay(
+            this::scheduledCommit, commitIntervalMs, commitIntervalMs, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * Sets how often the log is group committed. Only takes effect before the log is started.
+   *
+   * @param intervalMs longest time between two group commits
+   * @param bytes buffered size that triggers a group commit before the interval is over
+   */
+  void setGroupCommit(long intervalMs, int bytes) {
+    this.commitIntervalMs = intervalMs;
+    this.commitBytes = bytes;
   }
 
   void logOp(String path, String inodeType, boolean success) {
-    checkSpace();
     if (isClosed()) {
       throw new IllegalStateException("Log is closed. Failing op: " + identity + ".");
     }
-    String outcome = (success) ? "SUCCESS" : "FAILURE";
+    if (outOfSpace) {
+      throw new IllegalStateException(
+          "Not enough space left to log. Failing op: " + identity + ".");
+    }
+    if (commitFailure != null) {
+      throw new IllegalStateException(
+          "Could not write operation log. Failing op: " + identity + ".", commitFailure);
+    }
+    boolean commitNow = false;
+    synchronized (this) {
+      buffer
+          .append((success) ? "SUCCESS" : "FAILURE")
+          .append(" |  ")
+          .append(path)
+          .append(" | ")
+          .append(inodeType)
+          .append('\n');
+      if (buffer.length() >= commitBytes && !commitRequested) {
+        commitRequested = true;
+        FLUSHER.execute(this::scheduledCommit);
+      } else if (buffer.length() >= 4 * commitBytes) {
+        // The flusher fell behind; commit on the logging thread instead of buffering further.
+        commitNow = true;
+      }
+    }
+    if (commitNow) {
+      sync();
+    }
+  }
+
+  /**
+   * Group commits everything logged so far and waits for it to be durable.
+   *
+   * @throws IllegalStateException if the log could not be written
+   */
+  void sync() {
     try {
-      fileStream.write((outcome + " |  " + path + " | " + inodeType + "\n").getBytes(CHARSET));
-      fileStream.flush();
+      commit();
     } catch (IOException e) {
       throw new IllegalStateException(
-          "Could not write operation log header. Failing op: " + identity + ".", e);
+          "Could not write operation log. Failing op: " + identity + ".", e);
+    }
+  }
+
+  private void scheduledCommit() {
+    try {
+      commit();
+      checkSpace();
+    } catch (IOException e) {
+      LOG.warn("Could not commit log of op: {}", identity, e);
+      commitFailure = e;
     }
   }
 
-  void close() {
+  private void commit() throws IOException {
+    synchronized (commitLock) {
+      StringBuilder pending;
+      synchronized (this) {
+        commitRequested = false;
+        if (buffer.length() == 0 || isClosed()) {
+          return;
+        }
+        pending = buffer;
+        buffer = spare;
+      }
+      fileStream.write(pending.toString().getBytes(CHARSET));
+      fileStream.flush();
+      plainTextStream.getFD().sync();
+      pending.setLength(0);
+      synchronized (this) {
+        spare = pending;
+        commits++;
+      }
+    }
+  }
+
+  /** @return number of group commits so far */
+  synchronized long getCommits() {
+    return commits;
+  }
+
+  /**
+   * Writes the tail of the log and closes it.
+   *
+   * @param suspended whether the operation is suspended to be resumed later rather than done
+   */
+  void close(boolean suspended) {
     if (isClosed() || fileStream == null) {
       return;
     }
-    try {
-      fileStream.write("DONE.".getBytes(CHARSET));
+    if (flusherTask != null) {
+      flusherTask.cancel(false);
+    }
+    synchronized (commitLock) {
+      try {
+        commit();
+        fileStream.write(((suspended) ? "SUSPENDED.\n" : "DONE.").getBytes(CHARSET));
+      } catch (IOException e) {
+        throw new IllegalStateException(
+            "Could not write operation log tail. Closing op: " + identity + ".", e);
+      } finally {
+        IOUtils.closeQuietly(fileStream);
+        isClosed = true;
+      }
+    }
+  }
+
+  private static boolean isCompleteGzip(File file) {
+    byte[] skip = new byte[64 * 1024];
+    try (InputStream in = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      while (in.read(skip) != -1) {
+        // Only reading to the end tells whether the last member has its trailer.
+      }
+      return true;
     } catch (IOException e) {
-      throw new IllegalStateException(
-          "Could not write operation log tail. Closing op: " + identity + ".", e);
+      return false;
     }
-    IOUtils.closeQuietly(fileStream);
-    isClosed = true;
   }
 
   private void checkSpace() {
     long freeSpace = log.getParentFile().getFreeSpace();
     if (freeSpace <= (TEN_MEGABYTES)) {
-      throw new IllegalStateException(
-          "Not enough space left to log. Failing op: " + identity + ".");
+      outOfSpace = true;
     }
   }
 
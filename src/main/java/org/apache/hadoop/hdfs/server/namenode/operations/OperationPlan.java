@@ -0,0 +1,189 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.hadoop.hdfs.server.namenode.operations;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.snapshot.Snapshot;
+
+/**
+ * The INodes an operation sends RPCs for, ordered by path so that consecutive RPCs touch nearby
+ * parts of the namespace.
+ *
+ * <p>A collapsing plan replaces every targeted directory whose whole subtree is targeted by a
+ * single recursive RPC for that directory. A directory is covered once it is targeted itself, has
+ * children and all of them are covered; a file is covered once it is targeted; an empty directory
+ * is covered once it is targeted. Directories that are not targeted are never covered, so a plan
+ * never reaches beyond what was selected. Coverage is counted bottom-up from the targets through
+ * their parents, so only directories with targeted descendants are ever looked at. The root
+ * directory is never collapsed.
+ */
+public class OperationPlan {
+
+  private final List<INode> inodes;
+  private final Set<INode> recursive;
+  private final int targets;
+
+  private OperationPlan(List<INode> inodes, Set<INode> recursive, int targets) {
+    this.inodes = inodes;
+    this.recursive = recursive;
+    this.targets = targets;
+  }
+
+  /**
+   * @param targets the INodes to operate on
+   * @return a plan with one RPC per target
+   */
+  public static OperationPlan perINode(Collection<INode> targets) {
+    return new OperationPlan(sortByPath(targets), Collections.emptySet(), targets.size());
+  }
+
+  /**
+   * @param targets the INodes to operate on
+   * @return a plan with one recursive RPC per topmost directory whose whole subtree is targeted and
+   *     one RPC per remaining target
+   */
+  public static OperationPlan collapsing(Collection<INode> targets) {
+    Set<INode> targeted = (targets instanceof Set) ? (Set<INode>) targets : new HashSet<>(targets);
+    Set<INode> covered = new HashSet<>();
+    Map<Integer, List<INode>> byDepth = new HashMap<>();
+    int maxDepth = 0;
+    for (INode target : targets) {
+      if (target.isFile()
+          || (target.isDirectory()
+              && target.asDirectory().getChildrenNum(Snapshot.CURRENT_STATE_ID) == 0)) {
+        int depth = depthOf(target);
+        byDepth.computeIfAbsent(depth, d -> new ArrayList<>()).add(target);
+        maxDepth = Math.max(maxDepth, depth);
+      }
+    }
+    // Walk up one level at a time so every directory sees all of its covered children before it
+    // is checked itself.
+    for (int depth = maxDepth; depth > 1; depth--) {
+      List<INode> level = byDepth.remove(depth);
+      if (level == null) {
+        continue;
+      }
+      Map<INodeDirectory, Integer> coveredChildren = new HashMap<>();
+      for (INode inode : level) {
+        if (covered.add(inode)) {
+          coveredChildren.merge(inode.getParent(), 1, Integer::sum);
+        }
+      }
+      for (Map.Entry<INodeDirectory, Integer> entry : coveredChildren.entrySet()) {
+        INodeDirectory parent = entry.getKey();
+        if (parent.getChildrenNum(Snapshot.CURRENT_STATE_ID) == entry.getValue()
+            && targeted.contains(parent)) {
+          byDepth.computeIfAbsent(depth - 1, d -> new ArrayList<>()).add(parent);
+        }
+      }
+    }
+    byDepth.values().forEach(covered::addAll);
+
+    List<INode> planned = new ArrayList<>();
+    Set<INode> recursive = new HashSet<>();
+    for (INode inode : covered) {
+      if (!covered.contains(inode.getParent())) {
+        planned.add(inode);
+        if (inode.isDirectory()) {
+          recursive.add(inode);
+        }
+      }
+    }
+    for (INode target : targets) {
+      if (!covered.contains(target)) {
+        planned.add(target);
+      }
+    }
+    return new OperationPlan(sortByPath(planned), recursive, targets.size());
+  }
+
+  private static int depthOf(INode inode) {
+    int depth = 0;
+    for (INodeDirectory parent = inode.getParent(); parent != null; parent = parent.getParent()) {
+      depth++;
+    }
+    return depth;
+  }
+
+  private static List<INode> sortByPath(Collection<INode> inodes) {
+    List<Map.Entry<String, INode>> paths = new ArrayList<>(inodes.size());
+    for (INode inode : inodes) {
+      paths.add(new AbstractMap.SimpleImmutableEntry<>(inode.getFullPathName(), inode));
+    }
+    paths.sort(Comparator.comparing(Map.Entry::getKey));
+    List<INode> sorted = new ArrayList<>(paths.size());
+    for (Map.Entry<String, INode> path : paths) {
+      sorted.add(path.getValue());
+    }
+    return sorted;
+  }
+
+  /** @return the INodes to send RPCs for, ordered by path */
+  public List<INode> getINodes() {
+    return inodes;
+  }
+
+  /**
+   * @param inode an INode of this plan
+   * @return true if the RPC for the INode covers its whole subtree
+   */
+  public boolean isRecursive(INode inode) {
+    return recursive.contains(inode);
+  }
+
+  /** @return the number of INodes targeted by the operation */
+  public int getTargets() {
+    return targets;
+  }
+
+  /** @return the number of RPCs this plan sends */
+  public int getRpcs() {
+    return inodes.size();
+  }
+
+  /** @return the number of recursive RPCs this plan sends */
+  public int getRecursiveRpcs() {
+    return recursive.size();
+  }
+
+  @Override
+  public String toString() {
+    return "Targeted INodes: "
+        + targets
+        + ", RPCs: "
+        + getRpcs()
+        + ", recursive RPCs: "
+        + getRecursiveRpcs()
+        + ", RPCs saved: "
+        + (targets - getRpcs());
+  }
+}
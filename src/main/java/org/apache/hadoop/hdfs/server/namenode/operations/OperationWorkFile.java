@@ -0,0 +1,320 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package org.apache.hadoop.hdfs.server.namenode.operations;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * The persisted work list of an operation, written once at submission next to the operation log and
+ * streamed back while the operation runs, so that operations neither keep their INodes in heap nor
+ * lose their work on restart.
+ *
+ * <p>A work file starts with a header describing the operation, with its strings written as their
+ * UTF-8 length followed by the bytes so that long queries fit, followed by one entry per planned
+ * RPC in plan order. Entries hold the INode id, the INode kind and the path, front-coded against
+ * the previous path: the number of leading bytes shared with it and the remaining UTF-8 bytes.
+ *
+ * <p>A separate checkpoint file records how many leading entries are done together with how many of
+ * those were performed and skipped. It is replaced atomically on every write. Both files are synced
+ * to disk before they are moved into place.
+ */
+class OperationWorkFile {
+
+  static final String WORK_SUFFIX = ".opWork";
+  static final String CHECKPOINT_SUFFIX = ".opCheckpoint";
+
+  static final byte FILE = 0;
+  static final byte DIR = 1;
+  static final byte RECURSIVE_DIR = 2;
+  static final byte OTHER = 3;
+
+  private static final int MAGIC = 0x4E4E414F;
+  private static final int VERSION = 2;
+
+  private OperationWorkFile() {}
+
+  /** Describes the operation a work file belongs to. */
+  static class Header {
+    final String identity;
+    final String type;
+    final String argument;
+    final String owner;
+    final String query;
+    final String planSummary;
+    final Integer sleepMs;
+    final long entries;
+
+    Header(
+        String identity,
+        String type,
+        String argument,
+        String owner,
+        String query,
+        String planSummary,
+        Integer sleepMs,
+        long entries) {
+      this.identity = identity;
+      this.type = type;
+      this.argument = argument;
+      this.owner = owner;
+      this.query = query;
+      this.planSummary = planSummary;
+      this.sleepMs = sleepMs;
+      this.entries = entries;
+    }
+  }
+
+  /** A single planned RPC. */
+  static class Entry {
+    final long index;
+    final long id;
+    final byte kind;
+    final String path;
+
+    Entry(long index, long id, byte kind, String path) {
+      this.index = index;
+      this.id = id;
+      this.kind = kind;
+      this.path = path;
+    }
+  }
+
+  /**
+   * @param logBaseDir the operation log directory
+   * @param identity the identity of an operation
+   * @return the work file of the operation
+   */
+  static File workFile(String logBaseDir, String identity) {
+    return new File(logBaseDir, identity + WORK_SUFFIX);
+  }
+
+  /**
+   * @param logBaseDir the operation log directory
+   * @param identity the identity of an operation
+   * @return the checkpoint file of the operation
+   */
+  static File checkpointFile(String logBaseDir, String identity) {
+    return new File(logBaseDir, identity + CHECKPOINT_SUFFIX);
+  }
+
+  /**
+   * Writes the work file of a plan. The file only appears once it is complete.
+   *
+   * @param file the work file
+   * @param header the operation the plan belongs to
+   * @param plan the plan
+   * @throws IOException if the file could not be written
+   */
+  static void write(File file, Header header, OperationPlan plan) throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(tmp);
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      Text.writeString(out, header.identity);
+      Text.writeString(out, header.type);
+      Text.writeString(out, header.argument);
+      Text.writeString(out, header.owner);
+      Text.writeString(out, header.query);
+      Text.writeString(out, header.planSummary);
+      out.writeInt((header.sleepMs == null) ? -1 : header.sleepMs);
+      out.writeLong(header.entries);
+      byte[] previous = new byte[0];
+      for (INode inode : plan.getINodes()) {
+        byte[] path = inode.getFullPathName().getBytes(StandardCharsets.UTF_8);
+        int shared = 0;
+        int maxShared = Math.min(previous.length, path.length);
+        while (shared < maxShared && previous[shared] == path[shared]) {
+          shared++;
+        }
+        WritableUtils.writeVLong(out, inode.getId());
+        out.writeByte(kindOf(inode, plan));
+        WritableUtils.writeVInt(out, shared);
+        WritableUtils.writeVInt(out, path.length - shared);
+        out.write(path, shared, path.length - shared);
+        previous = path;
+      }
+      out.flush();
+      fileOut.getFD().sync();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private static byte kindOf(INode inode, OperationPlan plan) {
+    if (inode.isFile()) {
+      return FILE;
+    } else if (inode.isDirectory()) {
+      return (plan.isRecursive(inode)) ? RECURSIVE_DIR : DIR;
+    }
+    return OTHER;
+  }
+
+  /**
+   * @param file the work file
+   * @return the header of the work file
+   * @throws IOException if the file could not be read
+   */
+  static Header readHeader(File file) throws IOException {
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return readHeader(in, file);
+    }
+  }
+
+  private static Header readHeader(DataInputStream in, File file) throws IOException {
+    if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+      throw new IOException("Not an operation work file: " + file + ".");
+    }
+    String identity = Text.readString(in);
+    String type = Text.readString(in);
+    String argument = Text.readString(in);
+    String owner = Text.readString(in);
+    String query = Text.readString(in);
+    String planSummary = Text.readString(in);
+    int sleepMs = in.readInt();
+    long entries = in.readLong();
+    return new Header(
+        identity,
+        type,
+        argument,
+        owner,
+        query,
+        planSummary,
+        (sleepMs < 0) ? null : sleepMs,
+        entries);
+  }
+
+  /**
+   * Opens a work file for streaming its entries.
+   *
+   * @param file the work file
+   * @param skip number of leading entries to skip
+   * @return reader positioned at the first entry not skipped
+   * @throws IOException if the file could not be read
+   */
+  static Reader open(File file, long skip) throws IOException {
+    Reader reader = new Reader(file);
+    try {
+      for (long i = 0; i < skip && reader.next() != null; i++) {
+        // Skipped entries still have to be read to decode the paths after them.
+      }
+    } catch (IOException e) {
+      reader.close();
+      throw e;
+    }
+    return reader;
+  }
+
+  /** Streams the entries of a work file. Not thread-safe. */
+  static class Reader implements Closeable {
+    private final DataInputStream in;
+    private final long entries;
+    private byte[] previous = new byte[0];
+    private long index = 0L;
+
+    private Reader(File file) throws IOException {
+      this.in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+      try {
+        this.entries = readHeader(in, file).entries;
+      } catch (IOException e) {
+        in.close();
+        throw e;
+      }
+    }
+
+    /**
+     * @return the next entry or null after the last one
+     * @throws IOException if the file could not be read
+     */
+    Entry next() throws IOException {
+      if (index >= entries) {
+        return null;
+      }
+      long id = WritableUtils.readVLong(in);
+      byte kind = in.readByte();
+      int shared = WritableUtils.readVInt(in);
+      int suffix = WritableUtils.readVInt(in);
+      if (shared > previous.length) {
+        throw new EOFException("Corrupt operation work file entry: " + index + ".");
+      }
+      byte[] path = Arrays.copyOf(previous, shared + suffix);
+      in.readFully(path, shared, suffix);
+      previous = path;
+      return new Entry(index++, id, kind, new String(path, StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+
+  /**
+   * Atomically replaces the checkpoint of an operation.
+   *
+   * @param file the checkpoint file
+   * @param done number of leading entries that are done
+   * @param performed number of done entries that were performed
+   * @param skipped number of done entries that were skipped
+   * @throws IOException if the file could not be written
+   */
+  static void writeCheckpoint(File file, long done, long performed, long skipped)
+      throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(tmp);
+    try (DataOutputStream out = new DataOutputStream(fileOut)) {
+      out.writeLong(done);
+      out.writeLong(performed);
+      out.writeLong(skipped);
+      fileOut.getFD().sync();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * @param file the checkpoint file
+   * @return number of done, performed and skipped entries; all 0 if there is no checkpoint yet
+   * @throws IOException if the file could not be read
+   */
+  static long[] readCheckpoint(File file) throws IOException {
+    if (!file.exists()) {
+      return new long[3];
+    }
+    try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+      return new long[] {in.readLong(), in.readLong(), in.readLong()};
+    }
+  }
+}
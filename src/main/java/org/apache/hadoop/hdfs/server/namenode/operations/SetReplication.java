@@ -35,18 +35,20 @@ public class SetReplication extends BaseOperation {
       String logBaseDir,
       FileSystem fs,
       short newRepFactor) {
-    super(toSetRep, owner, query, logBaseDir, fs);
+    super(OperationPlan.perINode(toSetRep), owner, query, logBaseDir, fs);
     this.newRepFactor = newRepFactor;
   }
 
+  SetReplication(OperationWorkFile.Header header, String logBaseDir, FileSystem fs) {
+    super(header, logBaseDir, fs);
+    this.newRepFactor = Short.parseShort(header.argument);
+  }
+
   @Override
-  public synchronized boolean performOp() {
-    if (!hasNext()) {
-      return false;
-    }
-    String path = nextToOperate.getFullPathName();
+  boolean operate(OperationWorkFile.Entry entry) {
+    String path = entry.path;
     LOG.info("About to setRep: {}", path);
-    boolean file = nextToOperate.isFile();
+    boolean file = entry.kind == OperationWorkFile.FILE;
     boolean success = true;
     String inodeType;
     /*
@@ -65,17 +67,15 @@ public class SetReplication extends BaseOperation {
       LOG.info("INode type was not a file. Did not setRep.");
       return false;
     }
-    synchronized (pathsOperated) {
-      synchronized (toOperate) {
-        log.logOp(path, inodeType, success);
-        pathsOperated.add(path);
-        iterator.remove();
-      }
-    }
-    nextToOperate = iterator.hasNext() ? iterator.next() : null;
+    performed(path, inodeType, success);
     return true;
   }
 
+  @Override
+  String argument() {
+    return String.valueOf(newRepFactor);
+  }
+
   @Override
   public String type() {
     return NNAConstants.OPERATION.setReplication.name();
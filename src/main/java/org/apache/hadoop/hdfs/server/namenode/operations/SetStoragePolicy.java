@@ -35,19 +35,21 @@ public class SetStoragePolicy extends BaseOperation {
       String logBaseDir,
       FileSystem fs,
       String newStoragePolicy) {
-    super(toSetRep, owner, query, logBaseDir, fs);
+    super(OperationPlan.perINode(toSetRep), owner, query, logBaseDir, fs);
     this.newStoragePolicy = newStoragePolicy;
   }
 
+  SetStoragePolicy(OperationWorkFile.Header header, String logBaseDir, FileSystem fs) {
+    super(header, logBaseDir, fs);
+    this.newStoragePolicy = header.argument;
+  }
+
   @Override
-  public synchronized boolean performOp() {
-    if (!hasNext()) {
-      return false;
-    }
-    String path = nextToOperate.getFullPathName();
+  boolean operate(OperationWorkFile.Entry entry) {
+    String path = entry.path;
     LOG.info("About to setStoragePolicy: {}", path);
-    boolean file = nextToOperate.isFile();
-    boolean dir = nextToOperate.isDirectory();
+    boolean file = entry.kind == OperationWorkFile.FILE;
+    boolean dir = entry.kind == OperationWorkFile.DIR;
     boolean success = true;
     String inodeType;
     /*
@@ -70,17 +72,15 @@ public class SetStoragePolicy extends BaseOperation {
       LOG.info("Could not determine INode type. Did not setStoragePolicy.");
       return false;
     }
-    synchronized (pathsOperated) {
-      synchronized (toOperate) {
-        log.logOp(path, inodeType, success);
-        pathsOperated.add(path);
-        iterator.remove();
-      }
-    }
-    nextToOperate = iterator.hasNext() ? iterator.next() : null;
+    performed(path, inodeType, success);
     return true;
   }
 
+  @Override
+  String argument() {
+    return newStoragePolicy;
+  }
+
   @Override
   public String type() {
     return NNAConstants.OPERATION.setStoragePolicy.name();
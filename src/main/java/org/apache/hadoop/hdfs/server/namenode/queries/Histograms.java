@@ -19,137 +19,215 @@
 
 package org.apache.hadoop.hdfs.server.namenode.queries;
 
-import com.google.gson.Gson;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.ArrayList;
-import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
-import java.util.stream.Collectors;
 import org.apache.hadoop.hdfs.server.namenode.NNLoader;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonFactory;
+import org.codehaus.jackson.JsonGenerator;
 import org.slf4j.Logger;
 
 public class Histograms {
 
   public static final Logger LOG = NNLoader.LOG;
 
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  /** A response body that is written to the client as it is produced. */
+  public interface Output {
+    void write(OutputStream out) throws IOException;
+  }
+
   /**
-   * converts given histogram along with title, x and y lables to json string for Chart.js
+   * writes given histogram along with title, x and y lables as json for Chart.js
    *
    * @param histogram data points of histogram
    * @param title title to be used for chart
    * @param ylabel xlabel to be used for chart
    * @param xlabel ylabel to be used for chart
-   * @return json string containing data points to be used as input to Chart.js for rendering on
-   *     HTML canvas pages.
+   * @param out stream to write the json containing data points to be used as input to Chart.js for
+   *     rendering on HTML canvas pages
+   * @throws IOException if writing to the stream fails
    */
-  public static String toChartJsJson(
-      Map<String, Long> histogram, String title, String ylabel, String xlabel) {
+  public static void writeChartJsJson(
+      Map<String, Long> histogram, String title, String ylabel, String xlabel, OutputStream out)
+      throws IOException {
     long s1 = System.currentTimeMillis();
-
-    Collection<Long> data_array = histogram.values();
-    Set<String> labels = histogram.keySet();
-    Map<String, Object> data = new HashMap<>();
-    data.put("labels", labels);
-    data.put("xlabel", xlabel);
-    data.put("ylabel", ylabel);
-    ArrayList<HashMap<String, Object>> datasets = new ArrayList<>();
-    HashMap<String, Object> dataset = new HashMap<>();
-    dataset.put("label", title);
-    dataset.put("data", data_array);
-    datasets.add(dataset);
-    data.put("datasets", datasets);
-
+    JsonGenerator json = createGenerator(out);
+    try {
+      json.writeStartObject();
+      json.writeArrayFieldStart("labels");
+      for (String label : histogram.keySet()) {
+        json.writeString(label);
+      }
+      json.writeEndArray();
+      json.writeStringField("xlabel", xlabel);
+      json.writeStringField("ylabel", ylabel);
+      json.writeArrayFieldStart("datasets");
+      json.writeStartObject();
+      json.writeStringField("label", title);
+      json.writeFieldName("data");
+      writeValue(json, histogram.values());
+      json.writeEndObject();
+      json.writeEndArray();
+      json.writeEndObject();
+    } finally {
+      json.close();
+    }
     long e1 = System.currentTimeMillis();
-    String gson = new Gson().toJson(data);
     LOG.info(
-        "Time to convert histogram to JSON (for chart.js) of "
-            + gson.length()
-            + " chars took: "
-            + (e1 - s1)
-            + " ms.");
-    return gson;
+        "Time to write histogram of {} points as JSON (for chart.js) took: {} ms.",
+        histogram.size(),
+        (e1 - s1));
   }
 
   /**
-   * converts given set of values to json string.
+   * writes given value as json. Maps are written as objects, collections as arrays.
    *
-   * @param set set of values to be converted to json
-   * @return json string
+   * @param value the value to be written as json
+   * @param out stream to write the json to
+   * @throws IOException if writing to the stream fails
    */
-  public static String toJson(Object set) {
+  public static void writeJson(Object value, OutputStream out) throws IOException {
     long s1 = System.currentTimeMillis();
-    String gson = new Gson().toJson(set);
+    JsonGenerator json = createGenerator(out);
+    try {
+      writeValue(json, value);
+    } finally {
+      json.close();
+    }
     long e1 = System.currentTimeMillis();
-    LOG.info("Time to convert object to JSON of {} chars took: {} ms.", gson.length(), (e1 - s1));
-    return gson;
+    LOG.info("Time to write object as JSON took: {} ms.", (e1 - s1));
+  }
+
+  /**
+   * Creates a generator that writes UTF-8 json to given stream and leaves it open when closed.
+   *
+   * @param out stream to write to
+   * @return the json generator
+   * @throws IOException if the generator cannot be created
+   */
+  public static JsonGenerator createGenerator(OutputStream out) throws IOException {
+    JsonGenerator json = JSON_FACTORY.createJsonGenerator(out, JsonEncoding.UTF8);
+    json.configure(JsonGenerator.Feature.AUTO_CLOSE_TARGET, false);
+    return json;
   }
 
   /**
-   * converts given histogram data points to csv string
+   * Writes a value as the next json value of given generator.
+   *
+   * @param json the generator to write to
+   * @param value null, a number, string, boolean, map, collection or any object written as its
+   *     string form
+   * @throws IOException if writing fails
+   */
+  public static void writeValue(JsonGenerator json, Object value) throws IOException {
+    if (value == null) {
+      json.writeNull();
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short) {
+      json.writeNumber(((Number) value).longValue());
+    } else if (value instanceof Double || value instanceof Float) {
+      json.writeNumber(((Number) value).doubleValue());
+    } else if (value instanceof BigDecimal) {
+      json.writeNumber((BigDecimal) value);
+    } else if (value instanceof Boolean) {
+      json.writeBoolean((Boolean) value);
+    } else if (value instanceof Map) {
+      json.writeStartObject();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        json.writeFieldName(String.valueOf(entry.getKey()));
+        writeValue(json, entry.getValue());
+      }
+      json.writeEndObject();
+    } else if (value instanceof Iterable) {
+      json.writeStartArray();
+      for (Object element : (Iterable<?>) value) {
+        writeValue(json, element);
+      }
+      json.writeEndArray();
+    } else {
+      json.writeString(value.toString());
+    }
+  }
+
+  /**
+   * writes given histogram data points as csv
    *
    * @param histogram data points of histogram
    * @param find specifies field to be included as date (accessTime or modTime)
-   * @return csv string of histogram
+   * @param out stream to write the csv to
+   * @throws IOException if writing to the stream fails
    */
-  public static String toCSV(Map<String, Long> histogram, String find) {
+  public static void writeCSV(Map<String, Long> histogram, String find, OutputStream out)
+      throws IOException {
     long s1 = System.currentTimeMillis();
 
-    StringBuilder sb = new StringBuilder();
+    boolean asDate = false;
+    if (find != null && find.length() != 0) {
+      String findField = find.split(":")[1];
+      asDate = findField.equals("accessTime") || findField.equals("modTime");
+    }
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
     for (Map.Entry<String, Long> entry : histogram.entrySet()) {
-      if (find == null || find.length() == 0) {
-        sb.append(entry.getKey()).append(',').append(entry.getValue().toString()).append('\n');
+      writer.write(entry.getKey());
+      writer.write(',');
+      if (asDate) {
+        writer.write(new Date(entry.getValue()).toString());
       } else {
-        String[] finds = find.split(":");
-        String findField = finds[1];
-        switch (findField) {
-          case "accessTime":
-          case "modTime":
-            sb.append(entry.getKey()).append(',').append(new Date(entry.getValue())).append('\n');
-            break;
-          default:
-            sb.append(entry.getKey()).append(',').append(entry.getValue().toString()).append('\n');
-            break;
-        }
+        writer.write(String.valueOf(entry.getValue()));
       }
+      writer.write('\n');
     }
+    writer.flush();
 
     long e1 = System.currentTimeMillis();
-    String csv = sb.toString();
     LOG.info(
-        "Time to dump histogram to CSV String of {} chars took: {} ms.", csv.length(), (e1 - s1));
-    return csv;
+        "Time to write histogram of {} points as CSV took: {} ms.", histogram.size(), (e1 - s1));
   }
 
   /**
-   * This function converts histogram map to csv string
+   * This function writes histogram map as csv
    *
    * @param histogram data points of histogram
-   * @return csv string of the input histogram.
+   * @param out stream to write the csv of the input histogram to
+   * @throws IOException if writing to the stream fails
    */
-  public static String toCSV(Map<String, List<Long>> histogram) {
+  public static void writeCSV(Map<String, List<Long>> histogram, OutputStream out)
+      throws IOException {
     long s1 = System.currentTimeMillis();
 
-    StringBuilder sb = new StringBuilder();
+    Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
     for (Map.Entry<String, List<Long>> entry : histogram.entrySet()) {
-      sb.append(entry.getKey());
+      writer.write(entry.getKey());
       for (Long val : entry.getValue()) {
-        sb.append(',');
-        sb.append(val);
+        writer.write(',');
+        writer.write(String.valueOf(val));
       }
-      sb.append('\n');
+      writer.write('\n');
     }
+    writer.flush();
 
     long e1 = System.currentTimeMillis();
-    String csv = sb.toString();
     LOG.info(
-        "Time to dump histogram2 to CSV String of {} chars took: {} ms.", csv.length(), (e1 - s1));
-    return csv;
+        "Time to write histogram2 of {} points as CSV took: {} ms.", histogram.size(), (e1 - s1));
   }
 
   /**
@@ -176,14 +254,40 @@ public class Histograms {
     return slice(histogram, new BiggerValueComperator().reversed(), bottom);
   }
 
+  /**
+   * Keeps the first 'limit' entries by given order in a bounded heap, so only those entries are
+   * ever held and sorted.
+   *
+   * @return the sliced histogram in the order of the comparator
+   */
   private static Map<String, Long> slice(
       Map<String, Long> histogram, Comparator<Map.Entry<String, Long>> comparator, int limit) {
-    return histogram
-        .entrySet()
-        .parallelStream()
-        .sorted(comparator)
-        .limit(limit)
-        .collect(Collectors.toMap(Map.Entry::getKey, Map.Entry::getValue));
+    if (limit < 0) {
+      throw new IllegalArgumentException("Slice limit must not be negative: " + limit);
+    }
+    if (limit == 0) {
+      return Collections.emptyMap();
+    }
+    PriorityQueue<Map.Entry<String, Long>> heap =
+        new PriorityQueue<>(Math.min(limit, histogram.size()) + 1, comparator.reversed());
+    for (Map.Entry<String, Long> entry : histogram.entrySet()) {
+      if (heap.size() < limit) {
+        heap.add(entry);
+      } else if (comparator.compare(entry, heap.peek()) < 0) {
+        heap.poll();
+        heap.add(entry);
+      }
+    }
+    List<Map.Entry<String, Long>> sliced = new ArrayList<>(heap.size());
+    while (!heap.isEmpty()) {
+      sliced.add(heap.poll());
+    }
+    Map<String, Long> result = new LinkedHashMap<>();
+    for (int i = sliced.size() - 1; i >= 0; i--) {
+      Map.Entry<String, Long> entry = sliced.get(i);
+      result.put(entry.getKey(), entry.getValue());
+    }
+    return result;
   }
 
   /**
@@ -264,7 +368,9 @@ public class Histograms {
   }
 
   /**
-   * Result is a histogram sorted by its values.
+   * Result is a histogram sorted by its values. The result is a read-only view over the sorted
+   * entries of the given map rather than a copy of it; lookups go to the given map, which must not
+   * be modified afterwards.
    *
    * @param <K> the type of the map keys
    * @param <V> the type of the map values
@@ -274,29 +380,65 @@ public class Histograms {
    */
   public static <K, V extends Comparable<? super V>> Map<K, V> sortByValue(
       Map<K, V> map, boolean ascending) {
-    return map.entrySet()
-        .stream()
-        .sorted(
-            ascending
-                ? Map.Entry.comparingByValue()
-                : Map.Entry.comparingByValue(Collections.reverseOrder()))
-        .collect(
-            Collectors.toMap(
-                Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+    return sortedView(
+        map,
+        ascending
+            ? Map.Entry.comparingByValue()
+            : Map.Entry.comparingByValue(Collections.reverseOrder()));
   }
 
   public static <K, V extends Comparable<? super V>> Map<K, List<V>> sortByValue(
       Map<K, List<V>> map, final int sortIndex, boolean ascending) {
+    Comparator<Map.Entry<K, List<V>>> comparator =
+        Comparator.comparing((Map.Entry<K, List<V>> c) -> c.getValue().get(sortIndex));
+    return sortedView(map, ascending ? comparator : comparator.reversed());
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <K, V> Map<K, V> sortedView(
+      Map<K, V> map, Comparator<Map.Entry<K, V>> comparator) {
+    Map.Entry<K, V>[] entries = map.entrySet().toArray((Map.Entry<K, V>[]) new Map.Entry<?, ?>[0]);
+    Arrays.parallelSort(entries, comparator);
+    return new SortedEntries<>(map, entries);
+  }
 
-    return map.entrySet()
-        .stream()
-        .sorted(
-            ascending
-                ? Comparator.comparing((Map.Entry<K, List<V>> c) -> c.getValue().get(sortIndex))
-                : Comparator.comparing((Map.Entry<K, List<V>> c) -> c.getValue().get(sortIndex))
-                    .reversed())
-        .collect(
-            Collectors.toMap(
-                Map.Entry::getKey, Map.Entry::getValue, (e1, e2) -> e1, LinkedHashMap::new));
+  /**
+   * Read-only map over an array of entries that keeps their order. Lookups go to the map the
+   * entries were taken from.
+   */
+  private static class SortedEntries<K, V> extends AbstractMap<K, V> {
+
+    private final Map<K, V> source;
+    private final Map.Entry<K, V>[] entries;
+
+    private SortedEntries(Map<K, V> source, Map.Entry<K, V>[] entries) {
+      this.source = source;
+      this.entries = entries;
+    }
+
+    @Override
+    public V get(Object key) {
+      return source.get(key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return source.containsKey(key);
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+      return new AbstractSet<Map.Entry<K, V>>() {
+        @Override
+        public Iterator<Map.Entry<K, V>> iterator() {
+          return Arrays.asList(entries).iterator();
+        }
+
+        @Override
+        public int size() {
+          return entries.length;
+        }
+      };
+    }
   }
 }
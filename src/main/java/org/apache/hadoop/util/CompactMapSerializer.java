@@ -0,0 +1,172 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import org.jetbrains.annotations.NotNull;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+import org.mapdb.Serializer;
+
+/**
+ * Compact alternative to {@link MapSerializer}. Keys are written as varint ids from a shared {@link
+ * KeyDictionary} and values as zig-zag varints, so the typical entry takes a few bytes instead of
+ * the key string plus 8 bytes. Encoded maps of at least {@link #COMPRESSION_MIN_BYTES} are deflated
+ * if compression is enabled and it makes them smaller.
+ */
+public class CompactMapSerializer implements Serializer<Map<String, Long>>, Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  static final int COMPRESSION_MIN_BYTES = 512;
+
+  private static final byte RAW = 0;
+  private static final byte DEFLATED = 1;
+
+  private final transient KeyDictionary dictionary;
+  private final boolean compress;
+  private final AtomicLong bytesWritten = new AtomicLong();
+
+  /**
+   * @param dictionary dictionary of the keys of all maps using this serializer
+   * @param compress whether to deflate larger maps
+   */
+  public CompactMapSerializer(KeyDictionary dictionary, boolean compress) {
+    this.dictionary = dictionary;
+    this.compress = compress;
+  }
+
+  @Override
+  public void serialize(@NotNull DataOutput2 out, @NotNull Map<String, Long> value)
+      throws IOException {
+    DataOutput2 encoded = new DataOutput2();
+    encoded.packInt(value.size());
+    for (Map.Entry<String, Long> entry : value.entrySet()) {
+      encoded.packInt(dictionary.idOf(entry.getKey()));
+      encoded.packLong(zigZag(entry.getValue()));
+    }
+    int start = out.pos;
+    if (compress && encoded.pos >= COMPRESSION_MIN_BYTES) {
+      byte[] deflated = deflate(encoded.buf, encoded.pos);
+      if (deflated.length < encoded.pos) {
+        out.writeByte(DEFLATED);
+        out.packInt(encoded.pos);
+        out.packInt(deflated.length);
+        out.write(deflated);
+        bytesWritten.addAndGet(out.pos - start);
+        return;
+      }
+    }
+    out.writeByte(RAW);
+    out.write(encoded.buf, 0, encoded.pos);
+    bytesWritten.addAndGet(out.pos - start);
+  }
+
+  @Override
+  public Map<String, Long> deserialize(@NotNull DataInput2 input, int available)
+      throws IOException {
+    byte format = input.readByte();
+    if (format == RAW) {
+      return decode(input);
+    }
+    if (format != DEFLATED) {
+      throw new IOException("Unknown map encoding: " + format);
+    }
+    int length = input.unpackInt();
+    byte[] deflated = new byte[input.unpackInt()];
+    input.readFully(deflated);
+    return decode(new DataInput2.ByteArray(inflate(deflated, length)));
+  }
+
+  /** @return total number of bytes of maps serialized so far */
+  public long getBytesWritten() {
+    return bytesWritten.get();
+  }
+
+  private Map<String, Long> decode(DataInput2 input) throws IOException {
+    int size = input.unpackInt();
+    Map<String, Long> map = new HashMap<>(size);
+    for (int i = 0; i < size; i++) {
+      int id = input.unpackInt();
+      String key = dictionary.keyOf(id);
+      if (key == null) {
+        throw new IOException("Unknown key id: " + id);
+      }
+      map.put(key, unZigZag(input.unpackLong()));
+    }
+    return map;
+  }
+
+  private static long zigZag(long value) {
+    return (value << 1) ^ (value >> 63);
+  }
+
+  private static long unZigZag(long value) {
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private static byte[] deflate(byte[] bytes, int length) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    try {
+      deflater.setInput(bytes, 0, length);
+      deflater.finish();
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+      byte[] chunk = new byte[4096];
+      while (!deflater.finished()) {
+        out.write(chunk, 0, deflater.deflate(chunk));
+      }
+      return out.toByteArray();
+    } finally {
+      deflater.end();
+    }
+  }
+
+  private static byte[] inflate(byte[] deflated, int length) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(deflated);
+      byte[] bytes = new byte[length];
+      int read = 0;
+      while (read < length && !inflater.finished()) {
+        int inflated = inflater.inflate(bytes, read, length - read);
+        if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+          break;
+        }
+        read += inflated;
+      }
+      if (read != length) {
+        throw new IOException("Expected " + length + " inflated bytes but got " + read + ".");
+      }
+      return bytes;
+    } catch (DataFormatException e) {
+      throw new IOException(e);
+    } finally {
+      inflater.end();
+    }
+  }
+}
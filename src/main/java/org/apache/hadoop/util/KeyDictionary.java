@@ -0,0 +1,108 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.util;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns small integer ids to map keys so that serialized maps store each key once in the
+ * dictionary instead of once per map. Ids are never reassigned; new keys are handed out to be
+ * persisted alongside the maps referencing them.
+ *
+ * <p>Since ids are never reassigned the dictionary is never compacted: it holds every distinct key
+ * ever written, including users and directories that no longer appear in any map. These are
+ * typically few next to the maps themselves. Deleting the cache directory drops the dictionary and
+ * the next reload rebuilds the cache with only the keys still in use.
+ */
+public class KeyDictionary {
+
+  private final List<String> keys = new ArrayList<>();
+  private final Map<String, Integer> ids = new HashMap<>();
+  private int persisted = 0;
+
+  /**
+   * Restores keys that were persisted before.
+   *
+   * @param stored map of id to key
+   */
+  public synchronized void load(Map<Integer, String> stored) {
+    for (int id = 0; id < stored.size(); id++) {
+      String key = stored.get(id);
+      if (key == null) {
+        throw new IllegalArgumentException("Key dictionary is missing id " + id + ".");
+      }
+      keys.add(key);
+      ids.put(key, id);
+    }
+    persisted = keys.size();
+  }
+
+  /**
+   * @param key a map key
+   * @return the id of the key, assigning a new one if it was not seen before
+   */
+  public synchronized int idOf(String key) {
+    Integer id = ids.get(key);
+    if (id == null) {
+      id = keys.size();
+      keys.add(key);
+      ids.put(key, id);
+    }
+    return id;
+  }
+
+  /**
+   * @param id an id handed out by this dictionary
+   * @return the key of the id or null if it is unknown
+   */
+  public synchronized String keyOf(int id) {
+    return (id >= 0 && id < keys.size()) ? keys.get(id) : null;
+  }
+
+  /**
+   * Hands out the keys that are not persisted yet. They are handed out again until {@link
+   * #markPersisted(int)} confirms they were persisted.
+   *
+   * @param unpersisted map of id to key to add the keys to
+   * @return the id after the last key added, to be passed to {@link #markPersisted(int)}
+   */
+  public synchronized int getUnpersisted(Map<Integer, String> unpersisted) {
+    for (int id = persisted; id < keys.size(); id++) {
+      unpersisted.put(id, keys.get(id));
+    }
+    return keys.size();
+  }
+
+  /**
+   * Records that the keys handed out by {@link #getUnpersisted(Map)} are persisted.
+   *
+   * @param end the id returned by getUnpersisted
+   */
+  public synchronized void markPersisted(int end) {
+    persisted = Math.max(persisted, end);
+  }
+
+  public synchronized int size() {
+    return keys.size();
+  }
+}
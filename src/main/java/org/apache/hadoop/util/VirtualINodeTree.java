@@ -19,12 +19,12 @@
 
 package org.apache.hadoop.util;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
-import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class VirtualINodeTree {
@@ -166,22 +166,24 @@ public class VirtualINodeTree {
   }
 
   /*
-   * O(n^2) implementation for removing longer ancestors.
+   * Removes ancestors that have a shorter ancestor as prefix.
    * This is used in the case that /A and /A/B show up as ancestors.
-   * It is assumed that the total number of added elements for analysis will be small.
+   * Once sorted, every path with a kept prefix directly follows that prefix or another path that
+   * shares it, so comparing against the last kept path is enough.
    */
   private Set<VirtualINode> prunedAncestors(Set<VirtualINode> commonAncestors) {
-    Map<String, VirtualINode> ancestorPaths =
-        commonAncestors.stream().collect(Collectors.toMap(VirtualINode::path, Function.identity()));
-    Set<String> toRemove = new HashSet<>();
-    for (String ancestorPath : ancestorPaths.keySet()) {
-      for (String compare : ancestorPaths.keySet()) {
-        if (compare.startsWith(ancestorPath) && compare.length() > ancestorPath.length()) {
-          toRemove.add(compare);
-        }
+    List<VirtualINode> sorted = new ArrayList<>(commonAncestors);
+    sorted.sort(Comparator.comparing(VirtualINode::path));
+    Set<VirtualINode> pruned = new HashSet<>();
+    String lastKept = null;
+    for (VirtualINode ancestor : sorted) {
+      String path = ancestor.path();
+      if (lastKept != null && path.startsWith(lastKept)) {
+        continue;
       }
+      pruned.add(ancestor);
+      lastKept = path;
     }
-    toRemove.forEach(ancestorPaths::remove);
-    return new HashSet<>(ancestorPaths.values());
+    return pruned;
   }
 }
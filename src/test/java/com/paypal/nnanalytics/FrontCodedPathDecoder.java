@@ -0,0 +1,107 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.paypal.nnanalytics;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Minimal client-side decoder of front-coded path lists as returned with "pathOutput=frontCoded",
+ * kept free of NNA classes so it can be copied into client tools.
+ */
+public class FrontCodedPathDecoder {
+
+  private static final String MAGIC = "NNAFC1";
+
+  private FrontCodedPathDecoder() {}
+
+  /**
+   * @param stream the front-coded path list
+   * @return the decoded paths in order
+   * @throws IOException if the stream is not a valid front-coded path list
+   */
+  public static List<String> decode(InputStream stream) throws IOException {
+    InputStream in = new BufferedInputStream(stream);
+    byte[] magic = new byte[MAGIC.length()];
+    readFully(in, magic, 0, magic.length);
+    if (!MAGIC.equals(new String(magic, StandardCharsets.US_ASCII))) {
+      throw new IOException("Not a front-coded path list.");
+    }
+    int blockSize = readVarint(in);
+    List<String> paths = new ArrayList<>();
+    byte[] path = new byte[256];
+    int first;
+    while ((first = in.read()) != -1) {
+      int shared = readVarint(in, first);
+      int suffix = readVarint(in);
+      if (paths.size() % blockSize == 0 && shared != 0) {
+        throw new IOException("Block does not start with a full path: " + paths.size() + ".");
+      }
+      if (shared + suffix > path.length) {
+        path = Arrays.copyOf(path, Math.max(shared + suffix, path.length * 2));
+      }
+      readFully(in, path, shared, suffix);
+      paths.add(new String(path, 0, shared + suffix, StandardCharsets.UTF_8));
+    }
+    return paths;
+  }
+
+  private static int readVarint(InputStream in) throws IOException {
+    int first = in.read();
+    if (first == -1) {
+      throw new EOFException();
+    }
+    return readVarint(in, first);
+  }
+
+  private static int readVarint(InputStream in, int first) throws IOException {
+    int value = first & 0x7F;
+    int shift = 7;
+    int b = first;
+    while ((b & 0x80) != 0) {
+      b = in.read();
+      if (b == -1) {
+        throw new EOFException();
+      }
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    }
+    return value;
+  }
+
+  private static void readFully(InputStream in, byte[] bytes, int offset, int length)
+      throws IOException {
+    while (length > 0) {
+      int read = in.read(bytes, offset, length);
+      if (read == -1) {
+        throw new EOFException();
+      }
+      offset += read;
+      length -= read;
+    }
+  }
+}
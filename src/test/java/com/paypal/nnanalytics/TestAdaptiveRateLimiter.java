@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hdfs.server.namenode.operations.AdaptiveRateLimiter;
+import org.junit.Test;
+
+/**
+ * NNA limits the RPCs of an operation with a token bucket whose rate grows additively while the RPC
+ * latency stays under the target and is halved once it goes above it.
+ */
+public class TestAdaptiveRateLimiter {
+
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1L);
+
+  @Test
+  public void testTokenBucket() {
+    AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10.0, 1.0, 100.0, 50L, 0L);
+    assertThat(limiter.reserve(0L), is(0L));
+    // Every further permit is spread out by a tenth of a second.
+    assertThat(limiter.reserve(0L), is(100L * MS));
+    assertThat(limiter.reserve(0L), is(200L * MS));
+    // Idle time pays the debt back, but builds up at most one permit.
+    assertThat(limiter.reserve(1000L * MS), is(0L));
+    assertThat(limiter.reserve(1000L * MS), is(100L * MS));
+  }
+
+  @Test
+  public void testAdditiveIncreaseMultiplicativeDecrease() {
+    AdaptiveRateLimiter limiter = new AdaptiveRateLimiter(10.0, 2.0, 12.0, 50L, 0L);
+    limiter.record(10L * MS, 50L * MS);
+    assertThat(limiter.getRate(), is(10.0));
+    limiter.record(10L * MS, 100L * MS);
+    assertThat(limiter.getRate(), is(11.0));
+    limiter.record(10L * MS, 200L * MS);
+    limiter.record(10L * MS, 300L * MS);
+    assertThat(limiter.getRate(), is(12.0));
+
+    // Only the average latency of a window counts.
+    limiter.record(20L * MS, 350L * MS);
+    limiter.record(90L * MS, 400L * MS);
+    assertThat(limiter.getRate(), is(6.0));
+    limiter.record(90L * MS, 500L * MS);
+    limiter.record(90L * MS, 600L * MS);
+    assertThat(limiter.getRate(), is(2.0));
+  }
+}
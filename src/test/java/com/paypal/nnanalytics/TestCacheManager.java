@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+
+import com.paypal.security.SecurityConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.cache.CacheManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** NNA writes suggestions to MapDB on a background thread and only keeps committed writes. */
+public class TestCacheManager {
+
+  private CacheManager cacheManager;
+
+  @Before
+  public void before() throws IOException {
+    SecurityConfiguration conf = new SecurityConfiguration();
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory() + "/cache");
+    FileUtils.deleteDirectory(new File(conf.getBaseDir()));
+    cacheManager = new CacheManager();
+    cacheManager.start(conf);
+  }
+
+  @After
+  public void after() {
+    cacheManager.stop();
+  }
+
+  @Test
+  public void testFailedCommitIsRolledBack() throws InterruptedException {
+    Map<String, Long> cached = cacheManager.getCachedMap("values");
+    AtomicInteger committed = new AtomicInteger();
+    commitAndWait(() -> cached.put("numFiles", 1L), committed::incrementAndGet);
+    assertThat(committed.get(), is(1));
+
+    cacheManager.commitAsync(
+        () -> {
+          cached.put("numFiles", 2L);
+          cached.put("numDirs", 1L);
+          throw new IllegalStateException("Failed write.");
+        },
+        committed::incrementAndGet);
+    long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(1);
+    while (cacheManager.getFailedCommits() == 0 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10L);
+    }
+    assertThat(cacheManager.getFailedCommits(), is(1L));
+    assertThat(committed.get(), is(1));
+
+    commitAndWait(() -> {}, committed::incrementAndGet);
+    assertThat(committed.get(), is(2));
+    assertThat(cached.get("numFiles"), is(1L));
+    assertThat(cached.containsKey("numDirs"), is(false));
+  }
+
+  private void commitAndWait(Runnable writes, Runnable onCommit) throws InterruptedException {
+    CountDownLatch latch = new CountDownLatch(1);
+    cacheManager.commitAsync(
+        writes,
+        () -> {
+          onCommit.run();
+          latch.countDown();
+        });
+    assertThat(latch.await(1, TimeUnit.MINUTES), is(true));
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import org.apache.hadoop.util.CompactMapSerializer;
+import org.apache.hadoop.util.KeyDictionary;
+import org.apache.hadoop.util.MapSerializer;
+import org.junit.Test;
+import org.mapdb.DataInput2;
+import org.mapdb.DataOutput2;
+
+/** NNA stores suggestion maps in MapDB with dictionary-coded keys and varint values. */
+public class TestCompactMapSerializer {
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    Map<String, Long> map = new HashMap<>();
+    map.put("hdfs", 0L);
+    map.put("root", -42L);
+    map.put("nna", Long.MAX_VALUE);
+    map.put("mapred", Long.MIN_VALUE);
+    for (boolean compress : new boolean[] {false, true}) {
+      CompactMapSerializer serializer = new CompactMapSerializer(new KeyDictionary(), compress);
+      assertThat(roundTrip(serializer, map), is(map));
+      assertThat(roundTrip(serializer, new HashMap<>()), is(new HashMap<>()));
+    }
+  }
+
+  @Test
+  public void testSmallerThanMapSerializer() throws IOException {
+    Map<String, Long> map = new HashMap<>();
+    for (int i = 0; i < 1000; i++) {
+      map.put("user" + i, (long) (i % 10));
+    }
+    DataOutput2 plain = new DataOutput2();
+    new MapSerializer().serialize(plain, map);
+
+    KeyDictionary dictionary = new KeyDictionary();
+    CompactMapSerializer raw = new CompactMapSerializer(dictionary, false);
+    CompactMapSerializer compressed = new CompactMapSerializer(dictionary, true);
+    assertThat(roundTrip(raw, map), is(map));
+    assertThat(roundTrip(compressed, map), is(map));
+    assertThat(raw.getBytesWritten(), is(lessThan((long) plain.pos)));
+    assertThat(compressed.getBytesWritten(), is(lessThan(raw.getBytesWritten())));
+    assertThat(dictionary.size(), is(1000));
+
+    // Keys persisted before are resolved by id after a restart.
+    Map<Integer, String> persisted = new HashMap<>();
+    int end = dictionary.getUnpersisted(persisted);
+    assertThat(persisted.size(), is(1000));
+    // Keys are handed out again until they are marked persisted, as after a failed commit.
+    Map<Integer, String> retried = new HashMap<>();
+    assertThat(dictionary.getUnpersisted(retried), is(end));
+    assertThat(retried, is(persisted));
+    dictionary.markPersisted(end);
+    Map<Integer, String> none = new HashMap<>();
+    dictionary.getUnpersisted(none);
+    assertThat(none.isEmpty(), is(true));
+    KeyDictionary restored = new KeyDictionary();
+    restored.load(persisted);
+    DataOutput2 out = new DataOutput2();
+    compressed.serialize(out, map);
+    Map<String, Long> read =
+        new CompactMapSerializer(restored, true)
+            .deserialize(new DataInput2.ByteArray(out.copyBytes()), out.pos);
+    assertThat(read, is(map));
+  }
+
+  private static Map<String, Long> roundTrip(CompactMapSerializer serializer, Map<String, Long> map)
+      throws IOException {
+    DataOutput2 out = new DataOutput2();
+    serializer.serialize(out, map);
+    return serializer.deserialize(new DataInput2.ByteArray(out.copyBytes()), out.pos);
+  }
+}
@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import com.google.gson.Gson;
+import com.paypal.namenode.HSQLDriver;
+import com.paypal.security.SecurityConfiguration;
+import java.io.StringWriter;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.junit.Test;
+
+/**
+ * NNA writes the history of suggestion reports in batches on a background thread and serves it raw
+ * or rolled up, compacting older history into daily rollups.
+ */
+public class TestHistoryWriter {
+
+  private static final int USERS = 2500;
+  private static final int REPORTS = 5;
+
+  @Test
+  public void testBatchedHistoryWrites() throws Exception {
+    SecurityConfiguration conf = new SecurityConfiguration();
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory() + "/history");
+    conf.set("nna.historical.queue.size", "1");
+    HSQLDriver driver = new HSQLDriver();
+    driver.startDatabase(conf);
+    driver.rebuildTable("HISTORY");
+
+    Set<String> users = new HashSet<>();
+    Map<String, Long> numFilesUsers = new HashMap<>();
+    for (int i = 0; i < USERS; i++) {
+      users.add("user" + i);
+      numFilesUsers.put("user" + i, (long) i);
+    }
+    Map<String, Long> values = Collections.singletonMap("numFiles", 42L);
+    Map<String, Map<String, Long>> maps = Collections.singletonMap("numFilesUsers", numFilesUsers);
+    for (int i = 0; i < REPORTS; i++) {
+      driver.logHistoryPerUserAsync(values, maps, users);
+    }
+    // Queued reports are written before the connection is dropped.
+    driver.dropConnection();
+    long written = driver.getWrittenReports();
+    assertThat(written, is(greaterThanOrEqualTo(1L)));
+    assertThat(written + driver.getDroppedReports(), is((long) REPORTS));
+
+    try (Connection con = connect(conf);
+        PreparedStatement count =
+            con.prepareStatement(
+                "SELECT COUNT(*), SUM(NUMFILES) FROM HISTORY WHERE HISTORY.USER = ?")) {
+      count.setString(1, "user7");
+      try (ResultSet result = count.executeQuery()) {
+        result.next();
+        assertThat(result.getLong(1), is(written));
+        assertThat(result.getLong(2), is(7L * written));
+      }
+      count.setString(1, "");
+      try (ResultSet result = count.executeQuery()) {
+        result.next();
+        assertThat(result.getLong(2), is(42L * written));
+      }
+    }
+  }
+
+  @Test
+  public void testRollupsAndCompaction() throws Exception {
+    SecurityConfiguration conf = new SecurityConfiguration();
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory() + "/rollups");
+    conf.set("nna.historical.compact.after.days", "0");
+    HSQLDriver driver = new HSQLDriver();
+    driver.startDatabase(conf);
+    driver.rebuildTable("HISTORY");
+
+    // Four reports a day, 6 hours apart, over 3 days ending yesterday plus one today.
+    long today = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    long hour = TimeUnit.HOURS.toMillis(1);
+    try (Connection con = connect(conf);
+        PreparedStatement insert =
+            con.prepareStatement(
+                "INSERT INTO HISTORY (STDATE,SYS_DATE,NUMFILES,USER) VALUES (?,?,?,?)")) {
+      long numFiles = 0L;
+      for (long time = today - 72 * hour; time <= today; time += 6 * hour) {
+        insert.setTimestamp(1, new Timestamp(time + hour));
+        insert.setDate(2, new java.sql.Date(time + hour));
+        insert.setLong(3, numFiles++);
+        insert.setString(4, "hdfs");
+        insert.execute();
+      }
+      con.commit();
+    }
+
+    List<Map<String, Object>> raw = history(driver, "hdfs", null);
+    assertThat(raw.size(), is(13));
+    List<Map<String, Object>> daily = history(driver, "hdfs", "day");
+    assertThat(daily.size(), is(4));
+    assertThat(daily.get(0).get("SAMPLES"), is(4.0));
+    assertThat(numFiles(daily.get(0), "min"), is(0.0));
+    assertThat(numFiles(daily.get(0), "max"), is(3.0));
+    assertThat(numFiles(daily.get(0), "avg"), is(1.5));
+    assertThat(numFiles(daily.get(0), "last"), is(3.0));
+    assertThat(numFiles(daily.get(3), "last"), is(12.0));
+
+    // Everything before today is compacted; daily rollups do not change.
+    assertThat(driver.compactHistory(today), is(12L));
+    assertThat(driver.compactHistory(today), is(0L));
+    assertThat(history(driver, "hdfs", null).size(), is(1));
+    assertThat(history(driver, "hdfs", "day"), is(daily));
+    List<Map<String, Object>> weekly = history(driver, "hdfs", "week");
+    assertThat(weekly.size(), is(greaterThanOrEqualTo(1)));
+    assertThat(
+        weekly.stream().mapToDouble(bucket -> (double) bucket.get("SAMPLES")).sum(), is(13.0));
+    driver.dropConnection();
+  }
+
+  @Test
+  public void testRollupSumsDoNotOverflow() throws Exception {
+    SecurityConfiguration conf = new SecurityConfiguration();
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory() + "/rollupsums");
+    HSQLDriver driver = new HSQLDriver();
+    driver.startDatabase(conf);
+    driver.rebuildTable("HISTORY");
+    long diskspace = Long.MAX_VALUE / 2;
+    long today = LocalDate.now().atStartOfDay(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    long hour = TimeUnit.HOURS.toMillis(1);
+    try (Connection con = connect(conf)) {
+      // Rollup tables created by older versions have BIGINT sums.
+      try (PreparedStatement alter =
+          con.prepareStatement(
+              "ALTER TABLE HISTORY_ROLLUP ALTER COLUMN SUM_DISKSPACE SET DATA TYPE BIGINT")) {
+        alter.execute();
+      }
+      try (PreparedStatement insert =
+          con.prepareStatement(
+              "INSERT INTO HISTORY (STDATE,SYS_DATE,DISKSPACE,USER) VALUES (?,?,?,?)")) {
+        for (long time = today - 24 * hour; time < today; time += 6 * hour) {
+          insert.setTimestamp(1, new Timestamp(time + hour));
+          insert.setDate(2, new java.sql.Date(time + hour));
+          insert.setLong(3, diskspace);
+          insert.setString(4, "hdfs");
+          insert.execute();
+        }
+      }
+      con.commit();
+    }
+    driver.createTable();
+
+    assertThat(driver.compactHistory(today), is(4L));
+    List<Map<String, Object>> daily = history(driver, "hdfs", "day");
+    assertThat(daily.size(), is(1));
+    @SuppressWarnings("unchecked")
+    Map<String, Object> rollup = (Map<String, Object>) daily.get(0).get("DISKSPACE");
+    assertThat(rollup.get("avg"), is((double) diskspace));
+    driver.dropConnection();
+  }
+
+  @Test(timeout = 60000)
+  public void testReadsDoNotWaitForWrites() throws Exception {
+    SecurityConfiguration conf = new SecurityConfiguration();
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory() + "/mvcc");
+    conf.set("nna.historical.read.connections", "1");
+    HSQLDriver driver = new HSQLDriver();
+    driver.startDatabase(conf);
+    driver.rebuildTable("HISTORY");
+    driver.logHistoryPerUserAsync(
+        Collections.singletonMap("numFiles", 1L), Collections.emptyMap(), Collections.emptySet());
+    while (driver.getWrittenReports() < 1) {
+      Thread.sleep(10L);
+    }
+
+    try (Connection con = connect(conf);
+        PreparedStatement insert =
+            con.prepareStatement(
+                "INSERT INTO HISTORY (STDATE,SYS_DATE,NUMFILES,USER) VALUES (NOW(),NOW(),2,'')")) {
+      con.setAutoCommit(false);
+      insert.execute();
+      // The open write transaction neither blocks nor leaks into reads.
+      for (int i = 0; i < 3; i++) {
+        assertThat(history(driver, "", null).size(), is(1));
+      }
+      con.commit();
+    }
+    assertThat(history(driver, "", null).size(), is(2));
+    driver.dropConnection();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static double numFiles(Map<String, Object> bucket, String aggregate) {
+    return (double) ((Map<String, Object>) bucket.get("NUMFILES")).get(aggregate);
+  }
+
+  @SuppressWarnings("unchecked")
+  private static List<Map<String, Object>> history(HSQLDriver driver, String user, String rollup)
+      throws Exception {
+    StringWriter writer = new StringWriter();
+    driver.writeHistory(null, null, user, rollup, () -> writer);
+    return new Gson().fromJson(writer.toString(), List.class);
+  }
+
+  private static Connection connect(SecurityConfiguration conf) throws SQLException {
+    return DriverManager.getConnection(
+        "jdbc:hsqldb:file:" + conf.getBaseDir() + "/db/db",
+        conf.getHistoricalUsername(),
+        conf.getHistoricalPassword());
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodePathWriter;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.hdfs.server.namenode.NNAConstants.PATH_OUTPUT;
+import org.apache.hadoop.util.GSet;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * NNA writes INode paths from name bytes, re-using the prefix shared with the previous path, as
+ * plain text or front-coded.
+ */
+public class TestINodePathWriter {
+
+  private static GSet<INode, INodeWithAdditionalFields> gset;
+
+  @BeforeClass
+  public static void beforeClass() {
+    GSetGenerator gSetGenerator = new GSetGenerator();
+    gSetGenerator.clear();
+    gset = gSetGenerator.getGSet((short) 3, 5, 20);
+  }
+
+  @Test
+  public void testWritesFullPaths() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    List<String> expected = writeAll(out, PATH_OUTPUT.text);
+    String[] written = new String(out.toByteArray(), StandardCharsets.UTF_8).split("\n");
+    assertThat(Arrays.asList(written), is(expected));
+  }
+
+  @Test
+  public void testWritesFrontCodedPaths() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    List<String> expected = writeAll(out, PATH_OUTPUT.frontCoded);
+    assertThat(expected.size() > INodePathWriter.FRONT_CODED_BLOCK_SIZE, is(true));
+    assertThat(
+        FrontCodedPathDecoder.decode(new ByteArrayInputStream(out.toByteArray())), is(expected));
+
+    out.reset();
+    new INodePathWriter(out, 7, PATH_OUTPUT.frontCoded).close();
+    assertThat(
+        FrontCodedPathDecoder.decode(new ByteArrayInputStream(out.toByteArray())).size(), is(0));
+  }
+
+  @Test
+  public void testFrontCodingShrinksSortedPaths() throws IOException {
+    List<INode> sorted = new ArrayList<>();
+    gset.forEach(sorted::add);
+    sorted.sort(Comparator.comparing(INode::getFullPathName));
+    ByteArrayOutputStream text = new ByteArrayOutputStream();
+    ByteArrayOutputStream frontCoded = new ByteArrayOutputStream();
+    try (INodePathWriter textWriter = new INodePathWriter(text, 4096, PATH_OUTPUT.text);
+        INodePathWriter frontCodedWriter =
+            new INodePathWriter(frontCoded, 4096, PATH_OUTPUT.frontCoded)) {
+      for (INode node : sorted) {
+        textWriter.write(node);
+        frontCodedWriter.write(node);
+      }
+    }
+    assertThat(frontCoded.size() * 2 < text.size(), is(true));
+  }
+
+  private static List<String> writeAll(ByteArrayOutputStream out, PATH_OUTPUT format)
+      throws IOException {
+    List<String> expected = new ArrayList<>();
+    // A tiny buffer makes paths span several flushes.
+    try (INodePathWriter writer = new INodePathWriter(out, 7, format)) {
+      for (INode node : gset) {
+        expected.add(node.getFullPathName());
+        writer.write(node);
+      }
+      // Going back up and down the tree only rebuilds what changed.
+      for (INode node : gset) {
+        INode parent = node.getParent();
+        if (parent != null) {
+          expected.add(parent.getFullPathName());
+          writer.write(parent);
+          expected.add(parent.getFullPathName() + "/other");
+          writer.write((parent.getFullPathName() + "/other").getBytes(StandardCharsets.UTF_8));
+        }
+      }
+      assertThat(writer.getWritten(), is((long) expected.size()));
+    }
+    return expected;
+  }
+}
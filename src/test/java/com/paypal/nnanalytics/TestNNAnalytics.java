@@ -23,25 +23,38 @@ import static org.apache.hadoop.hdfs.server.namenode.NNAConstants.UNSECURED_ENDP
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
 import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
 import static org.hamcrest.core.StringContains.containsString;
+import static org.hamcrest.core.StringStartsWith.startsWith;
 import static org.junit.Assert.fail;
 
 import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.reflect.TypeToken;
 import com.google.gson.stream.JsonReader;
 import com.paypal.namenode.NNAnalyticsRestAPI;
 import com.paypal.security.SecurityConfiguration;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
 import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
@@ -49,12 +62,14 @@ import org.apache.hadoop.hdfs.server.namenode.INode;
 import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
 import org.apache.hadoop.hdfs.server.namenode.NNAConstants.ENDPOINT;
 import org.apache.hadoop.hdfs.server.namenode.NNLoader;
+import org.apache.hadoop.hdfs.server.namenode.cache.PredicateCache;
 import org.apache.hadoop.util.GSet;
 import org.apache.http.HttpHost;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
 import org.junit.AfterClass;
 import org.junit.Before;
@@ -163,6 +178,24 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testTimeSeries() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/timeseries?metric=numFilesUsers&user=hdfs");
+    HttpResponse res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(IOUtils.toString(res.getEntity().getContent()), startsWith("["));
+  }
+
+  @Test
+  public void testTimeSeriesNoMetric() throws IOException {
+    HttpGet get = new HttpGet("http://localhost:4567/timeseries?user=hdfs");
+    HttpResponse res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(500));
+    assertThat(
+        IOUtils.toString(res.getEntity().getContent()),
+        containsString("Metric parameter 'metric' not defined."));
+  }
+
   @Test
   public void testDirectories() throws IOException {
     HttpGet get = new HttpGet("http://localhost:4567/directories");
@@ -200,6 +233,15 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testGetINodeByPath() {
+    NNLoader loader = nna.getLoader();
+    INode file = loader.getINodeSet("files").iterator().next();
+    assertThat(loader.getINode(file.getFullPathName()) == file, is(true));
+    assertThat(loader.getINode(file.getFullPathName() + "/missing"), is(nullValue()));
+    assertThat(loader.getINode("/") == loader.getRoot(), is(true));
+  }
+
   @Test
   public void testDsQuotas() throws IOException {
     HttpGet get = new HttpGet("http://localhost:4567/quotas?sum=dsQuotaRatioUsed");
@@ -429,6 +471,70 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testFilterDumpUnsortedAndGzip() throws IOException {
+    String query = "http://localhost:4567/filter?set=files&filters=fileSize:gte:0";
+    HttpResponse res = client.execute(hostPort, new HttpGet(query));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(res.getFirstHeader("Content-Encoding"), is(nullValue()));
+    List<String> sorted = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(sorted.size(), is(not(0)));
+    List<String> expected = new ArrayList<>(sorted);
+    Collections.sort(expected);
+    assertThat(sorted, is(expected));
+
+    res = client.execute(hostPort, new HttpGet(query + "&sorted=false"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    List<String> unsorted = IOUtils.readLines(res.getEntity().getContent());
+    Collections.sort(unsorted);
+    assertThat(unsorted, is(expected));
+
+    HttpGet get = new HttpGet(query);
+    get.addHeader("Accept-Encoding", "gzip");
+    res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(res.getFirstHeader("Content-Encoding").getValue(), is("gzip"));
+    List<String> gzipped = IOUtils.readLines(new GZIPInputStream(res.getEntity().getContent()));
+    assertThat(gzipped, is(sorted));
+  }
+
+  @Test
+  public void testFilterDumpInPathOrder() throws IOException {
+    HttpResponse res =
+        client.execute(hostPort, new HttpGet("http://localhost:4567/filter?set=all"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    List<String> all = IOUtils.readLines(res.getEntity().getContent());
+    assertThat(all.size(), is(GSetGenerator.TOTAL_MADE.apply(null).intValue()));
+    assertThat(all.get(0), is("/"));
+    List<String> expected = new ArrayList<>(all);
+    Collections.sort(expected);
+    assertThat(all, is(expected));
+
+    res = client.execute(hostPort, new HttpGet("http://localhost:4567/filter?set=all&limit=25"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(IOUtils.readLines(res.getEntity().getContent()), is(all.subList(0, 25)));
+  }
+
+  @Test
+  public void testFilterDumpFrontCoded() throws IOException {
+    String query = "http://localhost:4567/filter?set=files&filters=fileSize:gte:0";
+    HttpResponse res = client.execute(hostPort, new HttpGet(query));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    byte[] text = IOUtils.toByteArray(res.getEntity().getContent());
+
+    res = client.execute(hostPort, new HttpGet(query + "&pathOutput=frontCoded"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(res.getFirstHeader("Content-Type").getValue(), is("application/octet-stream"));
+    byte[] frontCoded = IOUtils.toByteArray(res.getEntity().getContent());
+    assertThat(
+        FrontCodedPathDecoder.decode(new ByteArrayInputStream(frontCoded)),
+        is(IOUtils.readLines(new ByteArrayInputStream(text))));
+    assertThat(frontCoded.length * 2 < text.length, is(true));
+
+    res = client.execute(hostPort, new HttpGet(query + "&pathOutput=binary"));
+    assertThat(res.getStatusLine().getStatusCode(), is(500));
+  }
+
   @Test
   public void testDepthFilter() throws IOException {
     HttpGet get = new HttpGet("http://localhost:4567/filter?set=all&filters=depth:gte:2&sum=count");
@@ -485,6 +591,223 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  @Test
+  public void testHistogramTopAndBottomAreOrderedSlices() throws IOException {
+    String url =
+        "http://localhost:4567/histogram?set=files&type=parentDir&parentDirDepth=3&histogramOutput=json";
+    Map<String, Long> full = getJsonHistogram(url);
+    assertThat(full.size() > 5, is(true));
+    List<Long> values = new ArrayList<>(full.values());
+    values.sort(Collections.reverseOrder());
+
+    Map<String, Long> top = getJsonHistogram(url + "&top=5");
+    assertThat(new ArrayList<>(top.values()), is(values.subList(0, 5)));
+    Collections.reverse(values);
+    Map<String, Long> bottom = getJsonHistogram(url + "&bottom=5");
+    assertThat(new ArrayList<>(bottom.values()), is(values.subList(0, 5)));
+    for (Map.Entry<String, Long> entry : top.entrySet()) {
+      assertThat(full.get(entry.getKey()), is(entry.getValue()));
+    }
+  }
+
+  @Test
+  public void testTopAndBottomIssuesAreRanked() throws IOException {
+    for (String endpoint : new String[] {"top", "bottom"}) {
+      HttpGet get = new HttpGet("http://localhost:4567/" + endpoint + "?limit=3");
+      HttpResponse res = client.execute(hostPort, get);
+      assertThat(res.getStatusLine().getStatusCode(), is(200));
+      JsonObject issues =
+          new Gson().fromJson(IOUtils.toString(res.getEntity().getContent()), JsonObject.class);
+      assertThat(issues.entrySet().size(), is(13));
+      for (Map.Entry<String, JsonElement> issue : issues.entrySet()) {
+        Set<Map.Entry<String, JsonElement>> ranked = issue.getValue().getAsJsonObject().entrySet();
+        assertThat(ranked.size() <= 3, is(true));
+        Long previous = null;
+        for (Map.Entry<String, JsonElement> entry : ranked) {
+          long value = entry.getValue().getAsLong();
+          if (previous != null) {
+            assertThat(endpoint.equals("top") ? value <= previous : value >= previous, is(true));
+          }
+          previous = value;
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testCachedFiltersMatchUncachedFilters() throws IOException {
+    String[] queries = {
+      "filters=fileSize:gt:0,modTime:gte:0",
+      "filters=modTime:gte:0,fileSize:gt:0",
+      "filters=modTime:gte:0,fileSize:gt:0,accessTime:gte:0"
+    };
+    PredicateCache cache = nna.getLoader().getQueryEngine().getPredicateCache();
+    assertThat(cache, is(not(nullValue())));
+    Long expected = null;
+    for (int i = 0; i < queries.length; i++) {
+      long hits = cache.getHits();
+      long misses = cache.getMisses();
+      HttpGet get = new HttpGet("http://localhost:4567/filter?set=files&sum=count&" + queries[i]);
+      HttpResponse res = client.execute(hostPort, get);
+      assertThat(res.getStatusLine().getStatusCode(), is(200));
+      List<String> text = IOUtils.readLines(res.getEntity().getContent());
+      assertThat(text.size(), is(1));
+      long count = Long.parseLong(text.get(0));
+      if (expected == null) {
+        expected = count;
+      }
+      assertThat(count, is(expected));
+      if (i == 1) {
+        // Same filters as the first query in another order; both come from the cache.
+        assertThat(cache.getHits(), is(hits + 2));
+        assertThat(cache.getMisses(), is(misses));
+      }
+    }
+    assertThat(expected, is(not(0L)));
+  }
+
+  @Test
+  public void testConcurrentIdenticalHistograms() throws Exception {
+    String url =
+        "http://localhost:4567/histogram?set=files&type=user&sum=diskspaceConsumed&histogramOutput=csv";
+    ExecutorService executor = Executors.newFixedThreadPool(5);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 5; i++) {
+        results.add(
+            executor.submit(
+                () -> {
+                  HttpResponse res = new DefaultHttpClient().execute(hostPort, new HttpGet(url));
+                  assertThat(res.getStatusLine().getStatusCode(), is(200));
+                  return IOUtils.toString(res.getEntity().getContent());
+                }));
+      }
+      String expected = results.get(0).get();
+      for (Future<String> result : results) {
+        assertThat(result.get(), is(expected));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    HttpResponse res = client.execute(hostPort, new HttpGet("http://localhost:4567/info"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(IOUtils.toString(res.getEntity().getContent()), containsString("coalesced queries"));
+  }
+
+  @Test
+  public void testConcurrentSharedScanSums() throws Exception {
+    HttpResponse res =
+        client.execute(hostPort, new HttpGet("http://localhost:4567/filter?set=files&sum=count"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    long fileCount = Long.parseLong(IOUtils.toString(res.getEntity().getContent()).trim());
+    assertThat(fileCount, is(not(0L)));
+
+    String[] urls = {
+      "http://localhost:4567/filter?set=files&filters=fileSize:gte:0&sum=count",
+      "http://localhost:4567/filter?set=files&filters=modTime:gte:0&sum=count,fileSize",
+      "http://localhost:4567/divide?set1=files&filters1=fileSize:gte:0&set2=files"
+    };
+    ExecutorService executor = Executors.newFixedThreadPool(9);
+    try {
+      List<Future<String>> results = new ArrayList<>();
+      for (int i = 0; i < 9; i++) {
+        String url = urls[i % urls.length];
+        results.add(
+            executor.submit(
+                () -> {
+                  HttpResponse resp = new DefaultHttpClient().execute(hostPort, new HttpGet(url));
+                  assertThat(resp.getStatusLine().getStatusCode(), is(200));
+                  return IOUtils.toString(resp.getEntity().getContent());
+                }));
+      }
+      for (int i = 0; i < results.size(); i++) {
+        assertThat(results.get(i).get(), is(results.get(i % urls.length).get()));
+      }
+      assertThat(Long.parseLong(results.get(0).get().trim()), is(fileCount));
+      assertThat(results.get(1).get().split("\n")[0], is(String.valueOf(fileCount)));
+      assertThat(Float.parseFloat(results.get(2).get().trim()), is(1.0f));
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testBatchQueries() throws IOException {
+    HttpResponse res =
+        client.execute(
+            hostPort,
+            new HttpGet("http://localhost:4567/filter?set=files&filters=fileSize:gt:0&sum=count"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    long expectedCount = Long.parseLong(IOUtils.toString(res.getEntity().getContent()).trim());
+
+    String body =
+        "["
+            + "{\"id\":\"count\",\"query\":\"filter\",\"set\":\"files\","
+            + "\"filters\":\"fileSize:gt:0\",\"sum\":\"count,fileSize\"},"
+            + "{\"id\":\"users\",\"query\":\"histogram\",\"set\":\"files\","
+            + "\"filters\":\"fileSize:gt:0\",\"type\":\"user\"},"
+            + "{\"id\":\"bad\",\"query\":\"histogram\",\"set\":\"files\",\"type\":\"nope\"},"
+            + "{\"id\":\"ratio\",\"query\":\"divide\",\"set\":\"files\","
+            + "\"filters\":\"fileSize:gt:0\",\"set2\":\"files\",\"filters2\":\"fileSize:gt:0\"}"
+            + "]";
+    HttpPost post = new HttpPost("http://localhost:4567/batch");
+    post.setEntity(new StringEntity(body));
+    res = client.execute(hostPort, post);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    JsonObject result =
+        new Gson().fromJson(IOUtils.toString(res.getEntity().getContent()), JsonObject.class);
+    JsonArray results = result.getAsJsonArray("results");
+    assertThat(results.size(), is(4));
+
+    JsonObject count = results.get(0).getAsJsonObject();
+    assertThat(count.get("id").getAsString(), is("count"));
+    assertThat(count.getAsJsonObject("result").get("count").getAsLong(), is(expectedCount));
+    assertThat(count.getAsJsonObject("result").has("fileSize"), is(true));
+
+    long userTotal = 0;
+    for (Map.Entry<String, JsonElement> entry :
+        results.get(1).getAsJsonObject().getAsJsonObject("result").entrySet()) {
+      userTotal += entry.getValue().getAsLong();
+    }
+    assertThat(userTotal, is(expectedCount));
+
+    assertThat(results.get(2).getAsJsonObject().has("error"), is(true));
+    assertThat(results.get(3).getAsJsonObject().get("result").getAsFloat(), is(1.0f));
+  }
+
+  @Test
+  public void testHistogram2MatchesSingleHistograms() throws IOException {
+    String[] columns = {"sum=count", "sum=fileSize", "find=max:fileSize", "find=avg:fileSize"};
+    HttpResponse res =
+        client.execute(
+            hostPort,
+            new HttpGet(
+                "http://localhost:4567/histogram2?set=files&type=user&histogramOutput=json"
+                    + "&sum=count,fileSize&find=max:fileSize,avg:fileSize"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    JsonObject merged =
+        new Gson().fromJson(IOUtils.toString(res.getEntity().getContent()), JsonObject.class);
+    assertThat(merged.entrySet().isEmpty(), is(false));
+
+    for (int i = 0; i < columns.length; i++) {
+      res =
+          client.execute(
+              hostPort,
+              new HttpGet(
+                  "http://localhost:4567/histogram?set=files&type=user&histogramOutput=json&"
+                      + columns[i]));
+      assertThat(res.getStatusLine().getStatusCode(), is(200));
+      JsonObject single =
+          new Gson().fromJson(IOUtils.toString(res.getEntity().getContent()), JsonObject.class);
+      assertThat(single.entrySet().size(), is(merged.entrySet().size()));
+      for (Map.Entry<String, JsonElement> entry : single.entrySet()) {
+        JsonArray mergedColumns = merged.getAsJsonArray(entry.getKey());
+        assertThat(mergedColumns.get(i).getAsLong(), is(entry.getValue().getAsLong()));
+      }
+    }
+  }
+
   @Test
   public void testAccessTimeHistogram2WithCountAndDs() throws IOException {
     HttpGet get =
@@ -947,6 +1270,15 @@ public class TestNNAnalytics {
     assertThat(res.getStatusLine().getStatusCode(), is(200));
   }
 
+  private Map<String, Long> getJsonHistogram(String url) throws IOException {
+    HttpResponse res = client.execute(hostPort, new HttpGet(url));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    return new Gson()
+        .fromJson(
+            IOUtils.toString(res.getEntity().getContent()),
+            new TypeToken<LinkedHashMap<String, Long>>() {}.getType());
+  }
+
   private static JsonArray getJsonDataArray(JsonObject json) {
     JsonArray datasets = json.getAsJsonArray("datasets");
     for (JsonElement next : datasets) {
@@ -0,0 +1,202 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNot.not;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.hamcrest.core.StringContains.containsString;
+import static org.junit.Assert.assertThat;
+
+import com.paypal.security.SecurityConfiguration;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.hdfs.server.namenode.operations.BaseOperation;
+import org.apache.hadoop.hdfs.server.namenode.operations.Delete;
+import org.apache.hadoop.hdfs.server.namenode.operations.FailingDelete;
+import org.apache.hadoop.hdfs.server.namenode.operations.OperationExecutor;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** NNA persists submitted operations and resumes them from their last checkpoint after restart. */
+public class TestOperationExecutor {
+
+  private File logBaseDir;
+  private SecurityConfiguration conf;
+
+  @Before
+  public void before() throws Exception {
+    logBaseDir = Files.createTempDirectory("nna-operations").toFile();
+    conf = new SecurityConfiguration();
+    conf.set("nna.operations.workers", "2");
+  }
+
+  @After
+  public void after() throws Exception {
+    FileUtils.deleteDirectory(logBaseDir);
+  }
+
+  @Test(timeout = 60000)
+  public void testSuspendOnFailedRpc() throws Exception {
+    List<INode> files = files();
+    String dir = logBaseDir.getAbsolutePath();
+
+    OperationExecutor executor = new OperationExecutor();
+    executor.start(conf);
+    FailingDelete delete = new FailingDelete(files, dir, 10L);
+    String identity = delete.identity();
+    executor.submit(delete, 0);
+    while (executor.get(identity) != null) {
+      Thread.sleep(10L);
+    }
+    assertThat(delete.upNext(), is("SUSPENDED"));
+    assertThat(delete.numPerformed() < files.size(), is(true));
+    assertThat(new File(dir, identity + ".opWork").exists(), is(true));
+    executor.shutdown();
+
+    // The failed entry is redone on resume.
+    OperationExecutor restarted = new OperationExecutor();
+    restarted.start(conf);
+    assertThat(restarted.resume(dir, () -> null, namespace(files)::get), is(1));
+    BaseOperation resumed = restarted.get(identity);
+    while (restarted.get(identity) != null) {
+      Thread.sleep(10L);
+    }
+    assertThat(resumed.numPerformed(), is(files.size()));
+    assertThat(new File(dir, identity + ".opWork").exists(), is(false));
+    restarted.shutdown();
+  }
+
+  @Test(timeout = 60000)
+  public void testResumeAfterShutdown() throws Exception {
+    List<INode> files = files();
+    String dir = logBaseDir.getAbsolutePath();
+
+    OperationExecutor executor = new OperationExecutor();
+    executor.start(conf);
+    Delete delete = new Delete(files, "query", "owner", dir, null);
+    String identity = delete.identity();
+    executor.submit(delete, 20);
+    while (delete.numPerformed() < 10) {
+      Thread.sleep(10L);
+    }
+    executor.shutdown();
+    assertThat(delete.upNext(), is("SUSPENDED"));
+    assertThat(new File(dir, identity + ".opWork").exists(), is(true));
+
+    OperationExecutor restarted = new OperationExecutor();
+    restarted.start(conf);
+    assertThat(restarted.resume(dir, () -> null, namespace(files)::get), is(1));
+    BaseOperation resumed = restarted.get(identity);
+    assertThat(resumed.totalToPerform(), is(files.size()));
+    while (restarted.get(identity) != null) {
+      Thread.sleep(10L);
+    }
+    assertThat(resumed.numPerformed(), is(files.size()));
+    assertThat(resumed.lastPerformed(5).size(), is(5));
+    assertThat(new File(dir, identity + ".opWork").exists(), is(false));
+    assertThat(new File(dir, identity + ".opCheckpoint").exists(), is(false));
+    String log =
+        new String(
+            Files.readAllBytes(new File(dir, identity + ".opLog").toPath()),
+            StandardCharsets.UTF_8);
+    assertThat(log, containsString("SUSPENDED."));
+    // Everything buffered was committed before suspending and when done.
+    for (INode file : files) {
+      assertThat(log, containsString("SUCCESS |  " + file.getFullPathName() + " | FILE\n"));
+    }
+    assertThat(log, containsString("Resuming log for operation with identity: " + identity));
+    assertThat(restarted.resume(dir, () -> null, namespace(files)::get), is(0));
+    assertThat(restarted.get(identity), is(nullValue()));
+    restarted.shutdown();
+  }
+
+  @Test(timeout = 60000)
+  public void testResumeSkipsReplacedPaths() throws Exception {
+    List<INode> files = files();
+    String dir = logBaseDir.getAbsolutePath();
+
+    OperationExecutor executor = new OperationExecutor();
+    executor.start(conf);
+    Delete delete = new Delete(files, "query", "owner", dir, null);
+    String identity = delete.identity();
+    executor.submit(delete, 20);
+    while (delete.numPerformed() < 10) {
+      Thread.sleep(10L);
+    }
+    executor.shutdown();
+
+    // A path still to do now holds another INode, as if it was deleted and created again.
+    List<String> performed = delete.lastPerformed(files.size());
+    INode replaced =
+        files.stream().filter(file -> !performed.contains(file.getFullPathName())).findAny().get();
+    INode other = files.stream().filter(file -> file != replaced).findAny().get();
+    Map<String, INode> namespace = namespace(files);
+    namespace.put(replaced.getFullPathName(), other);
+
+    OperationExecutor restarted = new OperationExecutor();
+    restarted.start(conf);
+    assertThat(restarted.resume(dir, () -> null, namespace::get), is(1));
+    BaseOperation resumed = restarted.get(identity);
+    while (restarted.get(identity) != null) {
+      Thread.sleep(10L);
+    }
+    assertThat(resumed.numPerformed(), is(files.size() - 1));
+    assertThat(resumed.numSkipped(), is(1));
+    String log =
+        new String(
+            Files.readAllBytes(new File(dir, identity + ".opLog").toPath()),
+            StandardCharsets.UTF_8);
+    assertThat(log, not(containsString(" " + replaced.getFullPathName() + " |")));
+    restarted.shutdown();
+  }
+
+  private static Map<String, INode> namespace(List<INode> files) {
+    Map<String, INode> namespace = new HashMap<>();
+    for (INode file : files) {
+      namespace.put(file.getFullPathName(), file);
+    }
+    return namespace;
+  }
+
+  private static List<INode> files() {
+    GSetGenerator gSetGenerator = new GSetGenerator();
+    gSetGenerator.clear();
+    List<INode> files = new ArrayList<>();
+    for (INodeWithAdditionalFields inode : gSetGenerator.getGSet((short) 1, 2, 100)) {
+      // Every other file, so no directory is collapsed into a recursive delete.
+      if (inode.isFile() && inode.getId() % 2 == 0) {
+        files.add(inode);
+      }
+    }
+    return files;
+  }
+}
@@ -21,10 +21,12 @@ package com.paypal.nnanalytics;
 
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.StringContains.containsString;
 
 import com.paypal.namenode.NNAnalyticsRestAPI;
 import com.paypal.security.SecurityConfiguration;
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import org.apache.commons.io.IOUtils;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
@@ -145,6 +147,72 @@ public class TestOperations {
     assertThat(statusCode, is(400));
   }
 
+  @Test
+  public void testDryRunCollapsesDirectories() throws IOException {
+    HttpGet get =
+        new HttpGet("http://localhost:4567/submitOperation?set=files&operation=delete&dryRun=true");
+    HttpResponse res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    String plan = IOUtils.readLines(res.getEntity().getContent()).get(0);
+    // Only files are targeted, so no directory may be deleted recursively.
+    assertThat(plan, containsString(", recursive RPCs: 0, RPCs saved: 0"));
+
+    client = new DefaultHttpClient();
+    get = new HttpGet("http://localhost:4567/submitOperation?set=all&operation=delete&dryRun=true");
+    res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    plan = IOUtils.readLines(res.getEntity().getContent()).get(0);
+    // Every directory and file is targeted, so each top level directory is deleted with one
+    // recursive RPC; the root is never collapsed.
+    assertThat(plan, containsString(", RPCs: 11, recursive RPCs: 10, "));
+
+    client = new DefaultHttpClient();
+    get =
+        new HttpGet(
+            "http://localhost:4567/submitOperation?set=files&filters=fileSize:eq:0&operation=delete&dryRun=true");
+    res = client.execute(hostPort, get);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    plan = IOUtils.readLines(res.getEntity().getContent()).get(0);
+    assertThat(plan, containsString("recursive RPCs: 0, RPCs saved: 0"));
+  }
+
+  @Test(timeout = 10000)
+  public void testWorkList() throws IOException {
+    HttpGet post =
+        new HttpGet(
+            "http://localhost:4567/submitOperation?set=files&filters=fileSize:eq:0&sleep=1000&operation=setReplication:1");
+    HttpResponse res = client.execute(hostPort, post);
+    String setRepID = IOUtils.readLines(res.getEntity().getContent()).get(0);
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+
+    client = new DefaultHttpClient();
+    String workList =
+        "http://localhost:4567/listOperations?identity=" + setRepID + "&workList=true";
+    res = client.execute(hostPort, new HttpGet(workList));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    List<String> paths = IOUtils.readLines(res.getEntity().getContent());
+
+    client = new DefaultHttpClient();
+    res = client.execute(hostPort, new HttpGet(workList + "&pathOutput=frontCoded"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    assertThat(FrontCodedPathDecoder.decode(res.getEntity().getContent()), is(paths));
+
+    client = new DefaultHttpClient();
+    res =
+        client.execute(
+            hostPort, new HttpGet("http://localhost:4567/filter?set=files&filters=fileSize:eq:0"));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+    List<String> expected = IOUtils.readLines(res.getEntity().getContent());
+    Collections.sort(expected);
+    assertThat(paths, is(expected));
+
+    client = new DefaultHttpClient();
+    res =
+        client.execute(
+            hostPort, new HttpGet("http://localhost:4567/abortOperation?identity=" + setRepID));
+    assertThat(res.getStatusLine().getStatusCode(), is(200));
+  }
+
   @Test
   public void testGetNonExistantDelete() throws IOException, InterruptedException {
     HttpGet get = new HttpGet("http://localhost:4567/abortOperation?identity=FAKEID");
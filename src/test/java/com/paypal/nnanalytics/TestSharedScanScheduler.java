@@ -0,0 +1,96 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.hdfs.server.namenode.SharedScanScheduler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/** NNA shares scans between concurrent queries and lets late queries wrap around. */
+public class TestSharedScanScheduler {
+
+  private final Map<INode, INode> files = new ConcurrentHashMap<>();
+  private SharedScanScheduler scheduler;
+
+  @Before
+  public void before() {
+    GSetGenerator gSetGenerator = new GSetGenerator();
+    gSetGenerator.clear();
+    for (INodeWithAdditionalFields inode : gSetGenerator.getGSet((short) 3, 10, 500)) {
+      if (inode.isFile()) {
+        files.put(inode, inode);
+      }
+    }
+    scheduler = new SharedScanScheduler(set -> files.keySet(), null, 0L);
+  }
+
+  @After
+  public void after() {
+    scheduler.shutdown();
+  }
+
+  @Test(timeout = 60000)
+  public void testLateQueryWrapsAround() throws Exception {
+    CountDownLatch attached = new CountDownLatch(1);
+    Map<INode, AtomicInteger> first = new ConcurrentHashMap<>();
+    CompletableFuture<Void> running =
+        scheduler.submit(
+            "files",
+            node -> {
+              try {
+                attached.await();
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              return true;
+            },
+            node -> first.computeIfAbsent(node, k -> new AtomicInteger()).incrementAndGet());
+    // Give the scan time to start, so the second query has to attach to it.
+    Thread.sleep(500L);
+    Map<INode, AtomicInteger> late = new ConcurrentHashMap<>();
+    CompletableFuture<Void> attaching =
+        scheduler.submit(
+            "files",
+            node -> true,
+            node -> late.computeIfAbsent(node, k -> new AtomicInteger()).incrementAndGet());
+    attached.countDown();
+    running.get(30, TimeUnit.SECONDS);
+    attaching.get(30, TimeUnit.SECONDS);
+
+    assertThat(files.size() > 2 * 16384, is(true));
+    assertThat(first.size(), is(files.size()));
+    assertThat(late.size(), is(files.size()));
+    assertThat(first.values().stream().allMatch(count -> count.get() == 1), is(true));
+    assertThat(late.values().stream().allMatch(count -> count.get() == 1), is(true));
+  }
+}
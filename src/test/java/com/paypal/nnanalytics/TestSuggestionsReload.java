@@ -0,0 +1,513 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.core.Is.is;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+import com.paypal.namenode.NNAnalyticsRestAPI;
+import com.paypal.security.SecurityConfiguration;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.apache.hadoop.fs.permission.FsPermission;
+import org.apache.hadoop.fs.permission.PermissionStatus;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.GSetGenerator;
+import org.apache.hadoop.hdfs.server.namenode.GSetGeneratorBase;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+import org.apache.hadoop.hdfs.server.namenode.INodeDirectory;
+import org.apache.hadoop.hdfs.server.namenode.INodeWithAdditionalFields;
+import org.apache.hadoop.hdfs.server.namenode.NNLoader;
+import org.apache.hadoop.hdfs.server.namenode.QueryEngine;
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsEngine;
+import org.apache.hadoop.hdfs.server.namenode.queries.Histograms;
+import org.apache.hadoop.util.GSet;
+import org.apache.hadoop.util.GSetChangeListener;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the single-pass suggestions reload against the original one-query-per-suggestion
+ * computation and reports the time taken by both. Run main() against a larger GSet to benchmark.
+ * Also checks incremental updates from INode changes and their reconciliation by a full reload.
+ */
+public class TestSuggestionsReload {
+
+  private static final Logger LOG = LoggerFactory.getLogger(TestSuggestionsReload.class.getName());
+
+  private static final Type VALUES_TYPE = new TypeToken<Map<String, Long>>() {}.getType();
+  private static final Type QUOTAS_TYPE =
+      new TypeToken<Map<String, Map<String, Long>>>() {}.getType();
+
+  private static NNAnalyticsRestAPI nna;
+
+  @BeforeClass
+  public static void beforeClass() throws Exception {
+    init((short) 3, 10, 100);
+  }
+
+  private static void init(short depth, int numDirsPerDepth, int numFilesPerDir) throws Exception {
+    GSetGenerator gSetGenerator = new GSetGenerator();
+    gSetGenerator.clear();
+    GSet<INode, INodeWithAdditionalFields> gset =
+        gSetGenerator.getGSet(depth, numDirsPerDepth, numFilesPerDir);
+    spreadTimes(gset);
+    nna = new NNAnalyticsRestAPI();
+    SecurityConfiguration conf = new SecurityConfiguration();
+    conf.set("ldap.enable", "false");
+    conf.set("authorization.enable", "false");
+    conf.set("nna.historical", "false");
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory());
+    // Full reloads are issued by the tests themselves.
+    conf.set("nna.suggestions.reload.sleep.ms", String.valueOf(TimeUnit.HOURS.toMillis(1)));
+    nna.init(conf, gset);
+  }
+
+  /**
+   * Spreads INode times over three years and puts every INode half a day away from any day
+   * boundary, so time based suggestions do not flip between the two computations.
+   */
+  private static void spreadTimes(GSet<INode, INodeWithAdditionalFields> gset) {
+    long now = System.currentTimeMillis();
+    for (INodeWithAdditionalFields node : gset) {
+      long days = (node.getId() * 7919L) % (3 * 365);
+      long time = now - TimeUnit.DAYS.toMillis(days) - TimeUnit.HOURS.toMillis(12);
+      node.setModificationTime(time);
+      node.setAccessTime(time);
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    short depth = (args.length > 0) ? Short.parseShort(args[0]) : 4;
+    int numDirsPerDepth = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+    int numFilesPerDir = (args.length > 2) ? Integer.parseInt(args[2]) : 100;
+    init(depth, numDirsPerDepth, numFilesPerDir);
+    try {
+      NNLoader loader = nna.getLoader();
+      for (int i = 0; i < 3; i++) {
+        long perQueryTime = timePerQueryReload(loader);
+        long singlePassTime = timeReload(loader);
+        System.out.println(
+            "Run "
+                + i
+                + ": per-query reload took: "
+                + perQueryTime
+                + " ms; single-pass reload took: "
+                + singlePassTime
+                + " ms.");
+      }
+    } finally {
+      tearDown();
+    }
+    System.exit(0);
+  }
+
+  @AfterClass
+  public static void tearDown() {
+    nna.shutdown();
+  }
+
+  @Test
+  public void testSinglePassReloadMatchesPerQueryReload() throws IOException {
+    NNLoader loader = nna.getLoader();
+    Map<String, Long> expectedValues = new HashMap<>();
+    Map<String, Map<String, Long>> expectedMaps = new HashMap<>();
+    long start = System.currentTimeMillis();
+    Map<String, Map<String, Map<String, Long>>> expectedQuotas = new HashMap<>();
+    perQueryReload(loader, expectedValues, expectedMaps, expectedQuotas);
+    long perQueryTime = System.currentTimeMillis() - start;
+    long singlePassTime = timeReload(loader);
+    LOG.info(
+        "Per-query reload took: {} ms; single-pass reload took: {} ms.",
+        perQueryTime,
+        singlePassTime);
+
+    Gson gson = new Gson();
+    Map<String, Long> values =
+        gson.fromJson(json(loader.getSuggestionsEngine().getSuggestionsAsJson(null)), VALUES_TYPE);
+    for (Map.Entry<String, Long> entry : expectedValues.entrySet()) {
+      assertThat(entry.getKey(), values.get(entry.getKey()), is(entry.getValue()));
+    }
+    for (Map.Entry<String, Map<String, Long>> entry : expectedMaps.entrySet()) {
+      Map<String, Long> map =
+          gson.fromJson(
+              json(loader.getSuggestionsEngine().getUsersAsJson(entry.getKey())), VALUES_TYPE);
+      assertThat(entry.getKey(), map, is(entry.getValue()));
+    }
+    for (Map.Entry<String, Map<String, Map<String, Long>>> entry : expectedQuotas.entrySet()) {
+      Map<String, Map<String, Long>> quotas =
+          gson.fromJson(
+              json(loader.getSuggestionsEngine().getQuotaAsJson(null, entry.getKey())),
+              QUOTAS_TYPE);
+      assertThat(entry.getKey(), quotas, is(entry.getValue()));
+    }
+    assertThat(values.get("oldFiles1yr") > 0L, is(true));
+    assertThat(values.get("nsQuotaCount") > 0L, is(true));
+  }
+
+  @Test
+  public void testIncrementalUpdatesAndReconcile() throws Exception {
+    NNLoader loader = nna.getLoader();
+    SuggestionsEngine engine = loader.getSuggestionsEngine();
+    while (!engine.isLoaded()) {
+      Thread.sleep(100L);
+    }
+    engine.reloadSuggestions(loader);
+    Gson gson = new Gson();
+    Map<String, Long> before = gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+
+    GSet<INode, INodeWithAdditionalFields> scratch = GSetGeneratorBase.getEmptyGSet();
+    long now = System.currentTimeMillis();
+    INodeDirectory dir =
+        new INodeDirectory(
+            GSetGeneratorBase.ID++,
+            "incremental".getBytes(StandardCharsets.UTF_8),
+            new PermissionStatus("hdfs", "hdfs", FsPermission.getDefault()),
+            now);
+    new GSetGenerator().generateFilesForDirectory(scratch, dir, 10);
+    long diskspace = 0L;
+    for (INodeWithAdditionalFields node : scratch) {
+      node.setModificationTime(now);
+      node.setAccessTime(now);
+      diskspace += node.asFile().computeFileSize() * node.asFile().getFileReplication();
+    }
+
+    GSetChangeListener<INodeWithAdditionalFields> listener = engine.getINodeListener();
+    listener.onPut(dir);
+    scratch.forEach(listener::onPut);
+    engine.applyIncrementalUpdates();
+    Map<String, Long> added = gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    assertThat(added.get("numFiles"), is(before.get("numFiles") + 10L));
+    assertThat(added.get("numFiles24h"), is(before.get("numFiles24h") + 10L));
+    assertThat(added.get("numDirs"), is(before.get("numDirs") + 1L));
+    assertThat(added.get("diskspace"), is(before.get("diskspace") + diskspace));
+    assertThat(added.get("diskspace24h"), is(before.get("diskspace24h") + diskspace));
+
+    // Removal has to subtract what was counted, not what the INodes look like by then.
+    for (INodeWithAdditionalFields node : scratch) {
+      node.setModificationTime(0L);
+      node.setAccessTime(0L);
+    }
+    listener.onRemove(dir);
+    scratch.forEach(listener::onRemove);
+    engine.applyIncrementalUpdates();
+    Map<String, Long> removed = gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    removed.remove("reportTime");
+    before.remove("reportTime");
+    assertThat(removed, is(before));
+
+    // The INodes never made it into the loader's sets, so a full reload drops them again.
+    listener.onPut(dir);
+    scratch.forEach(listener::onPut);
+    engine.applyIncrementalUpdates();
+    engine.reloadSuggestions(loader);
+    assertThat(engine.getLastReconcileDrift() > 0L, is(true));
+    Map<String, Long> reconciled =
+        gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    for (String key : Arrays.asList("numFiles", "numFiles24h", "numDirs", "diskspace")) {
+      assertThat(key, reconciled.get(key), is(before.get(key)));
+    }
+  }
+
+  @Test
+  public void testIncrementalRemovalAndModificationOfScannedFiles() throws Exception {
+    NNLoader loader = nna.getLoader();
+    SuggestionsEngine engine = loader.getSuggestionsEngine();
+    while (!engine.isLoaded()) {
+      Thread.sleep(100L);
+    }
+    long now = System.currentTimeMillis();
+    INodeWithAdditionalFields file = null;
+    for (INode node : loader.getINodeSet("files")) {
+      if (node.getModificationTime() < now - TimeUnit.DAYS.toMillis(2)
+          && node.asFile().computeFileSize() > 0L) {
+        file = (INodeWithAdditionalFields) node;
+        break;
+      }
+    }
+    long modTime = file.getModificationTime();
+    long diskspace = file.asFile().computeFileSize() * file.asFile().getFileReplication();
+
+    // A change queued while the scan runs may already be part of its result.
+    GSetChangeListener<INodeWithAdditionalFields> listener = engine.getINodeListener();
+    listener.onPut(file);
+    engine.reloadSuggestions(loader);
+    Gson gson = new Gson();
+    Map<String, Long> before = gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    engine.applyIncrementalUpdates();
+    Map<String, Long> reapplied =
+        gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    reapplied.remove("reportTime");
+    before.remove("reportTime");
+    assertThat(reapplied, is(before));
+
+    // Modified in place, without a change to the INode map.
+    file.setModificationTime(System.currentTimeMillis());
+    engine.applyIncrementalUpdates();
+    Map<String, Long> modified =
+        gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    assertThat(modified.get("numFiles"), is(before.get("numFiles")));
+    assertThat(modified.get("numFiles24h"), is(before.get("numFiles24h") + 1L));
+    assertThat(modified.get("diskspace24h"), is(before.get("diskspace24h") + diskspace));
+
+    // Files counted by the full aggregation outside the last 24 hours are subtracted too.
+    file.setModificationTime(modTime);
+    listener.onRemove(file);
+    engine.applyIncrementalUpdates();
+    Map<String, Long> removed = gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    assertThat(removed.get("numFiles"), is(before.get("numFiles") - 1L));
+    assertThat(removed.get("diskspace"), is(before.get("diskspace") - diskspace));
+    assertThat(removed.get("numFiles24h"), is(before.get("numFiles24h")));
+
+    listener.onPut(file);
+    engine.applyIncrementalUpdates();
+    Map<String, Long> restored =
+        gson.fromJson(json(engine.getSuggestionsAsJson(null)), VALUES_TYPE);
+    restored.remove("reportTime");
+    assertThat(restored, is(before));
+  }
+
+  @Test
+  public void testWatchedDirectoriesMatchPathQueries() throws Exception {
+    NNLoader loader = nna.getLoader();
+    SuggestionsEngine engine = loader.getSuggestionsEngine();
+    QueryEngine queryEngine = loader.getQueryEngine();
+    String[] watched = {"/dir1", "/dir1/dir2", "/dir2/dir3/dir4", "/dir1/missing"};
+    for (String dir : watched) {
+      engine.addDirectoryToAnalysis(dir);
+    }
+    try {
+      engine.reloadSuggestions(loader);
+      Collection<INode> files = loader.getINodeSet("files");
+      Collection<INode> files24h =
+          queryEngine.combinedFilter(files, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
+      Gson gson = new Gson();
+      Map<String, Long> dirCount =
+          gson.fromJson(json(engine.getUsersAsJson("dirCount")), VALUES_TYPE);
+      Map<String, Long> dirDs = gson.fromJson(json(engine.getUsersAsJson("dirDs")), VALUES_TYPE);
+      Map<String, Long> dirCount24h =
+          gson.fromJson(json(engine.getUsersAsJson("dirCount24h")), VALUES_TYPE);
+      Map<String, Long> dirDs24h =
+          gson.fromJson(json(engine.getUsersAsJson("dirDs24h")), VALUES_TYPE);
+      for (String dir : watched) {
+        String[] filter = new String[] {"startsWith:" + dir + "/"};
+        Collection<INode> inodes = queryEngine.combinedFilter(files, new String[] {"path"}, filter);
+        Collection<INode> inodes24h =
+            queryEngine.combinedFilter(files24h, new String[] {"path"}, filter);
+        assertThat(dir, dirCount.get(dir), is((long) inodes.size()));
+        assertThat(dir, dirDs.get(dir), is(queryEngine.sum(inodes, "diskspaceConsumed")));
+        assertThat(dir, dirCount24h.get(dir), is((long) inodes24h.size()));
+        assertThat(dir, dirDs24h.get(dir), is(queryEngine.sum(inodes24h, "diskspaceConsumed")));
+      }
+      assertThat(dirCount.get("/dir1") > dirCount.get("/dir1/dir2"), is(true));
+      assertThat(dirCount.get("/dir1/missing"), is(0L));
+    } finally {
+      for (String dir : watched) {
+        engine.removeDirectoryFromAnalysis(dir);
+      }
+      engine.reloadSuggestions(loader);
+    }
+  }
+
+  private static long timeReload(NNLoader loader) {
+    long start = System.currentTimeMillis();
+    loader.getSuggestionsEngine().reloadSuggestions(loader);
+    return System.currentTimeMillis() - start;
+  }
+
+  private static long timePerQueryReload(NNLoader loader) {
+    long start = System.currentTimeMillis();
+    perQueryReload(loader, new HashMap<>(), new HashMap<>(), new HashMap<>());
+    return System.currentTimeMillis() - start;
+  }
+
+  /** The original suggestions computation, issuing one query per suggestion. */
+  private static void perQueryReload(
+      NNLoader loader,
+      Map<String, Long> values,
+      Map<String, Map<String, Long>> maps,
+      Map<String, Map<String, Map<String, Long>>> quotas) {
+    Collection<INode> files = loader.getINodeSet("files");
+    Collection<INode> dirs = loader.getINodeSet("dirs");
+    QueryEngine queryEngine = loader.getQueryEngine();
+
+    values.put("numFiles", (long) files.size());
+    values.put("numDirs", (long) dirs.size());
+    values.put("diskspace", queryEngine.sum(files, "diskspaceConsumed"));
+    maps.put("modTimeCount", queryEngine.modTimeHistogram(files, "count", null, "monthly"));
+    maps.put(
+        "modTimeDiskspace",
+        queryEngine.modTimeHistogram(files, "diskspaceConsumed", null, "monthly"));
+    maps.put("numFilesUsers", queryEngine.byUserHistogram(files, "count", null));
+    maps.put("numDirsUsers", queryEngine.byUserHistogramCpu(dirs, "count"));
+    maps.put("diskspaceUsers", queryEngine.byUserHistogramCpu(files, "diskspaceConsumed"));
+    maps.put(
+        "dirCount",
+        Histograms.sliceToTop(queryEngine.parentDirHistogramCpu(files, 3, "count"), 1000));
+    maps.put(
+        "dirDs",
+        Histograms.sliceToTop(
+            queryEngine.parentDirHistogramCpu(files, 3, "diskspaceConsumed"), 1000));
+
+    Collection<INode> files24h =
+        queryEngine.combinedFilter(files, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
+    values.put("numFiles24h", (long) files24h.size());
+    values.put("diskspace24h", queryEngine.sum(files24h, "diskspaceConsumed"));
+    maps.put("numFiles24hUsers", queryEngine.byUserHistogramCpu(files24h, "count"));
+    maps.put("diskspace24hUsers", queryEngine.byUserHistogramCpu(files24h, "diskspaceConsumed"));
+    Map<String, Long> dirCount24h = queryEngine.parentDirHistogramCpu(files24h, 3, "count");
+    maps.put("dirCount24h", Histograms.sliceToTop(dirCount24h, 1000));
+    Map<String, Long> dirDs24h =
+        queryEngine.parentDirHistogramCpu(files24h, 3, "diskspaceConsumed");
+    maps.put("dirDs24h", Histograms.sliceToTop(dirDs24h, 1000));
+
+    for (int years = 1; years <= 2; years++) {
+      Collection<INode> oldFiles =
+          queryEngine.combinedFilter(
+              files, new String[] {"accessTime"}, new String[] {"olderThanYears:" + years});
+      values.put("oldFiles" + years + "yr", (long) oldFiles.size());
+      values.put("oldFiles" + years + "yrDs", queryEngine.sum(oldFiles, "diskspaceConsumed"));
+      maps.put("oldFiles" + years + "yrUsers", queryEngine.byUserHistogramCpu(oldFiles, "count"));
+      maps.put(
+          "oldFiles" + years + "yrDsUsers",
+          queryEngine.byUserHistogramCpu(oldFiles, "diskspaceConsumed"));
+    }
+
+    Collection<INode> emptyDirs =
+        queryEngine.combinedFilter(dirs, new String[] {"dirNumChildren"}, new String[] {"eq:0"});
+    perQuerySizeClass(queryEngine, "emptyDirs", emptyDirs, "modTime", false, values, maps);
+    perQuerySizeClass(
+        queryEngine,
+        "emptyFiles",
+        queryEngine.combinedFilter(files, new String[] {"fileSize"}, new String[] {"eq:0"}),
+        "accessTime",
+        false,
+        values,
+        maps);
+    perQuerySizeClass(
+        queryEngine,
+        "tinyFiles",
+        queryEngine.combinedFilter(
+            files, new String[] {"fileSize", "fileSize"}, new String[] {"lte:1024", "gt:0"}),
+        "accessTime",
+        true,
+        values,
+        maps);
+    perQuerySizeClass(
+        queryEngine,
+        "smallFiles",
+        queryEngine.combinedFilter(
+            files, new String[] {"fileSize", "fileSize"}, new String[] {"lte:1048576", "gt:1024"}),
+        "accessTime",
+        true,
+        values,
+        maps);
+    Collection<INode> mediumFiles =
+        queryEngine.combinedFilter(
+            files,
+            new String[] {"fileSize", "fileSize"},
+            new String[] {"lte:134217728", "gt:1048576"});
+    values.put("mediumFiles", (long) mediumFiles.size());
+    maps.put("mediumFilesUsers", queryEngine.byUserHistogramCpu(mediumFiles, "count"));
+    values.put(
+        "largeFiles",
+        values.get("numFiles")
+            - values.get("emptyFiles")
+            - values.get("tinyFiles")
+            - values.get("smallFiles")
+            - values.get("mediumFiles"));
+
+    Set<String> users = new HashSet<>(maps.get("numFilesUsers").keySet());
+    users.addAll(maps.get("numDirsUsers").keySet());
+    for (String sum : new String[] {"nsQuota", "dsQuota"}) {
+      long quotaCount = 0L;
+      long threshCount = 0L;
+      Map<String, Long> quotaCountsUsers = new HashMap<>();
+      Map<String, Long> threshCountsUsers = new HashMap<>();
+      for (String user : users) {
+        Collection<INode> quotaDirs =
+            queryEngine.combinedFilter(
+                dirs, new String[] {"user", "hasQuota"}, new String[] {"eq:" + user, "eq:true"});
+        Map<String, Long> ratios = queryEngine.dirQuotaHistogramCpu(quotaDirs, sum + "RatioUsed");
+        long thresh = ratios.values().stream().filter(v -> v > 85L).count();
+        quotaCount += ratios.size();
+        threshCount += thresh;
+        quotaCountsUsers.put(user, (long) ratios.size());
+        threshCountsUsers.put(user, thresh);
+        quotas.computeIfAbsent(sum + "RatioUsed", k -> new HashMap<>()).put(user, ratios);
+      }
+      values.put(sum + "Count", quotaCount);
+      values.put(sum + "ThreshCount", threshCount);
+      maps.put(sum.substring(0, 2) + "QuotaCountsUsers", quotaCountsUsers);
+      maps.put(sum.substring(0, 2) + "QuotaThreshCountsUsers", threshCountsUsers);
+    }
+  }
+
+  private static void perQuerySizeClass(
+      QueryEngine queryEngine,
+      String name,
+      Collection<INode> inodes,
+      String oldTimeFilter,
+      boolean withDiskspace,
+      Map<String, Long> values,
+      Map<String, Map<String, Long>> maps) {
+    Collection<INode> inodes24h =
+        queryEngine.combinedFilter(inodes, new String[] {"modTime"}, new String[] {"hoursAgo:24"});
+    Collection<INode> inodes1yr =
+        queryEngine.combinedFilter(
+            inodes, new String[] {oldTimeFilter}, new String[] {"olderThanYears:1"});
+    values.put(name, (long) inodes.size());
+    values.put(name + "24h", (long) inodes24h.size());
+    values.put(name + "1yr", (long) inodes1yr.size());
+    values.put(name + "Mem", queryEngine.sum(inodes, "memoryConsumed"));
+    values.put(name + "24hMem", queryEngine.sum(inodes24h, "memoryConsumed"));
+    maps.put(name + "Users", queryEngine.byUserHistogramCpu(inodes, "count"));
+    maps.put(name + "24hUsers", queryEngine.byUserHistogramCpu(inodes24h, "count"));
+    maps.put(name + "1yrUsers", queryEngine.byUserHistogramCpu(inodes1yr, "count"));
+    maps.put(name + "MemUsers", queryEngine.byUserHistogramCpu(inodes, "memoryConsumed"));
+    maps.put(name + "24hMemUsers", queryEngine.byUserHistogramCpu(inodes24h, "memoryConsumed"));
+    if (withDiskspace) {
+      values.put(name + "Ds", queryEngine.sum(inodes, "diskspaceConsumed"));
+      values.put(name + "24hDs", queryEngine.sum(inodes24h, "diskspaceConsumed"));
+      maps.put(name + "DsUsers", queryEngine.byUserHistogramCpu(inodes, "diskspaceConsumed"));
+      maps.put(name + "24hDsUsers", queryEngine.byUserHistogramCpu(inodes24h, "diskspaceConsumed"));
+    }
+  }
+
+  private static String json(Histograms.Output output) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    output.write(out);
+    return new String(out.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
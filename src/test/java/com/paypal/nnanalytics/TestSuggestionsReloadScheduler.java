@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.core.Is.is;
+import static org.hamcrest.core.IsNull.nullValue;
+import static org.junit.Assert.assertThat;
+
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsReloadScheduler;
+import org.apache.hadoop.hdfs.server.namenode.cache.SuggestionsReloadScheduler.Reason;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * NNA schedules full suggestion reloads by the amount of namespace changes within a minimum and
+ * maximum interval, deferring them while many queries are running.
+ */
+public class TestSuggestionsReloadScheduler {
+
+  private static final long MIN_INTERVAL = 1000L;
+  private static final long MAX_INTERVAL = 10000L;
+  private static final int BUSY = 2;
+
+  private SuggestionsReloadScheduler scheduler;
+
+  @Before
+  public void before() {
+    scheduler = new SuggestionsReloadScheduler(MIN_INTERVAL, MAX_INTERVAL, 100L, 50L, BUSY);
+    assertThat(scheduler.nextReload(0L, 0L, 0L, 0), is(Reason.INITIAL));
+    scheduler.reloaded(Reason.INITIAL, 0L, 200L, 0L, 0L);
+  }
+
+  @Test
+  public void testThresholds() {
+    assertThat(scheduler.nextReload(2000L, 99L, 49L, 0), is(nullValue()));
+    assertThat(scheduler.nextReload(500L, 100L, 0L, 0), is(nullValue()));
+    assertThat(scheduler.nextReload(2000L, 100L, 0L, 0), is(Reason.TXID_DELTA));
+    assertThat(scheduler.nextReload(2000L, 0L, 50L, 0), is(Reason.INODE_CHANGES));
+    assertThat(scheduler.nextReload(MAX_INTERVAL, 0L, 0L, 0), is(Reason.MAX_INTERVAL));
+
+    scheduler.reloaded(Reason.TXID_DELTA, 2000L, 2500L, 100L, 0L);
+    assertThat(scheduler.getLastReason(), is(Reason.TXID_DELTA));
+    assertThat(scheduler.getLastReloadDurationMs(), is(500L));
+    assertThat(scheduler.nextReload(4000L, 150L, 0L, 0), is(nullValue()));
+    assertThat(scheduler.nextReload(4000L, 200L, 0L, 0), is(Reason.TXID_DELTA));
+  }
+
+  @Test
+  public void testBackOffUnderLoad() {
+    assertThat(scheduler.nextReload(1000L, 100L, 0L, BUSY), is(nullValue()));
+    assertThat(scheduler.getDeferrals(), is(1L));
+    // The minimum interval doubled to 2 seconds.
+    assertThat(scheduler.nextReload(1500L, 100L, 0L, 0), is(nullValue()));
+    assertThat(scheduler.nextReload(2000L, 100L, 0L, BUSY), is(nullValue()));
+    assertThat(scheduler.nextReload(3000L, 100L, 0L, 0), is(nullValue()));
+    assertThat(scheduler.nextReload(4000L, 100L, 0L, 0), is(Reason.TXID_DELTA));
+    // The maximum interval is never deferred.
+    assertThat(scheduler.nextReload(MAX_INTERVAL, 100L, 0L, BUSY), is(Reason.MAX_INTERVAL));
+
+    scheduler.reloaded(Reason.TXID_DELTA, 4000L, 4100L, 100L, 0L);
+    assertThat(scheduler.nextReload(5000L, 200L, 0L, 0), is(Reason.TXID_DELTA));
+  }
+}
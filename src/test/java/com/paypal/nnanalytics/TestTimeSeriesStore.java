@@ -0,0 +1,212 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.paypal.nnanalytics;
+
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import com.paypal.security.SecurityConfiguration;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.hdfs.server.namenode.cache.TimeSeriesStore;
+import org.junit.Before;
+import org.junit.Test;
+
+/** NNA records every suggestion value over time in segmented, memory-mapped files. */
+public class TestTimeSeriesStore {
+
+  private static final long MINUTE = 60000L;
+
+  private SecurityConfiguration conf;
+
+  @Before
+  public void before() throws IOException {
+    conf = new SecurityConfiguration();
+    conf.set("nna.base.dir", MiniDFSCluster.getBaseDirectory() + "/timeseries");
+    conf.set("nna.timeseries.segment.ms", String.valueOf(10 * MINUTE));
+    FileUtils.deleteDirectory(new File(conf.getBaseDir()));
+  }
+
+  @Test
+  public void testRecordAndQueryAcrossSegments() throws IOException {
+    long start = System.currentTimeMillis() - 60 * MINUTE;
+    TimeSeriesStore store = new TimeSeriesStore();
+    store.start(conf);
+    // One report every 5 minutes; user2 only shows up after 30 minutes.
+    for (int i = 0; i < 12; i++) {
+      Map<String, Long> numFilesUsers = new HashMap<>();
+      numFilesUsers.put("user1", 1000L - i * 7);
+      if (i >= 6) {
+        numFilesUsers.put("user2", (long) i);
+      }
+      Map<String, Map<String, Long>> maps = new HashMap<>();
+      maps.put("numFilesUsers", numFilesUsers);
+      maps.put("dirCount", Collections.singletonMap("/watched", i * 100000L));
+      store.record(start + i * 5 * MINUTE, Collections.singletonMap("numFiles", -5L + i), maps);
+    }
+
+    assertThat(points(store, "numFilesUsers", "user1", 0L, Long.MAX_VALUE).size(), is(12));
+    assertThat(
+        points(store, "numFilesUsers", "user1", start + 20 * MINUTE, start + 30 * MINUTE),
+        is(expected(start, 4, 6, i -> 1000L - i * 7)));
+    assertThat(
+        points(store, "numFilesUsers", "user2", 0L, Long.MAX_VALUE),
+        is(expected(start, 6, 11, i -> (long) i)));
+    assertThat(
+        points(store, "dirCount", "/watched", 0L, start + 5 * MINUTE),
+        is(expected(start, 0, 1, i -> i * 100000L)));
+    assertThat(
+        points(store, "numFiles", "", 0L, Long.MAX_VALUE),
+        is(expected(start, 0, 11, i -> -5L + i)));
+    assertThat(points(store, "numFilesUsers", "nobody", 0L, Long.MAX_VALUE).isEmpty(), is(true));
+
+    // Stopping seals the open segment; everything is read back from mapped files.
+    store.stop();
+    store = new TimeSeriesStore();
+    store.start(conf);
+    assertThat(
+        points(store, "numFilesUsers", "user2", 0L, Long.MAX_VALUE),
+        is(expected(start, 6, 11, i -> (long) i)));
+    assertThat(
+        points(store, "numFiles", "", 0L, Long.MAX_VALUE),
+        is(expected(start, 0, 11, i -> -5L + i)));
+    store.stop();
+
+    // Segments past the retention are deleted on start.
+    conf.set("nna.timeseries.retention.days", "0");
+    store = new TimeSeriesStore();
+    store.start(conf);
+    assertThat(points(store, "numFiles", "", 0L, Long.MAX_VALUE).isEmpty(), is(true));
+    store.stop();
+  }
+
+  @Test
+  public void testJournalSurvivesCrash() throws IOException {
+    long start = System.currentTimeMillis() - 60 * MINUTE;
+    TimeSeriesStore crashed = new TimeSeriesStore();
+    crashed.start(conf);
+    for (int i = 0; i < 3; i++) {
+      crashed.record(
+          start + i * 5 * MINUTE,
+          Collections.singletonMap("numFiles", (long) i),
+          Collections.emptyMap());
+    }
+    // Never stopped, and the last report was torn half-way.
+    File journal = new File(conf.getBaseDir() + "/db/timeseries/open.ntj");
+    FileUtils.writeByteArrayToFile(journal, new byte[] {0, 0, 1, 2, 3, 4}, true);
+
+    TimeSeriesStore store = new TimeSeriesStore();
+    store.start(conf);
+    assertThat(
+        points(store, "numFiles", "", 0L, Long.MAX_VALUE), is(expected(start, 0, 2, i -> i)));
+    store.record(
+        start + 3 * 5 * MINUTE, Collections.singletonMap("numFiles", 3L), Collections.emptyMap());
+    store.stop();
+    assertThat(journal.exists(), is(false));
+
+    store = new TimeSeriesStore();
+    store.start(conf);
+    assertThat(
+        points(store, "numFiles", "", 0L, Long.MAX_VALUE), is(expected(start, 0, 3, i -> i)));
+    store.stop();
+  }
+
+  @Test
+  public void testJournalOnlyHoldsChanges() throws IOException {
+    conf.set("nna.timeseries.segment.ms", String.valueOf(60 * MINUTE));
+    long start = System.currentTimeMillis() - 60 * MINUTE;
+    TimeSeriesStore crashed = new TimeSeriesStore();
+    crashed.start(conf);
+    File journal = new File(conf.getBaseDir() + "/db/timeseries/open.ntj");
+    long firstReportBytes = 0L;
+    for (int i = 0; i < 10; i++) {
+      Map<String, Long> numFilesUsers = new HashMap<>();
+      for (int user = 0; user < 1000; user++) {
+        numFilesUsers.put("user" + user, 1000L + user);
+      }
+      numFilesUsers.put("user0", (long) i);
+      if (i >= 5) {
+        numFilesUsers.remove("user1");
+      }
+      crashed.record(
+          start + i * 5 * MINUTE,
+          Collections.emptyMap(),
+          Collections.singletonMap("numFilesUsers", numFilesUsers));
+      if (i == 0) {
+        firstReportBytes = journal.length();
+      }
+    }
+    // Unchanged series are not journaled again.
+    assertThat(journal.length(), is(lessThan(firstReportBytes + 9 * 32L)));
+
+    TimeSeriesStore store = new TimeSeriesStore();
+    store.start(conf);
+    assertThat(
+        points(store, "numFilesUsers", "user0", 0L, Long.MAX_VALUE),
+        is(expected(start, 0, 9, i -> i)));
+    assertThat(
+        points(store, "numFilesUsers", "user1", 0L, Long.MAX_VALUE),
+        is(expected(start, 0, 9, i -> (i < 5) ? 1001L : 0L)));
+    assertThat(
+        points(store, "numFilesUsers", "user999", 0L, Long.MAX_VALUE),
+        is(expected(start, 0, 9, i -> 1999L)));
+    store.stop();
+  }
+
+  private interface Value {
+    long of(int i);
+  }
+
+  private static List<List<Long>> expected(long start, int first, int last, Value value) {
+    List<List<Long>> points = new ArrayList<>();
+    for (int i = first; i <= last; i++) {
+      List<Long> point = new ArrayList<>();
+      point.add(start + i * 5 * MINUTE);
+      point.add(value.of(i));
+      points.add(point);
+    }
+    return points;
+  }
+
+  private static List<List<Long>> points(
+      TimeSeriesStore store, String metric, String user, long from, long to) throws IOException {
+    List<List<Long>> points = new ArrayList<>();
+    store.query(
+        metric,
+        user,
+        from,
+        to,
+        (time, value) -> {
+          List<Long> point = new ArrayList<>();
+          point.add(time);
+          point.add(value);
+          points.add(point);
+        });
+    return points;
+  }
+}
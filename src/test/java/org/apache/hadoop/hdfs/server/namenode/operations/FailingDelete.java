@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.apache.hadoop.hdfs.server.namenode.operations;
+
+import java.util.Collection;
+import org.apache.hadoop.hdfs.server.namenode.INode;
+
+/** Delete whose RPC fails with an unexpected exception on one entry of its work list. */
+public class FailingDelete extends Delete {
+
+  private final long failAt;
+
+  public FailingDelete(Collection<INode> toDelete, String logBaseDir, long failAt) {
+    super(toDelete, "query", "owner", logBaseDir, null);
+    this.failAt = failAt;
+  }
+
+  @Override
+  boolean operate(OperationWorkFile.Entry entry) {
+    if (entry.index == failAt) {
+      throw new NullPointerException("Failing entry: " + entry.index);
+    }
+    return super.operate(entry);
+  }
+}